@@ -85,4 +85,28 @@ public class ExecutionEngine
     {
         return new ExecutionResult(inner.execute(query, params));
     }
+
+    /**
+     * @return the number of queries whose execution plan was found in the plan cache
+     */
+    public long getPlanCacheHits()
+    {
+        return inner.planCacheHits();
+    }
+
+    /**
+     * @return the number of queries that had to be parsed and planned
+     */
+    public long getPlanCacheMisses()
+    {
+        return inner.planCacheMisses();
+    }
+
+    /**
+     * @return the number of execution plans pushed out of the plan cache to stay within its size
+     */
+    public long getPlanCacheEvictions()
+    {
+        return inner.planCacheEvictions();
+    }
 }
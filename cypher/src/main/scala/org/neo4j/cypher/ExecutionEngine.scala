@@ -35,15 +35,17 @@ class ExecutionEngine(graph: GraphDatabaseService) {
 
   val parser = createCorrectParser()
 
-  private def createCorrectParser() = if (graph.isInstanceOf[AbstractGraphDatabase]) {
+  private def createCorrectParser() = configValue("cypher_parser_version") match {
+    case None => new CypherParser()
+    case Some(v) => new CypherParser(v.toString)
+  }
+
+  private def configValue(key: String): Option[Any] = if (graph.isInstanceOf[AbstractGraphDatabase]) {
     val database = graph.asInstanceOf[AbstractGraphDatabase]
-    database.getConfig.getParams.asScala.get("cypher_parser_version") match {
-      case None => new CypherParser()
-      case Some(v) => new CypherParser(v.toString)
-    }
+    database.getConfig.getParams.asScala.get(key)
   }
   else {
-    new CypherParser()
+    None
   }
 
 
@@ -78,7 +80,16 @@ class ExecutionEngine(graph: GraphDatabaseService) {
     }
   }
 
-  private val cacheSize: Int = 100
-  private val executionPlanCache = new LRUCache[String, ExecutionPlan](cacheSize) {}
+  def planCacheHits: Long = executionPlanCache.hits
+
+  def planCacheMisses: Long = executionPlanCache.misses
+
+  def planCacheEvictions: Long = executionPlanCache.evictions
+
+  private val cacheSize: Int = configValue("cypher_plan_cache_size") match {
+    case None => 100
+    case Some(v) => v.toString.toInt
+  }
+  private val executionPlanCache = new LRUCache[String, ExecutionPlan](cacheSize)
 }
 
@@ -41,6 +41,7 @@ class ExecutionPlanImpl(query: Query, graph: GraphDatabaseService) extends Execu
     query match {
       case Query(returns, start, matching, where, aggregation, sort, slice, namedPaths, queryText) => {
         var sorted = false
+        var sliced = false
         var aggregated = false
         val predicates = where match {
           case None => Seq()
@@ -70,6 +71,7 @@ class ExecutionPlanImpl(query: Query, graph: GraphDatabaseService) extends Execu
         val allReturnItems = extractReturnItems(returns, aggregation)
 
         context.pipe = new ExtractPipe(context.pipe, allReturnItems)
+        paramPipe.slots = Some(new Slots(context.pipe.symbols))
 
         (aggregation, sort) match {
           case (Some(agg), Some(sorting)) => {
@@ -104,12 +106,12 @@ class ExecutionPlanImpl(query: Query, graph: GraphDatabaseService) extends Execu
         }
 
         if (!sorted) {
-          createSortPipe(sort, allReturnItems, context)
+          sliced = createSortPipe(sort, allReturnItems, context, slice)
         }
 
         slice match {
-          case None =>
-          case Some(x) => context.pipe = new SlicePipe(context.pipe, x.from, x.limit)
+          case Some(x) if !sliced => context.pipe = new SlicePipe(context.pipe, x.from, x.limit)
+          case _ =>
         }
 
         val returnItems = returns.returnItems ++ aggregation.getOrElse(new Aggregation()).aggregationItems
@@ -130,16 +132,30 @@ class ExecutionPlanImpl(query: Query, graph: GraphDatabaseService) extends Execu
     }
   }
 
-  private def createSortPipe(sort: Option[Sort], allReturnItems: Seq[ReturnItem], context: CurrentContext) {
+  /*
+   * Returns true if the slice was folded into the sort, so no SlicePipe is needed on top of it.
+   */
+  private def createSortPipe(sort: Option[Sort], allReturnItems: Seq[ReturnItem], context: CurrentContext,
+                             slice: Option[Slice] = None): Boolean = {
     sort match {
-      case None =>
+      case None => false
       case Some(s) => {
 
         val sortItems = s.sortItems.map(_.returnItem.concreteReturnItem).filterNot(allReturnItems contains)
         if (sortItems.nonEmpty) {
           context.pipe = new ExtractPipe(context.pipe, sortItems)
         }
-        context.pipe = new SortPipe(context.pipe, s.sortItems.toList)
+
+        slice match {
+          case Some(Slice(skip, Some(limit))) => {
+            context.pipe = new TopPipe(context.pipe, s.sortItems.toList, skip, limit)
+            true
+          }
+          case _ => {
+            context.pipe = new SortPipe(context.pipe, s.sortItems.toList)
+            false
+          }
+        }
       }
     }
   }
@@ -22,16 +22,71 @@ package org.neo4j.cypher.internal
 import java.util.LinkedHashMap
 import scala.math._
 import java.util.Map.Entry
+import java.util.concurrent.atomic.AtomicLong
 
-class LRUCache[K, V](cacheSize: Int) extends LinkedHashMap[K, V](ceil(cacheSize / 0.75f).asInstanceOf[Int] + 1, 0.75f, true) {
-  def getOrElseUpdate(key: K, f: => V) = if (containsKey(key)) {
-    get(key)
+/**
+ * A bounded, least-recently-used cache that is safe to share between threads.
+ * Values are computed outside of the lock, so a slow computation for one key
+ * never blocks lookups of other keys. Hits, misses and evictions are counted.
+ */
+class LRUCache[K, V](cacheSize: Int) {
+  require(cacheSize > 0, "Illegal cache size: " + cacheSize)
+
+  private val hitCount = new AtomicLong()
+  private val missCount = new AtomicLong()
+  private val evictionCount = new AtomicLong()
+
+  private val inner = new LinkedHashMap[K, V](ceil(cacheSize / 0.75f).asInstanceOf[Int] + 1, 0.75f, true) {
+    override def removeEldestEntry(p1: Entry[K, V]): Boolean = if (this.size() > cacheSize) {
+      evictionCount.incrementAndGet()
+      true
+    }
+    else {
+      false
+    }
   }
-  else {
-    val value = f
-    put(key, value)
-    value
+
+  def getOrElseUpdate(key: K, f: => V): V = lookup(key) match {
+    case Some(value) =>
+      hitCount.incrementAndGet()
+      value
+    case None =>
+      missCount.incrementAndGet()
+      val value = f
+      inner.synchronized {
+        // Another thread may have computed the same value in the meantime, keep the first one
+        lookup(key).getOrElse {
+          inner.put(key, value)
+          value
+        }
+      }
+  }
+
+  def get(key: K): V = inner.synchronized {
+    inner.get(key)
+  }
+
+  def put(key: K, value: V) {
+    inner.synchronized {
+      inner.put(key, value)
+    }
   }
 
-  override def removeEldestEntry(p1: Entry[K, V]): Boolean = size > cacheSize
-}
\ No newline at end of file
+  def containsKey(key: K): Boolean = inner.synchronized {
+    inner.containsKey(key)
+  }
+
+  def size: Int = inner.synchronized {
+    inner.size()
+  }
+
+  def hits: Long = hitCount.get()
+
+  def misses: Long = missCount.get()
+
+  def evictions: Long = evictionCount.get()
+
+  private def lookup(key: K): Option[V] = inner.synchronized {
+    if (inner.containsKey(key)) Some(inner.get(key)) else None
+  }
+}
@@ -32,7 +32,7 @@ abstract class InIterable(iterable: Expression, symbolName: String, inner: Predi
     }
 
     seqMethod(seq)(item => {
-      val innerMap = m ++ Map(symbolName -> item)
+      val innerMap = m + (symbolName -> item)
       inner.isMatch(innerMap)
     })
   }
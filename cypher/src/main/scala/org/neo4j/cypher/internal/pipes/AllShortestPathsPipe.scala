@@ -32,9 +32,9 @@ class AllShortestPathsPipe(source: Pipe, ast: ShortestPath) extends ShortestPath
     val foundPaths = finder.findAllPaths(start, end).asScala.toList
 
     (foundPaths, optional) match {
-      case (List(), true) => Seq(m ++ Map(pathName -> null))
+      case (List(), true) => Seq(m + (pathName -> null))
       case (List(), false) => Seq()
-      case (paths, _) => paths.map(path => m ++ Map(pathName -> path))
+      case (paths, _) => paths.map(path => m + (pathName -> path))
     }
   }
 
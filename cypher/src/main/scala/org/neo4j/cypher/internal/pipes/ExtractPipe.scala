@@ -39,8 +39,9 @@ class ExtractPipe(source: Pipe, val returnItems: Seq[ReturnItem]) extends PipeWi
 
   def createResults[U](params: Map[String, Any]): Traversable[Map[String, Any]] = {
     source.createResults(params).map(row => {
-      val projection: Map[String, Any] = returnItems.map( returnItem =>returnItem.columnName -> returnItem(row) ).toMap
-      projection ++ row
+      //Values already in the row win, so only the missing columns are computed and added
+      returnItems.foldLeft(row)((result, returnItem) =>
+        if (result.contains(returnItem.columnName)) result else result + (returnItem.columnName -> returnItem(row)))
     })
   }
 
@@ -23,8 +23,19 @@ import java.lang.String
 import org.neo4j.cypher.internal.symbols.{SymbolTable, Identifier}
 import org.neo4j.cypher.internal.commands.ParameterValue
 
+//A Stream, so that the pipes mapping, filtering and flat mapping over it only
+//produce their rows as the result is iterated
 class ParameterPipe() extends Pipe {
-  def createResults[U](params: Map[String, Any]): Traversable[Map[String, Any]] = Seq(params.map { case (k,v) => "-=PARAMETER=-"+k+"-=PARAMETER=-" -> ParameterValue(v) } )
+  //Set by the planner once it knows the identifiers of the rows, the rows then start out as slot rows
+  var slots: Option[Slots] = None
+
+  def createResults[U](params: Map[String, Any]): Traversable[Map[String, Any]] = {
+    val paramValues = params.map { case (k,v) => "-=PARAMETER=-"+k+"-=PARAMETER=-" -> ParameterValue(v) }
+    Stream(slots match {
+      case None => paramValues
+      case Some(s) => s.row(paramValues)
+    })
+  }
   val identifiers: Seq[Identifier] = Seq()
   val symbols: SymbolTable = new SymbolTable()
   override def executionPlan(): String = "Parameters()"
@@ -26,7 +26,8 @@ import org.neo4j.cypher.internal.symbols.SymbolTable
  * Pipe is a central part of Cypher. Most pipes are decorators - they
  * wrap another pipe. StartPipes are the only exception to this.
  * Pipes are combined to form an execution plan, and when iterated over,
- * the execute the query.
+ * the execute the query. Results are lazy where the pipe allows it, rows
+ * are only produced as the result is iterated.
  */
 trait Pipe {
   def createResults[U](params: Map[String, Any]): Traversable[Map[String, Any]]
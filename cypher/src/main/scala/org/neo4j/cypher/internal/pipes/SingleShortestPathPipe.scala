@@ -32,9 +32,9 @@ class SingleShortestPathPipe(source: Pipe, ast: ShortestPath) extends ShortestPa
     val findSinglePath = finder.findSinglePath(start, end)
 
     (findSinglePath, optional) match {
-      case (null, true) => Seq(m ++ Map(pathName -> null))
+      case (null, true) => Seq(m + (pathName -> null))
       case (null, false) => Seq()
-      case (path, _) => Seq(m ++ Map(pathName -> path))
+      case (path, _) => Seq(m + (pathName -> path))
     }
   }
 
@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher.internal.pipes
+
+import org.neo4j.cypher.internal.symbols.SymbolTable
+
+/**
+ * Gives every identifier of a symbol table a fixed slot, so that the rows of a query can keep their
+ * values in an array instead of in a map of their own. The planner assigns them from the symbols of
+ * the rows before they are aggregated or sorted.
+ */
+class Slots(symbols: SymbolTable) {
+  private val keys: Array[String] = symbols.keys.toArray
+  private val indexes: Map[String, Int] = keys.zipWithIndex.toMap
+
+  def size: Int = keys.length
+
+  def key(slot: Int): String = keys(slot)
+
+  def indexOf(key: String): Int = indexes.getOrElse(key, -1)
+
+  def row(values: Map[String, Any]): Map[String, Any] =
+    new SlotRow(this, Array.fill[Any](size)(SlotRow.Empty), Map()) ++ values
+}
+
+/**
+ * A row of a query, keeping the values of the identifiers with a slot in an array and the others, like
+ * the parameters, in a map. Adding a value copies the array instead of building a new map, and the row
+ * is still a Map for the pipes and the expressions reading it, and for the execution result.
+ */
+class SlotRow(slots: Slots, slotValues: Array[Any], others: Map[String, Any]) extends Map[String, Any] {
+  def get(key: String): Option[Any] = slots.indexOf(key) match {
+    case -1 => others.get(key)
+    case slot => if (isSet(slot)) Some(slotValues(slot)) else None
+  }
+
+  def +[B1 >: Any](kv: (String, B1)): Map[String, B1] = slots.indexOf(kv._1) match {
+    case -1 => new SlotRow(slots, slotValues, others + kv)
+    case slot => {
+      val copy = slotValues.clone()
+      copy(slot) = kv._2
+      new SlotRow(slots, copy, others)
+    }
+  }
+
+  def -(key: String): Map[String, Any] = slots.indexOf(key) match {
+    case -1 => new SlotRow(slots, slotValues, others - key)
+    case slot => {
+      val copy = slotValues.clone()
+      copy(slot) = SlotRow.Empty
+      new SlotRow(slots, copy, others)
+    }
+  }
+
+  def iterator: Iterator[(String, Any)] =
+    (0 until slotValues.length).iterator.filter(isSet).map(slot => slots.key(slot) -> slotValues(slot)) ++ others.iterator
+
+  private def isSet(slot: Int): Boolean = slotValues(slot).asInstanceOf[AnyRef] ne SlotRow.Empty
+}
+
+object SlotRow {
+  //The value of the slots not set, null being a value of its own
+  object Empty
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher.internal.pipes
+
+import org.neo4j.cypher.internal.commands.{Expression, SortItem}
+import java.lang.String
+import java.util.{Comparator, PriorityQueue}
+
+/**
+ * Sorts and slices in one go. Instead of sorting all rows, only the best skip + limit rows
+ * are kept in a bounded heap, where the worst of them is evicted when a better row comes along.
+ */
+class TopPipe(source: Pipe, sortDescription: List[SortItem], skip: Option[Expression], limit: Expression)
+  extends SortPipe(source, sortDescription) {
+
+  type Candidate = (Map[String, Any], Long)
+
+  override def createResults[U](params: Map[String, Any]): Traversable[Map[String, Any]] = {
+    val sourceTraversable = source.createResults(params)
+
+    if (sourceTraversable.isEmpty)
+      return Seq()
+
+    val first: Map[String, Any] = sourceTraversable.head
+
+    def asInt(v: Expression) = v(first).asInstanceOf[Int]
+
+    val start = skip.map(asInt).getOrElse(0)
+    val size = start + asInt(limit)
+
+    if (size <= 0)
+      return Seq()
+
+    val worstFirst = new PriorityQueue[Candidate](size, new Comparator[Candidate] {
+      def compare(a: Candidate, b: Candidate): Int = if (before(a, b)) 1 else if (before(b, a)) -1 else 0
+    })
+
+    var position = 0L
+    sourceTraversable.foreach(row => {
+      val candidate = (row, position)
+      position += 1
+
+      if (worstFirst.size < size) {
+        worstFirst.add(candidate)
+      } else if (before(candidate, worstFirst.peek())) {
+        worstFirst.poll()
+        worstFirst.add(candidate)
+      }
+    })
+
+    var top = List[Map[String, Any]]()
+    while (!worstFirst.isEmpty) {
+      top = worstFirst.poll()._1 :: top
+    }
+    top.drop(start)
+  }
+
+  /*
+   * Rows that sort equal keep the order they came in, just like the stable sort in SortPipe.
+   */
+  private def before(a: Candidate, b: Candidate): Boolean =
+    compareBy(a._1, b._1, sortDescription) || (!compareBy(b._1, a._1, sortDescription) && a._2 < b._2)
+
+  override def executionPlan(): String = {
+    val info = skip match {
+      case None => "Limit: " + limit.toString()
+      case Some(s) => "Skip: " + s.toString() + ", " + "Limit: " + limit.toString()
+    }
+    source.executionPlan() + "\r\nTop(" + sortDescription.mkString(",") + ", " + info + ")"
+  }
+}
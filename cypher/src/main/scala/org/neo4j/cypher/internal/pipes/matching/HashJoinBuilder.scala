@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher.internal.pipes.matching
+
+import org.neo4j.graphdb.{Relationship, Node}
+import org.neo4j.cypher.internal.commands.Predicate
+import org.neo4j.cypher.internal.symbols.RelationshipType
+import collection.Seq
+import collection.immutable.Map
+
+object HashJoinBuilder {
+  def canHandlePattern(patternGraph: PatternGraph): Boolean = findChain(patternGraph).nonEmpty
+
+  /*
+  Returns the first bound node and the pattern relationships leading from it to the other bound node, if the
+  pattern is nothing but a chain of at least two simple, mandatory relationships between two bound nodes.
+   */
+  def findChain(patternGraph: PatternGraph): Option[(PatternNode, Seq[PatternRelationship])] = {
+    val rels = patternGraph.patternRels.values.toSeq
+    val connectedNodes = patternGraph.patternNodes.values.filter(_.relationships.nonEmpty).toSeq
+    val boundNodes = patternGraph.boundElements.flatMap(key => patternGraph.patternNodes.get(key)).filter(_.relationships.nonEmpty)
+
+    val simplePattern = !(patternGraph.containsOptionalElements ||
+      patternGraph.bindings.identifiers.exists(_.typ == RelationshipType()) ||
+      rels.exists(r => r.isInstanceOf[VariableLengthPatternRelationship] || r.startNode == r.endNode) ||
+      connectedNodes.exists(_.relationships.size > 2))
+
+    if (!simplePattern || boundNodes.size != 2 || rels.size < 2 || rels.size != connectedNodes.size - 1) {
+      return None
+    }
+
+    val start = boundNodes.head
+    var chain = Seq[PatternRelationship]()
+    var current = start
+    var next = current.relationships.headOption
+
+    while (next.nonEmpty) {
+      val rel = next.get
+      chain = chain :+ rel
+      current = rel.getOtherNode(current)
+      next = current.relationships.find(r => !chain.contains(r))
+    }
+
+    if (current == boundNodes.last && chain.size == rels.size) Some((start, chain)) else None
+  }
+}
+
+/*
+Matches a chain of pattern relationships between two bound nodes without walking the whole chain from one side.
+Each bound node is expanded for about half of the chain, and the two halves are hash joined on the pattern node
+where they meet. The low degree side walks the extra step when the chain has an odd length.
+
+When one of the bound nodes has at most one relationship to follow, expanding from it is just as cheap, so
+those rows are left to the pattern matcher.
+ */
+class HashJoinBuilder(patternGraph: PatternGraph, predicates: Seq[Predicate], fallback: MatcherBuilder) extends MatcherBuilder {
+  type Partial = (Map[String, Any], List[Relationship])
+
+  val (start, chain) = HashJoinBuilder.findChain(patternGraph).get
+  val nodes: Seq[PatternNode] = chain.foldLeft(Seq(start))((path, rel) => path :+ rel.getOtherNode(path.last))
+
+  def getMatches(sourceRow: Map[String, Any]): Traversable[Map[String, Any]] = {
+    (sourceRow.get(start.key), sourceRow.get(nodes.last.key)) match {
+      case (Some(startNode: Node), Some(endNode: Node)) => {
+        val startDegree = chain.head.getGraphRelationships(start, startNode).size
+        val endDegree = chain.last.getGraphRelationships(nodes.last, endNode).size
+
+        if (startDegree <= 1 || endDegree <= 1) {
+          fallback.getMatches(sourceRow)
+        } else {
+          join(sourceRow, if (startDegree <= endDegree) (chain.size + 1) / 2 else chain.size / 2)
+        }
+      }
+      case _ => fallback.getMatches(sourceRow)
+    }
+  }
+
+  private def join(sourceRow: Map[String, Any], stepsFromStart: Int): Traversable[Map[String, Any]] = {
+    val meetingKey = nodes(stepsFromStart).key
+    val fromStart = expand(sourceRow, nodes.head, chain.take(stepsFromStart))
+    val fromEnd = expand(sourceRow, nodes.last, chain.drop(stepsFromStart).reverse)
+
+    val (build, probe) = if (fromStart.size <= fromEnd.size) (fromStart, fromEnd) else (fromEnd, fromStart)
+    val table = build.groupBy(partial => partial._1(meetingKey))
+
+    probe.flatMap {
+      case (probeRow, probeUsed) => table.getOrElse(probeRow(meetingKey), Seq()).flatMap {
+        case (buildRow, buildUsed) => if (probeUsed.exists(buildUsed.contains)) {
+          None
+        } else {
+          val row = buildRow ++ probeRow
+          if (isMatchSoFar(row)) Some(row) else None
+        }
+      }
+    }
+  }
+
+  private def expand(sourceRow: Map[String, Any], from: PatternNode, steps: Seq[PatternRelationship]): Seq[Partial] = {
+    var current = from
+    var partials: Seq[Partial] = Seq((sourceRow, List()))
+
+    steps.foreach(pRel => {
+      val pNode = current
+      val nextPNode = pRel.getOtherNode(pNode)
+
+      partials = partials.flatMap {
+        case (row, used) => {
+          val node = row(pNode.key).asInstanceOf[Node]
+
+          pRel.getGraphRelationships(pNode, node).flatMap {
+            case SingleGraphRelationship(rel) if !used.contains(rel) => {
+              val expanded = row + (pRel.key -> rel) + (nextPNode.key -> rel.getOtherNode(node))
+
+              if (pRel.predicate.isMatch(expanded) && isMatchSoFar(expanded)) Some((expanded, rel :: used)) else None
+            }
+            case _ => None
+          }
+        }
+      }
+
+      current = nextPNode
+    })
+
+    partials
+  }
+
+  private def isMatchSoFar(row: Map[String, Any]): Boolean = predicates.
+    filter(predicate => !predicate.containsIsNull && predicate.dependencies.map(_.name).forall(row contains)).
+    forall(_.isMatch(row))
+}
@@ -35,14 +35,25 @@ class History(source:Map[String,Any], seen: Set[MatchingPair]=Set()) {
     case VariableLengthGraphRelationship(p) => seen.exists(h => h.matches(p))
   }).toSeq
 
-  def add(pair: MatchingPair): History = new History(source, seen ++ Seq(pair))
-
-  def toMap: Map[String, Any] = source ++ seen.flatMap(_ match {
-      case MatchingPair(pe: PatternNode, entity: Node) => Seq(pe.key -> entity)
-      case MatchingPair(pe: PatternRelationship, entity: SingleGraphRelationship) => Seq(pe.key -> entity.rel)
-      case MatchingPair(pe: PatternRelationship, null) => Seq(pe.key -> null)
-      case MatchingPair(pe: VariableLengthPatternRelationship, entity: VariableLengthGraphRelationship) => Seq(pe.key -> entity.path) ++ relationshipIterable(pe, entity)
-  }).toMap
+  /*
+   * The matcher asks for the map of every history it creates, so it's built once per history, and
+   * from the parent's map instead of from scratch.
+   */
+  def add(pair: MatchingPair): History = {
+    val parent = this
+    new History(source, seen + pair) {
+      override lazy val toMap: Map[String, Any] = parent.toMap ++ parent.entries(pair)
+    }
+  }
+
+  lazy val toMap: Map[String, Any] = source ++ seen.flatMap(entries)
+
+  private def entries(pair: MatchingPair): Seq[(String, Any)] = pair match {
+    case MatchingPair(pe: PatternNode, entity: Node) => Seq(pe.key -> entity)
+    case MatchingPair(pe: PatternRelationship, entity: SingleGraphRelationship) => Seq(pe.key -> entity.rel)
+    case MatchingPair(pe: PatternRelationship, null) => Seq(pe.key -> null)
+    case MatchingPair(pe: VariableLengthPatternRelationship, entity: VariableLengthGraphRelationship) => Seq(pe.key -> entity.path) ++ relationshipIterable(pe, entity)
+  }
 
   private def relationshipIterable(pe: VariableLengthPatternRelationship, entity: VariableLengthGraphRelationship):Option[(String, Any)] = pe.relIterable match {
     case None => None
@@ -29,7 +29,8 @@ import org.neo4j.cypher.internal.commands._
  * This class is responsible for deciding how to get the parts of the pattern that are not already bound
  *
  * The deciding factor is whether or not the pattern has loops in it. If it does, we have to use the much more
- * expensive pattern matching. If it doesn't, we get away with much simpler methods
+ * expensive pattern matching. If it doesn't, we get away with much simpler methods. A chain between two bound
+ * nodes can be matched by hash joining what is found from each of them.
  */
 class MatchingContext(patterns: Seq[Pattern], boundIdentifiers: SymbolTable, predicates: Seq[Predicate] = Seq()) {
   val patternGraph = buildPatternGraph()
@@ -40,12 +41,14 @@ class MatchingContext(patterns: Seq[Pattern], boundIdentifiers: SymbolTable, pre
     builder.getMatches(sourceRow)
   }
 
-  private def decideWhichMatcherToUse() = {
-//    if (JoinerBuilder.canHandlePatter(patternGraph)) {
-//      new JoinerBuilder(patternGraph, predicates)
-//    } else {
-      new PatterMatchingBuilder(patternGraph, predicates)
-//    }
+  private def decideWhichMatcherToUse(): MatcherBuilder = {
+    val patternMatchingBuilder = new PatterMatchingBuilder(patternGraph, predicates)
+
+    if (HashJoinBuilder.canHandlePattern(patternGraph)) {
+      new HashJoinBuilder(patternGraph, predicates, patternMatchingBuilder)
+    } else {
+      patternMatchingBuilder
+    }
   }
 
   private def buildPatternGraph(): PatternGraph = {
@@ -20,6 +20,7 @@
 package org.neo4j.cypher
 
 import internal.commands._
+import internal.ExecutionPlanImpl
 import org.junit.Assert._
 import java.lang.String
 import scala.collection.JavaConverters._
@@ -548,6 +549,22 @@ class ExecutionEngineTest extends ExecutionEngineHelper {
     assertEquals(nodes.slice(2, 4).toList, result.columnAs[Node]("start").toList)
   }
 
+  @Test def shouldUseTopPipeWhenSortingWithLimit() {
+    val nodes = createNodes("E", "C", "A", "D", "B")
+
+    val query = Query.
+      start(NodeById("start", nodeIds: _*)).
+      orderBy(SortItem(ExpressionReturnItem(Property("start", "name")), false)).
+      limit(2).
+      returns(ExpressionReturnItem(Entity("start")))
+
+    val plan = new ExecutionPlanImpl(query, graph)
+    val result = plan.execute(Map())
+
+    assertTrue(plan.executionPlanText.contains("Top("))
+    assertEquals(List(nodes(0), nodes(3)), result.columnAs[Node]("start").toList)
+  }
+
   @Test def shouldSortOnAggregatedFunction() {
     val n1 = createNode(Map("name" -> "andres", "divison" -> "Sweden", "age" -> 33))
     val n2 = createNode(Map("name" -> "michael", "divison" -> "Germany", "age" -> 22))
@@ -1707,4 +1724,21 @@ RETURN x0.name?
       db.shutdown()
     }
   }
-}
\ No newline at end of file
+
+  @Test def shouldReuseExecutionPlansForRepeatedQueries() {
+    val db = new ImpermanentGraphDatabase(Map[String, String]("cypher_plan_cache_size" -> "1").asJava)
+    val engine = new ExecutionEngine(db)
+
+    try {
+      engine.execute("start n=node({id}) return n", Map("id" -> 0L))
+      engine.execute("start n=node({id}) return n", Map("id" -> 0L))
+      engine.execute("start n=node(0) return n")
+
+      assertEquals(2L, engine.planCacheMisses)
+      assertEquals(1L, engine.planCacheHits)
+      assertEquals(1L, engine.planCacheEvictions)
+    } finally {
+      db.shutdown()
+    }
+  }
+}
@@ -41,4 +41,15 @@ class ExecutionResultTest extends ExecutionEngineHelper with Assertions {
 
     assertTrue( "Columns did not apperar in the expected order: \n" + result.dumpToString(), pattern.matcher(result.dumpToString()).find() );
   }
+
+  @Test def rowsAreProducedWhileTheResultIsIterated() {
+    val c = createNodes("A", "B", "C").last
+
+    val result = parseAndExecute("start n=node(1,2,3) return n.name")
+    assert(result.next() === Map("n.name" -> "A"))
+
+    inTx(() => c.setProperty("name", "changed"))
+
+    assert(result.toList === List(Map("n.name" -> "B"), Map("n.name" -> "changed")))
+  }
 }
\ No newline at end of file
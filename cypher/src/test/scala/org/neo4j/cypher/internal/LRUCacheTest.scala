@@ -61,4 +61,28 @@ class LRUCacheTest extends Assertions {
 
     assertFalse( cache.containsKey("2") );
   }
-}
\ No newline at end of file
+
+  @Test def shouldOnlyComputeMissingValues() {
+    val cache = new LRUCache[String, String](5)
+    var computed = 0
+
+    cache.getOrElseUpdate("hello", { computed += 1; "world" })
+    val value = cache.getOrElseUpdate("hello", { computed += 1; "again" })
+
+    assert(value === "world")
+    assert(computed === 1)
+    assert(cache.hits === 1)
+    assert(cache.misses === 1)
+  }
+
+  @Test def shouldCountEvictions() {
+    val cache = new LRUCache[String, String](5)
+    fillWithOneToFive(cache)
+
+    cache.getOrElseUpdate("6", "6")
+    cache.getOrElseUpdate("7", "7")
+
+    assert(cache.size === 5)
+    assert(cache.evictions === 2)
+  }
+}
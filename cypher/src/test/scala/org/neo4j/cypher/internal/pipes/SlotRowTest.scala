@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher.internal.pipes
+
+import org.junit.Test
+import org.junit.Assert._
+import org.scalatest.junit.JUnitSuite
+import org.neo4j.cypher.internal.symbols.{AnyType, Identifier, SymbolTable}
+
+class SlotRowTest extends JUnitSuite {
+  val slots = new Slots(new SymbolTable(Identifier("a", AnyType()), Identifier("b", AnyType())))
+
+  @Test def readsWhatWasAdded() {
+    val row = slots.row(Map("a" -> 1, "x" -> "other"))
+
+    assertEquals(Some(1), row.get("a"))
+    assertEquals(None, row.get("b"))
+    assertEquals(Some("other"), row.get("x"))
+    assertFalse(row.contains("b"))
+  }
+
+  @Test def addingLeavesTheRowAsItWas() {
+    val row = slots.row(Map("a" -> 1))
+    val added = row + ("b" -> 2) + ("a" -> 3)
+
+    assertEquals(Map("a" -> 1), row)
+    assertEquals(Map("a" -> 3, "b" -> 2), added)
+  }
+
+  @Test def nullIsAValue() {
+    val row = slots.row(Map("a" -> null))
+
+    assertTrue(row.contains("a"))
+    assertEquals(Map("a" -> null), row)
+  }
+
+  @Test def removesValuesWithAndWithoutSlots() {
+    val row = slots.row(Map("a" -> 1, "b" -> 2, "x" -> 3))
+
+    assertEquals(Map("b" -> 2, "x" -> 3), row - "a")
+    assertEquals(Map("a" -> 1, "b" -> 2), row - "x")
+  }
+
+  @Test def equalsAndHashesLikeOtherMaps() {
+    val row = slots.row(Map("b" -> 2, "x" -> 3))
+    val map = Map("b" -> 2, "x" -> 3)
+
+    assertEquals(map, row)
+    assertEquals(row, map)
+    assertEquals(map.hashCode(), row.hashCode())
+  }
+}
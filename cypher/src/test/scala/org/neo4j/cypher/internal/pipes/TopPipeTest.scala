@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher.internal.pipes
+
+import org.junit.Test
+import org.junit.Assert._
+import org.scalatest.junit.JUnitSuite
+import org.neo4j.cypher.internal.commands.{Literal, Entity, ExpressionReturnItem, SortItem}
+
+class TopPipeTest extends JUnitSuite {
+  @Test def emptyInIsEmptyOut() {
+    val source = new FakePipe(List())
+    val topPipe = new TopPipe(source, sortOn("x", true), None, Literal(5))
+
+    assertEquals(List(), topPipe.createResults(Map()).toList)
+  }
+
+  @Test def keepsOnlyTheTopRows() {
+    val source = new FakePipe(List(5, 3, 8, 1, 9, 2).map(x => Map("x" -> x)))
+    val topPipe = new TopPipe(source, sortOn("x", false), None, Literal(3))
+
+    assertEquals(List(9, 8, 5).map(x => Map("x" -> x)), topPipe.createResults(Map()).toList)
+  }
+
+  @Test def skipsTheFirstRows() {
+    val source = new FakePipe(List(5, 3, 8, 1, 9, 2).map(x => Map("x" -> x)))
+    val topPipe = new TopPipe(source, sortOn("x", true), Some(Literal(2)), Literal(2))
+
+    assertEquals(List(3, 5).map(x => Map("x" -> x)), topPipe.createResults(Map()).toList)
+  }
+
+  @Test def limitLargerThanInputReturnsEverythingSorted() {
+    val source = new FakePipe(List(Map("x" -> "B"), Map("x" -> null), Map("x" -> "A")))
+    val topPipe = new TopPipe(source, sortOn("x", true), None, Literal(10))
+
+    assertEquals(List(Map("x" -> "A"), Map("x" -> "B"), Map("x" -> null)), topPipe.createResults(Map()).toList)
+  }
+
+  @Test def equalRowsKeepTheirOrder() {
+    val source = new FakePipe(List(
+      Map("x" -> 1, "y" -> "first"),
+      Map("x" -> 2, "y" -> "second"),
+      Map("x" -> 1, "y" -> "third"),
+      Map("x" -> 1, "y" -> "fourth")))
+    val topPipe = new TopPipe(source, sortOn("x", true), None, Literal(2))
+
+    assertEquals(List(
+      Map("x" -> 1, "y" -> "first"),
+      Map("x" -> 1, "y" -> "third")), topPipe.createResults(Map()).toList)
+  }
+
+  @Test def showsUpInTheExecutionPlan() {
+    val topPipe = new TopPipe(new FakePipe(List()), sortOn("x", true), None, Literal(10))
+
+    assertTrue(topPipe.executionPlan().contains("Top("))
+  }
+
+  private def sortOn(key: String, ascending: Boolean) = List(SortItem(ExpressionReturnItem(Entity(key)), ascending))
+}
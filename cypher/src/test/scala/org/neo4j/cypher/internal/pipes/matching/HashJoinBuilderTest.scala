@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher.internal.pipes.matching
+
+import org.neo4j.cypher.GraphDatabaseTestBase
+import org.scalatest.Assertions
+import org.junit.Test
+import org.neo4j.graphdb.Direction
+import org.neo4j.cypher.internal.symbols.{Identifier, NodeType, SymbolTable}
+import org.neo4j.cypher.internal.commands.True
+
+class HashJoinBuilderTest extends GraphDatabaseTestBase with Assertions {
+  @Test def findsTheSameMatchesAsThePatternMatcher() {
+    val patternGraph = createChain(Direction.OUTGOING, Direction.BOTH, Direction.INCOMING)
+    assert(HashJoinBuilder.canHandlePattern(patternGraph))
+
+    val a = createNode()
+    val b = createNode()
+    val x1 = createNode()
+    val x2 = createNode()
+    val x3 = createNode()
+    val y1 = createNode()
+    val y2 = createNode()
+    val y3 = createNode()
+
+    relate(a, x1)
+    relate(a, x2)
+    relate(a, x3)
+    relate(x1, y1)
+    relate(y1, x2)
+    relate(x1, y2)
+    relate(x3, y3)
+    relate(b, y1)
+    relate(b, y2)
+    relate(a, b)
+
+    val hashJoin = new HashJoinBuilder(patternGraph, Seq(True()), new PatterMatchingBuilder(patternGraph, Seq(True())))
+    val patternMatching = new PatterMatchingBuilder(patternGraph, Seq(True()))
+
+    val expected = patternMatching.getMatches(Map("a" -> a, "b" -> b)).toSet
+    assert(expected.size === 3)
+    assert(hashJoin.getMatches(Map("a" -> a, "b" -> b)).toSet === expected)
+  }
+
+  @Test def doesNotHandleSingleBoundNodes() {
+    val pA = new PatternNode("a")
+    val pB = new PatternNode("b")
+    val pC = new PatternNode("c")
+    val r1 = pA.relateTo("r1", pB, None, Direction.OUTGOING, false, True())
+    val r2 = pB.relateTo("r2", pC, None, Direction.OUTGOING, false, True())
+    val symbols = new SymbolTable(Identifier("a", NodeType()))
+
+    val patternGraph = new PatternGraph(Map("a" -> pA, "b" -> pB, "c" -> pC), Map("r1" -> r1, "r2" -> r2), symbols)
+
+    assert(!HashJoinBuilder.canHandlePattern(patternGraph))
+  }
+
+  private def createChain(dir1: Direction, dir2: Direction, dir3: Direction): PatternGraph = {
+    val pA = new PatternNode("a")
+    val pX = new PatternNode("x")
+    val pY = new PatternNode("y")
+    val pB = new PatternNode("b")
+    val r1 = pA.relateTo("r1", pX, None, dir1, false, True())
+    val r2 = pX.relateTo("r2", pY, None, dir2, false, True())
+    val r3 = pY.relateTo("r3", pB, None, dir3, false, True())
+    val symbols = new SymbolTable(Identifier("a", NodeType()), Identifier("b", NodeType()))
+
+    new PatternGraph(Map("a" -> pA, "x" -> pX, "y" -> pY, "b" -> pB), Map("r1" -> r1, "r2" -> r2, "r3" -> r3), symbols)
+  }
+}
@@ -22,13 +22,17 @@ package org.neo4j.graphalgo;
 import org.neo4j.graphalgo.impl.path.AStar;
 import org.neo4j.graphalgo.impl.path.AllPaths;
 import org.neo4j.graphalgo.impl.path.AllSimplePaths;
+import org.neo4j.graphalgo.impl.path.BidirectionalAStar;
+import org.neo4j.graphalgo.impl.path.ContractionHierarchy;
 import org.neo4j.graphalgo.impl.path.Dijkstra;
 import org.neo4j.graphalgo.impl.path.ShortestPath;
 import org.neo4j.graphalgo.impl.util.DoubleEvaluator;
+import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Path;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipExpander;
+import org.neo4j.tooling.GlobalGraphOperations;
 
 /**
  * Static factory methods for the recommended implementations of common
@@ -155,6 +159,31 @@ public abstract class GraphAlgoFactory
         return new AStar( expander, lengthEvaluator, estimateEvaluator );
     }
 
+    /**
+     * Returns an {@link PathFinder} which, like {@link #aStar(RelationshipExpander,
+     * CostEvaluator, EstimateEvaluator)}, finds the cheapest path between two
+     * nodes, but searches from both of them at the same time until the two
+     * searches meet. On bigger graphs it expands about half as many nodes.
+     * The estimate must be symmetric, i.e. estimating the cost from one node
+     * to another the same as the other way around, which a straight line
+     * distance is.
+     * 
+     * @see BidirectionalAStar
+     * @param expander the {@link RelationshipExpander} to use for expanding
+     * {@link Relationship}s for each {@link Node}.
+     * @param lengthEvaluator evaluator that can return the cost represented
+     * by each relationship the algorithm traverses.
+     * @param estimateEvaluator evaluator that returns an (optimistic)
+     * estimation of the cost to get from one node to another.
+     * @return an algorithm which finds the cheapest path between two nodes
+     * using a bidirectional A* algorithm.
+     */
+    public static PathFinder<WeightedPath> bidirectionalAStar( RelationshipExpander expander,
+            CostEvaluator<Double> lengthEvaluator, EstimateEvaluator<Double> estimateEvaluator )
+    {
+        return new BidirectionalAStar( expander, lengthEvaluator, estimateEvaluator );
+    }
+
     /**
      * Returns an {@link PathFinder} which uses the Dijkstra algorithm to find
      * the cheapest path between two nodes. The definition of "cheap" is the
@@ -198,4 +227,69 @@ public abstract class GraphAlgoFactory
     {
         return dijkstra( expander, new DoubleEvaluator( relationshipPropertyRepresentingCost ) );
     }
+    
+    /**
+     * Returns an {@link PathFinder} which, like {@link #dijkstra(RelationshipExpander,
+     * CostEvaluator)}, finds the cheapest path between two nodes, but searches
+     * from both of them at the same time until the two searches meet. On
+     * bigger graphs it expands about half as many nodes. Only one path is
+     * returned even if there are several equally cheap ones.
+     * 
+     * @see BidirectionalAStar
+     * @param expander the {@link RelationshipExpander} to use for expanding
+     * {@link Relationship}s for each {@link Node}.
+     * @param costEvaluator evaluator that can return the cost represented
+     * by each relationship the algorithm traverses.
+     * @return an algorithm which finds the cheapest path between two nodes
+     * using a bidirectional Dijkstra algorithm.
+     */
+    public static PathFinder<WeightedPath> bidirectionalDijkstra( RelationshipExpander expander,
+            CostEvaluator<Double> costEvaluator )
+    {
+        return new BidirectionalAStar( expander, costEvaluator );
+    }
+    
+    /**
+     * See {@link #bidirectionalDijkstra(RelationshipExpander, CostEvaluator)}.
+     * 
+     * Uses a cost evaluator which uses the supplied property key to
+     * represent the cost (values of type <bold>double</bold>). 
+     * 
+     * @param expander the {@link RelationshipExpander} to use for expanding
+     * {@link Relationship}s for each {@link Node}.
+     * @param relationshipPropertyRepresentingCost the property to represent cost
+     * on each relationship the algorithm traverses.
+     * @return an algorithm which finds the cheapest path between two nodes
+     * using a bidirectional Dijkstra algorithm.
+     */
+    public static PathFinder<WeightedPath> bidirectionalDijkstra( RelationshipExpander expander,
+            String relationshipPropertyRepresentingCost )
+    {
+        return bidirectionalDijkstra( expander, new DoubleEvaluator( relationshipPropertyRepresentingCost ) );
+    }
+    
+    /**
+     * Builds a {@link ContractionHierarchy} of all nodes in {@code graphDb},
+     * an index of shortcuts which finds the cheapest path between two nodes
+     * much faster than {@link #dijkstra(RelationshipExpander, CostEvaluator)}
+     * does. Building it goes through the whole graph, so it pays off for
+     * graphs which are queried a lot but seldom change. Small changes to the
+     * weights of relationships are applied to the hierarchy with
+     * {@link ContractionHierarchy#relationshipChanged(Relationship)}.
+     * 
+     * @see ContractionHierarchy
+     * @param graphDb the graph database to build the hierarchy of.
+     * @param expander the {@link RelationshipExpander} to use for expanding
+     * {@link Relationship}s for each {@link Node}.
+     * @param costEvaluator evaluator that can return the cost represented
+     * by each relationship the algorithm traverses.
+     * @return a contraction hierarchy, which is also a {@link PathFinder}
+     * finding the cheapest path between two nodes.
+     */
+    public static ContractionHierarchy contractionHierarchy( GraphDatabaseService graphDb,
+            RelationshipExpander expander, CostEvaluator<Double> costEvaluator )
+    {
+        return ContractionHierarchy.build( graphDb, GlobalGraphOperations.at( graphDb ).getAllNodes(), expander,
+                costEvaluator );
+    }
 }
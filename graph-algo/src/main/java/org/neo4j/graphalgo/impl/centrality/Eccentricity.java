@@ -90,6 +90,35 @@ public class Eccentricity<ShortestPathCostType> extends
     @Override
     public void processShortestPaths( Node node,
         SingleSourceShortestPath<ShortestPathCostType> singleSourceShortestPath )
+    {
+        ShortestPathCostType maximumDistance = calculateEccentricity( node,
+            singleSourceShortestPath );
+        if ( maximumDistance != null )
+        {
+            setCentralityForNode( node, maximumDistance );
+        }
+    }
+
+    /*
+     * The eccentricity of every node is calculated by one thread only, so it
+     * is just set in the result.
+     */
+    @Override
+    protected void mergeCentrality( Node node, ShortestPathCostType value )
+    {
+        setCentralityForNode( node, value );
+    }
+
+    /**
+     * Calculates the eccentricity of a node without storing it.
+     * @param node
+     * @param singleSourceShortestPath
+     *            Set up with the node as start node.
+     * @return The largest distance from the node, or null if there are no
+     *         nodes to measure it to.
+     */
+    ShortestPathCostType calculateEccentricity( Node node,
+        SingleSourceShortestPath<ShortestPathCostType> singleSourceShortestPath )
     {
         ShortestPathCostType maximumDistance = null;
         for ( Node targetNode : nodeSet )
@@ -102,9 +131,6 @@ public class Eccentricity<ShortestPathCostType> extends
                 maximumDistance = targetDistance;
             }
         }
-        if ( maximumDistance != null )
-        {
-            setCentralityForNode( node, maximumDistance );
-        }
+        return maximumDistance;
     }
 }
@@ -69,13 +69,36 @@ public class NetworkDiameter<ShortestPathCostType> extends
     public void processShortestPaths( Node node,
         SingleSourceShortestPath<ShortestPathCostType> singleSourceShortestPath )
     {
-        eccentricity.processShortestPaths( node, singleSourceShortestPath );
-        ShortestPathCostType centrality = eccentricity.getCentrality( node );
-        if ( diameter == null
-            || distanceComparator.compare( centrality, diameter ) > 0 )
+        ShortestPathCostType centrality = eccentricity.calculateEccentricity(
+            node, singleSourceShortestPath );
+        if ( centrality == null )
         {
-            diameter = centrality;
+            return;
         }
+        eccentricity.setCentralityForNode( node, centrality );
+        // Several threads may be calculating at the same time
+        synchronized ( this )
+        {
+            if ( diameter == null
+                || distanceComparator.compare( centrality, diameter ) > 0 )
+            {
+                diameter = centrality;
+            }
+        }
+    }
+
+    @Override
+    void startPartialCentralities()
+    {
+        super.startPartialCentralities();
+        eccentricity.startPartialCentralities();
+    }
+
+    @Override
+    void finishPartialCentralities()
+    {
+        super.finishPartialCentralities();
+        eccentricity.finishPartialCentralities();
     }
 
     @Override
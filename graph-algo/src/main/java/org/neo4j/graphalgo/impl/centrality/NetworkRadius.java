@@ -67,13 +67,36 @@ public class NetworkRadius<ShortestPathCostType> extends
     public void processShortestPaths( Node node,
         SingleSourceShortestPath<ShortestPathCostType> singleSourceShortestPath )
     {
-        eccentricity.processShortestPaths( node, singleSourceShortestPath );
-        ShortestPathCostType centrality = eccentricity.getCentrality( node );
-        if ( radius == null
-            || distanceComparator.compare( centrality, radius ) < 0 )
+        ShortestPathCostType centrality = eccentricity.calculateEccentricity(
+            node, singleSourceShortestPath );
+        if ( centrality == null )
         {
-            radius = centrality;
+            return;
         }
+        eccentricity.setCentralityForNode( node, centrality );
+        // Several threads may be calculating at the same time
+        synchronized ( this )
+        {
+            if ( radius == null
+                || distanceComparator.compare( centrality, radius ) < 0 )
+            {
+                radius = centrality;
+            }
+        }
+    }
+
+    @Override
+    void startPartialCentralities()
+    {
+        super.startPartialCentralities();
+        eccentricity.startPartialCentralities();
+    }
+
+    @Override
+    void finishPartialCentralities()
+    {
+        super.finishPartialCentralities();
+        eccentricity.finishPartialCentralities();
     }
 
     @Override
@@ -19,11 +19,20 @@
  */
 package org.neo4j.graphalgo.impl.centrality;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.neo4j.graphalgo.impl.shortestpath.SingleSourceShortestPath;
+import org.neo4j.graphalgo.impl.shortestpath.SingleSourceShortestPathFactory;
 import org.neo4j.graphdb.Node;
 
 /**
@@ -33,6 +42,13 @@ import org.neo4j.graphdb.Node;
  * instead of re-running it for each centrality measure. We do it by collecting
  * a number of {@link ShortestPathBasedCentrality} and then running the
  * {@link SingleSourceShortestPath} for every node.
+ * <p>
+ * Given a {@link SingleSourceShortestPathFactory} the start nodes are divided
+ * between several threads, each running an instance of the
+ * {@link SingleSourceShortestPath} of its own and adding to centrality values
+ * of its own. These are added together when the threads are done, giving the
+ * same results as on one thread except for rounding, since values get added
+ * in another order.
  * @complexity The sum of the complexities of the centrality measures to
  *             compute, except that all the n*A terms implode into one single
  *             n*A term.
@@ -48,6 +64,8 @@ public class ParallellCentralityCalculation<ShortestPathCostType>
     protected Set<Node> nodeSet;
     List<ShortestPathBasedCentrality<?,ShortestPathCostType>> calculations = new LinkedList<ShortestPathBasedCentrality<?,ShortestPathCostType>>();
     protected boolean doneCalculation = false;
+    protected SingleSourceShortestPathFactory<ShortestPathCostType> singleSourceShortestPathFactory;
+    protected int threads = 1;
 
     /**
      * Default constructor.
@@ -66,6 +84,49 @@ public class ParallellCentralityCalculation<ShortestPathCostType>
         this.nodeSet = nodeSet;
     }
 
+    /**
+     * Constructor calculating on as many threads as there are processors.
+     * @param singleSourceShortestPathFactory
+     *            Creates the underlying singleSourceShortestPath of each
+     *            thread.
+     * @param nodeSet
+     *            A set containing the nodes for which centrality values should
+     *            be computed.
+     */
+    public ParallellCentralityCalculation(
+        SingleSourceShortestPathFactory<ShortestPathCostType> singleSourceShortestPathFactory,
+        Set<Node> nodeSet )
+    {
+        this( singleSourceShortestPathFactory, nodeSet,
+            Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     * Constructor calculating on the given number of threads.
+     * @param singleSourceShortestPathFactory
+     *            Creates the underlying singleSourceShortestPath of each
+     *            thread.
+     * @param nodeSet
+     *            A set containing the nodes for which centrality values should
+     *            be computed.
+     * @param threads
+     *            The number of threads to calculate on.
+     */
+    public ParallellCentralityCalculation(
+        SingleSourceShortestPathFactory<ShortestPathCostType> singleSourceShortestPathFactory,
+        Set<Node> nodeSet, int threads )
+    {
+        this( singleSourceShortestPathFactory.newSingleSourceShortestPath(),
+            nodeSet );
+        if ( threads < 1 )
+        {
+            throw new IllegalArgumentException( "Need at least one thread, not "
+                + threads );
+        }
+        this.singleSourceShortestPathFactory = singleSourceShortestPathFactory;
+        this.threads = threads;
+    }
+
     /**
      * This adds a centrality measure to be included in the calculation.
      * @param shortestPathBasedCentrality
@@ -95,6 +156,11 @@ public class ParallellCentralityCalculation<ShortestPathCostType>
             return;
         }
         doneCalculation = true;
+        if ( singleSourceShortestPathFactory != null )
+        {
+            calculateOnThreads();
+            return;
+        }
         // For all nodes...
         for ( Node startNode : nodeSet )
         {
@@ -109,4 +175,103 @@ public class ParallellCentralityCalculation<ShortestPathCostType>
             }
         }
     }
+
+    private void calculateOnThreads()
+    {
+        final List<Node> startNodes = new ArrayList<Node>( nodeSet );
+        final AtomicInteger nextStartNode = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool( threads,
+            new ThreadFactory()
+            {
+                private int threadNumber;
+
+                public synchronized Thread newThread( Runnable runnable )
+                {
+                    Thread thread = new Thread( runnable,
+                        "Centrality calculation-" + threadNumber++ );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            } );
+        try
+        {
+            List<Future<Object>> workers = new ArrayList<Future<Object>>();
+            for ( int i = 0; i < threads; i++ )
+            {
+                workers.add( executor.submit( new Callable<Object>()
+                {
+                    public Object call()
+                    {
+                        calculatePart( startNodes, nextStartNode );
+                        return null;
+                    }
+                } ) );
+            }
+            for ( Future<Object> worker : workers )
+            {
+                awaitWorker( worker );
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * Takes start nodes one at a time until there are none left, so that the
+     * threads get about as much work each even if some nodes take longer.
+     */
+    private void calculatePart( List<Node> startNodes,
+        AtomicInteger nextStartNode )
+    {
+        SingleSourceShortestPath<ShortestPathCostType> singleSourceShortestPath = singleSourceShortestPathFactory
+            .newSingleSourceShortestPath();
+        for ( ShortestPathBasedCentrality<?,ShortestPathCostType> calculation : calculations )
+        {
+            calculation.startPartialCentralities();
+        }
+        for ( int i = nextStartNode.getAndIncrement(); i < startNodes.size(); i = nextStartNode
+            .getAndIncrement() )
+        {
+            Node startNode = startNodes.get( i );
+            singleSourceShortestPath.reset();
+            singleSourceShortestPath.setStartNode( startNode );
+            for ( ShortestPathBasedCentrality<?,ShortestPathCostType> calculation : calculations )
+            {
+                calculation.processShortestPaths( startNode,
+                    singleSourceShortestPath );
+            }
+        }
+        for ( ShortestPathBasedCentrality<?,ShortestPathCostType> calculation : calculations )
+        {
+            calculation.finishPartialCentralities();
+        }
+    }
+
+    private static void awaitWorker( Future<Object> worker )
+    {
+        try
+        {
+            worker.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(
+                "Interrupted while calculating centralities", e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof RuntimeException )
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            if ( e.getCause() instanceof Error )
+            {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException( e.getCause() );
+        }
+    }
 }
@@ -57,6 +57,11 @@ public abstract class ShortestPathBasedCentrality<CentralityType,ShortestPathCos
      * addCentralityToNode.
      */
     protected Map<Node,CentralityType> centralities = null;
+    /*
+     * Set for the threads of a parallel calculation, which add to centralities
+     * of their own, merged into the ones above when they are done.
+     */
+    private final ThreadLocal<Map<Node,CentralityType>> partialCentralities = new ThreadLocal<Map<Node,CentralityType>>();
 
     /**
      * Default constructor.
@@ -106,12 +111,13 @@ public abstract class ShortestPathBasedCentrality<CentralityType,ShortestPathCos
      */
     protected void addCentralityToNode( Node node, CentralityType value )
     {
-        CentralityType centrality = centralities.get( node );
+        Map<Node,CentralityType> target = getTargetCentralities();
+        CentralityType centrality = target.get( node );
         if ( centrality == null )
         {
             centrality = zeroValue;
         }
-        centralities.put( node, centralityAccumulator.addCosts( centrality,
+        target.put( node, centralityAccumulator.addCosts( centrality,
             value ) );
     }
 
@@ -123,7 +129,53 @@ public abstract class ShortestPathBasedCentrality<CentralityType,ShortestPathCos
      */
     protected void setCentralityForNode( Node node, CentralityType value )
     {
-        centralities.put( node, value );
+        getTargetCentralities().put( node, value );
+    }
+
+    private Map<Node,CentralityType> getTargetCentralities()
+    {
+        Map<Node,CentralityType> partial = partialCentralities.get();
+        return partial != null ? partial : centralities;
+    }
+
+    /**
+     * Has the centralities added and set by the calling thread kept apart from
+     * the ones of other threads, until
+     * {@link #finishPartialCentralities()} is called.
+     */
+    void startPartialCentralities()
+    {
+        partialCentralities.set( new HashMap<Node,CentralityType>() );
+    }
+
+    /**
+     * Merges the centralities of the calling thread into the result, see
+     * {@link #mergeCentrality(Node, Object)}.
+     */
+    void finishPartialCentralities()
+    {
+        Map<Node,CentralityType> partial = partialCentralities.get();
+        partialCentralities.remove();
+        synchronized ( this )
+        {
+            for ( Map.Entry<Node,CentralityType> entry : partial.entrySet() )
+            {
+                mergeCentrality( entry.getKey(), entry.getValue() );
+            }
+        }
+    }
+
+    /**
+     * Merges the value one thread of a parallel calculation came up with for
+     * a node into the result. By default values are added together, measures
+     * setting their values with {@link #setCentralityForNode(Node, Object)}
+     * should override this.
+     * @param node
+     * @param value
+     */
+    protected void mergeCentrality( Node node, CentralityType value )
+    {
+        addCentralityToNode( node, value );
     }
 
     /**
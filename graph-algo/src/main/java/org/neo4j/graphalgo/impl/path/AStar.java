@@ -20,21 +20,16 @@
 package org.neo4j.graphalgo.impl.path;
 
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
 
 import org.neo4j.graphalgo.CostEvaluator;
 import org.neo4j.graphalgo.EstimateEvaluator;
 import org.neo4j.graphalgo.PathFinder;
 import org.neo4j.graphalgo.WeightedPath;
 import org.neo4j.graphalgo.impl.util.PathImpl;
+import org.neo4j.graphalgo.impl.util.PrimitiveLongObjectMap;
+import org.neo4j.graphalgo.impl.util.PrimitiveLongPriorityQueue;
 import org.neo4j.graphalgo.impl.util.WeightedPathImpl;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
@@ -43,9 +38,12 @@ import org.neo4j.graphdb.Path;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipExpander;
 import org.neo4j.helpers.collection.PrefetchingIterator;
+import org.neo4j.kernel.impl.util.PrimitiveLongSet;
 
 public class AStar implements PathFinder<WeightedPath>
 {
+    private static final long NO_RELATIONSHIP = -1;
+    
     private final RelationshipExpander expander;
     private final CostEvaluator<Double> lengthEvaluator;
     private final EstimateEvaluator<Double> estimateEvaluator;
@@ -68,15 +66,15 @@ public class AStar implements PathFinder<WeightedPath>
             if ( node.equals( end ) )
             {
                 // Hit, return path
-                double weight = doer.score.get( node.getId() ).wayLength;
+                Data data = doer.score.get( node.getId() );
+                double weight = data.wayLength;
                 LinkedList<Relationship> rels = new LinkedList<Relationship>();
-                Relationship rel = graphDb.getRelationshipById( doer.cameFrom.get( node.getId() ) );
-                while ( rel != null )
+                while ( data.cameFrom != NO_RELATIONSHIP )
                 {
+                    Relationship rel = graphDb.getRelationshipById( data.cameFrom );
                     rels.addFirst( rel );
                     node = rel.getOtherNode( node );
-                    Long nextRelId = doer.cameFrom.get( node.getId() );
-                    rel = nextRelId == null ? null : graphDb.getRelationshipById( nextRelId );
+                    data = doer.score.get( node.getId() );
                 }
                 Path path = toPath( start, rels );
                 return new WeightedPathImpl( weight, path );
@@ -103,8 +101,15 @@ public class AStar implements PathFinder<WeightedPath>
     
     private static class Data
     {
+        private final Node node;
         private double wayLength; // acumulated cost to get here (g)
         private double estimate; // heuristic estimate of cost to reach end (h)
+        private long cameFrom = NO_RELATIONSHIP; // relationship to get here
+        
+        Data( Node node )
+        {
+            this.node = node;
+        }
         
         double getFscore()
         {
@@ -117,63 +122,31 @@ public class AStar implements PathFinder<WeightedPath>
         private final Node end;
         private Node lastNode;
         private boolean expand;
-        private final Set<Long> visitedNodes = new HashSet<Long>();
-        private final Set<Node> nextNodesSet = new HashSet<Node>();
-        private final TreeMap<Double, Collection<Node>> nextNodes =
-                new TreeMap<Double, Collection<Node>>();
-        private final Map<Long, Long> cameFrom = new HashMap<Long, Long>();
-        private final Map<Long, Data> score = new HashMap<Long, Data>();
+        private final PrimitiveLongSet visitedNodes = new PrimitiveLongSet();
+        private final PrimitiveLongPriorityQueue nextNodes = new PrimitiveLongPriorityQueue();
+        private final PrimitiveLongObjectMap<Data> score = new PrimitiveLongObjectMap<Data>();
         
         Doer( Node start, Node end )
         {
             this.end = end;
             
-            Data data = new Data();
+            Data data = new Data( start );
             data.wayLength = 0;
             data.estimate = estimateEvaluator.getCost( start, end );
-            addNext( start, data.getFscore() );
             this.score.put( start.getId(), data );
+            this.nextNodes.offer( start.getId(), data.getFscore() );
         }
         
-        private void addNext( Node node, double fscore )
-        {
-            Collection<Node> nodes = this.nextNodes.get( fscore );
-            if ( nodes == null )
-            {
-                nodes = new HashSet<Node>();
-                this.nextNodes.put( fscore, nodes );
-            }
-            nodes.add( node );
-            this.nextNodesSet.add( node );
-        }
-
         private Node popLowestScoreNode()
         {
-            Iterator<Map.Entry<Double, Collection<Node>>> itr =
-                    this.nextNodes.entrySet().iterator();
-            if ( !itr.hasNext() )
+            if ( this.nextNodes.isEmpty() )
             {
                 return null;
             }
             
-            Map.Entry<Double, Collection<Node>> entry = itr.next();
-            Node node = entry.getValue().isEmpty() ? null : entry.getValue().iterator().next();
-            if ( node == null )
-            {
-                return null;
-            }
-            
-            if ( node != null )
-            {
-                entry.getValue().remove( node );
-                this.nextNodesSet.remove( node );
-                if ( entry.getValue().isEmpty() )
-                {
-                    this.nextNodes.remove( entry.getKey() );
-                }
-                this.visitedNodes.add( node.getId() );
-            }
-            return node;
+            long nodeId = this.nextNodes.poll();
+            this.visitedNodes.add( nodeId );
+            return this.score.get( nodeId ).node;
         }
 
         @Override
@@ -196,37 +169,33 @@ public class AStar implements PathFinder<WeightedPath>
 
         private void expand()
         {
+            Data lastNodeData = this.score.get( this.lastNode.getId() );
             for ( Relationship rel : expander.expand( this.lastNode ) )
             {
                 Node node = rel.getOtherNode( this.lastNode );
-                if ( this.visitedNodes.contains( node.getId() ) )
+                long nodeId = node.getId();
+                if ( this.visitedNodes.contains( nodeId ) )
                 {
                     continue;
                 }
                 
-                Data lastNodeData = this.score.get( this.lastNode.getId() );
                 double tentativeGScore = lastNodeData.wayLength +
                         lengthEvaluator.getCost( rel, Direction.OUTGOING );
-                boolean isBetter = false;
-                double estimate = estimateEvaluator.getCost( node, this.end );
-                if ( !this.nextNodesSet.contains( node ) )
+                Data data = this.score.get( nodeId );
+                if ( data == null )
                 {
-                    addNext( node, estimate + tentativeGScore );
-                    isBetter = true;
+                    data = new Data( node );
+                    data.estimate = estimateEvaluator.getCost( node, this.end );
+                    this.score.put( nodeId, data );
                 }
-                else if ( tentativeGScore < this.score.get( node.getId() ).wayLength )
+                else if ( tentativeGScore >= data.wayLength )
                 {
-                    isBetter = true;
+                    continue;
                 }
                 
-                if ( isBetter )
-                {
-                    this.cameFrom.put( node.getId(), rel.getId() );
-                    Data data = new Data();
-                    data.wayLength = tentativeGScore;
-                    data.estimate = estimate;
-                    this.score.put( node.getId(), data );
-                }
+                data.wayLength = tentativeGScore;
+                data.cameFrom = rel.getId();
+                this.nextNodes.offer( nodeId, data.getFscore() );
             }
         }
     }
@@ -0,0 +1,274 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.path;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+
+import org.neo4j.graphalgo.CostEvaluator;
+import org.neo4j.graphalgo.EstimateEvaluator;
+import org.neo4j.graphalgo.PathFinder;
+import org.neo4j.graphalgo.WeightedPath;
+import org.neo4j.graphalgo.impl.util.PathImpl;
+import org.neo4j.graphalgo.impl.util.PrimitiveLongObjectMap;
+import org.neo4j.graphalgo.impl.util.PrimitiveLongPriorityQueue;
+import org.neo4j.graphalgo.impl.util.WeightedPathImpl;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipExpander;
+import org.neo4j.kernel.impl.util.PrimitiveLongSet;
+
+/**
+ * Finds the cheapest path between two nodes by searching from both of them
+ * at the same time, alternating side between each expanded node, until the
+ * two searches meet. Relationships are traversed in the specified directions
+ * from the start node and in the reverse direction from the end node, like
+ * in {@link ShortestPath}.
+ * 
+ * Without an {@link EstimateEvaluator} this is a bidirectional Dijkstra.
+ * With one, both sides are guided towards each other using the average of
+ * the estimates to the end node and from the start node, so the estimate
+ * has to be symmetric ({@code getCost(a, b)} equal to {@code getCost(b, a)})
+ * and, as for {@link AStar}, never overestimate the cost of a path. A
+ * straight line distance on a map is such an estimate.
+ * 
+ * The search stops as soon as the sum of the lowest priorities of both sides
+ * reaches the cost of the cheapest path found so far, at which point no
+ * cheaper path can remain. It will typically have expanded about half as
+ * many nodes as a one-directional search would have.
+ */
+public class BidirectionalAStar implements PathFinder<WeightedPath>
+{
+    private static final long NO_RELATIONSHIP = -1;
+    
+    private final RelationshipExpander expander;
+    private final CostEvaluator<Double> lengthEvaluator;
+    private final EstimateEvaluator<Double> estimateEvaluator;
+    
+    /**
+     * Constructs a bidirectional Dijkstra.
+     * @param expander the {@link RelationshipExpander} to use for deciding
+     * which relationships to expand for each {@link Node}.
+     * @param lengthEvaluator returns the cost of each relationship.
+     */
+    public BidirectionalAStar( RelationshipExpander expander, CostEvaluator<Double> lengthEvaluator )
+    {
+        this( expander, lengthEvaluator, null );
+    }
+    
+    /**
+     * Constructs a bidirectional A*.
+     * @param expander the {@link RelationshipExpander} to use for deciding
+     * which relationships to expand for each {@link Node}.
+     * @param lengthEvaluator returns the cost of each relationship.
+     * @param estimateEvaluator returns a symmetric estimate of the cost
+     * between two nodes, or {@code null} for none at all.
+     */
+    public BidirectionalAStar( RelationshipExpander expander, CostEvaluator<Double> lengthEvaluator,
+            EstimateEvaluator<Double> estimateEvaluator )
+    {
+        this.expander = expander;
+        this.lengthEvaluator = lengthEvaluator;
+        this.estimateEvaluator = estimateEvaluator;
+    }
+    
+    public WeightedPath findSinglePath( Node start, Node end )
+    {
+        if ( start.equals( end ) )
+        {
+            return new WeightedPathImpl( 0d, PathImpl.singular( start ) );
+        }
+        
+        Meeting meeting = new Meeting();
+        Side startSide = new Side( start, start, end, expander, 1 );
+        Side endSide = new Side( end, start, end, expander.reversed(), -1 );
+        while ( !startSide.isDone() && !endSide.isDone()
+                && startSide.lowestPriority() + endSide.lowestPriority() < meeting.weight )
+        {
+            startSide.expandNext( endSide, meeting );
+            if ( !endSide.isDone() )
+            {
+                endSide.expandNext( startSide, meeting );
+            }
+        }
+        if ( meeting.node == null )
+        {
+            return null;
+        }
+        
+        LinkedList<Relationship> rels = new LinkedList<Relationship>();
+        startSide.addPathTo( meeting.node, rels, true );
+        endSide.addPathTo( meeting.node, rels, false );
+        PathImpl.Builder builder = new PathImpl.Builder( start );
+        for ( Relationship rel : rels )
+        {
+            builder = builder.push( rel );
+        }
+        return new WeightedPathImpl( meeting.weight, builder.build() );
+    }
+    
+    public Iterable<WeightedPath> findAllPaths( Node start, Node end )
+    {
+        WeightedPath path = findSinglePath( start, end );
+        return path != null ? Arrays.asList( path ) : Collections.<WeightedPath>emptyList();
+    }
+    
+    // One instance per search, the cheapest path found so far
+    private static class Meeting
+    {
+        private Node node;
+        private double weight = Double.POSITIVE_INFINITY;
+    }
+    
+    // Many instances, one per reached node and side
+    private static class Data
+    {
+        private final Node node;
+        private final double potential;
+        private double wayLength = Double.POSITIVE_INFINITY;
+        private long cameFrom = NO_RELATIONSHIP;
+        
+        Data( Node node, double potential )
+        {
+            this.node = node;
+            this.potential = potential;
+        }
+    }
+    
+    // Two instances per search
+    private class Side
+    {
+        private final Node start;
+        private final Node end;
+        private final RelationshipExpander expander;
+        private final int sign;
+        private final PrimitiveLongSet visitedNodes = new PrimitiveLongSet();
+        private final PrimitiveLongPriorityQueue nextNodes = new PrimitiveLongPriorityQueue();
+        private final PrimitiveLongObjectMap<Data> reached = new PrimitiveLongObjectMap<Data>();
+        
+        /**
+         * @param sign 1 for the side searching from {@code start}, -1 for the
+         * side searching from {@code end}, which gives the two sides opposite
+         * potentials.
+         */
+        Side( Node from, Node start, Node end, RelationshipExpander expander, int sign )
+        {
+            this.start = start;
+            this.end = end;
+            this.expander = expander;
+            this.sign = sign;
+            Data data = dataFor( from );
+            data.wayLength = 0;
+            nextNodes.offer( from.getId(), data.potential );
+        }
+        
+        boolean isDone()
+        {
+            return nextNodes.isEmpty();
+        }
+        
+        double lowestPriority()
+        {
+            return nextNodes.peekPriority();
+        }
+        
+        void expandNext( Side otherSide, Meeting meeting )
+        {
+            long nodeId = nextNodes.poll();
+            visitedNodes.add( nodeId );
+            Data nodeData = reached.get( nodeId );
+            for ( Relationship rel : expander.expand( nodeData.node ) )
+            {
+                Node otherNode = rel.getOtherNode( nodeData.node );
+                long otherNodeId = otherNode.getId();
+                if ( visitedNodes.contains( otherNodeId ) )
+                {
+                    continue;
+                }
+                
+                double wayLength = nodeData.wayLength + lengthEvaluator.getCost( rel, Direction.OUTGOING );
+                Data data = dataFor( otherNode );
+                if ( wayLength >= data.wayLength )
+                {
+                    continue;
+                }
+                data.wayLength = wayLength;
+                data.cameFrom = rel.getId();
+                nextNodes.offer( otherNodeId, wayLength + data.potential );
+                
+                Data otherSideData = otherSide.reached.get( otherNodeId );
+                if ( otherSideData != null && wayLength + otherSideData.wayLength < meeting.weight )
+                {
+                    meeting.node = otherNode;
+                    meeting.weight = wayLength + otherSideData.wayLength;
+                }
+            }
+        }
+        
+        private Data dataFor( Node node )
+        {
+            Data data = reached.get( node.getId() );
+            if ( data == null )
+            {
+                data = new Data( node, sign * potential( node ) );
+                reached.put( node.getId(), data );
+            }
+            return data;
+        }
+        
+        // Half the difference of the estimates to the end and from the start,
+        // which keeps the potentials of the two sides consistent with each other
+        private double potential( Node node )
+        {
+            if ( estimateEvaluator == null )
+            {
+                return 0;
+            }
+            return ( estimateEvaluator.getCost( node, end ) - estimateEvaluator.getCost( node, start ) ) / 2;
+        }
+        
+        /**
+         * Adds the relationships between the node this side started from
+         * and {@code node}, either to the front of {@code rels} in reverse
+         * order or to the back of it.
+         */
+        void addPathTo( Node node, LinkedList<Relationship> rels, boolean addFirst )
+        {
+            GraphDatabaseService graphDb = node.getGraphDatabase();
+            Data data = reached.get( node.getId() );
+            while ( data.cameFrom != NO_RELATIONSHIP )
+            {
+                Relationship rel = graphDb.getRelationshipById( data.cameFrom );
+                if ( addFirst )
+                {
+                    rels.addFirst( rel );
+                }
+                else
+                {
+                    rels.addLast( rel );
+                }
+                data = reached.get( rel.getOtherNode( data.node ).getId() );
+            }
+        }
+    }
+}
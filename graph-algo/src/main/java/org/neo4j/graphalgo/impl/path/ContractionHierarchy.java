@@ -0,0 +1,1134 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.path;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.neo4j.graphalgo.CostEvaluator;
+import org.neo4j.graphalgo.PathFinder;
+import org.neo4j.graphalgo.WeightedPath;
+import org.neo4j.graphalgo.impl.util.PathImpl;
+import org.neo4j.graphalgo.impl.util.PrimitiveLongIntMap;
+import org.neo4j.graphalgo.impl.util.PrimitiveLongObjectMap;
+import org.neo4j.graphalgo.impl.util.PrimitiveLongPriorityQueue;
+import org.neo4j.graphalgo.impl.util.WeightedPathImpl;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipExpander;
+
+/**
+ * A contraction hierarchy, an index of shortcuts which answers repeated
+ * cheapest path queries on a mostly static graph by only looking at a small
+ * part of it.
+ * 
+ * The nodes are contracted one at a time, cheapest first. Contracting a node
+ * connects all its remaining neighbours with each other, so the cheapest path
+ * between any two nodes goes up in the hierarchy and then down again. A query
+ * is a bidirectional Dijkstra which only follows edges up from both ends,
+ * after which the shortcuts on the found path are unpacked into relationships.
+ * 
+ * Before a shortcut is added, a local Dijkstra search, bounded in the
+ * number of nodes it settles, looks for a witness: a path between the two
+ * neighbours not going through the contracted node, and at most as expensive
+ * as going through it. If there is one the shortcut isn't needed. The weights
+ * of the shortcuts are calculated afterwards, from the bottom of the
+ * hierarchy and up, as the cheapest way through each lower node the two ends
+ * are connected through. Because of that the weight of a relationship can
+ * change without the hierarchy having to be rebuilt, see
+ * {@link #relationshipChanged(Relationship)}, as long as the changes don't
+ * add up to more than the smallest margin by which a witness was cheaper
+ * than the shortcut it replaced. A hierarchy built without the witness
+ * search has more shortcuts, but can take any change in weights.
+ * Relationships between nodes which weren't connected when the hierarchy
+ * was built, or new nodes, require it to be rebuilt though.
+ * 
+ * A hierarchy can be written to a file, for instance next to the store, with
+ * {@link #writeTo(File)} and read back with {@link #readFrom(File,
+ * GraphDatabaseService, RelationshipExpander, CostEvaluator)}.
+ */
+public class ContractionHierarchy implements PathFinder<WeightedPath>
+{
+    private static final int NONE = -1;
+    private static final long NO_RELATIONSHIP = -1;
+    private static final int FORMAT_VERSION = 2;
+    
+    private final GraphDatabaseService graphDb;
+    private final RelationshipExpander expander;
+    private final CostEvaluator<Double> costEvaluator;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    // Nodes are numbered by rank, the order in which they were contracted
+    private final long[] nodeIds;
+    private final PrimitiveLongIntMap ranks;
+    
+    // The edges from a node to nodes of higher rank are firstEdge[rank]
+    // to firstEdge[rank+1]-1, sorted by target. Going "up" is from the
+    // source to the target, going "down" the other way.
+    private final int[] firstEdge;
+    private final int[] edgeSource;
+    private final int[] edgeTarget;
+    private final double[] relationshipWeightUp;
+    private final double[] relationshipWeightDown;
+    private final long[] relationshipUp;
+    private final long[] relationshipDown;
+    private final double[] weightUp;
+    private final double[] weightDown;
+    private final int[] middleUp;
+    private final int[] middleDown;
+    
+    // The edges from a node to nodes of lower rank are the edges in
+    // lowerEdges[firstLowerEdge[rank]] to lowerEdges[firstLowerEdge[rank+1]-1]
+    private final int[] firstLowerEdge;
+    private final int[] lowerEdges;
+    
+    // How much the weights of relationships may change in total before a
+    // shortcut left out because of a witness could be needed
+    private final double witnessSlack;
+    private double slackUsed;
+    
+    private ContractionHierarchy( GraphDatabaseService graphDb, RelationshipExpander expander,
+            CostEvaluator<Double> costEvaluator, long[] nodeIds, int[] firstEdge, int[] edgeTarget,
+            double[] relationshipWeightUp, double[] relationshipWeightDown, long[] relationshipUp,
+            long[] relationshipDown, double witnessSlack, double slackUsed )
+    {
+        this.graphDb = graphDb;
+        this.expander = expander;
+        this.costEvaluator = costEvaluator;
+        this.nodeIds = nodeIds;
+        this.firstEdge = firstEdge;
+        this.edgeTarget = edgeTarget;
+        this.relationshipWeightUp = relationshipWeightUp;
+        this.relationshipWeightDown = relationshipWeightDown;
+        this.relationshipUp = relationshipUp;
+        this.relationshipDown = relationshipDown;
+        this.witnessSlack = witnessSlack;
+        this.slackUsed = slackUsed;
+        
+        int nodeCount = nodeIds.length;
+        int edgeCount = edgeTarget.length;
+        this.ranks = new PrimitiveLongIntMap( nodeCount );
+        this.edgeSource = new int[edgeCount];
+        int[] lowerEdgeCounts = new int[nodeCount + 1];
+        for ( int rank = 0; rank < nodeCount; rank++ )
+        {
+            ranks.put( nodeIds[rank], rank );
+            for ( int edge = firstEdge[rank]; edge < firstEdge[rank + 1]; edge++ )
+            {
+                edgeSource[edge] = rank;
+                lowerEdgeCounts[edgeTarget[edge] + 1]++;
+            }
+        }
+        this.firstLowerEdge = new int[nodeCount + 1];
+        for ( int rank = 0; rank < nodeCount; rank++ )
+        {
+            firstLowerEdge[rank + 1] = firstLowerEdge[rank] + lowerEdgeCounts[rank + 1];
+        }
+        this.lowerEdges = new int[edgeCount];
+        int[] filled = new int[nodeCount];
+        for ( int edge = 0; edge < edgeCount; edge++ )
+        {
+            int target = edgeTarget[edge];
+            lowerEdges[firstLowerEdge[target] + filled[target]++] = edge;
+        }
+        
+        this.weightUp = new double[edgeCount];
+        this.weightDown = new double[edgeCount];
+        this.middleUp = new int[edgeCount];
+        this.middleDown = new int[edgeCount];
+        // Edges are ordered by source rank, which is the order the weights
+        // have to be calculated in
+        for ( int edge = 0; edge < edgeCount; edge++ )
+        {
+            calculateWeights( edge );
+        }
+    }
+    
+    /**
+     * Builds a contraction hierarchy of {@code nodes} and the relationships
+     * between them, leaving out the shortcuts there are witnesses for. This
+     * goes through all of them and is meant to be done once, up front.
+     * 
+     * @param graphDb the graph database the nodes are in.
+     * @param nodes the nodes to build the hierarchy of.
+     * @param expander the {@link RelationshipExpander} deciding which
+     * relationships can be traversed from each node.
+     * @param costEvaluator returns the cost of each relationship, which must
+     * never be negative.
+     * @return the contraction hierarchy.
+     */
+    public static ContractionHierarchy build( GraphDatabaseService graphDb, Iterable<Node> nodes,
+            RelationshipExpander expander, CostEvaluator<Double> costEvaluator )
+    {
+        return build( graphDb, nodes, expander, costEvaluator, true );
+    }
+    
+    /**
+     * Builds a contraction hierarchy of {@code nodes} and the relationships
+     * between them. This goes through all of them and is meant to be done
+     * once, up front.
+     * 
+     * @param graphDb the graph database the nodes are in.
+     * @param nodes the nodes to build the hierarchy of.
+     * @param expander the {@link RelationshipExpander} deciding which
+     * relationships can be traversed from each node.
+     * @param costEvaluator returns the cost of each relationship, which must
+     * never be negative.
+     * @param witnessSearch whether or not to leave out the shortcuts there
+     * are witnesses for. Without it the hierarchy has all shortcuts, which
+     * makes it bigger and slower to query, but lets the weights of its
+     * relationships change any amount.
+     * @return the contraction hierarchy.
+     */
+    public static ContractionHierarchy build( GraphDatabaseService graphDb, Iterable<Node> nodes,
+            RelationshipExpander expander, CostEvaluator<Double> costEvaluator, boolean witnessSearch )
+    {
+        return new Contraction( graphDb, nodes, expander, costEvaluator, witnessSearch ).contract();
+    }
+    
+    /**
+     * Reads a contraction hierarchy previously written with
+     * {@link #writeTo(File)}. The expander and cost evaluator should be
+     * the same as the ones it was built with.
+     * 
+     * @param file the file to read from.
+     * @param graphDb the graph database the hierarchy was built from.
+     * @param expander the {@link RelationshipExpander} it was built with.
+     * @param costEvaluator the cost evaluator it was built with.
+     * @return the contraction hierarchy.
+     * @throws IOException if the file couldn't be read.
+     */
+    public static ContractionHierarchy readFrom( File file, GraphDatabaseService graphDb,
+            RelationshipExpander expander, CostEvaluator<Double> costEvaluator ) throws IOException
+    {
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        try
+        {
+            int version = in.readInt();
+            if ( version != FORMAT_VERSION && version != 1 )
+            {
+                throw new IOException( "Unknown contraction hierarchy format " + version + " in " + file );
+            }
+            int nodeCount = in.readInt();
+            int edgeCount = in.readInt();
+            // Version 1 hierarchies were built without witness search
+            double witnessSlack = version == 1 ? Double.POSITIVE_INFINITY : in.readDouble();
+            double slackUsed = version == 1 ? 0 : in.readDouble();
+            long[] nodeIds = new long[nodeCount];
+            for ( int i = 0; i < nodeCount; i++ )
+            {
+                nodeIds[i] = in.readLong();
+            }
+            int[] firstEdge = new int[nodeCount + 1];
+            for ( int i = 0; i <= nodeCount; i++ )
+            {
+                firstEdge[i] = in.readInt();
+            }
+            int[] edgeTarget = new int[edgeCount];
+            double[] relationshipWeightUp = new double[edgeCount];
+            double[] relationshipWeightDown = new double[edgeCount];
+            long[] relationshipUp = new long[edgeCount];
+            long[] relationshipDown = new long[edgeCount];
+            for ( int i = 0; i < edgeCount; i++ )
+            {
+                edgeTarget[i] = in.readInt();
+                relationshipWeightUp[i] = in.readDouble();
+                relationshipWeightDown[i] = in.readDouble();
+                relationshipUp[i] = in.readLong();
+                relationshipDown[i] = in.readLong();
+            }
+            return new ContractionHierarchy( graphDb, expander, costEvaluator, nodeIds, firstEdge,
+                    edgeTarget, relationshipWeightUp, relationshipWeightDown, relationshipUp,
+                    relationshipDown, witnessSlack, slackUsed );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+    
+    /**
+     * Writes this hierarchy to a file, from which it can be read with
+     * {@link #readFrom(File, GraphDatabaseService, RelationshipExpander,
+     * CostEvaluator)}.
+     * 
+     * @param file the file to write to.
+     * @throws IOException if the file couldn't be written.
+     */
+    public void writeTo( File file ) throws IOException
+    {
+        lock.readLock().lock();
+        try
+        {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream( new FileOutputStream( file ) ) );
+            try
+            {
+                out.writeInt( FORMAT_VERSION );
+                out.writeInt( nodeIds.length );
+                out.writeInt( edgeTarget.length );
+                out.writeDouble( witnessSlack );
+                out.writeDouble( slackUsed );
+                for ( long nodeId : nodeIds )
+                {
+                    out.writeLong( nodeId );
+                }
+                for ( int edge : firstEdge )
+                {
+                    out.writeInt( edge );
+                }
+                for ( int i = 0; i < edgeTarget.length; i++ )
+                {
+                    out.writeInt( edgeTarget[i] );
+                    out.writeDouble( relationshipWeightUp[i] );
+                    out.writeDouble( relationshipWeightDown[i] );
+                    out.writeLong( relationshipUp[i] );
+                    out.writeLong( relationshipDown[i] );
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Updates the hierarchy after the cost of a relationship has changed, or
+     * after it has stopped or started being traversable by the expander, or
+     * has been deleted. Only the shortcuts the relationship is part of are
+     * recalculated.
+     * 
+     * @param relationship the relationship which has changed.
+     * @throws IllegalArgumentException if the relationship connects two nodes
+     * which weren't connected when the hierarchy was built, or if the weights
+     * have changed more than the shortcuts left out because of witnesses
+     * allow, in which case the hierarchy has to be rebuilt.
+     */
+    public void relationshipChanged( Relationship relationship )
+    {
+        lock.writeLock().lock();
+        try
+        {
+            int edge = edgeOf( relationship );
+            if ( edge == NONE )
+            {
+                return;
+            }
+            double weightUp = Double.POSITIVE_INFINITY;
+            double weightDown = Double.POSITIVE_INFINITY;
+            long up = NO_RELATIONSHIP;
+            long down = NO_RELATIONSHIP;
+            try
+            {
+                Node sourceNode = graphDb.getNodeById( nodeIds[edgeSource[edge]] );
+                Node targetNode = graphDb.getNodeById( nodeIds[edgeTarget[edge]] );
+                for ( Relationship rel : expander.expand( sourceNode ) )
+                {
+                    if ( rel.getOtherNode( sourceNode ).equals( targetNode ) )
+                    {
+                        double cost = costEvaluator.getCost( rel, Direction.OUTGOING );
+                        if ( cost < weightUp )
+                        {
+                            weightUp = cost;
+                            up = rel.getId();
+                        }
+                    }
+                }
+                for ( Relationship rel : expander.expand( targetNode ) )
+                {
+                    if ( rel.getOtherNode( targetNode ).equals( sourceNode ) )
+                    {
+                        double cost = costEvaluator.getCost( rel, Direction.OUTGOING );
+                        if ( cost < weightDown )
+                        {
+                            weightDown = cost;
+                            down = rel.getId();
+                        }
+                    }
+                }
+            }
+            catch ( NotFoundException e )
+            { // One of the nodes is deleted, and so are the relationships between them
+            }
+            
+            // No path changes more than the weights of its relationships do
+            double change = change( relationshipWeightUp[edge], weightUp ) +
+                    change( relationshipWeightDown[edge], weightDown );
+            if ( slackUsed + change > witnessSlack )
+            {
+                throw new IllegalArgumentException( relationship + " has changed more than the shortcuts " +
+                        "left out of the contraction hierarchy allow, it has to be rebuilt" );
+            }
+            slackUsed += change;
+            relationshipWeightUp[edge] = weightUp;
+            relationshipWeightDown[edge] = weightDown;
+            relationshipUp[edge] = up;
+            relationshipDown[edge] = down;
+            
+            // An edge is a side of the triangles which have its source as
+            // their lowest node, so a change propagates to the edges between
+            // the targets of those triangles. Lower sources first, since the
+            // weight of an edge depends on the edges of lower nodes.
+            PrimitiveLongPriorityQueue changed = new PrimitiveLongPriorityQueue();
+            changed.offer( edge, edgeSource[edge] );
+            while ( !changed.isEmpty() )
+            {
+                edge = (int) changed.poll();
+                if ( !calculateWeights( edge ) )
+                {
+                    continue;
+                }
+                int middle = edgeSource[edge];
+                for ( int other = firstEdge[middle]; other < firstEdge[middle + 1]; other++ )
+                {
+                    if ( other != edge )
+                    {
+                        int lower = Math.min( edgeTarget[edge], edgeTarget[other] );
+                        int higher = Math.max( edgeTarget[edge], edgeTarget[other] );
+                        int between = findEdge( lower, higher );
+                        if ( between != NONE )
+                        {
+                            changed.offer( between, lower );
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * @return the edge between the nodes of the relationship, or
+     * {@link #NONE} if it isn't between two nodes in the hierarchy.
+     */
+    private int edgeOf( Relationship relationship )
+    {
+        Node[] nodes;
+        try
+        {
+            nodes = relationship.getNodes();
+        }
+        catch ( NotFoundException e )
+        {
+            // A deleted relationship can't tell which nodes it connected,
+            // but if it was the cheapest one between them it's in the edge
+            long id = relationship.getId();
+            for ( int edge = 0; edge < edgeTarget.length; edge++ )
+            {
+                if ( relationshipUp[edge] == id || relationshipDown[edge] == id )
+                {
+                    return edge;
+                }
+            }
+            return NONE;
+        }
+        int first = ranks.get( nodes[0].getId(), NONE );
+        int second = ranks.get( nodes[1].getId(), NONE );
+        if ( first == NONE || second == NONE || first == second )
+        {
+            return NONE;
+        }
+        int edge = findEdge( Math.min( first, second ), Math.max( first, second ) );
+        if ( edge == NONE )
+        {
+            throw new IllegalArgumentException( relationship + " connects nodes which weren't " +
+                    "connected when the contraction hierarchy was built, it has to be rebuilt" );
+        }
+        return edge;
+    }
+    
+    private static double change( double before, double after )
+    {
+        // Infinite if the relationship started or stopped being traversable
+        return before == after ? 0 : Math.abs( after - before );
+    }
+    
+    public WeightedPath findSinglePath( Node start, Node end )
+    {
+        int startRank = ranks.get( start.getId(), NONE );
+        int endRank = ranks.get( end.getId(), NONE );
+        if ( startRank == NONE || endRank == NONE )
+        {
+            return null;
+        }
+        if ( startRank == endRank )
+        {
+            return new WeightedPathImpl( 0d, PathImpl.singular( start ) );
+        }
+        
+        LinkedList<Relationship> rels = new LinkedList<Relationship>();
+        double weight;
+        lock.readLock().lock();
+        try
+        {
+            Search up = new Search( startRank, true );
+            Search down = new Search( endRank, false );
+            Meeting meeting = new Meeting();
+            while ( !up.isDone( meeting ) || !down.isDone( meeting ) )
+            {
+                if ( !up.isDone( meeting ) )
+                {
+                    up.settleNext( down, meeting );
+                }
+                if ( !down.isDone( meeting ) )
+                {
+                    down.settleNext( up, meeting );
+                }
+            }
+            if ( meeting.rank == NONE )
+            {
+                return null;
+            }
+            weight = meeting.weight;
+            for ( int rank = meeting.rank; rank != startRank; )
+            {
+                int edge = up.reached.get( rank ).edge;
+                unpack( edge, true, rels, true );
+                rank = edgeSource[edge];
+            }
+            for ( int rank = meeting.rank; rank != endRank; )
+            {
+                int edge = down.reached.get( rank ).edge;
+                unpack( edge, false, rels, false );
+                rank = edgeSource[edge];
+            }
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+        
+        PathImpl.Builder builder = new PathImpl.Builder( start );
+        for ( Relationship rel : rels )
+        {
+            builder = builder.push( rel );
+        }
+        return new WeightedPathImpl( weight, builder.build() );
+    }
+    
+    public Iterable<WeightedPath> findAllPaths( Node start, Node end )
+    {
+        WeightedPath path = findSinglePath( start, end );
+        return path != null ? Arrays.asList( path ) : Collections.<WeightedPath>emptyList();
+    }
+    
+    /**
+     * Calculates the weights of an edge from the relationships between its
+     * nodes and the ways through the lower nodes they're both connected to.
+     * 
+     * @return whether or not any of the weights changed.
+     */
+    private boolean calculateWeights( int edge )
+    {
+        int source = edgeSource[edge];
+        int target = edgeTarget[edge];
+        double up = relationshipWeightUp[edge];
+        double down = relationshipWeightDown[edge];
+        int upThrough = NONE;
+        int downThrough = NONE;
+        for ( int i = firstLowerEdge[source]; i < firstLowerEdge[source + 1]; i++ )
+        {
+            int toSource = lowerEdges[i];
+            int middle = edgeSource[toSource];
+            int toTarget = findEdge( middle, target );
+            if ( toTarget == NONE )
+            {
+                continue;
+            }
+            if ( weightDown[toSource] + weightUp[toTarget] < up )
+            {
+                up = weightDown[toSource] + weightUp[toTarget];
+                upThrough = middle;
+            }
+            if ( weightDown[toTarget] + weightUp[toSource] < down )
+            {
+                down = weightDown[toTarget] + weightUp[toSource];
+                downThrough = middle;
+            }
+        }
+        boolean changed = up != weightUp[edge] || down != weightDown[edge];
+        weightUp[edge] = up;
+        weightDown[edge] = down;
+        middleUp[edge] = upThrough;
+        middleDown[edge] = downThrough;
+        return changed;
+    }
+    
+    private int findEdge( int source, int target )
+    {
+        int index = Arrays.binarySearch( edgeTarget, firstEdge[source], firstEdge[source + 1], target );
+        return index >= 0 ? index : NONE;
+    }
+    
+    /**
+     * Adds the relationships an edge is a shortcut for to {@code rels},
+     * either in front of the ones already there or after them.
+     */
+    private void unpack( int edge, boolean up, LinkedList<Relationship> rels, boolean addFirst )
+    {
+        List<Long> relIds = new ArrayList<Long>();
+        Deque<Integer> toUnpack = new ArrayDeque<Integer>();
+        toUnpack.push( edge * 2 + ( up ? 1 : 0 ) );
+        while ( !toUnpack.isEmpty() )
+        {
+            int next = toUnpack.pop();
+            edge = next / 2;
+            up = next % 2 == 1;
+            int middle = up ? middleUp[edge] : middleDown[edge];
+            if ( middle == NONE )
+            {
+                relIds.add( up ? relationshipUp[edge] : relationshipDown[edge] );
+                continue;
+            }
+            int toSource = findEdge( middle, edgeSource[edge] );
+            int toTarget = findEdge( middle, edgeTarget[edge] );
+            // Pushed in reverse, so that the first half is unpacked first
+            if ( up )
+            {
+                toUnpack.push( toTarget * 2 + 1 );
+                toUnpack.push( toSource * 2 );
+            }
+            else
+            {
+                toUnpack.push( toSource * 2 + 1 );
+                toUnpack.push( toTarget * 2 );
+            }
+        }
+        if ( addFirst )
+        {
+            Collections.reverse( relIds );
+        }
+        for ( long relId : relIds )
+        {
+            Relationship rel = graphDb.getRelationshipById( relId );
+            if ( addFirst )
+            {
+                rels.addFirst( rel );
+            }
+            else
+            {
+                rels.addLast( rel );
+            }
+        }
+    }
+    
+    // One instance per query, the cheapest way between the two searches found so far
+    private static class Meeting
+    {
+        private int rank = NONE;
+        private double weight = Double.POSITIVE_INFINITY;
+    }
+    
+    // Many instances, one per reached node and search
+    private static class Reached
+    {
+        private double weight;
+        private int edge = NONE;
+    }
+    
+    // Two instances per query, one going up from the start node along the
+    // edges and one going up from the end node against them
+    private class Search
+    {
+        private final boolean forward;
+        private final PrimitiveLongPriorityQueue queue = new PrimitiveLongPriorityQueue();
+        private final PrimitiveLongObjectMap<Reached> reached = new PrimitiveLongObjectMap<Reached>();
+        
+        Search( int rank, boolean forward )
+        {
+            this.forward = forward;
+            reached.put( rank, new Reached() );
+            queue.offer( rank, 0d );
+        }
+        
+        // Nothing left which can lead to a cheaper meeting
+        boolean isDone( Meeting meeting )
+        {
+            return queue.isEmpty() || queue.peekPriority() >= meeting.weight;
+        }
+        
+        void settleNext( Search other, Meeting meeting )
+        {
+            int rank = (int) queue.poll();
+            double weight = reached.get( rank ).weight;
+            for ( int edge = firstEdge[rank]; edge < firstEdge[rank + 1]; edge++ )
+            {
+                double edgeWeight = forward ? weightUp[edge] : weightDown[edge];
+                if ( edgeWeight == Double.POSITIVE_INFINITY )
+                {
+                    continue;
+                }
+                int target = edgeTarget[edge];
+                Reached targetReached = reached.get( target );
+                if ( targetReached == null )
+                {
+                    targetReached = new Reached();
+                    reached.put( target, targetReached );
+                }
+                else if ( weight + edgeWeight >= targetReached.weight )
+                {
+                    continue;
+                }
+                targetReached.weight = weight + edgeWeight;
+                targetReached.edge = edge;
+                queue.offer( target, targetReached.weight );
+                
+                Reached otherReached = other.reached.get( target );
+                if ( otherReached != null && targetReached.weight + otherReached.weight < meeting.weight )
+                {
+                    meeting.rank = target;
+                    meeting.weight = targetReached.weight + otherReached.weight;
+                }
+            }
+        }
+    }
+    
+    // Build time only, a node waiting to be contracted
+    private static class Candidate implements Comparable<Candidate>
+    {
+        private final int node;
+        private final int priority;
+        
+        Candidate( int node, int priority )
+        {
+            this.node = node;
+            this.priority = priority;
+        }
+        
+        public int compareTo( Candidate o )
+        {
+            return priority < o.priority ? -1 : priority == o.priority ? 0 : 1;
+        }
+    }
+    
+    // Build time only. The nodes still to be contracted are connected by
+    // shortcuts, numbered in the order they're added, with their properties
+    // in arrays indexed by that number. A shortcut goes between its first and
+    // second node, and has a weight and relationship from each of them.
+    private static class Contraction
+    {
+        private static final int WITNESS_SEARCH_LIMIT = 64;
+        
+        private final GraphDatabaseService graphDb;
+        private final RelationshipExpander expander;
+        private final CostEvaluator<Double> costEvaluator;
+        private final boolean witnessSearch;
+        private final PrimitiveLongIntMap indexes = new PrimitiveLongIntMap();
+        private long[] nodeIds = new long[16];
+        private int nodeCount;
+        
+        private int shortcutCount;
+        private int[] shortcutFirst = new int[16];
+        private int[] shortcutSecond = new int[16];
+        private double[] relationshipWeightFromFirst = new double[16];
+        private double[] relationshipWeightFromSecond = new double[16];
+        private long[] relationshipFromFirst = new long[16];
+        private long[] relationshipFromSecond = new long[16];
+        // The cheapest way found so far, also through contracted nodes
+        private double[] weightFromFirst = new double[16];
+        private double[] weightFromSecond = new double[16];
+        private final PrimitiveLongIntMap shortcutsBetween = new PrimitiveLongIntMap();
+        
+        // The shortcuts of a node to nodes not contracted yet are the first
+        // shortcutCounts[node] ones in shortcuts[node]. When it's contracted
+        // they're moved to higherShortcuts[node].
+        private int[][] shortcuts;
+        private int[] shortcutCounts;
+        private int[][] higherShortcuts;
+        private int[] ranks;
+        
+        // Reused by each witness search, all infinite between searches
+        private double[] distances;
+        private int[] reached = new int[16];
+        private int reachedCount;
+        private final PrimitiveLongPriorityQueue queue = new PrimitiveLongPriorityQueue();
+        private double witnessSlack = Double.POSITIVE_INFINITY;
+        
+        Contraction( GraphDatabaseService graphDb, Iterable<Node> nodes, RelationshipExpander expander,
+                CostEvaluator<Double> costEvaluator, boolean witnessSearch )
+        {
+            this.graphDb = graphDb;
+            this.expander = expander;
+            this.costEvaluator = costEvaluator;
+            this.witnessSearch = witnessSearch;
+            for ( Node node : nodes )
+            {
+                if ( nodeCount == nodeIds.length )
+                {
+                    nodeIds = Arrays.copyOf( nodeIds, nodeCount * 2 );
+                }
+                indexes.put( node.getId(), nodeCount );
+                nodeIds[nodeCount++] = node.getId();
+            }
+            shortcuts = new int[nodeCount][];
+            shortcutCounts = new int[nodeCount];
+            higherShortcuts = new int[nodeCount][];
+            distances = new double[nodeCount];
+            Arrays.fill( distances, Double.POSITIVE_INFINITY );
+        }
+        
+        ContractionHierarchy contract()
+        {
+            addRelationships();
+            PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>();
+            for ( int node = 0; node < nodeCount; node++ )
+            {
+                candidates.add( new Candidate( node, priority( node ) ) );
+            }
+            ranks = new int[nodeCount];
+            int[] nodesByRank = new int[nodeCount];
+            int rank = 0;
+            while ( !candidates.isEmpty() )
+            {
+                Candidate candidate = candidates.poll();
+                // Priorities are updated lazily, a candidate which has become
+                // more expensive than the next one goes back into the queue
+                int priority = priority( candidate.node );
+                if ( priority > candidate.priority && !candidates.isEmpty()
+                        && priority > candidates.peek().priority )
+                {
+                    candidates.add( new Candidate( candidate.node, priority ) );
+                    continue;
+                }
+                contract( candidate.node );
+                ranks[candidate.node] = rank;
+                nodesByRank[rank++] = candidate.node;
+            }
+            return toHierarchy( nodesByRank );
+        }
+        
+        private void addRelationships()
+        {
+            for ( int node = 0; node < nodeCount; node++ )
+            {
+                Node graphNode = graphDb.getNodeById( nodeIds[node] );
+                for ( Relationship rel : expander.expand( graphNode ) )
+                {
+                    int other = indexes.get( rel.getOtherNode( graphNode ).getId(), NONE );
+                    if ( other == NONE || other == node )
+                    {
+                        continue;
+                    }
+                    int shortcut = connect( node, other );
+                    double cost = costEvaluator.getCost( rel, Direction.OUTGOING );
+                    if ( shortcutFirst[shortcut] == node && cost < relationshipWeightFromFirst[shortcut] )
+                    {
+                        relationshipWeightFromFirst[shortcut] = weightFromFirst[shortcut] = cost;
+                        relationshipFromFirst[shortcut] = rel.getId();
+                    }
+                    else if ( shortcutSecond[shortcut] == node && cost < relationshipWeightFromSecond[shortcut] )
+                    {
+                        relationshipWeightFromSecond[shortcut] = weightFromSecond[shortcut] = cost;
+                        relationshipFromSecond[shortcut] = rel.getId();
+                    }
+                }
+            }
+        }
+        
+        private static long pair( int node, int other )
+        {
+            return ( (long) Math.min( node, other ) << 32 ) | Math.max( node, other );
+        }
+        
+        private int connect( int node, int other )
+        {
+            int shortcut = shortcutsBetween.get( pair( node, other ), NONE );
+            if ( shortcut != NONE )
+            {
+                return shortcut;
+            }
+            if ( shortcutCount == shortcutFirst.length )
+            {
+                growShortcuts();
+            }
+            shortcut = shortcutCount++;
+            shortcutFirst[shortcut] = node;
+            shortcutSecond[shortcut] = other;
+            relationshipWeightFromFirst[shortcut] = relationshipWeightFromSecond[shortcut] =
+                    weightFromFirst[shortcut] = weightFromSecond[shortcut] = Double.POSITIVE_INFINITY;
+            relationshipFromFirst[shortcut] = relationshipFromSecond[shortcut] = NO_RELATIONSHIP;
+            shortcutsBetween.put( pair( node, other ), shortcut );
+            addShortcut( node, shortcut );
+            addShortcut( other, shortcut );
+            return shortcut;
+        }
+        
+        private void growShortcuts()
+        {
+            int length = shortcutFirst.length * 2;
+            shortcutFirst = Arrays.copyOf( shortcutFirst, length );
+            shortcutSecond = Arrays.copyOf( shortcutSecond, length );
+            relationshipWeightFromFirst = Arrays.copyOf( relationshipWeightFromFirst, length );
+            relationshipWeightFromSecond = Arrays.copyOf( relationshipWeightFromSecond, length );
+            relationshipFromFirst = Arrays.copyOf( relationshipFromFirst, length );
+            relationshipFromSecond = Arrays.copyOf( relationshipFromSecond, length );
+            weightFromFirst = Arrays.copyOf( weightFromFirst, length );
+            weightFromSecond = Arrays.copyOf( weightFromSecond, length );
+        }
+        
+        private void addShortcut( int node, int shortcut )
+        {
+            int[] nodeShortcuts = shortcuts[node];
+            if ( nodeShortcuts == null )
+            {
+                nodeShortcuts = shortcuts[node] = new int[4];
+            }
+            else if ( shortcutCounts[node] == nodeShortcuts.length )
+            {
+                nodeShortcuts = shortcuts[node] = Arrays.copyOf( nodeShortcuts, nodeShortcuts.length * 2 );
+            }
+            nodeShortcuts[shortcutCounts[node]++] = shortcut;
+        }
+        
+        private void removeShortcut( int node, int shortcut )
+        {
+            int[] nodeShortcuts = shortcuts[node];
+            for ( int i = 0; i < shortcutCounts[node]; i++ )
+            {
+                if ( nodeShortcuts[i] == shortcut )
+                {
+                    nodeShortcuts[i] = nodeShortcuts[--shortcutCounts[node]];
+                    return;
+                }
+            }
+        }
+        
+        private int other( int shortcut, int node )
+        {
+            return shortcutFirst[shortcut] == node ? shortcutSecond[shortcut] : shortcutFirst[shortcut];
+        }
+        
+        private double weightFrom( int shortcut, int node )
+        {
+            return shortcutFirst[shortcut] == node ? weightFromFirst[shortcut] : weightFromSecond[shortcut];
+        }
+        
+        private void lowerWeightFrom( int shortcut, int node, double weight )
+        {
+            if ( shortcutFirst[shortcut] == node )
+            {
+                weightFromFirst[shortcut] = Math.min( weightFromFirst[shortcut], weight );
+            }
+            else
+            {
+                weightFromSecond[shortcut] = Math.min( weightFromSecond[shortcut], weight );
+            }
+        }
+        
+        // The number of shortcuts contracting the node would add, at most,
+        // minus the number of edges it would remove
+        private int priority( int node )
+        {
+            int[] nodeShortcuts = shortcuts[node];
+            int count = shortcutCounts[node];
+            int added = 0;
+            for ( int i = 0; i < count; i++ )
+            {
+                int neighbour = other( nodeShortcuts[i], node );
+                for ( int j = i + 1; j < count; j++ )
+                {
+                    if ( shortcutsBetween.get( pair( neighbour, other( nodeShortcuts[j], node ) ), NONE ) == NONE )
+                    {
+                        added++;
+                    }
+                }
+            }
+            return added - count;
+        }
+        
+        private void contract( int node )
+        {
+            int count = shortcutCounts[node];
+            int[] nodeShortcuts = count == 0 ? new int[0] : Arrays.copyOf( shortcuts[node], count );
+            higherShortcuts[node] = nodeShortcuts;
+            for ( int shortcut : nodeShortcuts )
+            {
+                removeShortcut( other( shortcut, node ), shortcut );
+            }
+            shortcuts[node] = null;
+            shortcutCounts[node] = 0;
+            
+            for ( int i = 0; i < count; i++ )
+            {
+                int from = other( nodeShortcuts[i], node );
+                double toNode = weightFrom( nodeShortcuts[i], from );
+                if ( toNode == Double.POSITIVE_INFINITY )
+                {
+                    continue;
+                }
+                if ( witnessSearch )
+                {
+                    double limit = 0;
+                    for ( int j = 0; j < count; j++ )
+                    {
+                        double through = toNode + weightFrom( nodeShortcuts[j], node );
+                        if ( j != i && through != Double.POSITIVE_INFINITY )
+                        {
+                            limit = Math.max( limit, through );
+                        }
+                    }
+                    searchWitnesses( from, limit );
+                }
+                for ( int j = 0; j < count; j++ )
+                {
+                    double through = toNode + weightFrom( nodeShortcuts[j], node );
+                    if ( j == i || through == Double.POSITIVE_INFINITY )
+                    {
+                        continue;
+                    }
+                    int to = other( nodeShortcuts[j], node );
+                    int shortcut = shortcutsBetween.get( pair( from, to ), NONE );
+                    if ( shortcut == NONE && distances[to] <= through )
+                    {
+                        witnessSlack = Math.min( witnessSlack, through - distances[to] );
+                        continue;
+                    }
+                    lowerWeightFrom( shortcut == NONE ? connect( from, to ) : shortcut, from, through );
+                }
+                clearWitnesses();
+            }
+        }
+        
+        // A bounded Dijkstra from the node over the nodes not contracted yet,
+        // which leaves the cheapest ways it found to each node in distances
+        private void searchWitnesses( int source, double limit )
+        {
+            reach( source, 0 );
+            queue.offer( source, 0 );
+            for ( int settled = 0; !queue.isEmpty() && queue.peekPriority() <= limit
+                    && settled < WITNESS_SEARCH_LIMIT; settled++ )
+            {
+                int node = (int) queue.poll();
+                for ( int i = 0; i < shortcutCounts[node]; i++ )
+                {
+                    int shortcut = shortcuts[node][i];
+                    int other = other( shortcut, node );
+                    double distance = distances[node] + weightFrom( shortcut, node );
+                    if ( distance < distances[other] )
+                    {
+                        reach( other, distance );
+                        queue.offer( other, distance );
+                    }
+                }
+            }
+            while ( !queue.isEmpty() )
+            {
+                queue.poll();
+            }
+        }
+        
+        private void reach( int node, double distance )
+        {
+            if ( distances[node] == Double.POSITIVE_INFINITY )
+            {
+                if ( reachedCount == reached.length )
+                {
+                    reached = Arrays.copyOf( reached, reachedCount * 2 );
+                }
+                reached[reachedCount++] = node;
+            }
+            distances[node] = distance;
+        }
+        
+        private void clearWitnesses()
+        {
+            for ( int i = 0; i < reachedCount; i++ )
+            {
+                distances[reached[i]] = Double.POSITIVE_INFINITY;
+            }
+            reachedCount = 0;
+        }
+        
+        private ContractionHierarchy toHierarchy( int[] nodesByRank )
+        {
+            int edgeCount = 0;
+            for ( int[] nodeShortcuts : higherShortcuts )
+            {
+                edgeCount += nodeShortcuts.length;
+            }
+            long[] ids = new long[nodeCount];
+            int[] firstEdge = new int[nodeCount + 1];
+            int[] edgeTarget = new int[edgeCount];
+            double[] relationshipWeightUp = new double[edgeCount];
+            double[] relationshipWeightDown = new double[edgeCount];
+            long[] relationshipUp = new long[edgeCount];
+            long[] relationshipDown = new long[edgeCount];
+            int edge = 0;
+            for ( int rank = 0; rank < nodeCount; rank++ )
+            {
+                int node = nodesByRank[rank];
+                ids[rank] = nodeIds[node];
+                firstEdge[rank] = edge;
+                // Sorted by the rank of the other node, which is in the high bits
+                int[] nodeShortcuts = higherShortcuts[node];
+                long[] byTarget = new long[nodeShortcuts.length];
+                for ( int i = 0; i < nodeShortcuts.length; i++ )
+                {
+                    byTarget[i] = ( (long) ranks[other( nodeShortcuts[i], node )] << 32 ) | nodeShortcuts[i];
+                }
+                Arrays.sort( byTarget );
+                for ( long target : byTarget )
+                {
+                    int shortcut = (int) target;
+                    boolean fromFirst = shortcutFirst[shortcut] == node;
+                    edgeTarget[edge] = (int) ( target >>> 32 );
+                    relationshipWeightUp[edge] = fromFirst ?
+                            relationshipWeightFromFirst[shortcut] : relationshipWeightFromSecond[shortcut];
+                    relationshipWeightDown[edge] = fromFirst ?
+                            relationshipWeightFromSecond[shortcut] : relationshipWeightFromFirst[shortcut];
+                    relationshipUp[edge] = fromFirst ? relationshipFromFirst[shortcut] : relationshipFromSecond[shortcut];
+                    relationshipDown[edge] = fromFirst ? relationshipFromSecond[shortcut] : relationshipFromFirst[shortcut];
+                    edge++;
+                }
+            }
+            firstEdge[nodeCount] = edge;
+            return new ContractionHierarchy( graphDb, expander, costEvaluator, ids, firstEdge, edgeTarget,
+                    relationshipWeightUp, relationshipWeightDown, relationshipUp, relationshipDown,
+                    witnessSlack, 0 );
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.util;
+
+import static org.neo4j.kernel.impl.util.PrimitiveLongHashing.FREE;
+import static org.neo4j.kernel.impl.util.PrimitiveLongHashing.capacityFor;
+import static org.neo4j.kernel.impl.util.PrimitiveLongHashing.checkKey;
+import static org.neo4j.kernel.impl.util.PrimitiveLongHashing.newKeys;
+import static org.neo4j.kernel.impl.util.PrimitiveLongHashing.resizeThreshold;
+import static org.neo4j.kernel.impl.util.PrimitiveLongHashing.slotOf;
+
+/**
+ * A map from non-negative longs to ints, neither of them boxed.
+ * Entries can't be removed.
+ */
+public class PrimitiveLongIntMap
+{
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    public PrimitiveLongIntMap()
+    {
+        this( 0 );
+    }
+
+    public PrimitiveLongIntMap( int expectedSize )
+    {
+        int capacity = capacityFor( expectedSize );
+        this.keys = newKeys( capacity );
+        this.values = new int[capacity];
+    }
+
+    public void put( long key, int value )
+    {
+        checkKey( key );
+        int slot = slotOf( keys, key );
+        values[slot] = value;
+        if ( keys[slot] == key )
+        {
+            return;
+        }
+        keys[slot] = key;
+        if ( ++size > resizeThreshold( keys.length ) )
+        {
+            grow();
+        }
+    }
+
+    /**
+     * @param key the key to look up.
+     * @param valueIfAbsent what to return if there's no value for {@code key}.
+     * @return the value associated with {@code key}, or {@code valueIfAbsent}.
+     */
+    public int get( long key, int valueIfAbsent )
+    {
+        if ( key < 0 )
+        {
+            return valueIfAbsent;
+        }
+        int slot = slotOf( keys, key );
+        return keys[slot] == key ? values[slot] : valueIfAbsent;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = newKeys( oldKeys.length << 1 );
+        values = new int[keys.length];
+        for ( int i = 0; i < oldKeys.length; i++ )
+        {
+            if ( oldKeys[i] != FREE )
+            {
+                int slot = slotOf( keys, oldKeys[i] );
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
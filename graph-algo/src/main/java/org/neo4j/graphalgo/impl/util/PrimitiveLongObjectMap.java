@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.util;
+
+import static org.neo4j.kernel.impl.util.PrimitiveLongHashing.FREE;
+import static org.neo4j.kernel.impl.util.PrimitiveLongHashing.capacityFor;
+import static org.neo4j.kernel.impl.util.PrimitiveLongHashing.checkKey;
+import static org.neo4j.kernel.impl.util.PrimitiveLongHashing.newKeys;
+import static org.neo4j.kernel.impl.util.PrimitiveLongHashing.resizeThreshold;
+import static org.neo4j.kernel.impl.util.PrimitiveLongHashing.slotOf;
+
+/**
+ * A map from non-negative longs to objects, for instance from node ids to
+ * whatever a path finder keeps about each node. Keys aren't boxed and no
+ * entry objects are created. Entries can't be removed.
+ *
+ * @param <V> the type of the values.
+ */
+public class PrimitiveLongObjectMap<V>
+{
+    private long[] keys;
+    private Object[] values;
+    private int size;
+
+    public PrimitiveLongObjectMap()
+    {
+        this( 0 );
+    }
+
+    public PrimitiveLongObjectMap( int expectedSize )
+    {
+        int capacity = capacityFor( expectedSize );
+        this.keys = newKeys( capacity );
+        this.values = new Object[capacity];
+    }
+
+    /**
+     * @param key the key to associate {@code value} with.
+     * @param value the value.
+     * @return the value previously associated with {@code key}, or
+     * {@code null} if there was none.
+     */
+    public V put( long key, V value )
+    {
+        checkKey( key );
+        int slot = slotOf( keys, key );
+        if ( keys[slot] == key )
+        {
+            V previous = valueAt( slot );
+            values[slot] = value;
+            return previous;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if ( ++size > resizeThreshold( keys.length ) )
+        {
+            grow();
+        }
+        return null;
+    }
+
+    /**
+     * @param key the key to look up.
+     * @return the value associated with {@code key}, or {@code null} if there
+     * is none.
+     */
+    public V get( long key )
+    {
+        if ( key < 0 )
+        {
+            return null;
+        }
+        int slot = slotOf( keys, key );
+        return keys[slot] == key ? valueAt( slot ) : null;
+    }
+
+    public boolean containsKey( long key )
+    {
+        return key >= 0 && keys[slotOf( keys, key )] == key;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private V valueAt( int slot )
+    {
+        return (V) values[slot];
+    }
+
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = newKeys( oldKeys.length << 1 );
+        values = new Object[keys.length];
+        for ( int i = 0; i < oldKeys.length; i++ )
+        {
+            if ( oldKeys[i] != FREE )
+            {
+                int slot = slotOf( keys, oldKeys[i] );
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
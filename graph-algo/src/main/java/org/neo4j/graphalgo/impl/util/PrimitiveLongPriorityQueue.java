@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.util;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A binary min-heap of non-negative longs, typically node ids, ordered by
+ * primitive double priorities. The heap keeps track of where each element
+ * is, so that the priority of an element already in the heap can be
+ * lowered in O(log n) instead of the element being added a second time.
+ */
+public class PrimitiveLongPriorityQueue
+{
+    private static final int NOT_IN_HEAP = -1;
+
+    private long[] elements;
+    private double[] priorities;
+    private final PrimitiveLongIntMap positions;
+    private int size;
+
+    public PrimitiveLongPriorityQueue()
+    {
+        this( 0 );
+    }
+
+    public PrimitiveLongPriorityQueue( int expectedSize )
+    {
+        int capacity = Math.max( expectedSize, 16 );
+        this.elements = new long[capacity];
+        this.priorities = new double[capacity];
+        this.positions = new PrimitiveLongIntMap( expectedSize );
+    }
+
+    /**
+     * Adds {@code element} with the given priority, or lowers its priority
+     * if it's already in the heap with a higher one.
+     *
+     * @param element the element to add.
+     * @param priority the priority, where a lower value comes out first.
+     * @return {@code true} if the element was added or got its priority
+     * lowered, {@code false} if it was already in the heap with the same or
+     * a lower priority.
+     */
+    public boolean offer( long element, double priority )
+    {
+        int position = positions.get( element, NOT_IN_HEAP );
+        if ( position != NOT_IN_HEAP )
+        {
+            if ( priority >= priorities[position] )
+            {
+                return false;
+            }
+            siftUp( position, element, priority );
+            return true;
+        }
+        if ( size == elements.length )
+        {
+            grow();
+        }
+        siftUp( size++, element, priority );
+        return true;
+    }
+
+    public boolean contains( long element )
+    {
+        return positions.get( element, NOT_IN_HEAP ) != NOT_IN_HEAP;
+    }
+
+    /**
+     * @return the element with the lowest priority, which is left in the heap.
+     * @throws NoSuchElementException if the heap is empty.
+     */
+    public long peek()
+    {
+        assertNotEmpty();
+        return elements[0];
+    }
+
+    /**
+     * @return the priority of the element which {@link #peek()} returns.
+     * @throws NoSuchElementException if the heap is empty.
+     */
+    public double peekPriority()
+    {
+        assertNotEmpty();
+        return priorities[0];
+    }
+
+    /**
+     * Removes and returns the element with the lowest priority.
+     *
+     * @return the element with the lowest priority.
+     * @throws NoSuchElementException if the heap is empty.
+     */
+    public long poll()
+    {
+        assertNotEmpty();
+        long result = elements[0];
+        positions.put( result, NOT_IN_HEAP );
+        if ( --size > 0 )
+        {
+            siftDown( 0, elements[size], priorities[size] );
+        }
+        return result;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    private void siftUp( int position, long element, double priority )
+    {
+        while ( position > 0 )
+        {
+            int parent = ( position - 1 ) >>> 1;
+            if ( priorities[parent] <= priority )
+            {
+                break;
+            }
+            place( position, elements[parent], priorities[parent] );
+            position = parent;
+        }
+        place( position, element, priority );
+    }
+
+    private void siftDown( int position, long element, double priority )
+    {
+        int half = size >>> 1;
+        while ( position < half )
+        {
+            int child = ( position << 1 ) + 1;
+            int right = child + 1;
+            if ( right < size && priorities[right] < priorities[child] )
+            {
+                child = right;
+            }
+            if ( priority <= priorities[child] )
+            {
+                break;
+            }
+            place( position, elements[child], priorities[child] );
+            position = child;
+        }
+        place( position, element, priority );
+    }
+
+    private void place( int position, long element, double priority )
+    {
+        elements[position] = element;
+        priorities[position] = priority;
+        positions.put( element, position );
+    }
+
+    private void grow()
+    {
+        long[] newElements = new long[elements.length << 1];
+        System.arraycopy( elements, 0, newElements, 0, size );
+        elements = newElements;
+        double[] newPriorities = new double[priorities.length << 1];
+        System.arraycopy( priorities, 0, newPriorities, 0, size );
+        priorities = newPriorities;
+    }
+
+    private void assertNotEmpty()
+    {
+        if ( size == 0 )
+        {
+            throw new NoSuchElementException();
+        }
+    }
+}
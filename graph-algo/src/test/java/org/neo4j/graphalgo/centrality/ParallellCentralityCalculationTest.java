@@ -19,20 +19,31 @@
  */
 package org.neo4j.graphalgo.centrality;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Test;
 import org.neo4j.graphalgo.CostEvaluator;
 import org.neo4j.graphalgo.impl.centrality.BetweennessCentrality;
 import org.neo4j.graphalgo.impl.centrality.ClosenessCentrality;
 import org.neo4j.graphalgo.impl.centrality.CostDivider;
+import org.neo4j.graphalgo.impl.centrality.Eccentricity;
+import org.neo4j.graphalgo.impl.centrality.NetworkDiameter;
+import org.neo4j.graphalgo.impl.centrality.NetworkRadius;
 import org.neo4j.graphalgo.impl.centrality.ParallellCentralityCalculation;
 import org.neo4j.graphalgo.impl.centrality.ShortestPathBasedCentrality;
 import org.neo4j.graphalgo.impl.centrality.StressCentrality;
 import org.neo4j.graphalgo.impl.shortestpath.SingleSourceShortestPath;
+import org.neo4j.graphalgo.impl.shortestpath.SingleSourceShortestPathFactory;
 import org.neo4j.graphalgo.impl.shortestpath.SingleSourceShortestPathDijkstra;
 import org.neo4j.graphalgo.impl.util.DoubleAdder;
+import org.neo4j.graphalgo.impl.util.DoubleComparator;
 import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 
 import common.Neo4jAlgoTestCase;
@@ -54,6 +65,35 @@ public class ParallellCentralityCalculationTest extends Neo4jAlgoTestCase
             Direction.BOTH, MyRelTypes.R1 );
     }
 
+    protected SingleSourceShortestPathFactory<Double> getSingleSourceShortestPathFactory()
+    {
+        return new SingleSourceShortestPathFactory<Double>()
+        {
+            public SingleSourceShortestPath<Double> newSingleSourceShortestPath()
+            {
+                return getSingleSourceShortestPath();
+            }
+        };
+    }
+
+    protected ClosenessCentrality<Double> getClosenessCentrality(
+        SingleSourceShortestPath<Double> singleSourceShortestPath )
+    {
+        return new ClosenessCentrality<Double>( singleSourceShortestPath,
+            new DoubleAdder(), 0.0, graph.getAllNodes(), new CostDivider<Double>()
+            {
+                public Double divideByCost( Double d, Double c )
+                {
+                    return d / c;
+                }
+
+                public Double divideCost( Double c, Double d )
+                {
+                    return c / d;
+                }
+            } );
+    }
+
     protected void assertCentrality(
         ShortestPathBasedCentrality<Double,Double> centrality, String nodeId,
         Double value )
@@ -110,4 +150,95 @@ public class ParallellCentralityCalculationTest extends Neo4jAlgoTestCase
         assertCentrality( closenessCentrality, "d", 1.0 / 7 );
         assertCentrality( closenessCentrality, "e", 1.0 / 7 );
     }
+
+    @Test
+    public void testPlusShapeOnThreads()
+    {
+        graph.makeEdgeChain( "a,b,c" );
+        graph.makeEdgeChain( "d,b,e" );
+        // The threads only see what is committed
+        restartTx();
+        ParallellCentralityCalculation<Double> pcc = new ParallellCentralityCalculation<Double>(
+            getSingleSourceShortestPathFactory(), graph.getAllNodes(), 3 );
+        SingleSourceShortestPath<Double> singleSourceShortestPath = getSingleSourceShortestPath();
+        BetweennessCentrality<Double> betweennessCentrality = new BetweennessCentrality<Double>(
+            singleSourceShortestPath, graph.getAllNodes() );
+        ClosenessCentrality<Double> closenessCentrality = getClosenessCentrality( singleSourceShortestPath );
+        pcc.addCalculation( betweennessCentrality );
+        pcc.addCalculation( closenessCentrality );
+        pcc.calculate();
+
+        assertCentrality( betweennessCentrality, "a", 0.0 );
+        assertCentrality( betweennessCentrality, "b", 6.0 );
+        assertCentrality( betweennessCentrality, "e", 0.0 );
+        assertCentrality( closenessCentrality, "a", 1.0 / 7 );
+        assertCentrality( closenessCentrality, "b", 1.0 / 4 );
+        assertCentrality( closenessCentrality, "e", 1.0 / 7 );
+    }
+
+    @Test
+    public void testEccentricityDiameterAndRadiusOnThreads()
+    {
+        graph.makeEdgeChain( "a,b,c,f" );
+        graph.makeEdgeChain( "d,b,e" );
+        restartTx();
+        ParallellCentralityCalculation<Double> pcc = new ParallellCentralityCalculation<Double>(
+            getSingleSourceShortestPathFactory(), graph.getAllNodes(), 3 );
+        SingleSourceShortestPath<Double> singleSourceShortestPath = getSingleSourceShortestPath();
+        Eccentricity<Double> eccentricity = new Eccentricity<Double>(
+            singleSourceShortestPath, 0.0, graph.getAllNodes(), new DoubleComparator() );
+        NetworkDiameter<Double> diameter = new NetworkDiameter<Double>(
+            singleSourceShortestPath, 0.0, graph.getAllNodes(), new DoubleComparator() );
+        NetworkRadius<Double> radius = new NetworkRadius<Double>(
+            singleSourceShortestPath, 0.0, graph.getAllNodes(), new DoubleComparator() );
+        pcc.addCalculation( eccentricity );
+        pcc.addCalculation( diameter );
+        pcc.addCalculation( radius );
+        pcc.calculate();
+
+        assertCentrality( eccentricity, "a", 3.0 );
+        assertCentrality( eccentricity, "b", 2.0 );
+        assertCentrality( eccentricity, "c", 2.0 );
+        assertCentrality( eccentricity, "d", 3.0 );
+        assertCentrality( eccentricity, "f", 3.0 );
+        assertEquals( 3.0, diameter.getCentrality( null ), 0 );
+        assertEquals( 2.0, radius.getCentrality( null ), 0 );
+    }
+
+    @Test
+    public void testSameResultsOnThreadsAsOnOneThread()
+    {
+        Random random = new Random( 12 );
+        for ( int i = 0; i < 200; i++ )
+        {
+            graph.makeEdge( "n" + random.nextInt( 80 ), "n" + random.nextInt( 80 ) );
+        }
+        restartTx();
+        List<List<ShortestPathBasedCentrality<Double,Double>>> results = new ArrayList<List<ShortestPathBasedCentrality<Double,Double>>>();
+        for ( int threads = 0; threads <= 4; threads += 4 )
+        {
+            SingleSourceShortestPath<Double> singleSourceShortestPath = getSingleSourceShortestPath();
+            ParallellCentralityCalculation<Double> pcc = threads == 0 ?
+                new ParallellCentralityCalculation<Double>( singleSourceShortestPath, graph.getAllNodes() ) :
+                new ParallellCentralityCalculation<Double>( getSingleSourceShortestPathFactory(), graph.getAllNodes(), threads );
+            List<ShortestPathBasedCentrality<Double,Double>> calculations = new ArrayList<ShortestPathBasedCentrality<Double,Double>>();
+            calculations.add( new BetweennessCentrality<Double>( singleSourceShortestPath, graph.getAllNodes() ) );
+            calculations.add( new StressCentrality<Double>( singleSourceShortestPath, graph.getAllNodes() ) );
+            calculations.add( getClosenessCentrality( singleSourceShortestPath ) );
+            for ( ShortestPathBasedCentrality<Double,Double> calculation : calculations )
+            {
+                pcc.addCalculation( calculation );
+            }
+            pcc.calculate();
+            results.add( calculations );
+        }
+        for ( int i = 0; i < results.get( 0 ).size(); i++ )
+        {
+            for ( Node node : graph.getAllNodes() )
+            {
+                assertEquals( results.get( 0 ).get( i ).getCentrality( node ),
+                    results.get( 1 ).get( i ).getCentrality( node ), 0.000001 );
+            }
+        }
+    }
 }
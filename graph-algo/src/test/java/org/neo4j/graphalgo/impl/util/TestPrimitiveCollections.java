@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.neo4j.kernel.impl.util.PrimitiveLongSet;
+
+public class TestPrimitiveCollections
+{
+    @Test
+    public void mapsHoldTheLatestValueOfEachKey()
+    {
+        PrimitiveLongObjectMap<String> objects = new PrimitiveLongObjectMap<String>();
+        PrimitiveLongIntMap ints = new PrimitiveLongIntMap();
+        for ( int i = 0; i < 5000; i++ )
+        {
+            long key = i * 7919L;
+            assertNull( objects.put( key, "first " + i ) );
+            ints.put( key, 0 );
+        }
+        for ( int i = 0; i < 5000; i++ )
+        {
+            long key = i * 7919L;
+            assertEquals( "first " + i, objects.put( key, "second " + i ) );
+            ints.put( key, i );
+        }
+        assertEquals( 5000, objects.size() );
+        assertEquals( 5000, ints.size() );
+        for ( int i = 0; i < 5000; i++ )
+        {
+            long key = i * 7919L;
+            assertEquals( "second " + i, objects.get( key ) );
+            assertEquals( i, ints.get( key, -1 ) );
+        }
+        assertNull( objects.get( 1 ) );
+        assertFalse( objects.containsKey( 1 ) );
+        assertEquals( -1, ints.get( 1, -1 ) );
+    }
+
+    @Test
+    public void queueReturnsElementsInPriorityOrder()
+    {
+        PrimitiveLongPriorityQueue queue = new PrimitiveLongPriorityQueue();
+        Random random = new Random( 42 );
+        double[] priorities = new double[1000];
+        for ( int i = 0; i < priorities.length; i++ )
+        {
+            priorities[i] = random.nextDouble();
+            assertTrue( queue.offer( i, priorities[i] ) );
+        }
+        // Lower some of the priorities, raising them should be ignored
+        for ( int i = 0; i < priorities.length; i += 3 )
+        {
+            assertFalse( queue.offer( i, priorities[i] + 1 ) );
+            priorities[i] /= 2;
+            assertTrue( queue.offer( i, priorities[i] ) );
+        }
+        assertEquals( priorities.length, queue.size() );
+
+        double previous = Double.NEGATIVE_INFINITY;
+        Set<Long> seen = new HashSet<Long>();
+        while ( !queue.isEmpty() )
+        {
+            long element = queue.peek();
+            double priority = queue.peekPriority();
+            assertEquals( element, queue.poll() );
+            assertFalse( queue.contains( element ) );
+            assertEquals( priorities[(int) element], priority, 0d );
+            assertTrue( previous <= priority );
+            assertTrue( seen.add( element ) );
+            previous = priority;
+        }
+        assertEquals( priorities.length, seen.size() );
+    }
+
+    @Test
+    public void polledElementCanBeOfferedAgain()
+    {
+        PrimitiveLongPriorityQueue queue = new PrimitiveLongPriorityQueue();
+        queue.offer( 1, 1d );
+        queue.offer( 2, 2d );
+        assertEquals( 1, queue.poll() );
+        assertTrue( queue.offer( 1, 3d ) );
+        assertEquals( 2, queue.poll() );
+        assertEquals( 1, queue.poll() );
+        try
+        {
+            queue.poll();
+            fail( "Shouldn't poll from an empty queue" );
+        }
+        catch ( NoSuchElementException e )
+        { // Good
+        }
+    }
+
+    // === Micro benchmarking ===
+    // Compares the primitive collections with the boxed ones the path finders
+    // used before, running the operations of a best first search over a
+    // random graph of long ids.
+
+    public static void main( String[] args )
+    {
+        int nodes = args.length > 0 ? Integer.parseInt( args[0] ) : 1000000;
+        int rounds = args.length > 1 ? Integer.parseInt( args[1] ) : 10;
+        for ( int round = 0; round < rounds; round++ )
+        {
+            long boxed = boxedSearch( nodes, new Random( round ) );
+            long primitive = primitiveSearch( nodes, new Random( round ) );
+            System.out.printf( "%d nodes, boxed: %d ms, primitive: %d ms%n", nodes, boxed, primitive );
+        }
+    }
+
+    private static long boxedSearch( int nodes, Random random )
+    {
+        long start = System.currentTimeMillis();
+        Set<Long> visited = new HashSet<Long>();
+        Map<Long, Long> cameFrom = new HashMap<Long, Long>();
+        Map<Long, Double> score = new HashMap<Long, Double>();
+        TreeMap<Double, List<Long>> queue = new TreeMap<Double, List<Long>>();
+        score.put( 0L, 0d );
+        queue.put( 0d, new ArrayList<Long>( Arrays.asList( 0L ) ) );
+        while ( !queue.isEmpty() )
+        {
+            Map.Entry<Double, List<Long>> entry = queue.firstEntry();
+            List<Long> ids = entry.getValue();
+            long node = ids.remove( ids.size() - 1 );
+            if ( ids.isEmpty() )
+            {
+                queue.remove( entry.getKey() );
+            }
+            if ( !visited.add( node ) )
+            {
+                continue;
+            }
+            for ( int i = 0; i < 3; i++ )
+            {
+                long other = random.nextInt( nodes );
+                double cost = entry.getKey() + random.nextDouble();
+                Double existing = score.get( other );
+                if ( !visited.contains( other ) && ( existing == null || cost < existing ) )
+                {
+                    score.put( other, cost );
+                    cameFrom.put( other, node );
+                    List<Long> atCost = queue.get( cost );
+                    if ( atCost == null )
+                    {
+                        atCost = new ArrayList<Long>();
+                        queue.put( cost, atCost );
+                    }
+                    atCost.add( other );
+                }
+            }
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private static long primitiveSearch( int nodes, Random random )
+    {
+        long start = System.currentTimeMillis();
+        PrimitiveLongSet visited = new PrimitiveLongSet();
+        PrimitiveLongIntMap cameFrom = new PrimitiveLongIntMap();
+        PrimitiveLongObjectMap<double[]> score = new PrimitiveLongObjectMap<double[]>();
+        PrimitiveLongPriorityQueue queue = new PrimitiveLongPriorityQueue();
+        score.put( 0, new double[] { 0d } );
+        queue.offer( 0, 0d );
+        while ( !queue.isEmpty() )
+        {
+            double nodeCost = queue.peekPriority();
+            long node = queue.poll();
+            visited.add( node );
+            for ( int i = 0; i < 3; i++ )
+            {
+                long other = random.nextInt( nodes );
+                double cost = nodeCost + random.nextDouble();
+                double[] existing = score.get( other );
+                if ( !visited.contains( other ) && ( existing == null || cost < existing[0] ) )
+                {
+                    if ( existing == null )
+                    {
+                        score.put( other, new double[] { cost } );
+                    }
+                    else
+                    {
+                        existing[0] = cost;
+                    }
+                    cameFrom.put( other, (int) node );
+                    queue.offer( other, cost );
+                }
+            }
+        }
+        return System.currentTimeMillis() - start;
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.neo4j.graphalgo.CommonEvaluators;
+import org.neo4j.graphalgo.CostEvaluator;
+import org.neo4j.graphalgo.GraphAlgoFactory;
+import org.neo4j.graphalgo.PathFinder;
+import org.neo4j.graphalgo.WeightedPath;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipExpander;
+import org.neo4j.kernel.Traversal;
+
+import common.Neo4jAlgoTestCase;
+
+public class TestBidirectionalAStar extends Neo4jAlgoTestCase
+{
+    private static final CostEvaluator<Double> LENGTH = CommonEvaluators.doubleCostEvaluator( "length" );
+
+    @Test
+    public void findsCheapestPathInDirectedGraph()
+    {
+        graph.makeEdge( "start", "a", "length", 1d );
+        graph.makeEdge( "a", "x", "length", 9d );
+        graph.makeEdge( "a", "b", "length", 1d );
+        graph.makeEdge( "b", "x", "length", 7d );
+        graph.makeEdge( "b", "c", "length", 1d );
+        graph.makeEdge( "c", "x", "length", 5d );
+        graph.makeEdge( "c", "x", "length", 3d );
+        graph.makeEdge( "x", "y", "length", 2d );
+        graph.makeEdge( "y", "start", "length", 1d );
+
+        PathFinder<WeightedPath> finder = GraphAlgoFactory.bidirectionalDijkstra(
+                Traversal.expanderForTypes( MyRelTypes.R1, Direction.OUTGOING ), "length" );
+        WeightedPath path = finder.findSinglePath( graph.getNode( "start" ), graph.getNode( "x" ) );
+        assertPathDef( path, "start", "a", "b", "c", "x" );
+        assertEquals( 6d, path.weight(), 0d );
+
+        // Going back the path has to follow the directions of the relationships
+        path = finder.findSinglePath( graph.getNode( "x" ), graph.getNode( "a" ) );
+        assertPathDef( path, "x", "y", "start", "a" );
+        assertEquals( 4d, path.weight(), 0d );
+    }
+
+    @Test
+    public void findsNothingBetweenUnconnectedNodes()
+    {
+        graph.makeEdge( "a", "b", "length", 1d );
+        graph.makeEdge( "c", "d", "length", 1d );
+
+        assertNull( GraphAlgoFactory.bidirectionalDijkstra( Traversal.expanderForAllTypes(), LENGTH )
+                .findSinglePath( graph.getNode( "a" ), graph.getNode( "d" ) ) );
+    }
+
+    @Test
+    public void pathFromANodeToItselfIsEmpty()
+    {
+        Node node = graph.makeNode( "a" );
+        WeightedPath path = GraphAlgoFactory.bidirectionalDijkstra( Traversal.expanderForAllTypes(),
+                LENGTH ).findSinglePath( node, node );
+        assertEquals( 0, path.length() );
+        assertEquals( 0d, path.weight(), 0d );
+    }
+
+    @Test
+    public void findsAsCheapPathsAsDijkstraInAGrid()
+    {
+        // A grid where the length of each relationship is at least the
+        // straight line distance, which makes the estimate a consistent one
+        int size = 12;
+        Random random = new Random( 1234 );
+        for ( int x = 0; x < size; x++ )
+        {
+            for ( int y = 0; y < size; y++ )
+            {
+                graph.makeNode( name( x, y ), "x", (double) x, "y", (double) y );
+            }
+        }
+        for ( int x = 0; x < size; x++ )
+        {
+            for ( int y = 0; y < size; y++ )
+            {
+                if ( x + 1 < size )
+                {
+                    graph.makeEdge( name( x, y ), name( x + 1, y ), "length", 1 + random.nextDouble() * 3 );
+                }
+                if ( y + 1 < size )
+                {
+                    graph.makeEdge( name( x, y ), name( x, y + 1 ), "length", 1 + random.nextDouble() * 3 );
+                }
+            }
+        }
+
+        RelationshipExpander expander = Traversal.expanderForAllTypes();
+        PathFinder<WeightedPath> dijkstra = GraphAlgoFactory.dijkstra( expander, LENGTH );
+        PathFinder<WeightedPath> bidirectionalDijkstra = GraphAlgoFactory.bidirectionalDijkstra( expander, LENGTH );
+        PathFinder<WeightedPath> bidirectionalAStar = GraphAlgoFactory.bidirectionalAStar( expander, LENGTH,
+                TestAStar.ESTIMATE_EVALUATOR );
+        for ( int i = 0; i < 30; i++ )
+        {
+            Node start = graph.getNode( name( random.nextInt( size ), random.nextInt( size ) ) );
+            Node end = graph.getNode( name( random.nextInt( size ), random.nextInt( size ) ) );
+            double expected = dijkstra.findSinglePath( start, end ).weight();
+            assertPathWeight( expected, bidirectionalDijkstra.findSinglePath( start, end ), start, end );
+            assertPathWeight( expected, bidirectionalAStar.findSinglePath( start, end ), start, end );
+        }
+    }
+
+    private void assertPathWeight( double expected, WeightedPath path, Node start, Node end )
+    {
+        assertEquals( start, path.startNode() );
+        assertEquals( end, path.endNode() );
+        assertEquals( expected, path.weight(), 0.000001 );
+        double sum = 0;
+        for ( Relationship relationship : path.relationships() )
+        {
+            sum += (Double) relationship.getProperty( "length" );
+        }
+        assertEquals( expected, sum, 0.000001 );
+    }
+
+    private static String name( int x, int y )
+    {
+        return x + "," + y;
+    }
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.neo4j.graphalgo.CommonEvaluators;
+import org.neo4j.graphalgo.CostEvaluator;
+import org.neo4j.graphalgo.GraphAlgoFactory;
+import org.neo4j.graphalgo.PathFinder;
+import org.neo4j.graphalgo.WeightedPath;
+import org.neo4j.graphalgo.impl.path.ContractionHierarchy;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipExpander;
+import org.neo4j.kernel.Traversal;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import common.Neo4jAlgoTestCase;
+
+public class TestContractionHierarchy extends Neo4jAlgoTestCase
+{
+    private static final CostEvaluator<Double> LENGTH = CommonEvaluators.doubleCostEvaluator( "length" );
+    
+    private final Random random = new Random( 4321 );
+    private final List<Node> nodes = new ArrayList<Node>();
+    private final List<Relationship> relationships = new ArrayList<Relationship>();
+    
+    @Test
+    public void findsAsCheapPathsAsDijkstraInAGrid()
+    {
+        createGrid( 12 );
+        RelationshipExpander expander = Traversal.expanderForAllTypes();
+        ContractionHierarchy hierarchy = GraphAlgoFactory.contractionHierarchy( graphDb, expander, LENGTH );
+        assertSamePathsAsDijkstra( expander, hierarchy );
+    }
+    
+    @Test
+    public void followsTheDirectionsOfTheRelationships()
+    {
+        createGrid( 10 );
+        RelationshipExpander expander = Traversal.expanderForTypes( MyRelTypes.R1, Direction.OUTGOING );
+        ContractionHierarchy hierarchy = GraphAlgoFactory.contractionHierarchy( graphDb, expander, LENGTH );
+        assertSamePathsAsDijkstra( expander, hierarchy );
+    }
+    
+    @Test
+    public void findsNothingBetweenUnconnectedNodes()
+    {
+        graph.makeEdge( "a", "b", "length", 1d );
+        graph.makeEdge( "c", "d", "length", 1d );
+        ContractionHierarchy hierarchy = GraphAlgoFactory.contractionHierarchy( graphDb,
+                Traversal.expanderForAllTypes(), LENGTH );
+        assertNull( hierarchy.findSinglePath( graph.getNode( "a" ), graph.getNode( "d" ) ) );
+        assertEquals( 0, hierarchy.findSinglePath( graph.getNode( "a" ), graph.getNode( "a" ) ).length() );
+    }
+    
+    @Test
+    public void changedWeightsAreAppliedToTheHierarchy()
+    {
+        createGrid( 10 );
+        RelationshipExpander expander = Traversal.expanderForAllTypes();
+        ContractionHierarchy hierarchy = ContractionHierarchy.build( graphDb,
+                GlobalGraphOperations.at( graphDb ).getAllNodes(), expander, LENGTH, false );
+        for ( int i = 0; i < 20; i++ )
+        {
+            // Make the relationships on some cheapest path a lot more
+            // expensive, and some other ones cheaper
+            Node start = randomNode();
+            Node end = randomNode();
+            for ( Relationship rel : hierarchy.findSinglePath( start, end ).relationships() )
+            {
+                rel.setProperty( "length", (Double) rel.getProperty( "length" ) * 5 );
+                hierarchy.relationshipChanged( rel );
+            }
+            Relationship rel = relationships.get( random.nextInt( relationships.size() ) );
+            rel.setProperty( "length", 1d );
+            hierarchy.relationshipChanged( rel );
+        }
+        assertSamePathsAsDijkstra( expander, hierarchy );
+    }
+    
+    @Test
+    public void deletedRelationshipsAreRemovedFromTheHierarchy()
+    {
+        createGrid( 10 );
+        RelationshipExpander expander = Traversal.expanderForAllTypes();
+        ContractionHierarchy hierarchy = ContractionHierarchy.build( graphDb,
+                GlobalGraphOperations.at( graphDb ).getAllNodes(), expander, LENGTH, false );
+        for ( int i = 0; i < 5; i++ )
+        {
+            WeightedPath path = hierarchy.findSinglePath( randomNode(), randomNode() );
+            if ( path == null || path.length() == 0 )
+            {
+                continue;
+            }
+            Relationship rel = path.lastRelationship();
+            relationships.remove( rel );
+            rel.delete();
+            restartTx();
+            hierarchy.relationshipChanged( rel );
+        }
+        assertSamePathsAsDijkstra( expander, hierarchy );
+    }
+    
+    @Test
+    public void changesBeyondWhatTheWitnessesAllowRequireRebuild()
+    {
+        // Contracting any node of the square leaves out the shortcut
+        // between its neighbours, since the way around is as cheap
+        graph.makeEdgeChain( "a,b,c,d,a" );
+        ContractionHierarchy hierarchy = GraphAlgoFactory.contractionHierarchy( graphDb,
+                Traversal.expanderForAllTypes(), CommonEvaluators.doubleCostEvaluator( "length", 1d ) );
+        Relationship rel = graph.getNode( "a" ).getSingleRelationship( MyRelTypes.R1, Direction.OUTGOING );
+        rel.setProperty( "length", 5d );
+        try
+        {
+            hierarchy.relationshipChanged( rel );
+            fail( "Should require the hierarchy to be rebuilt" );
+        }
+        catch ( IllegalArgumentException e )
+        { // Good
+        }
+        
+        hierarchy = ContractionHierarchy.build( graphDb, GlobalGraphOperations.at( graphDb ).getAllNodes(),
+                Traversal.expanderForAllTypes(), CommonEvaluators.doubleCostEvaluator( "length", 1d ), false );
+        rel.setProperty( "length", 1d );
+        hierarchy.relationshipChanged( rel );
+        assertEquals( 2, hierarchy.findSinglePath( graph.getNode( "a" ), graph.getNode( "c" ) ).weight(), 0 );
+    }
+    
+    @Test
+    public void relationshipBetweenNodesWhichWerentConnectedRequiresRebuild()
+    {
+        graph.makeEdgeChain( "a,b,c" );
+        graph.makeNode( "d" );
+        ContractionHierarchy hierarchy = GraphAlgoFactory.contractionHierarchy( graphDb,
+                Traversal.expanderForAllTypes(), CommonEvaluators.doubleCostEvaluator( "length", 1d ) );
+        
+        // Nodes created after the hierarchy was built aren't in it
+        hierarchy.relationshipChanged( graph.makeEdge( "a", "e" ) );
+        try
+        {
+            hierarchy.relationshipChanged( graph.makeEdge( "a", "d" ) );
+            fail( "Should require the hierarchy to be rebuilt" );
+        }
+        catch ( IllegalArgumentException e )
+        { // Good
+        }
+        assertEquals( 2, hierarchy.findSinglePath( graph.getNode( "a" ), graph.getNode( "c" ) ).length() );
+    }
+    
+    @Test
+    public void canBeWrittenToAndReadFromAFile() throws Exception
+    {
+        createGrid( 8 );
+        RelationshipExpander expander = Traversal.expanderForAllTypes();
+        File file = new File( TargetDirectory.forTest( getClass() ).directory( "ch", true ), "hierarchy" );
+        GraphAlgoFactory.contractionHierarchy( graphDb, expander, LENGTH ).writeTo( file );
+        assertSamePathsAsDijkstra( expander, ContractionHierarchy.readFrom( file, graphDb, expander, LENGTH ) );
+    }
+    
+    // The length of each relationship is random, but never shorter than
+    // the straight line distance
+    private void createGrid( int size )
+    {
+        for ( int x = 0; x < size; x++ )
+        {
+            for ( int y = 0; y < size; y++ )
+            {
+                nodes.add( graph.makeNode( name( x, y ) ) );
+            }
+        }
+        for ( int x = 0; x < size; x++ )
+        {
+            for ( int y = 0; y < size; y++ )
+            {
+                connect( name( x, y ), x + 1 < size ? name( x + 1, y ) : null );
+                connect( name( x, y ), y + 1 < size ? name( x, y + 1 ) : null );
+            }
+        }
+    }
+    
+    private void connect( String node, String other )
+    {
+        if ( other == null )
+        {
+            return;
+        }
+        // Some in one direction, some in the other and some in both
+        int direction = random.nextInt( 3 );
+        if ( direction != 1 )
+        {
+            relationships.add( graph.makeEdge( node, other, "length", 1 + random.nextDouble() * 3 ) );
+        }
+        if ( direction != 0 )
+        {
+            relationships.add( graph.makeEdge( other, node, "length", 1 + random.nextDouble() * 3 ) );
+        }
+    }
+    
+    private void assertSamePathsAsDijkstra( RelationshipExpander expander, ContractionHierarchy hierarchy )
+    {
+        PathFinder<WeightedPath> dijkstra = GraphAlgoFactory.dijkstra( expander, LENGTH );
+        for ( int i = 0; i < 40; i++ )
+        {
+            Node start = randomNode();
+            Node end = randomNode();
+            WeightedPath expected = dijkstra.findSinglePath( start, end );
+            WeightedPath path = hierarchy.findSinglePath( start, end );
+            if ( expected == null )
+            {
+                assertNull( path );
+                continue;
+            }
+            assertEquals( start, path.startNode() );
+            assertEquals( end, path.endNode() );
+            assertEquals( expected.weight(), path.weight(), 0.000001 );
+            double sum = 0;
+            for ( Relationship relationship : path.relationships() )
+            {
+                sum += (Double) relationship.getProperty( "length" );
+            }
+            assertEquals( expected.weight(), sum, 0.000001 );
+        }
+    }
+    
+    private Node randomNode()
+    {
+        return nodes.get( random.nextInt( nodes.size() ) );
+    }
+    
+    private static String name( int x, int y )
+    {
+        return x + "," + y;
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.jmx;
+
+@ManagementInterface( name = LogicalLog.NAME )
+@Description( "Information about forces of the Neo4j logical log done by committing transactions" )
+public interface LogicalLog
+{
+    final String NAME = "Logical Log";
+
+    @Description( "Whether concurrently committing transactions share forces of the logical log" )
+    boolean isGroupCommitEnabled();
+
+    @Description( "The number of forces of the logical log done on behalf of group committed transactions" )
+    long getNumberOfForces();
+
+    @Description( "The number of group committed transactions made durable by forces of the logical log" )
+    long getNumberOfForcedCommits();
+
+    @Description( "The average number of transactions made durable by one force of the logical log" )
+    double getAverageBatchSize();
+
+    @Description( "The largest number of transactions made durable by one force of the logical log" )
+    long getMaxBatchSize();
+
+    @Description( "The average time, in microseconds, spent forcing the logical log" )
+    long getAverageForceTime();
+}
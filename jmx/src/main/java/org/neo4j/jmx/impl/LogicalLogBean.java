@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.jmx.impl;
+
+import javax.management.NotCompliantMBeanException;
+
+import org.neo4j.helpers.Service;
+import org.neo4j.jmx.LogicalLog;
+import org.neo4j.kernel.impl.transaction.xaframework.GroupCommit;
+import org.neo4j.kernel.impl.transaction.xaframework.XaLogicalLog;
+
+@Service.Implementation( ManagementBeanProvider.class )
+public final class LogicalLogBean extends ManagementBeanProvider
+{
+    public LogicalLogBean()
+    {
+        super( LogicalLog.class );
+    }
+
+    @Override
+    protected Neo4jMBean createMBean( ManagementData management ) throws NotCompliantMBeanException
+    {
+        return new LogicalLogImpl( management );
+    }
+
+    private static class LogicalLogImpl extends Neo4jMBean implements LogicalLog
+    {
+        LogicalLogImpl( ManagementData management ) throws NotCompliantMBeanException
+        {
+            super( management );
+            this.logicalLog = KernelBean.getNeoDataSource( management.getKernelData() ).getXaContainer().getLogicalLog();
+        }
+
+        private final XaLogicalLog logicalLog;
+
+        private GroupCommit groupCommit()
+        {
+            return logicalLog.getGroupCommit();
+        }
+
+        public boolean isGroupCommitEnabled()
+        {
+            return logicalLog.isGroupCommitEnabled();
+        }
+
+        public long getNumberOfForces()
+        {
+            return groupCommit().getForceCount();
+        }
+
+        public long getNumberOfForcedCommits()
+        {
+            return groupCommit().getForcedCommitCount();
+        }
+
+        public double getAverageBatchSize()
+        {
+            return groupCommit().getAverageBatchSize();
+        }
+
+        public long getMaxBatchSize()
+        {
+            return groupCommit().getMaxBatchSize();
+        }
+
+        public long getAverageForceTime()
+        {
+            return groupCommit().getAverageForceTimeMicros();
+        }
+    }
+}
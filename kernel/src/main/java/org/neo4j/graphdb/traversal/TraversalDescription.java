@@ -165,6 +165,28 @@ public interface TraversalDescription
      */
     TraversalDescription breadthFirst();
 
+    /**
+     * Expands the positions of the traversal on {@code threads} threads. The
+     * traversal goes breadth first, one depth at a time, where the positions
+     * of a depth are split among the threads, which expand them and evaluate
+     * the positions of the next depth. Any {@link BranchOrderingPolicy} is
+     * ignored and the order of the positions within a depth isn't specified,
+     * but all positions with the same depth are returned before advancing to
+     * the next depth.
+     * 
+     * The {@link Evaluator}s and {@link RelationshipExpander} are called from
+     * several threads at the same time and must be thread safe, which the
+     * ones that only look at the given path are. Uniqueness is checked under
+     * a lock. Since the threads aren't part of any transaction, the traversal
+     * only sees committed data.
+     * 
+     * @param threads the number of threads to expand positions on, where
+     * {@code 1} (the default) means that the traversal runs in the thread
+     * iterating over it.
+     * @return a new traversal description with the new modifications.
+     */
+    TraversalDescription parallel( int threads );
+
     /**
      * Adds {@code type} to the list of relationship types to traverse.
      * There's no priority or order in which types to traverse.
@@ -38,6 +38,7 @@ import org.neo4j.kernel.impl.nioneo.store.IdGenerator;
 import org.neo4j.kernel.impl.nioneo.store.IdGeneratorImpl;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.transaction.LockManager;
+import org.neo4j.kernel.impl.transaction.StripedLockManager;
 import org.neo4j.kernel.impl.transaction.TxHook;
 import org.neo4j.kernel.impl.transaction.TxModule;
 import org.neo4j.kernel.impl.transaction.xaframework.DefaultLogBufferFactory;
@@ -58,6 +59,17 @@ public class CommonFactories
             }
         };
     }
+
+    public static LockManagerFactory stripedLockManagerFactory()
+    {
+        return new LockManagerFactory()
+        {
+            public LockManager create( TxModule txModule )
+            {
+                return new StripedLockManager( txModule.getTxManager() );
+            }
+        };
+    }
     
     public static class DefaultIdGeneratorFactory implements IdGeneratorFactory
     {
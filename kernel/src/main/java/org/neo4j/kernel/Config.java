@@ -79,6 +79,42 @@ public class Config implements DiagnosticsProvider
      */
     @Documented
     public static final String KEEP_LOGICAL_LOGS = "keep_logical_logs";
+    /**
+     * Boolean (one of true,false) defining whether concurrently committing
+     * transactions share a single force of the logical log instead of each
+     * forcing it on its own. Only applies when transaction ids are handed
+     * out by the default generator. Defaults to false.
+     */
+    @Documented
+    public static final String GROUP_COMMIT = "group_commit";
+    /**
+     * Number of threads applying the records of recovered transactions after
+     * a non clean shutdown. With more than one, changes to different records
+     * are applied in parallel. Defaults to 1, applying them one at a time in
+     * log order.
+     */
+    @Documented
+    public static final String RECOVERY_THREADS = "recovery_threads";
+    /**
+     * Number of ids each thread reserves at a time for the node, relationship,
+     * property, string and array stores, so that threads creating entities
+     * concurrently don't contend on the id generators. Defaults to 1,
+     * allocating every id from the shared generator.
+     */
+    @Documented
+    public static final String ID_BATCH_SIZE = "id_batch_size";
+    /**
+     * Number of relationships from which the relationships of a node are
+     * kept in one chain per type and direction, so that getting the
+     * relationships of one type and direction doesn't read all the others. A
+     * node gets its relationships grouped when a relationship is added to it
+     * after they have all been loaded. Grouped relationships are kept in
+     * records that older versions and mixed version clusters read as plain
+     * relationships, so this is off by default (-1). Only turn it on for a
+     * store that no older version will read.
+     */
+    @Documented
+    public static final String DENSE_NODE_THRESHOLD = "dense_node_threshold";
     /** Enable a remote shell server which shell clients can log in to */
     @Documented
     public static final String ENABLE_REMOTE_SHELL = "enable_remote_shell";
@@ -129,6 +165,14 @@ public class Config implements DiagnosticsProvider
     /** The size to allocate for memory mapping the relationship store */
     @Documented
     public static final String RELATIONSHIP_STORE_MMAP_SIZE = "neostore.relationshipstore.db.mapped_memory";
+    /**
+     * The size to allocate for memory mapping all the store files together.
+     * When set the stores share this memory, mapping whichever parts of
+     * which store that are used the most, and the per store
+     * <code>*.mapped_memory</code> settings are ignored.
+     */
+    @Documented
+    public static final String MAPPED_MEMORY = "mapped_memory";
     /** Relative path for where the Neo4j logical log is located */
     @Documented
     public static final String LOGICAL_LOG = "logical_log";
@@ -138,10 +182,26 @@ public class Config implements DiagnosticsProvider
 
     /**
      * The type of cache to use for nodes and relationships, one of [weak, soft,
-     * none]
+     * strong, old, clock, offheap, none]. The old and clock caches are bounded
+     * by max_node_cache_size and max_relationship_cache_size, where clock keeps
+     * frequently used elements when many others are only read once. The
+     * offheap cache keeps that many elements on the heap and the rest outside
+     * of it.
      */
     @Documented
     public static final String CACHE_TYPE = "cache_type";
+    /**
+     * The amount of memory outside of the java heap the offheap cache type
+     * may use for nodes, e.g. 512M. Defaults to 128M.
+     */
+    @Documented
+    public static final String NODE_CACHE_OFF_HEAP_MEMORY = "node_cache_off_heap_memory";
+    /**
+     * The amount of memory outside of the java heap the offheap cache type
+     * may use for relationships, e.g. 512M. Defaults to 128M.
+     */
+    @Documented
+    public static final String RELATIONSHIP_CACHE_OFF_HEAP_MEMORY = "relationship_cache_off_heap_memory";
 
     /**
      * The name of the Transaction Manager service to use as defined in the TM
@@ -225,6 +285,38 @@ public class Config implements DiagnosticsProvider
     @Documented
     public static final String LUCENE_WRITER_CACHE_SIZE = "lucene_writer_cache_size";
 
+    /**
+     * Number of milliseconds that readers of a lucene index may be served a
+     * searcher which doesn't yet see the latest commits, while a refreshed
+     * one is opened in the background. The default is 0, i.e. no limit if
+     * lucene_searcher_refresh_interval is set, and otherwise that readers
+     * always see everything committed.
+     */
+    @Documented
+    public static final String LUCENE_SEARCHER_MAX_STALENESS = "lucene_searcher_max_staleness";
+
+    /**
+     * Minimum number of milliseconds between two refreshes of the searcher
+     * of a lucene index. If set, searchers are refreshed in the background,
+     * and all commits to an index in between are seen by the next refresh.
+     * Readers are then served the current searcher without waiting for a
+     * refresh, unless it's older than lucene_searcher_max_staleness allows.
+     * The default is 0, i.e. searchers are refreshed by the next reader.
+     */
+    @Documented
+    public static final String LUCENE_SEARCHER_REFRESH_INTERVAL = "lucene_searcher_refresh_interval";
+
+    /**
+     * Integer value that sets the maximum number of query results cached per
+     * lucene index. Results are cached as the ids they found, without scores,
+     * and are dropped when something is committed to the index. Queries
+     * which have to include additions made in their own transaction bypass
+     * the cache.
+     * The default is 0, i.e. no query results are cached.
+     */
+    @Documented
+    public static final String LUCENE_QUERY_CACHE_SIZE = "lucene_query_cache_size";
+
     static final String LOAD_EXTENSIONS = "load_kernel_extensions";
 
     private final AdaptiveCacheManager cacheManager;
@@ -19,14 +19,17 @@
  */
 package org.neo4j.kernel;
 
-import java.util.HashSet;
-import java.util.Set;
-
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.traversal.TraversalBranch;
+import org.neo4j.graphdb.traversal.UniquenessFilter;
+import org.neo4j.kernel.impl.traversal.ParallelUniquenessFilter;
+import org.neo4j.kernel.impl.util.PrimitiveLongSet;
 
-class GloballyUnique extends AbstractUniquenessFilter
+class GloballyUnique extends AbstractUniquenessFilter implements ParallelUniquenessFilter
 {
-    private final Set<Long> visited = new HashSet<Long>();
+    private PrimitiveLongSet visited;
     
     GloballyUnique( PrimitiveTypeFetcher type )
     {
@@ -35,6 +38,28 @@ class GloballyUnique extends AbstractUniquenessFilter
 
     public boolean check( TraversalBranch branch )
     {
+        if ( visited == null )
+        {
+            visited = new PrimitiveLongSet( 0, highestPossibleIdInUse( type, branch ) );
+        }
         return visited.add( type.getId( branch ) );
     }
+
+    public UniquenessFilter forThreads( int threads )
+    {
+        return new StripedGloballyUnique( type, threads );
+    }
+
+    // Decides how many visited ids it takes before a bitmap is cheaper
+    static long highestPossibleIdInUse( PrimitiveTypeFetcher type, TraversalBranch branch )
+    {
+        GraphDatabaseService graphDb = branch.node().getGraphDatabase();
+        if ( !( graphDb instanceof AbstractGraphDatabase ) )
+        {
+            return 0;
+        }
+        Config config = ( (AbstractGraphDatabase) graphDb ).getConfig();
+        Class<?> entityType = type == PrimitiveTypeFetcher.NODE ? Node.class : Relationship.class;
+        return config.getGraphDbModule().getNodeManager().getHighestPossibleIdInUse( entityType );
+    }
 }
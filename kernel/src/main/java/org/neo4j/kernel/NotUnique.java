@@ -20,8 +20,10 @@
 package org.neo4j.kernel;
 
 import org.neo4j.graphdb.traversal.TraversalBranch;
+import org.neo4j.graphdb.traversal.UniquenessFilter;
+import org.neo4j.kernel.impl.traversal.ParallelUniquenessFilter;
 
-class NotUnique extends AbstractUniquenessFilter
+class NotUnique extends AbstractUniquenessFilter implements ParallelUniquenessFilter
 {
     NotUnique()
     {
@@ -32,4 +34,10 @@ class NotUnique extends AbstractUniquenessFilter
     {
         return true;
     }
+
+    // Nothing is remembered between checks
+    public UniquenessFilter forThreads( int threads )
+    {
+        return this;
+    }
 }
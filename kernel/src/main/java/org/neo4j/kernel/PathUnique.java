@@ -20,8 +20,10 @@
 package org.neo4j.kernel;
 
 import org.neo4j.graphdb.traversal.TraversalBranch;
+import org.neo4j.graphdb.traversal.UniquenessFilter;
+import org.neo4j.kernel.impl.traversal.ParallelUniquenessFilter;
 
-class PathUnique extends AbstractUniquenessFilter
+class PathUnique extends AbstractUniquenessFilter implements ParallelUniquenessFilter
 {
     PathUnique( PrimitiveTypeFetcher type )
     {
@@ -40,4 +42,10 @@ class PathUnique extends AbstractUniquenessFilter
         }
         return true;
     }
+
+    // Keeps no state of its own, the checks only look at the branch
+    public UniquenessFilter forThreads( int threads )
+    {
+        return this;
+    }
 }
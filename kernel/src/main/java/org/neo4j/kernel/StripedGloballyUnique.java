@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel;
+
+import org.neo4j.graphdb.traversal.TraversalBranch;
+import org.neo4j.kernel.impl.util.PrimitiveLongSet;
+
+/**
+ * The thread safe version of {@link GloballyUnique}, used by parallel
+ * traversals. The visited ids are spread over a number of sets, each
+ * guarded by its own lock, so that threads checking different ids rarely
+ * wait for each other.
+ */
+class StripedGloballyUnique extends AbstractUniquenessFilter
+{
+    private final Stripe[] stripes;
+    private final int shift;
+
+    StripedGloballyUnique( PrimitiveTypeFetcher type, int threads )
+    {
+        super( type );
+        int count = 1;
+        while ( count < threads * 4 )
+        {
+            count <<= 1;
+        }
+        this.stripes = new Stripe[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            stripes[i] = new Stripe();
+        }
+        this.shift = 64 - Integer.numberOfTrailingZeros( count );
+    }
+
+    public boolean check( TraversalBranch branch )
+    {
+        long id = type.getId( branch );
+        return stripeFor( id ).add( id, branch );
+    }
+
+    private Stripe stripeFor( long id )
+    {
+        if ( stripes.length == 1 )
+        {
+            return stripes[0];
+        }
+        // spread ids in sequence over all stripes
+        return stripes[(int) ( ( id * 0x9E3779B97F4A7C15L ) >>> shift )];
+    }
+
+    private class Stripe
+    {
+        private PrimitiveLongSet visited;
+
+        synchronized boolean add( long id, TraversalBranch branch )
+        {
+            if ( visited == null )
+            {
+                visited = new PrimitiveLongSet( 0, GloballyUnique.highestPossibleIdInUse( type, branch ) );
+            }
+            return visited.add( id );
+        }
+    }
+}
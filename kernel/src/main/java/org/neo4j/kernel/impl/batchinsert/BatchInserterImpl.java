@@ -59,12 +59,14 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyType;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeStore;
 import org.neo4j.kernel.impl.nioneo.store.UnderlyingStorageException;
 import org.neo4j.kernel.impl.util.FileUtils;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
 import org.neo4j.kernel.impl.util.StringLogger;
 
 public class BatchInserterImpl implements BatchInserter
@@ -436,12 +438,8 @@ public class BatchInserterImpl implements BatchInserter
         type, Map<String,Object> properties )
     {
         NodeRecord firstNode = getNodeRecord( node1 );
-        NodeRecord secondNode = getNodeRecord( node2 );
-        int typeId = typeHolder.getTypeId( type.name() );
-        if ( typeId == -1 )
-        {
-            typeId = createNewRelationshipType( type.name() );
-        }
+        NodeRecord secondNode = node1 == node2 ? firstNode : getNodeRecord( node2 );
+        int typeId = getOrCreateRelationshipType( type.name() );
         long id = getRelationshipStore().nextId();
         RelationshipRecord record = new RelationshipRecord( id, node1, node2, typeId );
         record.setInUse( true );
@@ -459,19 +457,22 @@ public class BatchInserterImpl implements BatchInserter
     {
         assert firstNode.getNextRel() != rel.getId();
         assert secondNode.getNextRel() != rel.getId();
-        rel.setFirstNextRel( firstNode.getNextRel() );
-        rel.setSecondNextRel( secondNode.getNextRel() );
-        connect( firstNode, rel );
-        connect( secondNode, rel );
-        firstNode.setNextRel( rel.getId() );
-        secondNode.setNextRel( rel.getId() );
+        rel.setFirstNextRel( connect( firstNode, rel ) );
+        rel.setSecondNextRel( firstNode == secondNode ? rel.getFirstNextRel() :
+                connect( secondNode, rel ) );
     }
 
-    private void connect( NodeRecord node, RelationshipRecord rel )
+    /*
+     * Puts rel first in the chain of the node, or in the chain of its group
+     * if the node is dense, returning the relationship which was first before.
+     */
+    private long connect( NodeRecord node, RelationshipRecord rel )
     {
-        if ( node.getNextRel() != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        RelationshipGroupRecord group = getGroupToConnectTo( node, rel );
+        long first = group != null ? group.getFirstRel() : node.getNextRel();
+        if ( first != Record.NO_NEXT_RELATIONSHIP.intValue() )
         {
-            RelationshipRecord nextRel = getRelationshipStore().getRecord( node.getNextRel() );
+            RelationshipRecord nextRel = getRelationshipStore().getRecord( first );
             boolean changed = false;
             if ( nextRel.getFirstNode() == node.getId() )
             {
@@ -489,6 +490,88 @@ public class BatchInserterImpl implements BatchInserter
             }
             getRelationshipStore().updateRecord( nextRel );
         }
+        if ( group != null )
+        {
+            group.setFirstRel( rel.getId() );
+            group.setCount( group.getCount() + 1 );
+            getRelationshipStore().updateRecord( group );
+        }
+        else
+        {
+            node.setNextRel( rel.getId() );
+        }
+        return first;
+    }
+
+    // Returns null if the node isn't dense, creating the group if it's missing
+    private RelationshipGroupRecord getGroupToConnectTo( NodeRecord node, RelationshipRecord rel )
+    {
+        List<RelationshipGroupRecord> groups = getRelationshipStore().getGroups(
+                node.getId(), node.getNextRel() );
+        if ( groups == null )
+        {
+            return null;
+        }
+        DirectionWrapper direction = RelationshipGroupRecord.directionOf( rel, node.getId() );
+        for ( RelationshipGroupRecord group : groups )
+        {
+            if ( group.getType() == rel.getType() && group.getDirection() == direction )
+            {
+                return group;
+            }
+        }
+        RelationshipGroupRecord group = new RelationshipGroupRecord(
+                getRelationshipStore().nextId(), node.getId(), rel.getType(), direction );
+        group.setInUse( true );
+        group.setCreated();
+        group.setNextGroup( node.getNextRel() );
+        node.setNextRel( group.getId() );
+        return group;
+    }
+
+    /*
+     * The parallel importer links the relationships it imports first in the
+     * chain of a node. If the node is dense they're moved into its groups,
+     * which the last of them points on to.
+     */
+    void groupImportedRelationships( long nodeId, long lastImported )
+    {
+        NodeRecord node = getNodeRecord( nodeId );
+        List<RelationshipRecord> imported = new ArrayList<RelationshipRecord>();
+        long relId = node.getNextRel();
+        long groupId;
+        while ( true )
+        {
+            RelationshipRecord rel = getRelationshipStore().getRecord( relId );
+            imported.add( rel );
+            long next = rel.getFirstNode() == nodeId ? rel.getFirstNextRel() : rel.getSecondNextRel();
+            if ( relId == lastImported )
+            {
+                groupId = next;
+                break;
+            }
+            relId = next;
+        }
+        node.setNextRel( groupId );
+        // Backwards, so that they keep their order in the groups
+        for ( int i = imported.size() - 1; i >= 0; i-- )
+        {
+            // Read again, the other node may have changed it
+            RelationshipRecord rel = getRelationshipStore().getRecord( imported.get( i ).getId() );
+            long next = connect( node, rel );
+            if ( rel.getFirstNode() == nodeId )
+            {
+                rel.setFirstPrevRel( Record.NO_PREV_RELATIONSHIP.intValue() );
+                rel.setFirstNextRel( next );
+            }
+            if ( rel.getSecondNode() == nodeId )
+            {
+                rel.setSecondPrevRel( Record.NO_PREV_RELATIONSHIP.intValue() );
+                rel.setSecondNextRel( next );
+            }
+            getRelationshipStore().updateRecord( rel );
+        }
+        getNodeStore().updateRecord( node );
     }
 
     public void setNodeProperties( long node, Map<String,Object> properties )
@@ -548,45 +631,53 @@ public class BatchInserterImpl implements BatchInserter
 
     public Iterable<Long> getRelationshipIds( long nodeId )
     {
-        NodeRecord nodeRecord = getNodeRecord( nodeId );
-        long nextRel = nodeRecord.getNextRel();
         List<Long> ids = new ArrayList<Long>();
-        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        for ( RelationshipRecord relRecord : getRelationshipRecords( nodeId ) )
         {
-            RelationshipRecord relRecord = getRelationshipRecord( nextRel );
             ids.add( relRecord.getId() );
-            long firstNode = relRecord.getFirstNode();
-            long secondNode = relRecord.getSecondNode();
-            if ( firstNode == nodeId )
-            {
-                nextRel = relRecord.getFirstNextRel();
-            }
-            else if ( secondNode == nodeId )
-            {
-                nextRel = relRecord.getSecondNextRel();
-            }
-            else
-            {
-                throw new InvalidRecordException( "Node[" + nodeId +
-                    "] not part of firstNode[" + firstNode +
-                    "] or secondNode[" + secondNode + "]" );
-            }
         }
         return ids;
     }
 
     public Iterable<SimpleRelationship> getRelationships( long nodeId )
     {
-        NodeRecord nodeRecord = getNodeRecord( nodeId );
-        long nextRel = nodeRecord.getNextRel();
         List<SimpleRelationship> rels = new ArrayList<SimpleRelationship>();
-        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        for ( RelationshipRecord relRecord : getRelationshipRecords( nodeId ) )
         {
-            RelationshipRecord relRecord = getRelationshipRecord( nextRel );
             RelationshipType type = new RelationshipTypeImpl(
                 typeHolder.getName( relRecord.getType() ) );
             rels.add( new SimpleRelationship( relRecord.getId(),
                 relRecord.getFirstNode(), relRecord.getSecondNode(), type ) );
+        }
+        return rels;
+    }
+
+    private List<RelationshipRecord> getRelationshipRecords( long nodeId )
+    {
+        NodeRecord nodeRecord = getNodeRecord( nodeId );
+        List<RelationshipRecord> rels = new ArrayList<RelationshipRecord>();
+        List<RelationshipGroupRecord> groups = getRelationshipStore().getGroups(
+                nodeId, nodeRecord.getNextRel() );
+        if ( groups == null )
+        {
+            addRelationshipChain( nodeId, nodeRecord.getNextRel(), rels );
+        }
+        else
+        {
+            for ( RelationshipGroupRecord group : groups )
+            {
+                addRelationshipChain( nodeId, group.getFirstRel(), rels );
+            }
+        }
+        return rels;
+    }
+
+    private void addRelationshipChain( long nodeId, long nextRel, List<RelationshipRecord> rels )
+    {
+        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipRecord relRecord = getRelationshipRecord( nextRel );
+            rels.add( relRecord );
             long firstNode = relRecord.getFirstNode();
             long secondNode = relRecord.getSecondNode();
             if ( firstNode == nodeId )
@@ -604,7 +695,6 @@ public class BatchInserterImpl implements BatchInserter
                     "] or secondNode[" + secondNode + "]" );
             }
         }
-        return rels;
     }
 
     public SimpleRelationship getRelationshipById( long relId )
@@ -668,7 +758,11 @@ public class BatchInserterImpl implements BatchInserter
         }
     }
 
-    private long createPropertyChain( Map<String,Object> properties )
+    /**
+     * Creates the property records for {@code properties}, returning the id of
+     * the first one. May be called from several threads at once.
+     */
+    long createPropertyChain( Map<String,Object> properties )
     {
         if ( properties == null || properties.isEmpty() )
         {
@@ -685,7 +779,7 @@ public class BatchInserterImpl implements BatchInserter
             int keyId = indexHolder.getKeyId( entry.getKey() );
             if ( keyId == -1 )
             {
-                keyId = createNewPropertyIndex( entry.getKey() );
+                keyId = getOrCreatePropertyIndex( entry.getKey() );
             }
 
             PropertyBlock block = new PropertyBlock();
@@ -775,6 +869,12 @@ public class BatchInserterImpl implements BatchInserter
         return properties;
     }
 
+    private synchronized int getOrCreatePropertyIndex( String stringKey )
+    {
+        int keyId = indexHolder.getKeyId( stringKey );
+        return keyId != -1 ? keyId : createNewPropertyIndex( stringKey );
+    }
+
     private int createNewPropertyIndex( String stringKey )
     {
         PropertyIndexStore idxStore = getPropertyIndexStore();
@@ -795,6 +895,12 @@ public class BatchInserterImpl implements BatchInserter
         return keyId;
     }
 
+    int getOrCreateRelationshipType( String name )
+    {
+        int typeId = typeHolder.getTypeId( name );
+        return typeId != -1 ? typeId : createNewRelationshipType( name );
+    }
+
     private int createNewRelationshipType( String name )
     {
         RelationshipTypeStore typeStore = getRelationshipTypeStore();
@@ -814,6 +920,11 @@ public class BatchInserterImpl implements BatchInserter
         return id;
     }
 
+    NeoStore getNeoStore()
+    {
+        return neoStore;
+    }
+
     private NodeStore getNodeStore()
     {
         return neoStore.getNodeStore();
@@ -854,7 +965,12 @@ public class BatchInserterImpl implements BatchInserter
         {
             throw new NotFoundException( "id=" + id );
         }
-        return getRelationshipStore().getRecord( id );
+        RelationshipRecord record = getRelationshipStore().getRecord( id );
+        if ( record instanceof RelationshipGroupRecord )
+        {
+            throw new NotFoundException( "id=" + id );
+        }
+        return record;
     }
 
     private String fixPath( String dir, Map<?,?> config )
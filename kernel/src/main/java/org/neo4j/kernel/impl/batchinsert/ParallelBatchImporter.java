@@ -0,0 +1,561 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.batchinsert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.helpers.ProgressIndicator;
+import org.neo4j.kernel.impl.nioneo.store.IdGeneratorImpl;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
+import org.neo4j.kernel.impl.nioneo.store.UnderlyingStorageException;
+
+/**
+ * Imports streams of nodes and relationships through a {@link BatchInserterImpl},
+ * spreading the work over several threads. The streams are read on the calling
+ * thread, which also hands out ids and decides how relationships are chained,
+ * while property encoding and record writing happen in batches on the importer
+ * threads. Relationships are imported in these steps:
+ * <ol>
+ * <li>Each relationship is put first in the chains of its nodes, keeping only
+ * the first relationship of every node in memory. Its record is written with
+ * the next pointers, but no previous pointers, set.</li>
+ * <li>The first relationship of every node is written to the node records, in
+ * parallel over ranges of nodes.</li>
+ * <li>The relationship records are visited in descending id order, which is the
+ * order of every node's chain, filling in the previous pointers.</li>
+ * </ol>
+ * This reads and writes the stores sequentially, rather than following the
+ * chains of the nodes, which is what makes importing relationships one by one
+ * through {@link BatchInserter#createRelationship} slow for large graphs. It
+ * needs 8 bytes of heap per node in the store while importing relationships.
+ * <p>
+ * Progress is reported as one source per step to the {@link ProgressIndicator}:
+ * one count per node for {@link #importNodes(Iterator)}, and for
+ * {@link #importRelationships(Iterator)} one count per relationship, one per
+ * node and one per relationship again. When relationships are added to a store
+ * that already has relationships there is an initial step with one count per
+ * node, reading their current first relationships.
+ * <p>
+ * Like the batch inserter itself, only one thread at a time may use the
+ * importer and the batch inserter it imports through.
+ */
+public class ParallelBatchImporter
+{
+    private static final int BATCH_SIZE = 1000;
+    private static final long NONE = Record.NO_NEXT_RELATIONSHIP.intValue();
+
+    private final BatchInserterImpl inserter;
+    private final int threads;
+    private final ProgressIndicator progress;
+
+    public ParallelBatchImporter( BatchInserterImpl inserter, ProgressIndicator progress )
+    {
+        this( inserter, Runtime.getRuntime().availableProcessors(), progress );
+    }
+
+    public ParallelBatchImporter( BatchInserterImpl inserter, int threads,
+            ProgressIndicator progress )
+    {
+        if ( threads < 1 )
+        {
+            throw new IllegalArgumentException( "Illegal number of threads: " + threads );
+        }
+        this.inserter = inserter;
+        this.threads = threads;
+        this.progress = progress;
+    }
+
+    /**
+     * Imports nodes with the given properties. The nodes get ids in the order
+     * they come in, starting at the returned id and counting up, except for the
+     * reserved id {@link IdGeneratorImpl#INTEGER_MINUS_ONE}.
+     *
+     * @param nodes the properties of the nodes to import, or <code>null</code>
+     * for nodes without properties.
+     * @return the id of the first imported node.
+     */
+    public long importNodes( Iterator<Map<String,Object>> nodes )
+    {
+        final NodeStore nodeStore = inserter.getNeoStore().getNodeStore();
+        long firstId = skipReserved( nodeStore.getHighId() );
+        long nextId = firstId;
+        Step step = new Step( "nodes" );
+        try
+        {
+            while ( nodes.hasNext() )
+            {
+                final long[] ids = new long[BATCH_SIZE];
+                final List<Map<String,Object>> properties = new ArrayList<Map<String,Object>>();
+                for ( int i = 0; i < BATCH_SIZE && nodes.hasNext(); i++ )
+                {
+                    nextId = skipReserved( nextId );
+                    ids[i] = nextId++;
+                    properties.add( nodes.next() );
+                }
+                nodeStore.setHighId( nextId );
+                step.submit( new Callable<Integer>()
+                {
+                    public Integer call()
+                    {
+                        for ( int i = 0; i < properties.size(); i++ )
+                        {
+                            NodeRecord record = new NodeRecord( ids[i],
+                                    Record.NO_NEXT_RELATIONSHIP.intValue(),
+                                    Record.NO_NEXT_PROPERTY.intValue() );
+                            record.setInUse( true );
+                            record.setCreated();
+                            record.setNextProp( inserter.createPropertyChain( properties.get( i ) ) );
+                            nodeStore.updateRecord( record );
+                        }
+                        return properties.size();
+                    }
+                } );
+            }
+            step.complete();
+        }
+        finally
+        {
+            step.close();
+        }
+        return firstId;
+    }
+
+    /**
+     * Imports relationships between existing nodes. Relationships get ids in
+     * the order they come in, like the nodes in {@link #importNodes(Iterator)}.
+     *
+     * @param relationships the relationships to import.
+     * @throws NotFoundException if a relationship refers to a node which
+     * doesn't exist.
+     */
+    public void importRelationships( Iterator<InputRelationship> relationships )
+    {
+        NodeStore nodeStore = inserter.getNeoStore().getNodeStore();
+        RelationshipStore relStore = inserter.getNeoStore().getRelationshipStore();
+        long nodeCount = nodeStore.getHighId();
+        boolean hadRelationships = relStore.getHighId() > 0;
+        FirstRelationships first = new FirstRelationships( nodeCount );
+        if ( hadRelationships )
+        {
+            readFirstRelationships( first, nodeCount );
+        }
+        long firstId = skipReserved( relStore.getHighId() );
+        long endId = linkAndWriteRelationships( relationships, first, firstId, nodeCount );
+        writeFirstRelationships( first, nodeCount );
+        // From here on it keeps the previous relationship of each node instead
+        first.clear();
+        writePreviousPointers( first, firstId, endId );
+        if ( hadRelationships )
+        {
+            linkToExistingChains( first, nodeCount, firstId );
+        }
+    }
+
+    private void readFirstRelationships( final FirstRelationships first, long nodeCount )
+    {
+        final NodeStore nodeStore = inserter.getNeoStore().getNodeStore();
+        Step step = new Step( "read node chains" );
+        try
+        {
+            for ( long batchStart = 0; batchStart < nodeCount; batchStart += BATCH_SIZE )
+            {
+                final long start = batchStart;
+                final long end = Math.min( nodeCount, start + BATCH_SIZE );
+                step.submit( new Callable<Integer>()
+                {
+                    public Integer call()
+                    {
+                        for ( long id = start; id < end; id++ )
+                        {
+                            NodeRecord record = nodeStore.loadLightNode( id );
+                            if ( record != null )
+                            {
+                                first.set( id, record.getNextRel() );
+                            }
+                        }
+                        return (int) (end - start);
+                    }
+                } );
+            }
+            step.complete();
+        }
+        finally
+        {
+            step.close();
+        }
+    }
+
+    private long linkAndWriteRelationships( Iterator<InputRelationship> relationships,
+            FirstRelationships first, long firstId, long nodeCount )
+    {
+        final RelationshipStore relStore = inserter.getNeoStore().getRelationshipStore();
+        long nextId = firstId;
+        Step step = new Step( "relationships" );
+        try
+        {
+            while ( relationships.hasNext() )
+            {
+                final List<RelationshipRecord> records = new ArrayList<RelationshipRecord>();
+                final List<Map<String,Object>> properties = new ArrayList<Map<String,Object>>();
+                for ( int i = 0; i < BATCH_SIZE && relationships.hasNext(); i++ )
+                {
+                    InputRelationship input = relationships.next();
+                    long startNode = checkNode( input.getStartNode(), nodeCount );
+                    long endNode = checkNode( input.getEndNode(), nodeCount );
+                    int typeId = inserter.getOrCreateRelationshipType( input.getType().name() );
+                    nextId = skipReserved( nextId );
+                    RelationshipRecord record = new RelationshipRecord( nextId, startNode, endNode, typeId );
+                    record.setInUse( true );
+                    record.setCreated();
+                    record.setFirstNextRel( first.get( startNode ) );
+                    record.setSecondNextRel( first.get( endNode ) );
+                    first.set( startNode, nextId );
+                    first.set( endNode, nextId );
+                    records.add( record );
+                    properties.add( input.getProperties() );
+                    nextId++;
+                }
+                relStore.setHighId( nextId );
+                step.submit( new Callable<Integer>()
+                {
+                    public Integer call()
+                    {
+                        for ( int i = 0; i < records.size(); i++ )
+                        {
+                            RelationshipRecord record = records.get( i );
+                            record.setNextProp( inserter.createPropertyChain( properties.get( i ) ) );
+                            relStore.updateRecord( record );
+                        }
+                        return records.size();
+                    }
+                } );
+            }
+            step.complete();
+        }
+        finally
+        {
+            step.close();
+        }
+        return nextId;
+    }
+
+    private void writeFirstRelationships( final FirstRelationships first, long nodeCount )
+    {
+        final NodeStore nodeStore = inserter.getNeoStore().getNodeStore();
+        Step step = new Step( "node chains" );
+        try
+        {
+            for ( long batchStart = 0; batchStart < nodeCount; batchStart += BATCH_SIZE )
+            {
+                final long start = batchStart;
+                final long end = Math.min( nodeCount, start + BATCH_SIZE );
+                step.submit( new Callable<Integer>()
+                {
+                    public Integer call()
+                    {
+                        for ( long id = start; id < end; id++ )
+                        {
+                            long firstRel = first.get( id );
+                            if ( firstRel == NONE )
+                            {
+                                continue;
+                            }
+                            NodeRecord record = nodeStore.loadLightNode( id );
+                            if ( record == null )
+                            {
+                                throw new NotFoundException( "Node[" + id + "] not in use" );
+                            }
+                            if ( record.getNextRel() != firstRel )
+                            {
+                                record.setNextRel( firstRel );
+                                nodeStore.updateRecord( record );
+                            }
+                        }
+                        return (int) (end - start);
+                    }
+                } );
+            }
+            step.complete();
+        }
+        finally
+        {
+            step.close();
+        }
+    }
+
+    private void writePreviousPointers( FirstRelationships previous, long firstId, long endId )
+    {
+        final RelationshipStore relStore = inserter.getNeoStore().getRelationshipStore();
+        Step step = new Step( "relationship chains" );
+        try
+        {
+            for ( long batchEnd = endId; batchEnd > firstId; batchEnd -= BATCH_SIZE )
+            {
+                long start = Math.max( firstId, batchEnd - BATCH_SIZE );
+                final List<RelationshipRecord> records = new ArrayList<RelationshipRecord>();
+                for ( long id = batchEnd - 1; id >= start; id-- )
+                {
+                    if ( id == IdGeneratorImpl.INTEGER_MINUS_ONE )
+                    {
+                        continue;
+                    }
+                    RelationshipRecord record = relStore.getRecord( id );
+                    long startNode = record.getFirstNode();
+                    long endNode = record.getSecondNode();
+                    // A relationship is the first in the chains of its nodes
+                    // that have no relationship with a higher id
+                    record.setFirstPrevRel( previous.get( startNode ) );
+                    record.setSecondPrevRel( previous.get( endNode ) );
+                    previous.set( startNode, id );
+                    previous.set( endNode, id );
+                    if ( record.getFirstPrevRel() != NONE || record.getSecondPrevRel() != NONE )
+                    {
+                        records.add( record );
+                    }
+                }
+                final int count = (int) (batchEnd - start);
+                step.submit( new Callable<Integer>()
+                {
+                    public Integer call()
+                    {
+                        for ( RelationshipRecord record : records )
+                        {
+                            relStore.updateRecord( record );
+                        }
+                        return count;
+                    }
+                } );
+            }
+            step.complete();
+        }
+        finally
+        {
+            step.close();
+        }
+    }
+
+    /*
+     * The last imported relationship of a node points on to the first one it
+     * had before the import, which in turn has to point back to it. A dense
+     * node has its groups there instead, and gets the imported relationships
+     * moved into them.
+     */
+    private void linkToExistingChains( FirstRelationships lastImported, long nodeCount, long firstId )
+    {
+        RelationshipStore relStore = inserter.getNeoStore().getRelationshipStore();
+        for ( long node = 0; node < nodeCount; node++ )
+        {
+            long relId = lastImported.get( node );
+            if ( relId == NONE )
+            {
+                continue;
+            }
+            RelationshipRecord last = relStore.getRecord( relId );
+            long existingId = last.getFirstNode() == node ? last.getFirstNextRel() : last.getSecondNextRel();
+            if ( existingId == NONE )
+            {
+                continue;
+            }
+            assert existingId < firstId;
+            RelationshipRecord existing = relStore.getRecord( existingId );
+            if ( existing instanceof RelationshipGroupRecord )
+            {
+                inserter.groupImportedRelationships( node, relId );
+                continue;
+            }
+            if ( existing.getFirstNode() == node )
+            {
+                existing.setFirstPrevRel( relId );
+            }
+            if ( existing.getSecondNode() == node )
+            {
+                existing.setSecondPrevRel( relId );
+            }
+            relStore.updateRecord( existing );
+        }
+    }
+
+    private static long checkNode( long id, long nodeCount )
+    {
+        if ( id < 0 || id >= nodeCount )
+        {
+            throw new NotFoundException( "id=" + id );
+        }
+        return id;
+    }
+
+    private static long skipReserved( long id )
+    {
+        return id == IdGeneratorImpl.INTEGER_MINUS_ONE ? id + 1 : id;
+    }
+
+    /**
+     * Runs the batches of one step on the importer threads, keeping at most
+     * two batches per thread in flight so that the stream isn't read much
+     * ahead of the writing. Batches are completed, and their progress
+     * reported, in the order they were submitted.
+     */
+    private class Step
+    {
+        private final ExecutorService executor;
+        private final LinkedList<Future<Integer>> inFlight = new LinkedList<Future<Integer>>();
+        private long count;
+
+        Step( final String name )
+        {
+            executor = Executors.newFixedThreadPool( threads, new ThreadFactory()
+            {
+                private int threadNumber;
+
+                public synchronized Thread newThread( Runnable runnable )
+                {
+                    Thread thread = new Thread( runnable, "Batch importer " + name + "-" + threadNumber++ );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            } );
+        }
+
+        void submit( Callable<Integer> batch )
+        {
+            if ( inFlight.size() >= threads * 2 )
+            {
+                completeOldest();
+            }
+            inFlight.add( executor.submit( batch ) );
+        }
+
+        void complete()
+        {
+            while ( !inFlight.isEmpty() )
+            {
+                completeOldest();
+            }
+            progress.done( count );
+        }
+
+        private void completeOldest()
+        {
+            Future<Integer> batch = inFlight.removeFirst();
+            int batchCount;
+            try
+            {
+                batchCount = batch.get();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new UnderlyingStorageException( "Interrupted while importing", e );
+            }
+            catch ( ExecutionException e )
+            {
+                if ( e.getCause() instanceof RuntimeException )
+                {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new UnderlyingStorageException( e.getCause() );
+            }
+            count += batchCount;
+            progress.update( true, batchCount );
+        }
+
+        /**
+         * Stops the threads, waiting for batches already being written.
+         * Interrupting them could close the store files.
+         */
+        void close()
+        {
+            for ( Future<Integer> batch : inFlight )
+            {
+                batch.cancel( false );
+            }
+            executor.shutdown();
+            try
+            {
+                while ( !executor.awaitTermination( 1, TimeUnit.SECONDS ) )
+                {
+                    // keep waiting
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * A relationship id per node, kept in chunks since there can be more nodes
+     * than fit in one array.
+     */
+    private static class FirstRelationships
+    {
+        private static final int CHUNK_BITS = 20;
+        private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+        private final long[][] chunks;
+
+        FirstRelationships( long size )
+        {
+            chunks = new long[(int) ((size + CHUNK_MASK) >>> CHUNK_BITS)][];
+            for ( int i = 0; i < chunks.length; i++ )
+            {
+                chunks[i] = new long[1 << CHUNK_BITS];
+            }
+            clear();
+        }
+
+        long get( long node )
+        {
+            return chunks[(int) (node >>> CHUNK_BITS)][(int) (node & CHUNK_MASK)];
+        }
+
+        void set( long node, long relationship )
+        {
+            chunks[(int) (node >>> CHUNK_BITS)][(int) (node & CHUNK_MASK)] = relationship;
+        }
+
+        void clear()
+        {
+            for ( long[] chunk : chunks )
+            {
+                Arrays.fill( chunk, NONE );
+            }
+        }
+    }
+}
@@ -19,16 +19,19 @@
  */
 package org.neo4j.kernel.impl.batchinsert;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.kernel.impl.nioneo.store.NameData;
-import org.neo4j.kernel.impl.util.ArrayMap;
 
 public class PropertyIndexHolder
 {
-    private final ArrayMap<String,Integer> propertyIndexes = 
-        new ArrayMap<String,Integer>( 5, false, false);
-    private final ArrayMap<Integer,String> idToIndex = 
-        new ArrayMap<Integer,String>( 5, false, false);
+    // Concurrent since the ParallelBatchImporter looks up keys from several threads
+    private final Map<String,Integer> propertyIndexes =
+        new ConcurrentHashMap<String,Integer>();
+    private final Map<Integer,String> idToIndex =
+        new ConcurrentHashMap<Integer,String>();
     
     PropertyIndexHolder( NameData[] indexes )
     {
@@ -0,0 +1,413 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded cache where {@link #get(Object)} never takes a lock and a scan
+ * over many elements that are only touched once doesn't evict the elements
+ * that are used over and over again.
+ * <p>
+ * The elements are spread over a number of segments, each locked on its own
+ * when elements are added or removed. Within a segment a 2Q policy is used:
+ * new elements are put in a probation queue and evicted from it in FIFO order
+ * while remembering their keys. Only an element that is put again while its
+ * key is remembered gets into the main part of the segment, which is evicted
+ * using the CLOCK algorithm. A hit only sets a referenced flag on the element,
+ * which gives it another turn around the clock.
+ * <p>
+ * The number of elements is bounded by {@link #maxSize()}, split evenly
+ * between the segments but at least one per segment. Removed elements are
+ * dropped lazily from the queues of their segment, and count towards the
+ * size of the segment until then.
+ */
+public class ClockCache<K,V> implements Cache<K,V>
+{
+    private static final int MAX_SEGMENT_COUNT = 16;
+
+    private final String name;
+    private final ConcurrentHashMap<K,Entry<K,V>> cache = new ConcurrentHashMap<K,Entry<K,V>>();
+    private final Segment[] segments;
+    private volatile int maxSize;
+
+    /**
+     * Creates a clock cache. If <CODE>maxSize < 1</CODE> an
+     * IllegalArgumentException is thrown.
+     *
+     * @param name
+     *            name of cache
+     * @param maxSize
+     *            maximum number of elements in this cache
+     */
+    public ClockCache( String name, int maxSize )
+    {
+        this( name, maxSize, defaultSegmentCount() );
+    }
+
+    ClockCache( String name, int maxSize, int segmentCount )
+    {
+        if ( name == null || maxSize < 1 )
+        {
+            throw new IllegalArgumentException( "maxSize=" + maxSize
+                + ", name=" + name );
+        }
+        if ( segmentCount < 1 || Integer.bitCount( segmentCount ) != 1 )
+        {
+            throw new IllegalArgumentException( "segmentCount=" + segmentCount
+                + " must be a power of two" );
+        }
+        this.name = name;
+        segments = newSegments( segmentCount );
+        for ( int i = 0; i < segmentCount; i++ )
+        {
+            segments[i] = new Segment();
+        }
+        setMaxSize( maxSize );
+    }
+
+    @SuppressWarnings( { "unchecked", "rawtypes" } )
+    private Segment[] newSegments( int segmentCount )
+    {
+        return new ClockCache.Segment[segmentCount];
+    }
+
+    private static int defaultSegmentCount()
+    {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int segmentCount = 1;
+        while ( segmentCount < MAX_SEGMENT_COUNT && segmentCount < processors )
+        {
+            segmentCount *= 2;
+        }
+        return segmentCount;
+    }
+
+    private void setMaxSize( int maxSize )
+    {
+        this.maxSize = maxSize;
+        int segmentSize = Math.max( 1, maxSize / segments.length );
+        for ( Segment segment : segments )
+        {
+            synchronized ( segment )
+            {
+                segment.setCapacity( segmentSize );
+            }
+        }
+    }
+
+    private Segment segmentFor( Object key )
+    {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return segments[hash & (segments.length - 1)];
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public void put( K key, V value )
+    {
+        if ( key == null || value == null )
+        {
+            throw new IllegalArgumentException( "key=" + key + ", element="
+                + value );
+        }
+        Segment segment = segmentFor( key );
+        synchronized ( segment )
+        {
+            segment.put( key, value );
+        }
+    }
+
+    public V remove( K key )
+    {
+        if ( key == null )
+        {
+            throw new IllegalArgumentException( "Null parameter" );
+        }
+        Segment segment = segmentFor( key );
+        synchronized ( segment )
+        {
+            Entry<K,V> entry = cache.remove( key );
+            if ( entry == null )
+            {
+                return null;
+            }
+            entry.removed = true;
+            return entry.value;
+        }
+    }
+
+    public V get( K key )
+    {
+        if ( key == null )
+        {
+            throw new IllegalArgumentException();
+        }
+        Entry<K,V> entry = cache.get( key );
+        if ( entry == null )
+        {
+            return counter.count( null );
+        }
+        if ( !entry.referenced )
+        {
+            entry.referenced = true;
+        }
+        return counter.count( entry.value );
+    }
+
+    public void clear()
+    {
+        for ( Segment segment : segments )
+        {
+            synchronized ( segment )
+            {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size()
+    {
+        return cache.size();
+    }
+
+    public void elementCleaned( V value )
+    {
+    }
+
+    public int maxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Changes the maximum number of elements in this cache, evicting elements
+     * if the cache is larger than {@code newSize}.
+     */
+    public void resize( int newSize )
+    {
+        if ( newSize < 1 )
+        {
+            throw new IllegalArgumentException( "newMaxSize=" + newSize );
+        }
+        setMaxSize( newSize );
+    }
+
+    public boolean isAdaptive()
+    {
+        return false;
+    }
+
+    public void setAdaptiveStatus( boolean status )
+    {
+    }
+
+    public void putAll( Map<K,V> map )
+    {
+        for ( Map.Entry<K,V> entry : map.entrySet() )
+        {
+            put( entry.getKey(), entry.getValue() );
+        }
+    }
+
+    private final HitCounter counter = HitCounter.create();
+
+    @Override
+    public long hitCount()
+    {
+        return counter.getHitsCount();
+    }
+
+    @Override
+    public long missCount()
+    {
+        return counter.getMissCount();
+    }
+
+    private static class Entry<K,V>
+    {
+        final K key;
+        volatile V value;
+        volatile boolean referenced;
+        volatile boolean removed;
+
+        Entry( K key, V value )
+        {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /*
+     * All methods are invoked holding the monitor of the segment.
+     */
+    private class Segment
+    {
+        private final ArrayDeque<Entry<K,V>> probation = new ArrayDeque<Entry<K,V>>();
+        private final LinkedHashSet<K> ghosts = new LinkedHashSet<K>();
+        private final ArrayList<Entry<K,V>> clock = new ArrayList<Entry<K,V>>();
+        private int hand;
+        private int capacity;
+        private int probationCapacity;
+        private int ghostCapacity;
+
+        void setCapacity( int capacity )
+        {
+            this.capacity = capacity;
+            this.probationCapacity = Math.max( 1, capacity / 4 );
+            this.ghostCapacity = Math.max( 1, capacity / 2 );
+            evictIfNeeded();
+            trimGhosts();
+        }
+
+        void put( K key, V value )
+        {
+            Entry<K,V> entry = cache.get( key );
+            if ( entry != null )
+            {
+                entry.value = value;
+                entry.referenced = true;
+                return;
+            }
+            entry = new Entry<K,V>( key, value );
+            if ( ghosts.remove( key ) )
+            {
+                clock.add( entry );
+            }
+            else
+            {
+                probation.addLast( entry );
+            }
+            cache.put( key, entry );
+            evictIfNeeded();
+        }
+
+        private void evictIfNeeded()
+        {
+            while ( probation.size() + clock.size() > capacity )
+            {
+                if ( probation.size() > probationCapacity || clock.isEmpty() )
+                {
+                    evictFromProbation();
+                }
+                else
+                {
+                    evictFromClock();
+                }
+            }
+        }
+
+        private void evictFromProbation()
+        {
+            Entry<K,V> entry = probation.removeFirst();
+            if ( entry.removed )
+            {
+                return;
+            }
+            ghosts.add( entry.key );
+            trimGhosts();
+            evict( entry );
+        }
+
+        private void trimGhosts()
+        {
+            Iterator<K> oldest = ghosts.iterator();
+            while ( ghosts.size() > ghostCapacity )
+            {
+                oldest.next();
+                oldest.remove();
+            }
+        }
+
+        private void evictFromClock()
+        {
+            while ( true )
+            {
+                if ( hand >= clock.size() )
+                {
+                    hand = 0;
+                }
+                Entry<K,V> entry = clock.get( hand );
+                if ( entry.removed )
+                {
+                    removeFromClock( hand );
+                    return;
+                }
+                if ( entry.referenced )
+                {
+                    entry.referenced = false;
+                    hand++;
+                    continue;
+                }
+                removeFromClock( hand );
+                evict( entry );
+                return;
+            }
+        }
+
+        private void removeFromClock( int index )
+        {
+            Entry<K,V> last = clock.remove( clock.size() - 1 );
+            if ( index < clock.size() )
+            {
+                clock.set( index, last );
+            }
+        }
+
+        private void evict( Entry<K,V> entry )
+        {
+            entry.removed = true;
+            cache.remove( entry.key, entry );
+            elementCleaned( entry.value );
+        }
+
+        void clear()
+        {
+            for ( Entry<K,V> entry : probation )
+            {
+                if ( !entry.removed )
+                {
+                    evict( entry );
+                }
+            }
+            for ( Entry<K,V> entry : clock )
+            {
+                if ( !entry.removed )
+                {
+                    evict( entry );
+                }
+            }
+            probation.clear();
+            clock.clear();
+            ghosts.clear();
+            hand = 0;
+        }
+    }
+}
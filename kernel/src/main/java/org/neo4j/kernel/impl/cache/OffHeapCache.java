@@ -0,0 +1,541 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A cache that keeps only its most recently used elements as objects on the
+ * java heap. Elements pushed out from there are serialized into direct memory,
+ * outside of the heap, and materialized again by the {@link Serializer} when
+ * asked for. This way a large cache doesn't burden the garbage collector.
+ * <p>
+ * Direct memory is used as a circular log of entries, split into slabs that
+ * are allocated on demand until the byte budget is reached. When there's no
+ * room for a new entry the oldest ones are dropped. The position of each
+ * entry is kept in a primitive hash table so that the cache doesn't create
+ * any objects on the heap for entries outside of the heap.
+ * <p>
+ * Since the elements on the heap can be changed in place, an element put
+ * again is always considered to be the current one, and its serialized copy,
+ * if any, is thrown away. Keys must be non-negative.
+ */
+public class OffHeapCache<V> implements Cache<Long,V>
+{
+    /**
+     * Writes elements to, and reads them from, direct memory.
+     */
+    public interface Serializer<V>
+    {
+        /**
+         * Writes {@code value} to {@code target}. The state written must be
+         * consistent even if {@code value} is concurrently modified.
+         *
+         * @throws BufferOverflowException if {@code target} is too small,
+         * in which case it's retried with a bigger buffer.
+         */
+        void write( V value, ByteBuffer target );
+
+        /**
+         * Reads an element written by {@link #write(Object, ByteBuffer)}.
+         */
+        V read( long key, ByteBuffer source );
+    }
+
+    private static final Logger log = Logger.getLogger( OffHeapCache.class.getName() );
+
+    private static final int MAX_SLAB_SIZE = 32 * 1024 * 1024;
+    // key (long) and payload length (int)
+    private static final int HEADER_SIZE = 12;
+    private static final long PADDING = -1;
+
+    private final String name;
+    private final Serializer<V> serializer;
+    private final Map<Long,V> heapCache = new LinkedHashMap<Long,V>( 500, 0.75f, true )
+    {
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<Long,V> eldest )
+        {
+            if ( super.size() > maxSize )
+            {
+                write( eldest.getKey(), eldest.getValue() );
+                return true;
+            }
+            return false;
+        }
+    };
+    private int maxSize;
+
+    private final PositionIndex index = new PositionIndex();
+    private final ByteBuffer[] slabs;
+    private final int slabSize;
+    private long capacity;
+    private long head;
+    private long tail;
+    private long used;
+    private ByteBuffer writeBuffer = ByteBuffer.allocate( 1024 );
+
+    /**
+     * Creates an off heap cache. If <CODE>maxSize < 1</CODE> or
+     * <CODE>maxBytes < 1</CODE> an IllegalArgumentException is thrown.
+     *
+     * @param name
+     *            name of cache
+     * @param maxSize
+     *            maximum number of elements kept on the heap
+     * @param maxBytes
+     *            maximum number of bytes of direct memory to use, rounded
+     *            down to a multiple of the slab size
+     * @param serializer
+     *            writes and reads the elements kept off the heap
+     */
+    public OffHeapCache( String name, int maxSize, long maxBytes, Serializer<V> serializer )
+    {
+        if ( name == null || maxSize < 1 || maxBytes < 1 )
+        {
+            throw new IllegalArgumentException( "maxSize=" + maxSize
+                + ", maxBytes=" + maxBytes + ", name=" + name );
+        }
+        this.name = name;
+        this.maxSize = maxSize;
+        this.serializer = serializer;
+        this.slabSize = (int) Math.min( maxBytes, MAX_SLAB_SIZE );
+        this.slabs = new ByteBuffer[(int) (maxBytes / slabSize)];
+        this.capacity = (long) slabs.length * slabSize;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public synchronized void put( Long key, V element )
+    {
+        if ( key == null || element == null || key < 0 )
+        {
+            throw new IllegalArgumentException( "key=" + key + ", element="
+                + element );
+        }
+        index.remove( key );
+        heapCache.put( key, element );
+    }
+
+    /**
+     * Removes the element for {@code key}, returning it if it was held on
+     * the heap.
+     */
+    public synchronized V remove( Long key )
+    {
+        if ( key == null )
+        {
+            throw new IllegalArgumentException( "Null parameter" );
+        }
+        index.remove( key );
+        return heapCache.remove( key );
+    }
+
+    public synchronized V get( Long key )
+    {
+        if ( key == null )
+        {
+            throw new IllegalArgumentException();
+        }
+        V element = heapCache.get( key );
+        if ( element == null )
+        {
+            long position = index.remove( key );
+            if ( position != PositionIndex.NONE )
+            {
+                element = read( key, position );
+                heapCache.put( key, element );
+            }
+        }
+        return counter.count( element );
+    }
+
+    public synchronized void clear()
+    {
+        heapCache.clear();
+        index.clear();
+        head = 0;
+        tail = 0;
+        used = 0;
+    }
+
+    public synchronized int size()
+    {
+        return heapCache.size() + index.size();
+    }
+
+    /**
+     * @return the number of bytes of direct memory in use for elements kept
+     * off the heap, including entries not yet reclaimed.
+     */
+    public synchronized long usedBytes()
+    {
+        return used;
+    }
+
+    public void elementCleaned( V element )
+    {
+    }
+
+    /**
+     * Returns the maximum number of elements kept on the heap.
+     */
+    public int maxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Changes the maximum number of elements kept on the heap, moving the
+     * least recently used ones off the heap if there are more than
+     * {@code newSize}.
+     */
+    public synchronized void resize( int newSize )
+    {
+        if ( newSize < 1 )
+        {
+            throw new IllegalArgumentException( "newMaxSize=" + newSize );
+        }
+        maxSize = newSize;
+        java.util.Iterator<Map.Entry<Long,V>> itr = heapCache.entrySet().iterator();
+        while ( itr.hasNext() && heapCache.size() > maxSize )
+        {
+            Map.Entry<Long,V> eldest = itr.next();
+            itr.remove();
+            write( eldest.getKey(), eldest.getValue() );
+        }
+    }
+
+    public boolean isAdaptive()
+    {
+        return false;
+    }
+
+    public void setAdaptiveStatus( boolean status )
+    {
+    }
+
+    public synchronized void putAll( Map<Long,V> map )
+    {
+        for ( Map.Entry<Long,V> entry : map.entrySet() )
+        {
+            put( entry.getKey(), entry.getValue() );
+        }
+    }
+
+    private final HitCounter counter = HitCounter.create();
+
+    @Override
+    public long hitCount()
+    {
+        return counter.getHitsCount();
+    }
+
+    @Override
+    public long missCount()
+    {
+        return counter.getMissCount();
+    }
+
+    private void write( long key, V element )
+    {
+        ByteBuffer payload = serialize( element );
+        if ( payload == null )
+        {
+            return;
+        }
+        int length = payload.remaining();
+        long position = allocate( HEADER_SIZE + length );
+        if ( position == PositionIndex.NONE )
+        {
+            return;
+        }
+        ByteBuffer slab = slabs[(int) (position / slabSize)];
+        int offset = (int) (position % slabSize);
+        slab.putLong( offset, key );
+        slab.putInt( offset + 8, length );
+        ByteBuffer target = slab.duplicate();
+        target.position( offset + HEADER_SIZE );
+        target.put( payload );
+        index.put( key, position );
+    }
+
+    private ByteBuffer serialize( V element )
+    {
+        while ( true )
+        {
+            writeBuffer.clear();
+            try
+            {
+                serializer.write( element, writeBuffer );
+                writeBuffer.flip();
+                return writeBuffer.remaining() <= slabSize - HEADER_SIZE ? writeBuffer : null;
+            }
+            catch ( BufferOverflowException e )
+            {
+                if ( writeBuffer.capacity() >= slabSize - HEADER_SIZE )
+                {
+                    // Too big to keep off the heap, it will have to be loaded again
+                    return null;
+                }
+                writeBuffer = ByteBuffer.allocate( (int) Math.min(
+                        writeBuffer.capacity() * 2L, slabSize - HEADER_SIZE ) );
+            }
+        }
+    }
+
+    private V read( long key, long position )
+    {
+        ByteBuffer source = slabs[(int) (position / slabSize)].duplicate();
+        int offset = (int) (position % slabSize);
+        source.position( offset + HEADER_SIZE );
+        source.limit( offset + HEADER_SIZE + source.getInt( offset + 8 ) );
+        return serializer.read( key, source );
+    }
+
+    /*
+     * Reserves size bytes at the head of the log, dropping the oldest
+     * entries until there's room. An entry never spans two slabs, the rest
+     * of a slab is skipped if the entry doesn't fit in it.
+     */
+    private long allocate( int size )
+    {
+        if ( capacity == 0 )
+        {
+            return PositionIndex.NONE;
+        }
+        int remaining = slabSize - (int) (head % slabSize);
+        if ( remaining < size )
+        {
+            reserve( remaining );
+            if ( remaining >= HEADER_SIZE )
+            {
+                slabs[(int) (head / slabSize)].putLong( (int) (head % slabSize), PADDING );
+            }
+            advanceHead( remaining );
+        }
+        if ( slabs[(int) (head / slabSize)] == null && !allocateSlab( (int) (head / slabSize) ) )
+        {
+            return PositionIndex.NONE;
+        }
+        reserve( size );
+        long position = head;
+        advanceHead( size );
+        return position;
+    }
+
+    /*
+     * Slabs are allocated in order as the head first reaches them, so if
+     * there's no more direct memory to get the log is just made shorter.
+     */
+    private boolean allocateSlab( int slab )
+    {
+        try
+        {
+            slabs[slab] = ByteBuffer.allocateDirect( slabSize );
+            return true;
+        }
+        catch ( OutOfMemoryError e )
+        {
+            capacity = (long) slab * slabSize;
+            log.warning( name + " unable to allocate more direct memory, using "
+                    + capacity + " bytes: " + e.getMessage() );
+            head = 0;
+            if ( tail >= capacity )
+            {
+                tail = 0;
+            }
+            return capacity > 0;
+        }
+    }
+
+    private void reserve( int size )
+    {
+        while ( capacity - used < size )
+        {
+            dropOldest();
+        }
+        used += size;
+    }
+
+    private void advanceHead( int size )
+    {
+        head += size;
+        if ( head >= capacity )
+        {
+            head = 0;
+        }
+    }
+
+    private void dropOldest()
+    {
+        int offset = (int) (tail % slabSize);
+        int remaining = slabSize - offset;
+        ByteBuffer slab = slabs[(int) (tail / slabSize)];
+        int size = remaining;
+        if ( remaining >= HEADER_SIZE )
+        {
+            long key = slab.getLong( offset );
+            if ( key != PADDING )
+            {
+                size = HEADER_SIZE + slab.getInt( offset + 8 );
+                if ( index.get( key ) == tail )
+                {
+                    index.remove( key );
+                }
+            }
+        }
+        used -= size;
+        tail += size;
+        if ( tail >= capacity )
+        {
+            tail = 0;
+        }
+    }
+
+    /**
+     * Maps keys to positions in an open addressing hash table of longs,
+     * using linear probing and backward shift deletion.
+     */
+    private static class PositionIndex
+    {
+        static final long NONE = -1;
+        private static final long FREE = -1;
+
+        private long[] keys;
+        private long[] positions;
+        private int size;
+
+        PositionIndex()
+        {
+            clear();
+        }
+
+        void clear()
+        {
+            keys = new long[1024];
+            positions = new long[keys.length];
+            Arrays.fill( keys, FREE );
+            size = 0;
+        }
+
+        int size()
+        {
+            return size;
+        }
+
+        long get( long key )
+        {
+            int mask = keys.length - 1;
+            for ( int slot = slotFor( key, mask ); ; slot = (slot + 1) & mask )
+            {
+                if ( keys[slot] == key )
+                {
+                    return positions[slot];
+                }
+                if ( keys[slot] == FREE )
+                {
+                    return NONE;
+                }
+            }
+        }
+
+        void put( long key, long position )
+        {
+            if ( (size + 1) * 4L > keys.length * 3L )
+            {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int slot = slotFor( key, mask );
+            while ( keys[slot] != FREE && keys[slot] != key )
+            {
+                slot = (slot + 1) & mask;
+            }
+            if ( keys[slot] == FREE )
+            {
+                keys[slot] = key;
+                size++;
+            }
+            positions[slot] = position;
+        }
+
+        long remove( long key )
+        {
+            int mask = keys.length - 1;
+            int slot = slotFor( key, mask );
+            while ( keys[slot] != key )
+            {
+                if ( keys[slot] == FREE )
+                {
+                    return NONE;
+                }
+                slot = (slot + 1) & mask;
+            }
+            long position = positions[slot];
+            // Move back entries that would otherwise be cut off from their slot
+            int free = slot;
+            for ( int next = (free + 1) & mask; keys[next] != FREE; next = (next + 1) & mask )
+            {
+                int home = slotFor( keys[next], mask );
+                if ( ((next - home) & mask) >= ((next - free) & mask) )
+                {
+                    keys[free] = keys[next];
+                    positions[free] = positions[next];
+                    free = next;
+                }
+            }
+            keys[free] = FREE;
+            size--;
+            return position;
+        }
+
+        private void grow()
+        {
+            long[] oldKeys = keys;
+            long[] oldPositions = positions;
+            keys = new long[oldKeys.length * 2];
+            positions = new long[keys.length];
+            Arrays.fill( keys, FREE );
+            size = 0;
+            for ( int i = 0; i < oldKeys.length; i++ )
+            {
+                if ( oldKeys[i] != FREE )
+                {
+                    put( oldKeys[i], oldPositions[i] );
+                }
+            }
+        }
+
+        private static int slotFor( long key, int mask )
+        {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+    }
+}
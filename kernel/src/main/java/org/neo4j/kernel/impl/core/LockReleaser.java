@@ -449,6 +449,7 @@ public class LockReleaser
                         nodeElement.relationshipRemoveMap, nodeElement.firstRel );
                     node.commitPropertyMaps( nodeElement.propertyAddMap,
                         nodeElement.propertyRemoveMap, nodeElement.firstProp );
+                    nodeManager.changedInCache( node );
                 }
                 else if ( param != Status.STATUS_ROLLEDBACK )
                 {
@@ -470,6 +471,7 @@ public class LockReleaser
                 {
                     rel.commitPropertyMaps( relElement.propertyAddMap,
                         relElement.propertyRemoveMap, Record.NO_NEXT_PROPERTY.intValue() );
+                    nodeManager.changedInCache( rel );
                 }
                 else if ( param != Status.STATUS_ROLLEDBACK )
                 {
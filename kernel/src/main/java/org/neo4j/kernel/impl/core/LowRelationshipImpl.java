@@ -67,7 +67,8 @@ class LowRelationshipImpl extends RelationshipImpl
         return (long)(((long)endNodeId&0xFFFFFFFFL) | ((idAndMore&0xF0000000000L)>>8));
     }
     
-    private int getTypeId()
+    @Override
+    int getTypeId()
     {
         return (int)((idAndMore&0xFFFF000000000000L)>>48);
     }
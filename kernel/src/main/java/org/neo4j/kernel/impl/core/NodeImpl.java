@@ -41,6 +41,7 @@ import org.neo4j.kernel.impl.core.LockReleaser.CowEntityElement;
 import org.neo4j.kernel.impl.core.LockReleaser.PrimitiveElement;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.transaction.LockType;
 import org.neo4j.kernel.impl.traversal.OldTraverserWrapper;
 import org.neo4j.kernel.impl.util.ArrayMap;
@@ -54,10 +55,13 @@ import static org.neo4j.kernel.impl.util.RelIdArray.empty;
 class NodeImpl extends ArrayBasedPrimitive
 {
     private static final RelIdArray[] NO_RELATIONSHIPS = new RelIdArray[0];
+    private static final RelationshipType[] NO_TYPES = new RelationshipType[0];
 
     private volatile RelIdArray[] relationships;
 
     private long relChainPosition = Record.NO_NEXT_RELATIONSHIP.intValue();
+    // Set for dense nodes, which load the chain of one group at a time
+    private volatile GroupChain[] groupChains;
     private final long id;
 
     NodeImpl( long id, long firstRel, long firstProp )
@@ -76,6 +80,15 @@ class NodeImpl extends ArrayBasedPrimitive
         if ( newNode ) relationships = NO_RELATIONSHIPS;
     }
 
+    // Used when materializing a node kept outside of the heap
+    NodeImpl( long id, RelIdArray[] relationships, long relChainPosition )
+    {
+        super( false );
+        this.id = id;
+        this.relationships = relationships;
+        this.relChainPosition = relChainPosition;
+    }
+
     @Override
     public long getId()
     {
@@ -200,28 +213,30 @@ class NodeImpl extends ArrayBasedPrimitive
     public Iterable<Relationship> getRelationships( NodeManager nodeManager )
     {
         return new IntArrayIterator( getAllRelationships( nodeManager, DirectionWrapper.BOTH ), this,
-            DirectionWrapper.BOTH, nodeManager, new RelationshipType[0], !hasMoreRelationshipsToLoad() );
+            DirectionWrapper.BOTH, nodeManager, NO_TYPES, !hasMoreRelationshipsToLoad() );
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager, Direction dir )
     {
         DirectionWrapper direction = RelIdArray.wrap( dir );
         return new IntArrayIterator( getAllRelationships( nodeManager, direction ), this, direction,
-            nodeManager, new RelationshipType[0], !hasMoreRelationshipsToLoad() );
+            nodeManager, NO_TYPES, !hasMoreRelationshipsToLoad( NO_TYPES, direction ) );
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager, RelationshipType type )
     {
         RelationshipType types[] = new RelationshipType[] { type };
         return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, DirectionWrapper.BOTH, types ),
-            this, DirectionWrapper.BOTH, nodeManager, types, !hasMoreRelationshipsToLoad() );
+            this, DirectionWrapper.BOTH, nodeManager, types,
+            !hasMoreRelationshipsToLoad( types, DirectionWrapper.BOTH ) );
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager,
             RelationshipType... types )
     {
         return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, DirectionWrapper.BOTH, types ),
-            this, DirectionWrapper.BOTH, nodeManager, types, !hasMoreRelationshipsToLoad() );
+            this, DirectionWrapper.BOTH, nodeManager, types,
+            !hasMoreRelationshipsToLoad( types, DirectionWrapper.BOTH ) );
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager,
@@ -229,7 +244,7 @@ class NodeImpl extends ArrayBasedPrimitive
     {
         DirectionWrapper dir = RelIdArray.wrap( direction );
         return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, dir, types ),
-            this, dir, nodeManager, types, !hasMoreRelationshipsToLoad() );
+            this, dir, nodeManager, types, !hasMoreRelationshipsToLoad( types, dir ) );
     }
 
     public Relationship getSingleRelationship( NodeManager nodeManager, RelationshipType type,
@@ -238,7 +253,8 @@ class NodeImpl extends ArrayBasedPrimitive
         DirectionWrapper direction = RelIdArray.wrap( dir );
         RelationshipType types[] = new RelationshipType[] { type };
         Iterator<Relationship> rels = new IntArrayIterator( getAllRelationshipsOfType( nodeManager,
-                direction, types ), this, direction, nodeManager, types, !hasMoreRelationshipsToLoad() );
+                direction, types ), this, direction, nodeManager, types,
+                !hasMoreRelationshipsToLoad( types, direction ) );
         if ( !rels.hasNext() )
         {
             return null;
@@ -258,7 +274,7 @@ class NodeImpl extends ArrayBasedPrimitive
         RelationshipType types[] = new RelationshipType[] { type };
         DirectionWrapper direction = RelIdArray.wrap( dir );
         return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, direction, types ),
-            this, direction, nodeManager, types, !hasMoreRelationshipsToLoad() );
+            this, direction, nodeManager, types, !hasMoreRelationshipsToLoad( types, direction ) );
     }
 
     public void delete( NodeManager nodeManager, Node proxy )
@@ -338,6 +354,14 @@ class NodeImpl extends ArrayBasedPrimitive
             if ( relationships == null )
             {
                 relChainPosition = nodeManager.getRelationshipChainPosition( this );
+                groupChains = loadGroupChains( nodeManager, relChainPosition );
+                if ( groupChains != null )
+                {
+                    // Dense node, the chains of its groups are loaded as they're asked for
+                    relChainPosition = Record.NO_NEXT_RELATIONSHIP.intValue();
+                    this.relationships = NO_RELATIONSHIPS;
+                    return;
+                }
                 ArrayMap<String,RelIdArray> tmpRelMap = new ArrayMap<String,RelIdArray>();
                 rels = getMoreRelationships( nodeManager, tmpRelMap );
                 this.relationships = toRelIdArray( tmpRelMap );
@@ -353,6 +377,27 @@ class NodeImpl extends ArrayBasedPrimitive
         }
     }
 
+    private GroupChain[] loadGroupChains( NodeManager nodeManager, long position )
+    {
+        if ( position == Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            return null;
+        }
+        List<RelationshipGroupRecord> groups = nodeManager.getRelationshipGroups( this, position );
+        if ( groups == null )
+        {
+            return null;
+        }
+        GroupChain[] chains = new GroupChain[groups.size()];
+        for ( int i = 0; i < chains.length; i++ )
+        {
+            RelationshipGroupRecord group = groups.get( i );
+            chains[i] = new GroupChain( nodeManager.getRelationshipTypeById( group.getType() ).name(),
+                    group.getDirection(), group.getFirstRel() );
+        }
+        return chains;
+    }
+
     private RelIdArray[] toRelIdArray( ArrayMap<String, RelIdArray> tmpRelMap )
     {
         if ( tmpRelMap == null || tmpRelMap.size() == 0 )
@@ -407,25 +452,54 @@ class NodeImpl extends ArrayBasedPrimitive
 
     boolean hasMoreRelationshipsToLoad()
     {
-        return getRelChainPosition() != Record.NO_NEXT_RELATIONSHIP.intValue();
+        return hasMoreRelationshipsToLoad( NO_TYPES, DirectionWrapper.BOTH );
+    }
+
+    boolean hasMoreRelationshipsToLoad( RelationshipType[] types, DirectionWrapper direction )
+    {
+        GroupChain[] chains = groupChains;
+        if ( chains == null )
+        {
+            return getRelChainPosition() != Record.NO_NEXT_RELATIONSHIP.intValue();
+        }
+        return nextChainToLoad( chains, types, direction ) != null;
     }
 
-    boolean getMoreRelationships( NodeManager nodeManager )
+    /**
+     * Loads another batch of relationships for this node. For a dense node
+     * only the chains of the groups matching {@code types} and
+     * {@code direction} are looked at, where no types means any type.
+     *
+     * @return whether or not any relationships were loaded.
+     */
+    boolean getMoreRelationships( NodeManager nodeManager, RelationshipType[] types,
+            DirectionWrapper direction )
     {
         Triplet<ArrayMap<String,RelIdArray>,Map<Long,RelationshipImpl>,Long> rels;
-        if ( !hasMoreRelationshipsToLoad() )
+        if ( !hasMoreRelationshipsToLoad( types, direction ) )
         {
             return false;
         }
         synchronized ( this )
         {
-            if ( !hasMoreRelationshipsToLoad() )
+            ArrayMap<String,RelIdArray> addMap;
+            GroupChain chain;
+            do
             {
-                return false;
-            }
-
-            rels = nodeManager.getMoreRelationships( this );
-            ArrayMap<String,RelIdArray> addMap = rels.first();
+                if ( !hasMoreRelationshipsToLoad( types, direction ) )
+                {
+                    return false;
+                }
+                chain = groupChains == null ? null : nextChainToLoad( groupChains, types, direction );
+                rels = chain == null ? nodeManager.getMoreRelationships( this ) :
+                        nodeManager.getMoreRelationships( this, chain.position );
+                addMap = rels.first();
+                if ( chain != null && addMap.size() == 0 )
+                {
+                    // Reached the end of this group, go on with the next
+                    chain.position = Record.NO_NEXT_RELATIONSHIP.intValue();
+                }
+            } while ( chain != null && addMap.size() == 0 );
             if ( addMap.size() == 0 )
             {
                 return false;
@@ -450,12 +524,108 @@ class NodeImpl extends ArrayBasedPrimitive
                 }
             }
 
-            setRelChainPosition( rels.third() );
+            if ( chain == null )
+            {
+                setRelChainPosition( rels.third() );
+            }
+            else
+            {
+                chain.position = rels.third();
+                shrinkIfFullyLoaded();
+            }
         }
         nodeManager.putAllInRelCache( rels.second() );
         return true;
     }
 
+    private static GroupChain nextChainToLoad( GroupChain[] chains, RelationshipType[] types,
+            DirectionWrapper direction )
+    {
+        for ( GroupChain chain : chains )
+        {
+            if ( chain.position != Record.NO_NEXT_RELATIONSHIP.intValue() && chain.matches( types, direction ) )
+            {
+                return chain;
+            }
+        }
+        return null;
+    }
+
+    // Whether or not this node has all of its relationships loaded, at least
+    // threshold of them committed, and they aren't grouped already
+    synchronized boolean shouldGroupRelationships( int threshold )
+    {
+        RelIdArray[] array = relationships;
+        if ( array == null || groupChains != null || hasMoreRelationshipsToLoad() )
+        {
+            return false;
+        }
+        int count = 0;
+        for ( RelIdArray ids : array )
+        {
+            for ( RelIdIterator iterator = ids.iterator( DirectionWrapper.BOTH );
+                    iterator.hasNext() && count < threshold; iterator.next() )
+            {
+                count++;
+            }
+        }
+        return count >= threshold;
+    }
+
+    boolean isDense()
+    {
+        return groupChains != null;
+    }
+
+    public int getDegree( NodeManager nodeManager, Direction dir, RelationshipType... types )
+    {
+        DirectionWrapper direction = RelIdArray.wrap( dir );
+        if ( !nodeManager.getLockReleaser().hasRelationshipModifications( this ) )
+        {
+            // Groups keep count of their relationships so a dense node needn't load them
+            long position = nodeManager.getRelationshipChainPosition( this );
+            List<RelationshipGroupRecord> groups = position == Record.NO_NEXT_RELATIONSHIP.intValue() ?
+                    null : nodeManager.getRelationshipGroups( this, position );
+            if ( groups != null )
+            {
+                int degree = 0;
+                for ( RelationshipGroupRecord group : groups )
+                {
+                    if ( group.matches( direction ) && isOfAnyType(
+                            nodeManager.getRelationshipTypeById( group.getType() ).name(), types ) )
+                    {
+                        degree += group.getCount();
+                    }
+                }
+                return degree;
+            }
+        }
+        int degree = 0;
+        Iterable<Relationship> rels = types.length == 0 ? getRelationships( nodeManager, dir ) :
+                getRelationships( nodeManager, dir, types );
+        for ( Iterator<Relationship> iterator = rels.iterator(); iterator.hasNext(); iterator.next() )
+        {
+            degree++;
+        }
+        return degree;
+    }
+
+    private static boolean isOfAnyType( String type, RelationshipType[] types )
+    {
+        if ( types.length == 0 )
+        {
+            return true;
+        }
+        for ( RelationshipType candidate : types )
+        {
+            if ( candidate.name().equals( type ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private RelIdArray getRelIdArray( String type )
     {
         // Concurrency-wise it's ok even if the relationships variable
@@ -637,6 +807,11 @@ class NodeImpl extends ArrayBasedPrimitive
     void setRelChainPosition( long position )
     { // precondition: must be called under synchronization
         relChainPosition = position;
+        shrinkIfFullyLoaded();
+    }
+
+    private void shrinkIfFullyLoaded()
+    { // precondition: must be called under synchronization
         // use local reference to avoid multiple read barriers
         RelIdArray[] array = relationships;
         if ( !hasMoreRelationshipsToLoad() && array != null )
@@ -670,4 +845,29 @@ class NodeImpl extends ArrayBasedPrimitive
     {
         return new NodeProxy( getId(), nm );
     }
+
+    /*
+     * Where loading of the relationships in one group of a dense node is at,
+     * see RelationshipGroupRecord. The position is only changed holding the
+     * monitor of the node.
+     */
+    private static class GroupChain
+    {
+        private final String type;
+        private final DirectionWrapper direction;
+        private volatile long position;
+
+        GroupChain( String type, DirectionWrapper direction, long position )
+        {
+            this.type = type;
+            this.direction = direction;
+            this.position = position;
+        }
+
+        boolean matches( RelationshipType[] types, DirectionWrapper wanted )
+        {
+            return ( wanted == DirectionWrapper.BOTH || direction == DirectionWrapper.BOTH ||
+                    wanted == direction ) && isOfAnyType( type, types );
+        }
+    }
 }
@@ -32,6 +32,7 @@ import java.util.logging.Logger;
 
 import javax.transaction.TransactionManager;
 
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.NotFoundException;
@@ -43,18 +44,23 @@ import org.neo4j.graphdb.index.Index;
 import org.neo4j.helpers.Pair;
 import org.neo4j.helpers.Triplet;
 import org.neo4j.helpers.collection.PrefetchingIterator;
+import org.neo4j.kernel.Config;
 import org.neo4j.kernel.PropertyTracker;
 import org.neo4j.kernel.impl.cache.AdaptiveCacheManager;
 import org.neo4j.kernel.impl.cache.Cache;
+import org.neo4j.kernel.impl.cache.ClockCache;
 import org.neo4j.kernel.impl.cache.LruCache;
 import org.neo4j.kernel.impl.cache.NoCache;
+import org.neo4j.kernel.impl.cache.OffHeapCache;
 import org.neo4j.kernel.impl.cache.SoftLruCache;
 import org.neo4j.kernel.impl.cache.StrongReferenceCache;
 import org.neo4j.kernel.impl.cache.WeakLruCache;
+import org.neo4j.kernel.impl.nioneo.store.CommonAbstractStore;
 import org.neo4j.kernel.impl.nioneo.store.NameData;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.persistence.EntityIdGenerator;
 import org.neo4j.kernel.impl.persistence.PersistenceManager;
@@ -94,6 +100,10 @@ public class NodeManager
     private int minRelCacheSize = 0;
     private int maxNodeCacheSize = 1500;
     private int maxRelCacheSize = 3500;
+    private int denseNodeThreshold = DEFAULT_DENSE_NODE_THRESHOLD;
+
+    // Off, since grouped relationships can't be read by older versions
+    static final int DEFAULT_DENSE_NODE_THRESHOLD = -1;
 
     private static final int LOCK_STRIPE_COUNT = 32;
     private final ReentrantLock loadLocks[] =
@@ -104,7 +114,8 @@ public class NodeManager
             AdaptiveCacheManager cacheManager, LockManager lockManager,
             LockReleaser lockReleaser, TransactionManager transactionManager,
             PersistenceManager persistenceManager, EntityIdGenerator idGenerator,
-            RelationshipTypeCreator relTypeCreator, CacheType cacheType )
+            RelationshipTypeCreator relTypeCreator, CacheType cacheType,
+            Map<Object,Object> params )
     {
         this.graphDbService = graphDb;
         this.cacheManager = cacheManager;
@@ -121,8 +132,8 @@ public class NodeManager
             persistenceManager, idGenerator, relTypeCreator );
 
         this.cacheType = cacheType;
-        this.nodeCache = cacheType.node( cacheManager );
-        this.relCache = cacheType.relationship( cacheManager );
+        this.nodeCache = cacheType.node( cacheManager, params );
+        this.relCache = cacheType.relationship( cacheManager, params );
         for ( int i = 0; i < loadLocks.length; i++ )
         {
             loadLocks[i] = new ReentrantLock();
@@ -231,6 +242,18 @@ public class NodeManager
                     + value );
             }
         }
+        if ( params.containsKey( Config.DENSE_NODE_THRESHOLD ) )
+        {
+            Object value = params.get( Config.DENSE_NODE_THRESHOLD );
+            try
+            {
+                denseNodeThreshold = Integer.parseInt( (String) value );
+            }
+            catch ( NumberFormatException e )
+            {
+                log.warning( "Unable to parse " + Config.DENSE_NODE_THRESHOLD + " " + value );
+            }
+        }
     }
 
     public void start( Map<Object,Object> params )
@@ -318,6 +341,11 @@ public class NodeManager
             firstNodeTaken = true;
             acquireLock( endNode, LockType.WRITE );
             secondNodeTaken = true;
+            groupRelationshipsIfDense( startNode );
+            if ( startNodeId != endNodeId )
+            {
+                groupRelationshipsIfDense( secondNode );
+            }
             persistenceManager.relationshipCreate( id, typeId, startNodeId,
                 endNodeId );
             if ( startNodeId == endNodeId )
@@ -467,6 +495,29 @@ public class NodeManager
         };
     }
 
+    /**
+     * Returns the number of relationships a node has in the given direction,
+     * of any of the given types or of any type if none are given. For a node
+     * with its relationships grouped by type and direction this is read from
+     * the counts kept with the groups, without loading the relationships.
+     *
+     * @param node the node to count the relationships of.
+     * @param direction the direction of the relationships to count.
+     * @param types the types of the relationships to count.
+     * @return the number of relationships matching {@code direction} and
+     * {@code types}.
+     * @throws NotFoundException if the node doesn't exist.
+     */
+    public int getDegree( Node node, Direction direction, RelationshipType... types )
+    {
+        NodeImpl nodeImpl = getLightNode( node.getId() );
+        if ( nodeImpl == null )
+        {
+            throw new NotFoundException( node + " not found." );
+        }
+        return nodeImpl.getDegree( this, direction, types );
+    }
+
     NodeImpl getLightNode( long nodeId )
     {
         NodeImpl node = nodeCache.get( nodeId );
@@ -659,10 +710,33 @@ public class NodeManager
         return persistenceManager.getRelationshipChainPosition( node.getId() );
     }
 
+    /*
+     * The relationships of a node are grouped by type and direction once it
+     * is known to have at least as many as the dense node threshold, which is
+     * when they have all been loaded. Caller holds the lock of the node.
+     */
+    private void groupRelationshipsIfDense( NodeImpl node )
+    {
+        if ( denseNodeThreshold > 0 && node.shouldGroupRelationships( denseNodeThreshold ) )
+        {
+            persistenceManager.nodeGroupRelationships( node.getId() );
+        }
+    }
+
+    List<RelationshipGroupRecord> getRelationshipGroups( NodeImpl node, long position )
+    {
+        return persistenceManager.getRelationshipGroups( node.getId(), position );
+    }
+
     Triplet<ArrayMap<String,RelIdArray>,Map<Long,RelationshipImpl>,Long> getMoreRelationships( NodeImpl node )
+    {
+        return getMoreRelationships( node, node.getRelChainPosition() );
+    }
+
+    Triplet<ArrayMap<String,RelIdArray>,Map<Long,RelationshipImpl>,Long> getMoreRelationships( NodeImpl node,
+            long position )
     {
         long nodeId = node.getId();
-        long position = node.getRelChainPosition();
         Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> rels =
             persistenceManager.getMoreRelationships( nodeId, position );
         ArrayMap<String,RelIdArray> newRelationshipMap =
@@ -1126,6 +1200,22 @@ public class NodeManager
         return relCache.get( nodeId );
     }
 
+    void changedInCache( NodeImpl node )
+    {
+        if ( cacheType.copiesElements() )
+        {
+            nodeCache.put( node.getId(), node );
+        }
+    }
+
+    void changedInCache( RelationshipImpl rel )
+    {
+        if ( cacheType.copiesElements() )
+        {
+            relCache.put( rel.getId(), rel );
+        }
+    }
+
     public ArrayMap<Integer,PropertyData> getCowPropertyRemoveMap(
         Primitive primitive )
     {
@@ -1211,13 +1301,13 @@ public class NodeManager
         weak( false, "weak reference cache" )
         {
             @Override
-            Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager )
+            Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager, Map<Object,Object> params )
             {
                 return new WeakLruCache<Long,NodeImpl>( NODE_CACHE_NAME );
             }
 
             @Override
-            Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager )
+            Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager, Map<Object,Object> params )
             {
                 return new WeakLruCache<Long,RelationshipImpl>( RELATIONSHIP_CACHE_NAME );
             }
@@ -1225,13 +1315,13 @@ public class NodeManager
         soft( false, "soft reference cache" )
         {
             @Override
-            Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager )
+            Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager, Map<Object,Object> params )
             {
                 return new SoftLruCache<Long,NodeImpl>( NODE_CACHE_NAME );
             }
 
             @Override
-            Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager )
+            Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager, Map<Object,Object> params )
             {
                 return new SoftLruCache<Long,RelationshipImpl>( RELATIONSHIP_CACHE_NAME );
             }
@@ -1239,13 +1329,13 @@ public class NodeManager
         old( true, "lru cache" )
         {
             @Override
-            Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager )
+            Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager, Map<Object,Object> params )
             {
                 return new LruCache<Long,NodeImpl>( NODE_CACHE_NAME, 1500, cacheManager );
             }
 
             @Override
-            Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager )
+            Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager, Map<Object,Object> params )
             {
                 return new LruCache<Long,RelationshipImpl>(
                         RELATIONSHIP_CACHE_NAME, 3500, cacheManager );
@@ -1254,13 +1344,13 @@ public class NodeManager
         none( false, "no cache" )
         {
             @Override
-            Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager )
+            Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager, Map<Object,Object> params )
             {
                 return new NoCache<Long, NodeImpl>( NODE_CACHE_NAME );
             }
 
             @Override
-            Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager )
+            Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager, Map<Object,Object> params )
             {
                 return new NoCache<Long, RelationshipImpl>( RELATIONSHIP_CACHE_NAME );
             }
@@ -1268,18 +1358,56 @@ public class NodeManager
         strong( false, "strong reference cache" )
         {
             @Override
-            Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager )
+            Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager, Map<Object,Object> params )
             {
                 return new StrongReferenceCache<Long,NodeImpl>( NODE_CACHE_NAME );
             }
 
             @Override
-            Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager )
+            Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager, Map<Object,Object> params )
             {
                 return new StrongReferenceCache<Long,RelationshipImpl>( RELATIONSHIP_CACHE_NAME );
             }
+        },
+        clock( false, "scan resistant clock cache" )
+        {
+            @Override
+            Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager, Map<Object,Object> params )
+            {
+                return new ClockCache<Long,NodeImpl>( NODE_CACHE_NAME, 1500 );
+            }
+
+            @Override
+            Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager, Map<Object,Object> params )
+            {
+                return new ClockCache<Long,RelationshipImpl>( RELATIONSHIP_CACHE_NAME, 3500 );
+            }
+        },
+        offheap( false, "off heap cache" )
+        {
+            @Override
+            Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager, Map<Object,Object> params )
+            {
+                return new OffHeapCache<NodeImpl>( NODE_CACHE_NAME, 1500,
+                        memory( params, Config.NODE_CACHE_OFF_HEAP_MEMORY ), PrimitiveSerializer.NODES );
+            }
+
+            @Override
+            Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager, Map<Object,Object> params )
+            {
+                return new OffHeapCache<RelationshipImpl>( RELATIONSHIP_CACHE_NAME, 3500,
+                        memory( params, Config.RELATIONSHIP_CACHE_OFF_HEAP_MEMORY ), PrimitiveSerializer.RELATIONSHIPS );
+            }
+
+            @Override
+            boolean copiesElements()
+            {
+                return true;
+            }
         };
 
+        private static final long DEFAULT_OFF_HEAP_MEMORY = 128 * 1024 * 1024;
+
         private static final String NODE_CACHE_NAME = "NodeCache";
         private static final String RELATIONSHIP_CACHE_NAME = "RelationshipCache";
 
@@ -1292,14 +1420,29 @@ public class NodeManager
             this.description = description;
         }
 
-        abstract Cache<Long,NodeImpl> node( AdaptiveCacheManager cacheManager );
+        abstract Cache<Long,NodeImpl> node( AdaptiveCacheManager cacheManager, Map<Object,Object> params );
 
-        abstract Cache<Long,RelationshipImpl> relationship( AdaptiveCacheManager cacheManager );
+        abstract Cache<Long,RelationshipImpl> relationship( AdaptiveCacheManager cacheManager, Map<Object,Object> params );
+
+        /**
+         * @return whether the caches keep copies of elements, which must then
+         * be put again when changed in place.
+         */
+        boolean copiesElements()
+        {
+            return false;
+        }
 
         public String getDescription()
         {
             return this.description;
         }
+
+        private static long memory( Map<Object,Object> params, String key )
+        {
+            long memory = CommonAbstractStore.parseMappedMemory( (String) params.get( key ), key );
+            return memory > 0 ? memory : DEFAULT_OFF_HEAP_MEMORY;
+        }
     }
 
     public void addNodePropertyTracker(
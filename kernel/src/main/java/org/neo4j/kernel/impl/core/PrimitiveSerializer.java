@@ -0,0 +1,238 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import java.nio.ByteBuffer;
+
+import org.neo4j.kernel.impl.cache.OffHeapCache;
+import org.neo4j.kernel.impl.nioneo.store.PropertyData;
+import org.neo4j.kernel.impl.nioneo.store.PropertyDatas;
+import org.neo4j.kernel.impl.util.ArrayMap;
+import org.neo4j.kernel.impl.util.RelIdArray;
+
+/**
+ * Writes the cached state of nodes and relationships for an
+ * {@link OffHeapCache}: loaded relationship ids and properties. Array
+ * property values aren't written, they are loaded again on demand just
+ * like after light loading of the properties.
+ */
+abstract class PrimitiveSerializer<T extends ArrayBasedPrimitive> implements OffHeapCache.Serializer<T>
+{
+    static final PrimitiveSerializer<NodeImpl> NODES = new PrimitiveSerializer<NodeImpl>()
+    {
+        @Override
+        public void write( NodeImpl node, ByteBuffer target )
+        {
+            // Relationships are loaded and committed holding the monitor of the node
+            synchronized ( node )
+            {
+                RelIdArray[] relationships = node.getRelationshipIds();
+                // A dense node is loaded again from its groups rather than
+                // having to keep the position in each of them
+                if ( relationships == null || node.isDense() )
+                {
+                    target.putInt( -1 );
+                }
+                else
+                {
+                    target.putInt( relationships.length );
+                    target.putLong( node.getRelChainPosition() );
+                    for ( RelIdArray ids : relationships )
+                    {
+                        ids.writeTo( target );
+                    }
+                }
+                writeProperties( node, target );
+            }
+        }
+
+        @Override
+        public NodeImpl read( long key, ByteBuffer source )
+        {
+            RelIdArray[] relationships = null;
+            long relChainPosition = -1;
+            int relationshipTypes = source.getInt();
+            if ( relationshipTypes >= 0 )
+            {
+                relationships = new RelIdArray[relationshipTypes];
+                relChainPosition = source.getLong();
+                for ( int i = 0; i < relationships.length; i++ )
+                {
+                    relationships[i] = RelIdArray.readFrom( source );
+                }
+            }
+            NodeImpl node = new NodeImpl( key, relationships, relChainPosition );
+            readProperties( node, source );
+            return node;
+        }
+    };
+
+    static final PrimitiveSerializer<RelationshipImpl> RELATIONSHIPS = new PrimitiveSerializer<RelationshipImpl>()
+    {
+        @Override
+        public void write( RelationshipImpl relationship, ByteBuffer target )
+        {
+            synchronized ( relationship )
+            {
+                target.putLong( relationship.getStartNodeId() );
+                target.putLong( relationship.getEndNodeId() );
+                target.putInt( relationship.getTypeId() );
+                writeProperties( relationship, target );
+            }
+        }
+
+        @Override
+        public RelationshipImpl read( long key, ByteBuffer source )
+        {
+            RelationshipImpl relationship = new LowRelationshipImpl( key,
+                    source.getLong(), source.getLong(), source.getInt(), false );
+            readProperties( relationship, source );
+            return relationship;
+        }
+    };
+
+    private static final byte NOT_LOADED = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte BYTE = 2;
+    private static final byte SHORT = 3;
+    private static final byte CHAR = 4;
+    private static final byte INT = 5;
+    private static final byte LONG = 6;
+    private static final byte FLOAT = 7;
+    private static final byte DOUBLE = 8;
+    private static final byte STRING = 9;
+
+    static void writeProperties( ArrayBasedPrimitive primitive, ByteBuffer target )
+    {
+        PropertyData[] properties = primitive.allProperties();
+        if ( properties == null )
+        {
+            target.putInt( -1 );
+            return;
+        }
+        target.putInt( properties.length );
+        for ( PropertyData property : properties )
+        {
+            target.putInt( property.getIndex() );
+            target.putLong( property.getId() );
+            writeValue( property.getValue(), target );
+        }
+    }
+
+    private static void writeValue( Object value, ByteBuffer target )
+    {
+        if ( value instanceof String )
+        {
+            String string = (String) value;
+            target.put( STRING );
+            target.putInt( string.length() );
+            for ( int i = 0; i < string.length(); i++ )
+            {
+                target.putChar( string.charAt( i ) );
+            }
+        }
+        else if ( value instanceof Integer )
+        {
+            target.put( INT ).putInt( (Integer) value );
+        }
+        else if ( value instanceof Long )
+        {
+            target.put( LONG ).putLong( (Long) value );
+        }
+        else if ( value instanceof Boolean )
+        {
+            target.put( BOOLEAN ).put( (byte) ((Boolean) value ? 1 : 0) );
+        }
+        else if ( value instanceof Double )
+        {
+            target.put( DOUBLE ).putDouble( (Double) value );
+        }
+        else if ( value instanceof Float )
+        {
+            target.put( FLOAT ).putFloat( (Float) value );
+        }
+        else if ( value instanceof Byte )
+        {
+            target.put( BYTE ).put( (Byte) value );
+        }
+        else if ( value instanceof Short )
+        {
+            target.put( SHORT ).putShort( (Short) value );
+        }
+        else if ( value instanceof Character )
+        {
+            target.put( CHAR ).putChar( (Character) value );
+        }
+        else
+        {
+            // Not loaded yet, or an array
+            target.put( NOT_LOADED );
+        }
+    }
+
+    static void readProperties( ArrayBasedPrimitive primitive, ByteBuffer source )
+    {
+        int count = source.getInt();
+        if ( count == -1 )
+        {
+            return;
+        }
+        if ( count == 0 )
+        {
+            primitive.setEmptyProperties();
+            return;
+        }
+        ArrayMap<Integer,PropertyData> properties =
+            new ArrayMap<Integer,PropertyData>( count, false, true );
+        for ( int i = 0; i < count; i++ )
+        {
+            PropertyData property = readProperty( source );
+            properties.put( property.getIndex(), property );
+        }
+        primitive.setProperties( properties );
+    }
+
+    private static PropertyData readProperty( ByteBuffer source )
+    {
+        int index = source.getInt();
+        long id = source.getLong();
+        byte type = source.get();
+        switch ( type )
+        {
+        case BOOLEAN: return PropertyDatas.forBoolean( index, id, source.get() != 0 );
+        case BYTE: return PropertyDatas.forByte( index, id, source.get() );
+        case SHORT: return PropertyDatas.forShort( index, id, source.getShort() );
+        case CHAR: return PropertyDatas.forChar( index, id, source.getChar() );
+        case INT: return PropertyDatas.forInt( index, id, source.getInt() );
+        case LONG: return PropertyDatas.forLong( index, id, source.getLong() );
+        case FLOAT: return PropertyDatas.forFloat( index, id, source.getFloat() );
+        case DOUBLE: return PropertyDatas.forDouble( index, id, source.getDouble() );
+        case STRING:
+            char[] chars = new char[source.getInt()];
+            for ( int i = 0; i < chars.length; i++ )
+            {
+                chars[i] = source.getChar();
+            }
+            return PropertyDatas.forStringOrArray( index, id, new String( chars ) );
+        case NOT_LOADED: return PropertyDatas.forStringOrArray( index, id, null );
+        default: throw new IllegalStateException( "Unknown property type " + type );
+        }
+    }
+}
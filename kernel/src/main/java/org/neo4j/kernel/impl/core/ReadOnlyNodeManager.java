@@ -19,6 +19,8 @@
  */
 package org.neo4j.kernel.impl.core;
 
+import java.util.Map;
+
 import javax.transaction.TransactionManager;
 
 import org.neo4j.graphdb.GraphDatabaseService;
@@ -38,10 +40,10 @@ class ReadOnlyNodeManager extends NodeManager
             AdaptiveCacheManager cacheManager, LockManager lockManager,
             LockReleaser lockReleaser, TransactionManager transactionManager,
             PersistenceManager persistenceManager, EntityIdGenerator idGenerator,
-            CacheType cacheType )
+            CacheType cacheType, Map<Object,Object> params )
     {
         super( graphDbService, cacheManager, lockManager, lockReleaser,
-                transactionManager, persistenceManager, idGenerator, null, cacheType );
+                transactionManager, persistenceManager, idGenerator, null, cacheType, params );
     }
 
     @Override
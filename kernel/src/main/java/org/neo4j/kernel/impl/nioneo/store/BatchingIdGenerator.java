@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An {@link IdGenerator} letting each thread allocate ids from a range of its
+ * own, reserved from the underlying generator through
+ * {@link IdGenerator#nextIdBatch(int)}. Ids freed by a thread are kept in a
+ * buffer of that thread and handed back to the underlying generator when the
+ * buffer fills up or the thread reserves its next range. This way most calls
+ * to {@link #nextId()} and {@link #freeId(long)} only touch state of the
+ * calling thread, instead of all of them contending on one monitor.
+ * <p>
+ * Ranges reserved by threads that have died, and those left when the generator
+ * is closed, are freed in the underlying generator so that the ids get reused.
+ * {@link #getHighId()} includes ids reserved but not yet handed out.
+ */
+public class BatchingIdGenerator implements IdGenerator
+{
+    private final IdGenerator delegate;
+    private final int batchSize;
+    private final boolean aggressiveReuse;
+    // Only added to by the owning thread and removed from under the delegate monitor
+    private final List<ThreadIds> allThreadIds = new CopyOnWriteArrayList<ThreadIds>();
+    private final ThreadLocal<ThreadIds> threadIds = new ThreadLocal<ThreadIds>()
+    {
+        @Override
+        protected ThreadIds initialValue()
+        {
+            ThreadIds ids = new ThreadIds( Thread.currentThread() );
+            allThreadIds.add( ids );
+            return ids;
+        }
+    };
+
+    /**
+     * @param delegate the generator to reserve ranges from and give freed ids to.
+     * @param batchSize the number of ids each thread reserves at a time, and
+     * the number of freed ids it keeps before handing them back.
+     * @param aggressiveReuse whether ids freed by a thread may be handed out
+     * again by that same thread before being given back.
+     */
+    public BatchingIdGenerator( IdGenerator delegate, int batchSize, boolean aggressiveReuse )
+    {
+        if ( batchSize < 1 )
+        {
+            throw new IllegalArgumentException( "Illegal batch size: " + batchSize );
+        }
+        this.delegate = delegate;
+        this.batchSize = batchSize;
+        this.aggressiveReuse = aggressiveReuse;
+    }
+
+    public long nextId()
+    {
+        return threadIds.get().nextId();
+    }
+
+    public IdRange nextIdBatch( int size )
+    {
+        return delegate.nextIdBatch( size );
+    }
+
+    public void freeId( long id )
+    {
+        if ( id == IdGeneratorImpl.INTEGER_MINUS_ONE )
+        {
+            return;
+        }
+        if ( id < 0 || id >= delegate.getHighId() )
+        {
+            throw new IllegalArgumentException( "Illegal id[" + id + "]" );
+        }
+        threadIds.get().freeId( id );
+    }
+
+    /**
+     * Sets the high id of the underlying generator. Unused ids reserved by
+     * threads are given back if they are below the new high id and dropped
+     * otherwise. Like for {@link IdGeneratorImpl} this isn't meant to be called
+     * while other threads are allocating ids.
+     */
+    public void setHighId( long id )
+    {
+        for ( ThreadIds ids : allThreadIds )
+        {
+            synchronized ( ids )
+            {
+                synchronized ( delegate )
+                {
+                    ids.release( id );
+                }
+            }
+        }
+        delegate.setHighId( id );
+    }
+
+    public long getHighId()
+    {
+        return delegate.getHighId();
+    }
+
+    public void close( boolean shutdown )
+    {
+        for ( ThreadIds ids : allThreadIds )
+        {
+            synchronized ( ids )
+            {
+                synchronized ( delegate )
+                {
+                    ids.release( delegate.getHighId() );
+                }
+            }
+        }
+        allThreadIds.clear();
+        delegate.close( shutdown );
+    }
+
+    /**
+     * Counts ids reserved by threads, but not yet handed out, as in use.
+     */
+    public long getNumberOfIdsInUse()
+    {
+        return delegate.getNumberOfIdsInUse();
+    }
+
+    public long getDefragCount()
+    {
+        return delegate.getDefragCount();
+    }
+
+    public void delete()
+    {
+        delegate.delete();
+    }
+
+    // Must be called holding the delegate monitor. Threads which have
+    // terminated won't touch their ids again, so no need for their monitors.
+    private void releaseIdsOfDeadThreads()
+    {
+        for ( ThreadIds ids : allThreadIds )
+        {
+            if ( !ids.owner.isAlive() )
+            {
+                ids.release( delegate.getHighId() );
+                allThreadIds.remove( ids );
+            }
+        }
+    }
+
+    private class ThreadIds
+    {
+        private final Thread owner;
+        private long[] defragIds = new long[0];
+        private int defragPosition;
+        private long nextInRange;
+        private long rangeEnd;
+        private final long[] freedIds = new long[batchSize];
+        private int freedCount;
+
+        ThreadIds( Thread owner )
+        {
+            this.owner = owner;
+        }
+
+        synchronized long nextId()
+        {
+            while ( true )
+            {
+                if ( aggressiveReuse && freedCount > 0 )
+                {
+                    return freedIds[--freedCount];
+                }
+                if ( defragPosition < defragIds.length )
+                {
+                    return defragIds[defragPosition++];
+                }
+                if ( nextInRange < rangeEnd )
+                {
+                    long id = nextInRange++;
+                    // Skip the integer -1, see IdGeneratorImpl#nextId
+                    if ( id != IdGeneratorImpl.INTEGER_MINUS_ONE )
+                    {
+                        return id;
+                    }
+                    continue;
+                }
+                IdRange range;
+                synchronized ( delegate )
+                {
+                    giveBackFreedIds();
+                    releaseIdsOfDeadThreads();
+                    range = delegate.nextIdBatch( batchSize );
+                }
+                defragIds = range.getDefragIds();
+                defragPosition = 0;
+                nextInRange = range.getRangeStart();
+                rangeEnd = nextInRange + range.getRangeLength();
+            }
+        }
+
+        synchronized void freeId( long id )
+        {
+            if ( freedCount == freedIds.length )
+            {
+                synchronized ( delegate )
+                {
+                    giveBackFreedIds();
+                }
+            }
+            freedIds[freedCount++] = id;
+        }
+
+        // Must be called holding the delegate monitor
+        private void giveBackFreedIds()
+        {
+            for ( int i = 0; i < freedCount; i++ )
+            {
+                delegate.freeId( freedIds[i] );
+            }
+            freedCount = 0;
+        }
+
+        // Must be called holding the delegate monitor. Gives back all ids
+        // below highId and forgets about the rest.
+        void release( long highId )
+        {
+            for ( int i = 0; i < freedCount; i++ )
+            {
+                if ( freedIds[i] < highId )
+                {
+                    delegate.freeId( freedIds[i] );
+                }
+            }
+            freedCount = 0;
+            while ( defragPosition < defragIds.length )
+            {
+                long id = defragIds[defragPosition++];
+                if ( id < highId )
+                {
+                    delegate.freeId( id );
+                }
+            }
+            for ( ; nextInRange < rangeEnd && nextInRange < highId; nextInRange++ )
+            {
+                delegate.freeId( nextInRange );
+            }
+            nextInRange = rangeEnd;
+        }
+    }
+}
@@ -31,6 +31,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.OverlappingFileLockException;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -221,9 +222,20 @@ public abstract class CommonAbstractStore
         }
         loadIdGenerator();
 
-        setWindowPool( new PersistenceWindowPool( getStorageFileName(),
-            getEffectiveRecordSize(), getFileChannel(), calculateMappedMemory( getConfig(), storageFileName ),
-            getIfMemoryMapped(), isReadOnly() && !isBackupSlave() ) );
+        SharedMappedMemory sharedMemory = getConfig() != null ?
+                (SharedMappedMemory) getConfig().get( SharedMappedMemory.class ) : null;
+        if ( sharedMemory != null )
+        {
+            setWindowPool( new PersistenceWindowPool( getStorageFileName(),
+                getEffectiveRecordSize(), getFileChannel(), sharedMemory,
+                getIfMemoryMapped(), isReadOnly() && !isBackupSlave() ) );
+        }
+        else
+        {
+            setWindowPool( new PersistenceWindowPool( getStorageFileName(),
+                getEffectiveRecordSize(), getFileChannel(), calculateMappedMemory( getConfig(), storageFileName ),
+                getIfMemoryMapped(), isReadOnly() && !isBackupSlave() ) );
+        }
     }
 
     protected abstract int getEffectiveRecordSize();
@@ -456,35 +468,51 @@ public abstract class CommonAbstractStore
             String convertSlash = storageFileName.replace( '\\', '/' );
             String realName = convertSlash.substring( convertSlash
                 .lastIndexOf( '/' ) + 1 );
-            String mem = (String) config.get( realName + ".mapped_memory" );
-            if ( mem != null )
+            return parseMappedMemory(
+                (String) config.get( realName + ".mapped_memory" ), storageFileName );
+        }
+        return 0;
+    }
+
+    /**
+     * Parses a memory size such as {@code "512M"}, with an optional
+     * {@code k}, {@code M} or {@code G} suffix.
+     *
+     * @param mem the size to parse, may be {@code null}.
+     * @param name what the size is for, used in the message logged if it
+     * can't be parsed.
+     * @return the size in bytes, or {@code 0} if {@code mem} is
+     * {@code null} or can't be parsed.
+     */
+    public static long parseMappedMemory( String mem, String name )
+    {
+        if ( mem != null )
+        {
+            mem = mem.trim().toLowerCase();
+            long multiplier = 1;
+            if ( mem.endsWith( "m" ) )
             {
-                mem = mem.trim().toLowerCase();
-                long multiplier = 1;
-                if ( mem.endsWith( "m" ) )
-                {
-                    multiplier = 1024 * 1024;
-                    mem = mem.substring( 0, mem.length() - 1 );
-                }
-                else if ( mem.endsWith( "k" ) )
-                {
-                    multiplier = 1024;
-                    mem = mem.substring( 0, mem.length() - 1 );
-                }
-                else if ( mem.endsWith( "g" ) )
-                {
-                    multiplier = 1024*1024*1024;
-                    mem = mem.substring( 0, mem.length() - 1 );
-                }
-                try
-                {
-                    return Integer.parseInt( mem ) * multiplier;
-                }
-                catch ( NumberFormatException e )
-                {
-                    logger.info( "Unable to parse mapped memory[" + mem
-                        + "] string for " + storageFileName );
-                }
+                multiplier = 1024 * 1024;
+                mem = mem.substring( 0, mem.length() - 1 );
+            }
+            else if ( mem.endsWith( "k" ) )
+            {
+                multiplier = 1024;
+                mem = mem.substring( 0, mem.length() - 1 );
+            }
+            else if ( mem.endsWith( "g" ) )
+            {
+                multiplier = 1024*1024*1024;
+                mem = mem.substring( 0, mem.length() - 1 );
+            }
+            try
+            {
+                return Integer.parseInt( mem ) * multiplier;
+            }
+            catch ( NumberFormatException e )
+            {
+                logger.info( "Unable to parse mapped memory[" + mem
+                    + "] string for " + name );
             }
         }
         return 0;
@@ -576,21 +604,23 @@ public abstract class CommonAbstractStore
         windowPool.flushAll();
     }
 
-    private boolean isRecovered = false;
+    // A count rather than a flag, since records can be recovered by more
+    // than one thread at a time
+    private final AtomicInteger recoveryCount = new AtomicInteger();
 
     public boolean isInRecoveryMode()
     {
-        return isRecovered;
+        return recoveryCount.get() > 0;
     }
 
     protected void setRecovered()
     {
-        isRecovered = true;
+        recoveryCount.incrementAndGet();
     }
 
     protected void unsetRecovered()
     {
-        isRecovered = false;
+        recoveryCount.decrementAndGet();
     }
 
     /**
@@ -609,6 +639,12 @@ public abstract class CommonAbstractStore
     protected void openIdGenerator( boolean firstTime )
     {
         idGenerator = openIdGenerator( storageFileName + ".id", idType.getGrabSize(), firstTime );
+        int batchSize = getIdBatchSize();
+        if ( batchSize > 1 )
+        {
+            idGenerator = new BatchingIdGenerator( idGenerator, batchSize,
+                    idType.allowAggressiveReuse() );
+        }
         
         /* MP: 2011-11-23
          * There may have been some migration done in the startup process, so if there have been some
@@ -626,6 +662,28 @@ public abstract class CommonAbstractStore
 
     protected abstract long figureOutHighestIdInUse();
 
+    /**
+     * Returns the number of ids threads should reserve at a time, 1 meaning
+     * they all allocate from the id generator one by one. Only the stores
+     * with large id spaces batch, since reserved ids stay unused until given
+     * back at shutdown.
+     */
+    private int getIdBatchSize()
+    {
+        switch ( idType )
+        {
+        case NODE:
+        case RELATIONSHIP:
+        case PROPERTY:
+        case STRING_BLOCK:
+        case ARRAY_BLOCK:
+            String value = getConfig() != null ? (String) getConfig().get( Config.ID_BATCH_SIZE ) : null;
+            return value != null ? Integer.parseInt( value.trim() ) : 1;
+        default:
+            return 1;
+        }
+    }
+
     protected void createIdGenerator( String fileName )
     {
         idGeneratorFactory.create( fileName );
@@ -804,12 +862,12 @@ public abstract class CommonAbstractStore
         return idType;
     }
 
-    protected void registerIdFromUpdateRecord( long id )
+    protected synchronized void registerIdFromUpdateRecord( long id )
     {
         highestUpdateRecordId = Math.max( highestUpdateRecordId, id + 1 );
     }
 
-    protected void updateHighId()
+    protected synchronized void updateHighId()
     {
         long highId = highestUpdateRecordId;
         highestUpdateRecordId = -1;
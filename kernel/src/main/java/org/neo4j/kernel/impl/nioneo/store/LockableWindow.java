@@ -49,6 +49,7 @@ abstract class LockableWindow implements PersistenceWindow
         new LinkedList<LockElement>();
     private int lockCount = 0;
     private int marked = 0;
+    private boolean retired = false;
 
     LockableWindow( FileChannel fileChannel )
     {
@@ -87,6 +88,39 @@ abstract class LockableWindow implements PersistenceWindow
         return marked > 0;
     }
 
+    /**
+     * Marks this window, like {@link #mark()}, unless it has been
+     * {@link #retire() retired}.
+     *
+     * @return whether this window was marked.
+     */
+    synchronized boolean markUnlessRetired()
+    {
+        if ( retired )
+        {
+            return false;
+        }
+        this.marked++;
+        return true;
+    }
+
+    /**
+     * Retires this window if no thread has marked, locked or is waiting for
+     * it. A retired window can't be marked again with
+     * {@link #markUnlessRetired()}, so it's safe for the pool to unmap it.
+     *
+     * @return whether this window got retired.
+     */
+    synchronized boolean retire()
+    {
+        if ( retired || marked > 0 || lockCount > 0 || !waitingThreadList.isEmpty() )
+        {
+            return false;
+        }
+        retired = true;
+        return true;
+    }
+
     private static class LockElement
     {
         private final Thread thread;
@@ -30,6 +30,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 
+import org.neo4j.helpers.UTF8;
+import org.neo4j.kernel.Config;
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
 import org.neo4j.kernel.impl.core.LastCommittedTxIdSetter;
@@ -38,6 +40,7 @@ import org.neo4j.kernel.impl.storemigration.DatabaseFiles;
 import org.neo4j.kernel.impl.storemigration.StoreMigrator;
 import org.neo4j.kernel.impl.storemigration.StoreUpgrader;
 import org.neo4j.kernel.impl.storemigration.UpgradableDatabase;
+import org.neo4j.kernel.impl.storemigration.UpgradeNotAllowedByConfigurationException;
 import org.neo4j.kernel.impl.storemigration.monitoring.VisibleMigrationProgressMonitor;
 import org.neo4j.kernel.impl.transaction.TxHook;
 import org.neo4j.kernel.impl.util.Bits;
@@ -53,8 +56,17 @@ public class NeoStore extends AbstractStore
 {
     public static final String TYPE_DESCRIPTOR = "NeoStore";
 
+    /**
+     * The store version once {@link RelationshipGroupRecord relationship groups}
+     * have been written to the relationship store. Only the neostore file has
+     * it, both in its store version record and in its trailer, which makes
+     * versions not knowing about groups refuse to open the store.
+     */
+    public static final String RELATIONSHIP_GROUPS_VERSION = "v0.A.1";
+
     /*
      *  6 longs in header (long + in use), time | random | version | txid | store version | graph next prop
+     *  and a 7th for stores with relationship groups | groups in use, -1 while running
      */
     public static final int RECORD_SIZE = 9;
     private static final int DEFAULT_REL_GRAB_SIZE = 100;
@@ -69,7 +81,9 @@ public class NeoStore extends AbstractStore
     private final IdGeneratorFactory idGeneratorFactory;
     private final TxHook txHook;
     private boolean isStarted;
+    private boolean recoveredStatus;
     private long lastCommittedTx = -1;
+    private volatile boolean relationshipGroups;
 
     private final int REL_GRAB_SIZE;
 
@@ -97,6 +111,7 @@ public class NeoStore extends AbstractStore
     {
         try
         {
+            relationshipGroups = hasTrailer( TYPE_DESCRIPTOR + " " + RELATIONSHIP_GROUPS_VERSION );
             verifyCorrectTypeDescriptorAndVersion();
             /*
              * If the trailing version string check returns normally, either
@@ -120,7 +135,11 @@ public class NeoStore extends AbstractStore
                  */
                 String foundVersion = versionLongToString( getStoreVersion( (String) getConfig().get(
                         "neo_store" ) ) );
-                if ( !CommonAbstractStore.ALL_STORES_VERSION.equals( foundVersion ) )
+                if ( RELATIONSHIP_GROUPS_VERSION.equals( foundVersion ) )
+                {
+                    relationshipGroups = true;
+                }
+                else if ( !CommonAbstractStore.ALL_STORES_VERSION.equals( foundVersion ) )
                 {
                     throw new IllegalStateException(
                             String.format(
@@ -143,6 +162,27 @@ public class NeoStore extends AbstractStore
                     + getStorageFileName(), e );
         }
     }
+
+    private boolean hasTrailer( String typeDescriptorAndVersion ) throws IOException
+    {
+        byte[] expected = UTF8.encode( typeDescriptorAndVersion );
+        long fileSize = getFileChannel().size();
+        if ( fileSize < expected.length )
+        {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate( expected.length );
+        getFileChannel().position( fileSize - expected.length );
+        getFileChannel().read( buffer );
+        return typeDescriptorAndVersion.equals( UTF8.decode( buffer.array() ) );
+    }
+
+    @Override
+    public String getTypeAndVersionDescriptor()
+    {
+        return relationshipGroups ? TYPE_DESCRIPTOR + " " + RELATIONSHIP_GROUPS_VERSION :
+                super.getTypeAndVersionDescriptor();
+    }
     
     @Override
     protected void verifyFileSizeAndTruncate() throws IOException
@@ -163,6 +203,23 @@ public class NeoStore extends AbstractStore
     @Override
     protected void initStorage()
     {
+        /*
+         * Versions not knowing about relationship groups can't read a store
+         * which has them, so grouping the relationships of an existing store
+         * is an upgrade.
+         */
+        boolean upgradeToRelationshipGroups = !relationshipGroups && !isReadOnly() &&
+                getDenseNodeThreshold() > 0 && hasRelationships();
+        if ( upgradeToRelationshipGroups &&
+                !Boolean.parseBoolean( (String) getConfig().get( Config.ALLOW_STORE_UPGRADE ) ) )
+        {
+            releaseFileLockAndCloseFileChannel();
+            throw new UpgradeNotAllowedByConfigurationException( String.format(
+                    "Failed to start Neo4j with \"%s\" on a store without relationship groups, "
+                            + "which older versions couldn't read after that. To upgrade the store, "
+                            + "please set configuration parameter \"%s=true\"",
+                    Config.DENSE_NODE_THRESHOLD, Config.ALLOW_STORE_UPGRADE ) );
+        }
         instantiateChildStores();
         
         /* [MP:2012-01-03] Fix for the problem in 1.5.M02 where store version got upgraded but
@@ -183,12 +240,74 @@ public class NeoStore extends AbstractStore
                 setStoreVersion( versionStringToLong( CommonAbstractStore.ALL_STORES_VERSION ) );
                 updateHighId();
             }
+
+            if ( relationshipGroups )
+            {
+                /*
+                 * The groups in use are written on clean shutdown, otherwise
+                 * the relationship store has to count them.
+                 */
+                relStore.countGroups( getRecord( 6 ) );
+                if ( !isReadOnly() )
+                {
+                    setRecord( 6, -1 );
+                    super.flushAll();
+                }
+            }
+            else if ( upgradeToRelationshipGroups )
+            {
+                markRelationshipGroups();
+            }
         }
         finally
         {
             unsetRecovered();
         }
     }
+
+    // A relationship store without records is only its trailer
+    private boolean hasRelationships()
+    {
+        File relationshipStore = new File( getStorageFileName() + ".relationshipstore.db" );
+        return relationshipStore.length() > UTF8.encode( buildTypeDescriptorAndVersion(
+                RelationshipStore.TYPE_DESCRIPTOR ) ).length;
+    }
+
+    private int getDenseNodeThreshold()
+    {
+        Object value = getConfig() != null ? getConfig().get( Config.DENSE_NODE_THRESHOLD ) : null;
+        if ( value == null )
+        {
+            return -1;
+        }
+        try
+        {
+            return Integer.parseInt( value.toString() );
+        }
+        catch ( NumberFormatException e )
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Marks the store as having relationship groups, see
+     * {@link #RELATIONSHIP_GROUPS_VERSION}. Called by the relationship store
+     * before it writes its first group.
+     */
+    synchronized void markRelationshipGroups()
+    {
+        if ( relationshipGroups )
+        {
+            return;
+        }
+        setStoreVersion( versionStringToLong( RELATIONSHIP_GROUPS_VERSION ) );
+        setRecord( 6, -1 );
+        updateHighId();
+        super.flushAll();
+        relationshipGroups = true;
+        relStore.countGroups( 0 );
+    }
     
     /**
      * Initializes the node,relationship,property and relationship type stores.
@@ -198,6 +317,7 @@ public class NeoStore extends AbstractStore
         relTypeStore = new RelationshipTypeStore( getStorageFileName() + ".relationshiptypestore.db", getConfig() );
         propStore = new PropertyStore( getStorageFileName() + ".propertystore.db", getConfig() );
         relStore = new RelationshipStore( getStorageFileName() + ".relationshipstore.db", getConfig() );
+        relStore.setNeoStore( this );
         nodeStore = new NodeStore( getStorageFileName() + ".nodestore.db", getConfig() );
     }
 
@@ -248,6 +368,10 @@ public class NeoStore extends AbstractStore
     protected void closeStorage()
     {
         if ( lastCommittedTxIdSetter != null ) lastCommittedTxIdSetter.close();
+        if ( relationshipGroups && relStore != null && !isReadOnly() && getStoreOk() )
+        {
+            setRecord( 6, relStore.getGroupsInUse() );
+        }
         if ( relTypeStore != null )
         {
             relTypeStore.close();
@@ -442,8 +566,9 @@ public class NeoStore extends AbstractStore
 
     public StoreId getStoreId()
     {
-        return new StoreId( getCreationTime(), getRandomNumber(),
-                getStoreVersion() );
+        // Getting relationship groups doesn't make it another store
+        return new StoreId( getCreationTime(), getRandomNumber(), relationshipGroups ?
+                versionStringToLong( CommonAbstractStore.ALL_STORES_VERSION ) : getStoreVersion() );
     }
 
     public long getCreationTime()
@@ -466,8 +591,13 @@ public class NeoStore extends AbstractStore
         setRecord( 1, nr );
     }
 
-    public void setRecoveredStatus( boolean status )
+    public synchronized void setRecoveredStatus( boolean status )
     {
+        if ( status == recoveredStatus )
+        {
+            return;
+        }
+        recoveredStatus = status;
         if ( status )
         {
             setRecovered();
@@ -27,7 +27,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,6 +41,15 @@ import java.util.logging.Logger;
  * make the most efficient use of those windows by allocating them in such a way
  * that the most frequently used records/blocks (be it for read or write
  * operations) are encapsulated by a memory mapped persistence window.
+ * <p>
+ * Acquiring a position covered by a mapped window doesn't take the monitor
+ * of the pool, only that of the window. Windows are only unmapped after they
+ * have been {@link LockableWindow#retire() retired}, which fails if the window
+ * is in use, so a thread that got to mark a window can safely use it.
+ * <p>
+ * Pools created with {@link SharedMappedMemory} map fixed size windows out of
+ * memory shared with the other pools of the store, and may unmap the least
+ * used windows of those pools to map their own.
  */
 public class PersistenceWindowPool
 {
@@ -53,22 +65,27 @@ public class PersistenceWindowPool
     private long memUsed = 0;
     private int brickCount = 0;
     private int brickSize = 0;
-    private BrickElement brickArray[] = new BrickElement[0];
-    private int brickMiss = 0;
+    private volatile BrickElement brickArray[] = new BrickElement[0];
+    private final AtomicInteger brickMiss = new AtomicInteger();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
 
     private static Logger log = Logger.getLogger( PersistenceWindowPool.class
         .getName() );
     private static final int REFRESH_BRICK_COUNT = 50000;
     private final FileChannel.MapMode mapMode;
 
-    private int hit = 0;
-    private int miss = 0;
-    private int switches = 0;
-    private int ooe = 0;
+    private final AtomicInteger hit = new AtomicInteger();
+    private final AtomicInteger miss = new AtomicInteger();
+    private final AtomicInteger switches = new AtomicInteger();
+    private final AtomicInteger ooe = new AtomicInteger();
     private boolean useMemoryMapped = true;
 
     private final boolean readOnly;
 
+    private final SharedMappedMemory sharedMemory;
+    // Guards mapping and unmapping of windows, shared between pools sharing memory
+    private final Object memoryLock;
+
     /**
      * Create new pool for a store.
      *
@@ -86,16 +103,51 @@ public class PersistenceWindowPool
     public PersistenceWindowPool( String storeName, int blockSize,
         FileChannel fileChannel, long mappedMem,
         boolean useMemoryMappedBuffers, boolean readOnly )
+    {
+        this( storeName, blockSize, fileChannel, mappedMem, null,
+            useMemoryMappedBuffers, readOnly );
+    }
+
+    /**
+     * Create new pool for a store, mapping windows out of memory shared with
+     * other stores.
+     *
+     * @param storeName
+     *            Name of store that use this pool
+     * @param blockSize
+     *            The size of each record/block in the store
+     * @param fileChannel
+     *            A fileChannel to the store
+     * @param sharedMemory
+     *            Memory for memory mapped windows shared with other pools
+     */
+    public PersistenceWindowPool( String storeName, int blockSize,
+        FileChannel fileChannel, SharedMappedMemory sharedMemory,
+        boolean useMemoryMappedBuffers, boolean readOnly )
+    {
+        this( storeName, blockSize, fileChannel, sharedMemory.getAvailableMem(),
+            sharedMemory, useMemoryMappedBuffers, readOnly );
+    }
+
+    private PersistenceWindowPool( String storeName, int blockSize,
+        FileChannel fileChannel, long mappedMem, SharedMappedMemory sharedMemory,
+        boolean useMemoryMappedBuffers, boolean readOnly )
     {
         this.storeName = storeName;
         this.blockSize = blockSize;
         this.fileChannel = fileChannel;
         this.availableMem = mappedMem;
+        this.sharedMemory = sharedMemory;
+        this.memoryLock = sharedMemory != null ? sharedMemory : this;
         this.useMemoryMapped = useMemoryMappedBuffers;
         this.readOnly = readOnly;
         this.mapMode = readOnly ? MapMode.READ_ONLY : MapMode.READ_WRITE;
         setupBricks();
         dumpStatus();
+        if ( sharedMemory != null )
+        {
+            sharedMemory.register( this );
+        }
     }
 
     /**
@@ -114,42 +166,35 @@ public class PersistenceWindowPool
     {
         LockableWindow window = null;
         boolean readPos = false;
-//        synchronized ( activeRowWindows )
-//        {
-            if ( brickMiss >= REFRESH_BRICK_COUNT )
+        if ( brickMiss.get() >= REFRESH_BRICK_COUNT )
+        {
+            refreshBricks();
+        }
+        BrickElement brick = null;
+        if ( brickSize > 0 )
+        {
+            int brickIndex = (int) (position * blockSize / brickSize);
+            BrickElement[] bricks = brickArray;
+            if ( brickIndex >= bricks.length )
             {
-//                brickMiss = 0;
-                refreshBricks();
+                expandBricks( brickIndex + 1 );
+                bricks = brickArray;
             }
-            if ( brickSize > 0 )
-            {
-                int brickIndex = (int) (position * blockSize / brickSize);
-                if ( brickIndex < brickArray.length )
-                {
-                    synchronized ( this )
-                    {
-                        window = brickArray[brickIndex].getWindow();
-                        if ( window != null )
-                        {
-                            window.mark();
-                        }
-                    }
-                    // assert window == null || window.encapsulates( position );
-                    brickArray[brickIndex].setHit();
-                }
-                else
-                {
-                    expandBricks( brickIndex + 1 );
-                    window = brickArray[brickIndex].getWindow();
-                }
-            }
-            if ( window == null )
+            brick = bricks[brickIndex];
+            window = markMapped( brick );
+            // assert window == null || window.encapsulates( position );
+            brick.setHit();
+        }
+        while ( window == null )
+        {
+            synchronized ( activeRowWindows )
             {
-                synchronized ( this )
+                // Bricks are mapped holding this lock, and not while rows in
+                // them are active, so a row can't go stale behind a window
+                if ( brick == null || brick.getWindow() == null )
                 {
-                    miss++;
-                    brickMiss++;
-
+                    miss.incrementAndGet();
+                    brickMiss.incrementAndGet();
                     PersistenceRow dpw = activeRowWindows.get( (int) position );
 
                     if ( dpw == null )
@@ -164,13 +209,16 @@ public class PersistenceWindowPool
                     window = dpw;
                     activeRowWindows.put( (int) position, dpw );
                     window.mark();
+                    break;
                 }
             }
-            else
-            {
-                hit++;
-            }
-//        }
+            // Mapped since we looked at it
+            window = markMapped( brick );
+        }
+        if ( !( window instanceof PersistenceRow ) )
+        {
+            hit.incrementAndGet();
+        }
         window.lock();
         if ( readPos )
         {
@@ -180,10 +228,31 @@ public class PersistenceWindowPool
         return window;
     }
 
+    /*
+     * Marks the window of the brick unless it isn't mapped. A window being
+     * unmapped is written out while holding the memory lock, so wait for
+     * that to complete before a row reads the position from the channel.
+     */
+    private LockableWindow markMapped( BrickElement brick )
+    {
+        while ( true )
+        {
+            LockableWindow window = brick.getWindow();
+            if ( window == null || window.markUnlessRetired() )
+            {
+                return window;
+            }
+            synchronized ( memoryLock )
+            {
+                // The unmapping is done once we get here
+            }
+        }
+    }
+
     void dumpStatistics()
     {
-        log.finest( storeName + " hit=" + hit + " miss=" + miss + " switches="
-            + switches + " ooe=" + ooe );
+        log.finest( storeName + " hit=" + hit.get() + " miss=" + miss.get() + " switches="
+            + switches.get() + " ooe=" + ooe.get() );
     }
 
     /**
@@ -201,7 +270,7 @@ public class PersistenceWindowPool
         {
             PersistenceRow dpw = (PersistenceRow) window;
             dpw.writeOut();
-            synchronized ( this )
+            synchronized ( activeRowWindows )
             {
                 if ( dpw.getWaitingThreadsCount() == 0 && !dpw.isMarked() )
                 {
@@ -217,23 +286,30 @@ public class PersistenceWindowPool
         }
     }
 
-    synchronized void close()
+    void close()
     {
-        flushAll();
-//        synchronized ( activeRowWindows )
-//        {
+        synchronized ( memoryLock )
+        {
+            flushAll();
+            if ( sharedMemory != null )
+            {
+                sharedMemory.unregister( this );
+            }
             for ( BrickElement element : brickArray )
             {
                 if ( element.getWindow() != null )
                 {
                     element.getWindow().close();
                     element.setWindow( null );
+                    freeBrick();
                 }
             }
             fileChannel = null;
-            activeRowWindows.clear();
-//        }
-        // activeRowWindows = null;
+            synchronized ( activeRowWindows )
+            {
+                activeRowWindows.clear();
+            }
+        }
         dumpStatistics();
     }
 
@@ -263,11 +339,14 @@ public class PersistenceWindowPool
         }
     }
 
-    private static class BrickElement
+    private class BrickElement
     {
         private final int index;
+        // Updated without synchronization, it's only a hint for remapping
         private int hitCount;
-        private LockableWindow window = null;
+        // Stable copy of hitCount to sort on while remapping
+        private int hitSnapshot;
+        private volatile LockableWindow window = null;
 
         BrickElement( int index )
         {
@@ -300,7 +379,30 @@ public class PersistenceWindowPool
 
         int getHit()
         {
-            return hitCount;
+            return hitSnapshot;
+        }
+
+        void snapshotHit()
+        {
+            hitSnapshot = hitCount;
+        }
+
+        /*
+         * Unmaps the window of this brick unless it's in use, the memory
+         * goes back to the pool owning this brick. Must be called holding
+         * memoryLock, which acquire() relies on to wait for the write out.
+         */
+        boolean unmap()
+        {
+            LockableWindow mapped = window;
+            if ( mapped == null || !mapped.retire() )
+            {
+                return false;
+            }
+            if ( !readOnly ) mapped.writeOut();
+            window = null;
+            freeBrick();
+            return true;
         }
 
         void refresh()
@@ -313,6 +415,7 @@ public class PersistenceWindowPool
             {
                 hitCount /= 1.15;
             }
+            snapshotHit();
         }
 
         @Override
@@ -351,7 +454,17 @@ public class PersistenceWindowPool
             brickSize = 0;
             return;
         }
-        if ( availableMem > 0 && fileSize > 0 )
+        if ( sharedMemory != null )
+        {
+            brickSize = Math.max( sharedMemory.getPageSize() / blockSize, 1 ) * blockSize;
+            if ( fileSize / brickSize > MAX_BRICK_COUNT )
+            {
+                brickSize = (int) Math.min( fileSize / MAX_BRICK_COUNT / blockSize * blockSize,
+                    Integer.MAX_VALUE / blockSize * blockSize );
+            }
+            brickCount = (int) (fileSize / brickSize);
+        }
+        else if ( availableMem > 0 && fileSize > 0 )
         {
             double ratio = (availableMem + 0.0d) / fileSize;
             if ( ratio >= 1 )
@@ -413,95 +526,195 @@ public class PersistenceWindowPool
         }
     }
 
-    private synchronized void freeWindows( int nr )
+    private void freeWindows( int nr )
     {
         if ( brickSize <= 0 )
         {
             // memory mapped turned off
             return;
         }
-        ArrayList<BrickElement> mappedBricks = new ArrayList<BrickElement>();
-        for ( int i = 0; i < brickCount; i++ )
+        List<BrickElement> mappedBricks = mappedBricks();
+        for ( int i = 0; i < nr && i < mappedBricks.size(); i++ )
+        {
+            mappedBricks.get( i ).unmap();
+        }
+    }
+
+    /*
+     * Returns the mapped bricks of this pool, or of all pools sharing memory
+     * with it, least used first. Must be called holding memoryLock.
+     */
+    private List<BrickElement> mappedBricks()
+    {
+        List<BrickElement> mappedBricks = new ArrayList<BrickElement>();
+        for ( PersistenceWindowPool pool : poolsSharingMemory() )
+        {
+            pool.addMappedBricks( mappedBricks );
+        }
+        Collections.sort( mappedBricks, new BrickSorter() );
+        return mappedBricks;
+    }
+
+    private List<PersistenceWindowPool> poolsSharingMemory()
+    {
+        return sharedMemory != null ? sharedMemory.pools() :
+            Collections.singletonList( this );
+    }
+
+    private void addMappedBricks( List<BrickElement> mappedBricks )
+    {
+        for ( BrickElement be : brickArray )
         {
-            BrickElement be = brickArray[i];
             if ( be.getWindow() != null )
             {
+                be.snapshotHit();
                 mappedBricks.add( be );
             }
         }
-        Collections.sort( mappedBricks, new BrickSorter() );
-        for ( int i = 0; i < nr && i < mappedBricks.size(); i++ )
+    }
+
+    private boolean memoryLeft()
+    {
+        long used = sharedMemory != null ? sharedMemory.getMemUsed() : memUsed;
+        return used + brickSize < availableMem;
+    }
+
+    private boolean reserveBrick()
+    {
+        if ( sharedMemory != null ? !sharedMemory.reserve( brickSize ) :
+            memUsed + brickSize > availableMem )
         {
-            BrickElement mappedBrick = mappedBricks.get( i );
-            LockableWindow window = mappedBrick.getWindow();
-            if ( window.getWaitingThreadsCount() == 0 && !window.isMarked() )
+            return false;
+        }
+        memUsed += brickSize;
+        return true;
+    }
+
+    private void freeBrick()
+    {
+        memUsed -= brickSize;
+        if ( sharedMemory != null )
+        {
+            sharedMemory.free( brickSize );
+        }
+    }
+
+    /*
+     * Maps a window for a brick that memory has been reserved for, giving
+     * the memory back if that fails or if rows in the brick are in use.
+     */
+    private boolean mapBrick( BrickElement be )
+    {
+        try
+        {
+            synchronized ( activeRowWindows )
             {
-                if ( !readOnly ) window.writeOut();
-                mappedBrick.setWindow( null );
-                memUsed -= brickSize;
+                // Rows in the brick may hold writes the window wouldn't see
+                if ( !rowsActiveIn( be ) )
+                {
+                    be.setWindow( allocateNewWindow( be.index() ) );
+                    return true;
+                }
             }
         }
+        catch ( MappedMemException e )
+        {
+            ooe.incrementAndGet();
+            logWarn( "Unable to memory map", e );
+        }
+        catch ( OutOfMemoryError e )
+        {
+            ooe.incrementAndGet();
+            logWarn( "Unable to allocate direct buffer", e );
+        }
+        freeBrick();
+        return false;
+    }
+
+    // Must be called holding the activeRowWindows lock
+    private boolean rowsActiveIn( BrickElement be )
+    {
+        for ( PersistenceRow row : activeRowWindows.values() )
+        {
+            if ( row.position() * blockSize / brickSize == be.index() )
+            {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private synchronized void refreshBricks()
+    /*
+     * Only one thread refreshes at a time, the others carry on using the
+     * windows currently mapped instead of waiting for the refresh.
+     */
+    private void refreshBricks()
     {
-        if ( brickMiss < REFRESH_BRICK_COUNT )
+        if ( !refreshing.compareAndSet( false, true ) )
         {
             return;
         }
-        brickMiss = 0;
+        try
+        {
+            synchronized ( memoryLock )
+            {
+                if ( brickMiss.get() >= REFRESH_BRICK_COUNT && fileChannel != null )
+                {
+                    brickMiss.set( 0 );
+                    remapBricks();
+                }
+            }
+        }
+        finally
+        {
+            refreshing.set( false );
+        }
+    }
+
+    private void remapBricks()
+    {
         if ( brickSize <= 0 )
         {
             // memory mapped turned off
             return;
         }
-        ArrayList<BrickElement> nonMappedBricks = new ArrayList<BrickElement>();
-        ArrayList<BrickElement> mappedBricks = new ArrayList<BrickElement>();
-        for ( int i = 0; i < brickCount; i++ )
+        // age the hits of all pools competing for the memory alike
+        for ( PersistenceWindowPool pool : poolsSharingMemory() )
         {
-            BrickElement be = brickArray[i];
-            if ( be.getWindow() != null )
+            for ( BrickElement be : pool.brickArray )
             {
-                mappedBricks.add( be );
+                be.refresh();
             }
-            else
+        }
+        ArrayList<BrickElement> nonMappedBricks = new ArrayList<BrickElement>();
+        for ( BrickElement be : brickArray )
+        {
+            if ( be.getWindow() == null )
             {
                 nonMappedBricks.add( be );
             }
-            be.refresh();
         }
         Collections.sort( nonMappedBricks, new BrickSorter() );
-        Collections.sort( mappedBricks, new BrickSorter() );
-        int mappedIndex = 0;
         int nonMappedIndex = nonMappedBricks.size() - 1;
         // fill up unused memory
-        while ( memUsed + brickSize <= availableMem && nonMappedIndex >= 0 )
+        while ( nonMappedIndex >= 0 )
         {
-            BrickElement nonMappedBrick = nonMappedBricks.get(
-                nonMappedIndex-- );
+            BrickElement nonMappedBrick = nonMappedBricks.get( nonMappedIndex );
             if ( nonMappedBrick.getHit() == 0 )
             {
                 return;
             }
-            try
-            {
-                nonMappedBrick.setWindow(
-                    allocateNewWindow( nonMappedBrick.index() ) );
-                memUsed += brickSize;
-            }
-            catch ( MappedMemException e )
+            if ( !reserveBrick() )
             {
-                ooe++;
-                logWarn( "Unable to memory map", e );
-            }
-            catch ( OutOfMemoryError e )
-            {
-                ooe++;
-                logWarn( "Unable to allocate direct buffer", e );
+                break;
             }
+            nonMappedIndex--;
+            mapBrick( nonMappedBrick );
         }
 
-        // switch bad mappings
+        // switch bad mappings, with shared memory those of any pool
+        List<BrickElement> mappedBricks = mappedBricks();
+        int mappedIndex = 0;
         while ( nonMappedIndex >= 0 && mappedIndex < mappedBricks.size() )
         {
             BrickElement mappedBrick = mappedBricks.get( mappedIndex++ );
@@ -511,68 +724,38 @@ public class PersistenceWindowPool
             {
                 break;
             }
-            LockableWindow window = mappedBrick.getWindow();
-            if ( window.getWaitingThreadsCount() == 0 && !window.isMarked() )
+            if ( mappedBrick.unmap() && reserveBrick()
+                && mapBrick( nonMappedBrick ) )
             {
-                if ( !readOnly ) window.writeOut();
-                mappedBrick.setWindow( null );
-                memUsed -= brickSize;
-                try
-                {
-                    nonMappedBrick.setWindow(
-                        allocateNewWindow( nonMappedBrick.index() ) );
-                    memUsed += brickSize;
-                    switches++;
-                }
-                catch ( MappedMemException e )
-                {
-                    ooe++;
-                    logWarn( "Unable to memory map" );
-                }
-                catch ( OutOfMemoryError e )
-                {
-                    ooe++;
-                    logWarn( "Unable to allocate direct buffer" );
-                }
+                switches.incrementAndGet();
             }
         }
     }
 
-    private synchronized void expandBricks( int newBrickCount )
+    private void expandBricks( int newBrickCount )
     {
-        if ( newBrickCount > brickCount )
+        synchronized ( memoryLock )
         {
-            BrickElement tmpArray[] = new BrickElement[newBrickCount];
-            System.arraycopy( brickArray, 0, tmpArray, 0, brickArray.length );
-            if ( memUsed + brickSize >= availableMem )
+            if ( newBrickCount > brickCount )
             {
-                freeWindows( 1 );
-            }
-            for ( int i = brickArray.length; i < tmpArray.length; i++ )
-            {
-                BrickElement be = new BrickElement( i );
-                tmpArray[i] = be;
-                if ( memUsed + brickSize <= availableMem )
+                BrickElement tmpArray[] = new BrickElement[newBrickCount];
+                System.arraycopy( brickArray, 0, tmpArray, 0, brickArray.length );
+                if ( !memoryLeft() )
                 {
-                    try
-                    {
-                        be.setWindow( allocateNewWindow( i ) );
-                        memUsed += brickSize;
-                    }
-                    catch ( MappedMemException e )
-                    {
-                        ooe++;
-                        logWarn( "Unable to memory map" );
-                    }
-                    catch ( OutOfMemoryError e )
+                    freeWindows( 1 );
+                }
+                for ( int i = brickArray.length; i < tmpArray.length; i++ )
+                {
+                    BrickElement be = new BrickElement( i );
+                    tmpArray[i] = be;
+                    if ( reserveBrick() )
                     {
-                        ooe++;
-                        logWarn( "Unable to allocate direct buffer" );
+                        mapBrick( be );
                     }
                 }
+                brickArray = tmpArray;
+                brickCount = tmpArray.length;
             }
-            brickArray = tmpArray;
-            brickCount = tmpArray.length;
         }
     }
 
@@ -644,6 +827,6 @@ public class PersistenceWindowPool
     WindowPoolStats getStats()
     {
         return new WindowPoolStats( storeName, availableMem, memUsed, brickCount,
-                brickSize, hit, miss, ooe );
+                brickSize, hit.get(), miss.get(), switches.get(), ooe.get() );
     }
 }
\ No newline at end of file
@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+
+/**
+ * The head of the chain of relationships of one type and direction of a dense
+ * node. The relationships of a dense node aren't kept in one chain, but in one
+ * chain per type and direction, so that loading the relationships of a type
+ * only reads the records of that type. The node points to its first group,
+ * and the groups of a node are chained through {@link #getNextGroup()}.
+ * <p>
+ * Groups are kept in the {@link RelationshipStore}, marked by the highest bit
+ * of the type. Older versions would read them as relationships, so a store
+ * with groups has {@link NeoStore#RELATIONSHIP_GROUPS_VERSION} as its version.
+ * The fields of the relationship record are used like this:
+ * <ul>
+ * <li>first and second node: the node owning the group</li>
+ * <li>first prev rel: the direction, loops having a group of their own</li>
+ * <li>first next rel: the next group of the node</li>
+ * <li>second next rel: the first relationship in the chain</li>
+ * <li>next prop: the number of relationships in the chain</li>
+ * </ul>
+ */
+public class RelationshipGroupRecord extends RelationshipRecord
+{
+    /**
+     * Marks groups in the type of the relationship records, see
+     * {@link RelationshipStore}.
+     */
+    public static final int GROUP_TYPE_FLAG = 0x80000000;
+
+    private static final DirectionWrapper[] DIRECTIONS = { DirectionWrapper.OUTGOING,
+            DirectionWrapper.INCOMING, DirectionWrapper.BOTH };
+
+    public RelationshipGroupRecord( long id, long node, int type )
+    {
+        super( id, node, node, type );
+        setFirstRel( Record.NO_NEXT_RELATIONSHIP.intValue() );
+        setCount( 0 );
+    }
+
+    public RelationshipGroupRecord( long id, long node, int type, DirectionWrapper direction )
+    {
+        this( id, node, type );
+        setDirection( direction );
+    }
+
+    public long getNode()
+    {
+        return getFirstNode();
+    }
+
+    /**
+     * @return the direction of the relationships in the chain, as seen from
+     * the owning node, {@link DirectionWrapper#BOTH} meaning loops.
+     */
+    public DirectionWrapper getDirection()
+    {
+        int code = (int) getFirstPrevRel();
+        if ( code < 0 || code >= DIRECTIONS.length )
+        {
+            throw new InvalidRecordException( this + " has an invalid direction" );
+        }
+        return DIRECTIONS[code];
+    }
+
+    void setDirection( DirectionWrapper direction )
+    {
+        for ( int code = 0; code < DIRECTIONS.length; code++ )
+        {
+            if ( DIRECTIONS[code] == direction )
+            {
+                setFirstPrevRel( code );
+                return;
+            }
+        }
+        throw new IllegalArgumentException( "" + direction );
+    }
+
+    public long getNextGroup()
+    {
+        return getFirstNextRel();
+    }
+
+    public void setNextGroup( long nextGroup )
+    {
+        setFirstNextRel( nextGroup );
+    }
+
+    public long getFirstRel()
+    {
+        return getSecondNextRel();
+    }
+
+    public void setFirstRel( long firstRel )
+    {
+        setSecondNextRel( firstRel );
+    }
+
+    public long getCount()
+    {
+        return getNextProp();
+    }
+
+    public void setCount( long count )
+    {
+        setNextProp( count );
+    }
+
+    /**
+     * @return whether relationships going in <code>direction</code> from the
+     * node are in this group, loops going in all directions.
+     */
+    public boolean matches( DirectionWrapper direction )
+    {
+        DirectionWrapper own = getDirection();
+        return direction == DirectionWrapper.BOTH || own == DirectionWrapper.BOTH || own == direction;
+    }
+
+    /**
+     * @return the direction of <code>rel</code> as seen from the given node,
+     * {@link DirectionWrapper#BOTH} for loops.
+     */
+    public static DirectionWrapper directionOf( RelationshipRecord rel, long nodeId )
+    {
+        if ( rel.getFirstNode() == rel.getSecondNode() )
+        {
+            return DirectionWrapper.BOTH;
+        }
+        return rel.getFirstNode() == nodeId ? DirectionWrapper.OUTGOING : DirectionWrapper.INCOMING;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new StringBuilder( "RelationshipGroup[" ).append( getId() ).append( ",used=" ).append(
+                inUse() ).append( ",node=" ).append( getNode() ).append( ",type=" ).append( getType() ).append(
+                ",direction=" ).append( getFirstPrevRel() ).append( ",next=" ).append( getNextGroup() ).append(
+                ",first=" ).append( getFirstRel() ).append( ",count=" ).append( getCount() ).append( "]" ).toString();
+    }
+}
@@ -23,13 +23,19 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
 import org.neo4j.kernel.impl.util.StringLogger;
 
 /**
- * Implementation of the relationship store.
+ * Implementation of the relationship store. It also keeps the
+ * {@link RelationshipGroupRecord relationship groups} of dense nodes, which
+ * are read as such when the highest bit of their type is set. The
+ * {@link NeoStore} is marked before the first group is written, see
+ * {@link NeoStore#RELATIONSHIP_GROUPS_VERSION}, and the groups aren't counted
+ * in the {@link #getNumberOfIdsInUse() ids in use}.
  */
 public class RelationshipStore extends AbstractStore implements Store, RecordStore<RelationshipRecord>
 {
@@ -41,6 +47,10 @@ public class RelationshipStore extends AbstractStore implements Store, RecordSto
     // second_next_rel_id+next_prop_id(int)
     public static final int RECORD_SIZE = 33;
 
+    private NeoStore neoStore;
+    private volatile boolean relationshipGroups;
+    private final AtomicLong groupsInUse = new AtomicLong();
+
     /**
      * See {@link AbstractStore#AbstractStore(String, Map)}
      */
@@ -79,6 +89,51 @@ public class RelationshipStore extends AbstractStore implements Store, RecordSto
         super.close();
     }
 
+    void setNeoStore( NeoStore neoStore )
+    {
+        this.neoStore = neoStore;
+    }
+
+    /**
+     * Starts counting the groups in use, from the given count or, if it's
+     * {@code -1}, from what's in the store.
+     */
+    void countGroups( long count )
+    {
+        if ( count < 0 )
+        {
+            count = 0;
+            setRecovered();
+            try
+            {
+                for ( long id = 0, high = getHighId(); id < high; id++ )
+                {
+                    if ( getLightRel( id ) instanceof RelationshipGroupRecord )
+                    {
+                        count++;
+                    }
+                }
+            }
+            finally
+            {
+                unsetRecovered();
+            }
+        }
+        groupsInUse.set( count );
+        relationshipGroups = true;
+    }
+
+    long getGroupsInUse()
+    {
+        return groupsInUse.get();
+    }
+
+    @Override
+    public long getNumberOfIdsInUse()
+    {
+        return super.getNumberOfIdsInUse() - groupsInUse.get();
+    }
+
     /**
      * Creates a new relationship store contained in <CODE>fileName</CODE> If
      * filename is <CODE>null</CODE> or the file already exists an <CODE>IOException</CODE>
@@ -208,6 +263,17 @@ public class RelationshipStore extends AbstractStore implements Store, RecordSto
         PersistenceWindow window, boolean force )
     {
         long id = record.getId();
+        boolean group = record.inUse() && record instanceof RelationshipGroupRecord;
+        if ( group && !relationshipGroups && neoStore != null )
+        {
+            neoStore.markRelationshipGroups();
+        }
+        // Compares with what's in the store, so that recovering a record again counts it once
+        boolean wasGroup = relationshipGroups && isGroupInUse( window, id );
+        if ( relationshipGroups && group != wasGroup )
+        {
+            groupsInUse.addAndGet( group ? 1 : -1 );
+        }
         Buffer buffer = window.getOffsettedBuffer( id );
         if ( record.inUse() || force )
         {
@@ -243,7 +309,9 @@ public class RelationshipStore extends AbstractStore implements Store, RecordSto
             // [    ,    ][  xx,x   ][    ,    ][    ,    ] second prev rel high order bits, 0x380000
             // [    ,    ][    , xxx][    ,    ][    ,    ] second next rel high order bits, 0x70000
             // [    ,    ][    ,    ][xxxx,xxxx][xxxx,xxxx] type
-            int typeInt = (int)(record.getType() | secondNodeMod | firstPrevRelMod | firstNextRelMod | secondPrevRelMod | secondNextRelMod);
+            // [x   ,    ][    ,    ][    ,    ][    ,    ] relationship group flag,         0x80000000
+            long groupFlag = record instanceof RelationshipGroupRecord ? RelationshipGroupRecord.GROUP_TYPE_FLAG & 0xFFFFFFFFL : 0;
+            int typeInt = (int)(record.getType() | secondNodeMod | firstPrevRelMod | firstNextRelMod | secondPrevRelMod | secondNextRelMod | groupFlag);
 
             buffer.put( (byte)inUseUnsignedByte ).putInt( (int) firstNode ).putInt( (int) secondNode )
                 .putInt( typeInt ).putInt( (int) firstPrevRel ).putInt( (int) firstNextRel )
@@ -259,6 +327,15 @@ public class RelationshipStore extends AbstractStore implements Store, RecordSto
         }
     }
 
+    private boolean isGroupInUse( PersistenceWindow window, long id )
+    {
+        Buffer buffer = window.getOffsettedBuffer( id );
+        boolean inUse = (buffer.get() & 0x1) == Record.IN_USE.intValue();
+        buffer.getInt();
+        buffer.getInt();
+        return inUse && (buffer.getInt() & RelationshipGroupRecord.GROUP_TYPE_FLAG) != 0;
+    }
+
     private RelationshipRecord getRecord( long id, PersistenceWindow window,
         RecordLoad load )
     {
@@ -292,13 +369,21 @@ public class RelationshipStore extends AbstractStore implements Store, RecordSto
         // [    ,    ][  xx,x   ][    ,    ][    ,    ] second prev rel high order bits, 0x380000
         // [    ,    ][    , xxx][    ,    ][    ,    ] second next rel high order bits, 0x70000
         // [    ,    ][    ,    ][xxxx,xxxx][xxxx,xxxx] type
+        // [x   ,    ][    ,    ][    ,    ][    ,    ] relationship group flag,         0x80000000
         long typeInt = buffer.getInt();
         long secondNodeMod = (typeInt & 0x70000000L) << 4;
         int type = (int)(typeInt & 0xFFFF);
 
-        RelationshipRecord record = new RelationshipRecord( id,
-            longFromIntAndMod( firstNode, firstNodeMod ),
-            longFromIntAndMod( secondNode, secondNodeMod ), type );
+        RelationshipRecord record;
+        if ( (typeInt & RelationshipGroupRecord.GROUP_TYPE_FLAG) != 0 )
+        {
+            record = new RelationshipGroupRecord( id, longFromIntAndMod( firstNode, firstNodeMod ), type );
+        }
+        else
+        {
+            record = new RelationshipRecord( id, longFromIntAndMod( firstNode, firstNodeMod ),
+                longFromIntAndMod( secondNode, secondNodeMod ), type );
+        }
         record.setInUse( inUse );
 
         long firstPrevRel = buffer.getUnsignedInt();
@@ -364,6 +449,46 @@ public class RelationshipStore extends AbstractStore implements Store, RecordSto
         }
     }
 
+    /**
+     * Returns the groups of a dense node, see {@link RelationshipGroupRecord}.
+     *
+     * @param nodeId the node to get the groups of.
+     * @param position the first relationship record of the node.
+     * @return the groups of the node, or <code>null</code> if it isn't dense.
+     */
+    public List<RelationshipGroupRecord> getGroups( long nodeId, long position )
+    {
+        if ( position == Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            return null;
+        }
+        RelationshipRecord first = getChainRecord( position );
+        if ( !(first instanceof RelationshipGroupRecord) )
+        {
+            return null;
+        }
+        List<RelationshipGroupRecord> groups = new ArrayList<RelationshipGroupRecord>();
+        RelationshipGroupRecord group = (RelationshipGroupRecord) first;
+        while ( true )
+        {
+            if ( group.getNode() != nodeId )
+            {
+                throw new InvalidRecordException( group + " isn't a group of Node[" + nodeId + "]" );
+            }
+            groups.add( group );
+            if ( group.getNextGroup() == Record.NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                return groups;
+            }
+            RelationshipRecord next = getChainRecord( group.getNextGroup() );
+            if ( !(next instanceof RelationshipGroupRecord) )
+            {
+                throw new InvalidRecordException( group + " is followed by " + next );
+            }
+            group = (RelationshipGroupRecord) next;
+        }
+    }
+
     @Override
     public List<WindowPoolStats> getAllWindowPoolStats()
     {
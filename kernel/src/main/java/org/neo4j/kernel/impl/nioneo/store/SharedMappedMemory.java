@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.neo4j.kernel.Config;
+
+/**
+ * Memory for {@link MappedPersistenceWindow memory mapped windows} shared
+ * by all the {@link PersistenceWindowPool pools} of a store, configured with
+ * {@link Config#MAPPED_MEMORY}. Pools using it map fixed size windows
+ * (pages) and when the memory is used up the least used windows of any pool
+ * give way for those more used, so memory ends up where the workload is.
+ * <p>
+ * Mapping and unmapping is done holding the monitor of this object, which
+ * all pools sharing it use instead of their own.
+ */
+public class SharedMappedMemory
+{
+    static final int DEFAULT_PAGE_SIZE = 1024 * 1024;
+
+    private final long availableMem;
+    private final int pageSize;
+    private long memUsed = 0;
+    private final List<PersistenceWindowPool> pools =
+        new CopyOnWriteArrayList<PersistenceWindowPool>();
+
+    public SharedMappedMemory( long availableMem )
+    {
+        this( availableMem, DEFAULT_PAGE_SIZE );
+    }
+
+    SharedMappedMemory( long availableMem, int pageSize )
+    {
+        this.availableMem = availableMem;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Returns shared mapped memory if {@link Config#MAPPED_MEMORY} is set in
+     * <code>config</code>, otherwise <code>null</code>.
+     *
+     * @param config Map of configuration parameters
+     * @return the shared memory, or <code>null</code> if not configured.
+     */
+    public static SharedMappedMemory fromConfig( Map<?,?> config )
+    {
+        long mem = CommonAbstractStore.parseMappedMemory(
+            (String) config.get( Config.MAPPED_MEMORY ), Config.MAPPED_MEMORY );
+        return mem > 0 ? new SharedMappedMemory( mem ) : null;
+    }
+
+    long getAvailableMem()
+    {
+        return availableMem;
+    }
+
+    synchronized long getMemUsed()
+    {
+        return memUsed;
+    }
+
+    int getPageSize()
+    {
+        return pageSize;
+    }
+
+    synchronized boolean reserve( long size )
+    {
+        if ( memUsed + size > availableMem )
+        {
+            return false;
+        }
+        memUsed += size;
+        return true;
+    }
+
+    synchronized void free( long size )
+    {
+        memUsed -= size;
+    }
+
+    void register( PersistenceWindowPool pool )
+    {
+        pools.add( pool );
+    }
+
+    void unregister( PersistenceWindowPool pool )
+    {
+        pools.remove( pool );
+    }
+
+    List<PersistenceWindowPool> pools()
+    {
+        return pools;
+    }
+}
@@ -37,6 +37,7 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyType;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
@@ -477,8 +478,13 @@ public abstract class Command extends XaCommand
             buffer.put( inUse );
             if ( record.inUse() )
             {
+                int type = record.getType();
+                if ( record instanceof RelationshipGroupRecord )
+                {
+                    type |= RelationshipGroupRecord.GROUP_TYPE_FLAG;
+                }
                 buffer.putLong( record.getFirstNode() ).putLong(
-                    record.getSecondNode() ).putInt( record.getType() ).putLong(
+                    record.getSecondNode() ).putInt( type ).putLong(
                     record.getFirstPrevRel() )
                     .putLong( record.getFirstNextRel() ).putLong(
                         record.getSecondPrevRel() ).putLong(
@@ -521,8 +527,18 @@ public abstract class Command extends XaCommand
                     return null;
                 }
                 buffer.flip();
-                record = new RelationshipRecord( id, buffer.getLong(), buffer
-                    .getLong(), buffer.getInt() );
+                long firstNode = buffer.getLong();
+                long secondNode = buffer.getLong();
+                int type = buffer.getInt();
+                if ( (type & RelationshipGroupRecord.GROUP_TYPE_FLAG) != 0 )
+                {
+                    record = new RelationshipGroupRecord( id, firstNode,
+                        type & ~RelationshipGroupRecord.GROUP_TYPE_FLAG );
+                }
+                else
+                {
+                    record = new RelationshipRecord( id, firstNode, secondNode, type );
+                }
                 record.setInUse( inUse );
                 record.setFirstPrevRel( buffer.getLong() );
                 record.setFirstNextRel( buffer.getLong() );
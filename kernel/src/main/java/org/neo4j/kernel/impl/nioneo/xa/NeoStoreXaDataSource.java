@@ -47,6 +47,7 @@ import org.neo4j.kernel.impl.core.PropertyIndex;
 import org.neo4j.kernel.impl.index.IndexStore;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
+import org.neo4j.kernel.impl.nioneo.store.SharedMappedMemory;
 import org.neo4j.kernel.impl.nioneo.store.Store;
 import org.neo4j.kernel.impl.nioneo.store.StoreId;
 import org.neo4j.kernel.impl.nioneo.store.WindowPoolStats;
@@ -98,6 +99,7 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
     private final List<Pair<TransactionInterceptorProvider, Object>> providers;
 
     private boolean logApplied = false;
+    private ParallelRecoveryApplier recoveryApplier;
 
     private final StringLogger msgLog;
 
@@ -211,6 +213,15 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
         {
             tf = new TransactionFactory();
         }
+        SharedMappedMemory sharedMemory = SharedMappedMemory.fromConfig( config );
+        if ( sharedMemory != null )
+        {
+            config.put( SharedMappedMemory.class, sharedMemory );
+        }
+        else
+        {
+            config.remove( SharedMappedMemory.class );
+        }
         neoStore = new NeoStore( config );
         config.put( NeoStore.class, neoStore );
         xaContainer = XaContainer.create( this,
@@ -222,12 +233,18 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
             if ( !readOnly )
             {
                 neoStore.setRecoveredStatus( true );
+                int recoveryThreads = getRecoveryThreads( config );
+                if ( recoveryThreads > 1 )
+                {
+                    recoveryApplier = new ParallelRecoveryApplier( recoveryThreads );
+                }
                 try
                 {
                     xaContainer.openLogicalLog();
                 }
                 finally
                 {
+                    finishRecoveryApplier();
                     neoStore.setRecoveredStatus( false );
                 }
             }
@@ -389,6 +406,40 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
         }
     }
 
+    private static int getRecoveryThreads( Map<Object,Object> config )
+    {
+        String value = (String) config.get( Config.RECOVERY_THREADS );
+        return value != null ? Integer.parseInt( value.trim() ) : 1;
+    }
+
+    /*
+     * Waits for the parallel applier, if any, to apply the records of
+     * recovered transactions and then updates the id generators, which
+     * the recovered transactions leave to us in that case.
+     */
+    private void finishRecoveryApplier()
+    {
+        if ( recoveryApplier == null )
+        {
+            return;
+        }
+        try
+        {
+            recoveryApplier.close();
+        }
+        finally
+        {
+            recoveryApplier = null;
+        }
+        neoStore.getIdGeneratorFactory().updateIdGenerators( neoStore );
+    }
+
+    private XaTransaction withRecoveryApplier( WriteTransaction tx )
+    {
+        tx.setRecoveryApplier( recoveryApplier );
+        return tx;
+    }
+
     private class InterceptingTransactionFactory extends TransactionFactory
     {
         @Override
@@ -397,8 +448,8 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
 
             TransactionInterceptor first = TransactionInterceptorProvider.resolveChain(
                     providers, NeoStoreXaDataSource.this );
-            return new InterceptingWriteTransaction( identifier,
-                    getLogicalLog(), neoStore, lockReleaser, lockManager, first );
+            return withRecoveryApplier( new InterceptingWriteTransaction( identifier,
+                    getLogicalLog(), neoStore, lockReleaser, lockManager, first ) );
         }
     }
 
@@ -407,13 +458,14 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
         @Override
         public XaTransaction create( int identifier )
         {
-            return new WriteTransaction( identifier, getLogicalLog(), neoStore,
-                lockReleaser, lockManager );
+            return withRecoveryApplier( new WriteTransaction( identifier,
+                getLogicalLog(), neoStore, lockReleaser, lockManager ) );
         }
 
         @Override
         public void recoveryComplete()
         {
+            finishRecoveryApplier();
             logger.fine( "Recovery complete, "
                 + "all transactions have been resolved" );
             logger.fine( "Rebuilding id generators as needed. "
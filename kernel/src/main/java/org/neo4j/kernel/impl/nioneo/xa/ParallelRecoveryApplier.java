@@ -0,0 +1,310 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.xa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.neo4j.kernel.impl.nioneo.store.DynamicRecord;
+import org.neo4j.kernel.impl.nioneo.store.NeoStoreRecord;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.PropertyBlock;
+import org.neo4j.kernel.impl.nioneo.store.PropertyIndexRecord;
+import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
+import org.neo4j.kernel.impl.nioneo.store.UnderlyingStorageException;
+
+/**
+ * Applies the node, relationship and property commands of recovered
+ * transactions using a number of threads. Commands for the same record are
+ * always applied by the same thread, so they keep their log order, while
+ * commands for different records are applied in parallel.
+ * <p>
+ * The dynamic records of a property can be reused by another property
+ * record once freed, so a command writing a dynamic record last written by
+ * another thread first waits for everything submitted to be applied.
+ */
+class ParallelRecoveryApplier
+{
+    // Records this close to each other are applied by the same thread, since
+    // they're likely to be in the same window
+    private static final int RECORDS_PER_SLICE = 64;
+    private static final int MAX_TRACKED_DYNAMIC_RECORDS = 100000;
+    // Bounds how far reading the log can get ahead of applying it
+    private static final int MAX_QUEUED_BATCHES_PER_THREAD = 64;
+
+    private final ExecutorService[] threads;
+    private final List<List<Command>> batches;
+    private final Map<Long,Integer> dynamicRecordThreads = new HashMap<Long,Integer>();
+    // Each thread applies its batches in order, so only the last one is kept
+    private final Future<?>[] lastSubmitted;
+    private final Semaphore queued;
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    private final ThreadChooser chooser = new ThreadChooser();
+    private boolean closed;
+
+    ParallelRecoveryApplier( int threadCount )
+    {
+        threads = new ExecutorService[threadCount];
+        lastSubmitted = new Future<?>[threadCount];
+        queued = new Semaphore( threadCount * MAX_QUEUED_BATCHES_PER_THREAD );
+        batches = new ArrayList<List<Command>>( threadCount );
+        for ( int i = 0; i < threadCount; i++ )
+        {
+            final String name = "Recovery applier-" + i;
+            threads[i] = Executors.newSingleThreadExecutor( new ThreadFactory()
+            {
+                public Thread newThread( Runnable runnable )
+                {
+                    Thread thread = new Thread( runnable, name );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            } );
+            batches.add( new ArrayList<Command>() );
+        }
+    }
+
+    boolean isOpen()
+    {
+        return !closed;
+    }
+
+    /**
+     * Submits the commands of a recovered transaction to be applied. Commands
+     * of earlier transactions touching the same records are applied before
+     * these.
+     *
+     * @param commands the node, relationship and property commands of a
+     * recovered transaction.
+     */
+    void apply( List<? extends Command> commands )
+    {
+        throwIfFailed();
+        for ( Command command : commands )
+        {
+            chooser.reset();
+            command.accept( chooser );
+            trackDynamicRecords( chooser.thread, chooser.dynamicRecords );
+            batches.get( chooser.thread ).add( command );
+        }
+        submitBatches();
+    }
+
+    private void submitBatches()
+    {
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            final List<Command> batch = batches.get( i );
+            if ( batch.isEmpty() )
+            {
+                continue;
+            }
+            batches.set( i, new ArrayList<Command>() );
+            queued.acquireUninterruptibly();
+            lastSubmitted[i] = threads[i].submit( new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        if ( failure.get() == null )
+                        {
+                            for ( Command command : batch )
+                            {
+                                command.execute();
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.compareAndSet( null, e );
+                    }
+                    finally
+                    {
+                        queued.release();
+                    }
+                }
+            } );
+        }
+    }
+
+    private void trackDynamicRecords( int thread, List<Long> dynamicRecords )
+    {
+        boolean conflict = dynamicRecordThreads.size() > MAX_TRACKED_DYNAMIC_RECORDS;
+        for ( int i = 0; !conflict && i < dynamicRecords.size(); i++ )
+        {
+            Integer previous = dynamicRecordThreads.get( dynamicRecords.get( i ) );
+            conflict = previous != null && previous.intValue() != thread;
+        }
+        if ( conflict )
+        {
+            submitBatches();
+            awaitApplied();
+            dynamicRecordThreads.clear();
+        }
+        for ( Long id : dynamicRecords )
+        {
+            dynamicRecordThreads.put( id, thread );
+        }
+    }
+
+    /**
+     * Waits for all submitted commands to be applied.
+     *
+     * @throws UnderlyingStorageException if applying a command failed.
+     */
+    void awaitApplied()
+    {
+        try
+        {
+            for ( int i = 0; i < lastSubmitted.length; i++ )
+            {
+                if ( lastSubmitted[i] != null )
+                {
+                    lastSubmitted[i].get();
+                    lastSubmitted[i] = null;
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new UnderlyingStorageException( "Interrupted while applying recovered commands", e );
+        }
+        catch ( ExecutionException e )
+        {
+            throw new UnderlyingStorageException( e.getCause() );
+        }
+        throwIfFailed();
+    }
+
+    /**
+     * Waits for all submitted commands to be applied and stops the threads.
+     *
+     * @throws UnderlyingStorageException if applying a command failed.
+     */
+    void close()
+    {
+        if ( closed )
+        {
+            return;
+        }
+        closed = true;
+        try
+        {
+            awaitApplied();
+        }
+        finally
+        {
+            for ( ExecutorService thread : threads )
+            {
+                thread.shutdown();
+            }
+        }
+    }
+
+    /**
+     * @return the thread applying commands for the record of the given type
+     * and id. Records are spread over the threads by id slice and type.
+     */
+    int threadFor( int recordType, long id )
+    {
+        long slice = id / RECORDS_PER_SLICE;
+        int hash = (int) (slice ^ (slice >>> 32)) * 31 + recordType;
+        return (hash & Integer.MAX_VALUE) % threads.length;
+    }
+
+    private void throwIfFailed()
+    {
+        Throwable cause = failure.get();
+        if ( cause != null )
+        {
+            throw new UnderlyingStorageException( "Unable to apply recovered command", cause );
+        }
+    }
+
+    private class ThreadChooser implements CommandRecordVisitor
+    {
+        private int thread;
+        private final List<Long> dynamicRecords = new ArrayList<Long>();
+
+        void reset()
+        {
+            dynamicRecords.clear();
+        }
+
+        private void choose( int recordType, long id )
+        {
+            thread = threadFor( recordType, id );
+        }
+
+        public void visitNode( NodeRecord record )
+        {
+            choose( 0, record.getId() );
+        }
+
+        public void visitRelationship( RelationshipRecord record )
+        {
+            choose( 1, record.getId() );
+        }
+
+        public void visitProperty( PropertyRecord record )
+        {
+            choose( 2, record.getId() );
+            for ( PropertyBlock block : record.getPropertyBlocks() )
+            {
+                for ( DynamicRecord valueRecord : block.getValueRecords() )
+                {
+                    dynamicRecords.add( valueRecord.getId() );
+                }
+            }
+            for ( DynamicRecord deletedRecord : record.getDeletedRecords() )
+            {
+                dynamicRecords.add( deletedRecord.getId() );
+            }
+        }
+
+        public void visitRelationshipType( RelationshipTypeRecord record )
+        {
+            throw new IllegalArgumentException( "Relationship type commands are applied in order" );
+        }
+
+        public void visitPropertyIndex( PropertyIndexRecord record )
+        {
+            throw new IllegalArgumentException( "Property index commands are applied in order" );
+        }
+
+        public void visitNeoStore( NeoStoreRecord record )
+        {
+            throw new IllegalArgumentException( "Neo store commands are applied in order" );
+        }
+    }
+}
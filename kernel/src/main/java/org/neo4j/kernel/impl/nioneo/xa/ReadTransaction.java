@@ -42,6 +42,7 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyIndexStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.persistence.NeoStoreTransaction;
@@ -88,7 +89,9 @@ class ReadTransaction implements NeoStoreTransaction
     @Override
     public RelationshipRecord relLoadLight( long id )
     {
-        return getRelationshipStore().getLightRel( id );
+        RelationshipRecord record = getRelationshipStore().getLightRel( id );
+        // Groups of dense nodes are kept in the relationship store too
+        return record instanceof RelationshipGroupRecord ? null : record;
     }
 
     @Override
@@ -171,6 +174,12 @@ class ReadTransaction implements NeoStoreTransaction
         return Pair.of( result, position );
     }
 
+    @Override
+    public List<RelationshipGroupRecord> getRelationshipGroups( long nodeId, long position )
+    {
+        return getRelationshipStore().getGroups( nodeId, position );
+    }
+
     static List<PropertyRecord> getPropertyRecordChain(
             PropertyStore propertyStore, long nextProp )
     {
@@ -353,6 +362,12 @@ class ReadTransaction implements NeoStoreTransaction
         throw readOnlyException();
     }
 
+    @Override
+    public void nodeGroupRelationships( long nodeId )
+    {
+        throw readOnlyException();
+    }
+
     @Override
     public ArrayMap<Integer, PropertyData> relDelete( long relId )
     {
@@ -25,9 +25,12 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
@@ -55,6 +58,7 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyType;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
@@ -82,6 +86,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     private final Map<Long,NodeRecord> nodeRecords = new HashMap<Long,NodeRecord>();
     private final Map<Long,PropertyRecord> propertyRecords = new HashMap<Long,PropertyRecord>();
     private final Map<Long,RelationshipRecord> relRecords = new HashMap<Long,RelationshipRecord>();
+    private final Set<Long> groupedNodes = new HashSet<Long>();
     private Map<Integer,RelationshipTypeRecord> relTypeRecords;
     private Map<Integer,PropertyIndexRecord> propIndexRecords;
     private NeoStoreRecord neoStoreRecord;
@@ -100,6 +105,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     private final LockReleaser lockReleaser;
     private final LockManager lockManager;
     private XaConnection xaConnection;
+    private ParallelRecoveryApplier recoveryApplier;
 
     WriteTransaction( int identifier, XaLogicalLog log, NeoStore neoStore,
             LockReleaser lockReleaser, LockManager lockManager )
@@ -110,6 +116,16 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         this.lockManager = lockManager;
     }
 
+    /**
+     * Makes this transaction, if recovered, hand its node, relationship and
+     * property commands to <code>applier</code> instead of applying them
+     * itself, as long as the applier is open.
+     */
+    void setRecoveryApplier( ParallelRecoveryApplier applier )
+    {
+        this.recoveryApplier = applier;
+    }
+
     @Override
     public boolean isReadOnly()
     {
@@ -168,6 +184,10 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         }
         for ( NodeRecord record : nodeRecords.values() )
         {
+            if ( !record.inUse() )
+            {
+                deleteGroups( record );
+            }
             if ( !record.inUse() && record.getNextRel() !=
                 Record.NO_NEXT_RELATIONSHIP.intValue() )
             {
@@ -467,6 +487,11 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             if ( neoStoreCommand != null ) neoStoreCommand.execute();
             executeDeleted( propCommands, relCommands, nodeCommands );
             updateFirstRelationships();
+            // Nodes which got dense are loaded again, from their groups
+            for ( Long nodeId : groupedNodes )
+            {
+                removeNodeFromCache( nodeId );
+            }
             lockReleaser.commitCows(); // updates the cached primitives
             neoStore.setLastCommittedTx( getCommitTxId() );
         }
@@ -534,11 +559,15 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                     addPropertyIndexCommand( (int) command.getKey() );
                 }
             }
+            // node, relationship and property records are applied in
+            // parallel if there's an applier, in order otherwise
+            boolean parallel = recoveryApplier != null && recoveryApplier.isOpen();
             // properties
             java.util.Collections.sort( propCommands, sorter );
+            if ( parallel ) recoveryApplier.apply( propCommands );
             for ( Command.PropertyCommand command : propCommands )
             {
-                command.execute();
+                if ( !parallel ) command.execute();
                 removePropertyFromCache( command );
             }
             // reltypes
@@ -553,9 +582,10 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             }
             // relationships
             java.util.Collections.sort( relCommands, sorter );
+            if ( parallel ) recoveryApplier.apply( relCommands );
             for ( Command.RelationshipCommand command : relCommands )
             {
-                command.execute();
+                if ( !parallel ) command.execute();
                 removeRelationshipFromCache( command.getKey() );
                 if ( true /* doesn't work: command.isRemove(), the log doesn't contain the nodes */)
                 {
@@ -565,9 +595,10 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             }
             // nodes
             java.util.Collections.sort( nodeCommands, sorter );
+            if ( parallel ) recoveryApplier.apply( nodeCommands );
             for ( Command.NodeCommand command : nodeCommands )
             {
-                command.execute();
+                if ( !parallel ) command.execute();
                 removeNodeFromCache( command.getKey() );
             }
             neoStore.setRecoveredStatus( true );
@@ -584,7 +615,8 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             {
                 neoStore.setRecoveredStatus( false );
             }
-            neoStore.getIdGeneratorFactory().updateIdGenerators( neoStore );
+            // with an applier the id generators are updated once recovery is done
+            if ( !parallel ) neoStore.getIdGeneratorFactory().updateIdGenerators( neoStore );
         }
         finally
         {
@@ -597,6 +629,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         nodeRecords.clear();
         propertyRecords.clear();
         relRecords.clear();
+        groupedNodes.clear();
         if ( relTypeRecords != null ) relTypeRecords.clear();
         if ( propIndexRecords != null ) propIndexRecords.clear();
         neoStoreRecord = null;
@@ -662,21 +695,13 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     public RelationshipRecord relLoadLight( long id )
     {
         RelationshipRecord relRecord = getRelationshipRecord( id );
-        if ( relRecord != null )
-        {
-            // if deleted in this tx still return it
-//            if ( !relRecord.inUse() )
-//            {
-//                return null;
-//            }
-            return relRecord;
-        }
-        relRecord = getRelationshipStore().getLightRel( id );
-        if ( relRecord != null )
+        if ( relRecord == null )
         {
-            return relRecord;
+            relRecord = getRelationshipStore().getLightRel( id );
         }
-        return null;
+        // if deleted in this tx still return it, but groups of dense nodes
+        // aren't relationships
+        return relRecord instanceof RelationshipGroupRecord ? null : relRecord;
     }
 
     @Override
@@ -914,27 +939,47 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         return ReadTransaction.getMoreRelationships( nodeId, position, getRelGrabSize(), getRelationshipStore() );
     }
 
+    public List<RelationshipGroupRecord> getRelationshipGroups( long nodeId, long position )
+    {
+        return getRelationshipStore().getGroups( nodeId, position );
+    }
+
     private void updateNodes( RelationshipRecord rel )
     {
-        if ( rel.getFirstPrevRel() == Record.NO_PREV_RELATIONSHIP.intValue() )
+        updateNode( rel.getFirstNode(), rel, rel.getFirstPrevRel(), rel.getFirstNextRel() );
+        // A loop has the same pointers on both sides
+        if ( rel.getFirstNode() != rel.getSecondNode() )
         {
-            NodeRecord firstNode = getNodeRecord( rel.getFirstNode() );
-            if ( firstNode == null )
+            updateNode( rel.getSecondNode(), rel, rel.getSecondPrevRel(), rel.getSecondNextRel() );
+        }
+    }
+
+    private void updateNode( long nodeId, RelationshipRecord rel, long prevRel, long nextRel )
+    {
+        NodeRecord node = getNodeRecord( nodeId );
+        boolean changed = node != null;
+        if ( node == null )
+        {
+            node = getNodeStore().getRecord( nodeId );
+        }
+        RelationshipGroupRecord firstGroup = getFirstGroup( node );
+        if ( firstGroup != null )
+        {
+            RelationshipGroupRecord group = getGroup( node, firstGroup, rel.getType(),
+                RelationshipGroupRecord.directionOf( rel, nodeId ), false );
+            if ( prevRel == Record.NO_PREV_RELATIONSHIP.intValue() )
             {
-                firstNode = getNodeStore().getRecord( rel.getFirstNode() );
-                addNodeRecord( firstNode );
+                group.setFirstRel( nextRel );
             }
-            firstNode.setNextRel( rel.getFirstNextRel() );
+            group.setCount( group.getCount() - 1 );
         }
-        if ( rel.getSecondPrevRel() == Record.NO_PREV_RELATIONSHIP.intValue() )
+        else if ( prevRel == Record.NO_PREV_RELATIONSHIP.intValue() )
         {
-            NodeRecord secondNode = getNodeRecord( rel.getSecondNode() );
-            if ( secondNode == null )
+            if ( !changed )
             {
-                secondNode = getNodeStore().getRecord( rel.getSecondNode() );
-                addNodeRecord( secondNode );
+                addNodeRecord( node );
             }
-            secondNode.setNextRel( rel.getSecondNextRel() );
+            node.setNextRel( nextRel );
         }
     }
 
@@ -1376,44 +1421,242 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     private void connectRelationship( NodeRecord firstNode,
         NodeRecord secondNode, RelationshipRecord rel )
     {
-        assert firstNode.getNextRel() != rel.getId();
-        assert secondNode.getNextRel() != rel.getId();
-        rel.setFirstNextRel( firstNode.getNextRel() );
-        rel.setSecondNextRel( secondNode.getNextRel() );
-        connect( firstNode, rel );
-        connect( secondNode, rel );
-        firstNode.setNextRel( rel.getId() );
-        secondNode.setNextRel( rel.getId() );
+        boolean loop = rel.getFirstNode() == rel.getSecondNode();
+        RelationshipGroupRecord firstGroup = getGroupToConnectTo( firstNode, rel );
+        RelationshipGroupRecord secondGroup = loop ? firstGroup : getGroupToConnectTo( secondNode, rel );
+        long firstNextRel = firstGroup != null ? firstGroup.getFirstRel() : firstNode.getNextRel();
+        long secondNextRel = secondGroup != null ? secondGroup.getFirstRel() : secondNode.getNextRel();
+        assert firstNextRel != rel.getId();
+        assert secondNextRel != rel.getId();
+        rel.setFirstNextRel( firstNextRel );
+        rel.setSecondNextRel( secondNextRel );
+        connect( firstNode.getId(), firstNextRel, rel );
+        connect( secondNode.getId(), secondNextRel, rel );
+        putFirstInChain( firstNode, firstGroup, rel );
+        if ( !loop )
+        {
+            putFirstInChain( secondNode, secondGroup, rel );
+        }
     }
 
-    private void connect( NodeRecord node, RelationshipRecord rel )
+    private void putFirstInChain( NodeRecord node, RelationshipGroupRecord group, RelationshipRecord rel )
     {
-        if ( node.getNextRel() != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        if ( group != null )
         {
-            Relationship lockableRel = new LockableRelationship( node.getNextRel() );
+            group.setFirstRel( rel.getId() );
+            group.setCount( group.getCount() + 1 );
+        }
+        else
+        {
+            node.setNextRel( rel.getId() );
+        }
+    }
+
+    private void connect( long nodeId, long nextRelId, RelationshipRecord rel )
+    {
+        if ( nextRelId != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            Relationship lockableRel = new LockableRelationship( nextRelId );
             getWriteLock( lockableRel );
-            RelationshipRecord nextRel = getRelationshipRecord( node.getNextRel() );
+            RelationshipRecord nextRel = getRelationshipRecord( nextRelId );
             if ( nextRel == null )
             {
-                nextRel = getRelationshipStore().getRecord( node.getNextRel() );
+                nextRel = getRelationshipStore().getRecord( nextRelId );
                 addRelationshipRecord( nextRel );
             }
             boolean changed = false;
-            if ( nextRel.getFirstNode() == node.getId() )
+            if ( nextRel.getFirstNode() == nodeId )
             {
                 nextRel.setFirstPrevRel( rel.getId() );
                 changed = true;
             }
-            if ( nextRel.getSecondNode() == node.getId() )
+            if ( nextRel.getSecondNode() == nodeId )
             {
                 nextRel.setSecondPrevRel( rel.getId() );
                 changed = true;
             }
             if ( !changed )
             {
-                throw new InvalidRecordException( node + " dont match " + nextRel );
+                throw new InvalidRecordException( "Node[" + nodeId + "] dont match " + nextRel );
+            }
+        }
+    }
+
+    @Override
+    public void nodeGroupRelationships( long nodeId )
+    {
+        NodeRecord node = getNodeRecord( nodeId );
+        if ( node == null )
+        {
+            node = getNodeStore().getRecord( nodeId );
+            addNodeRecord( node );
+        }
+        if ( !node.inUse() )
+        {
+            throw new IllegalStateException( "Node[" + nodeId +
+                "] is deleted and its relationships cannot be grouped" );
+        }
+        if ( getFirstGroup( node ) != null )
+        {
+            return;
+        }
+        // Split the chain into one per type and direction, keeping the order
+        Map<Pair<Integer,DirectionWrapper>,List<RelationshipRecord>> chains =
+            new LinkedHashMap<Pair<Integer,DirectionWrapper>,List<RelationshipRecord>>();
+        long relId = node.getNextRel();
+        while ( relId != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            getWriteLock( new LockableRelationship( relId ) );
+            RelationshipRecord rel = getRelationshipRecord( relId );
+            if ( rel == null )
+            {
+                rel = getRelationshipStore().getRecord( relId );
+                addRelationshipRecord( rel );
+            }
+            Pair<Integer,DirectionWrapper> key = Pair.of( rel.getType(), RelationshipGroupRecord.directionOf( rel, nodeId ) );
+            List<RelationshipRecord> chain = chains.get( key );
+            if ( chain == null )
+            {
+                chain = new ArrayList<RelationshipRecord>();
+                chains.put( key, chain );
+            }
+            chain.add( rel );
+            relId = rel.getFirstNode() == nodeId ? rel.getFirstNextRel() : rel.getSecondNextRel();
+        }
+        long nextGroup = Record.NO_NEXT_RELATIONSHIP.intValue();
+        for ( Map.Entry<Pair<Integer,DirectionWrapper>,List<RelationshipRecord>> entry : chains.entrySet() )
+        {
+            List<RelationshipRecord> chain = entry.getValue();
+            RelationshipGroupRecord group = new RelationshipGroupRecord( getRelationshipStore().nextId(),
+                nodeId, entry.getKey().first(), entry.getKey().other() );
+            group.setInUse( true );
+            group.setCreated();
+            group.setNextGroup( nextGroup );
+            group.setFirstRel( chain.get( 0 ).getId() );
+            group.setCount( chain.size() );
+            addRelationshipRecord( group );
+            nextGroup = group.getId();
+            for ( int i = 0; i < chain.size(); i++ )
+            {
+                RelationshipRecord rel = chain.get( i );
+                long prevRel = i == 0 ? Record.NO_PREV_RELATIONSHIP.intValue() : chain.get( i - 1 ).getId();
+                long nextRel = i == chain.size() - 1 ? Record.NO_NEXT_RELATIONSHIP.intValue() :
+                    chain.get( i + 1 ).getId();
+                if ( rel.getFirstNode() == nodeId )
+                {
+                    rel.setFirstPrevRel( prevRel );
+                    rel.setFirstNextRel( nextRel );
+                }
+                if ( rel.getSecondNode() == nodeId )
+                {
+                    rel.setSecondPrevRel( prevRel );
+                    rel.setSecondNextRel( nextRel );
+                }
+            }
+        }
+        node.setNextRel( nextGroup );
+        groupedNodes.add( nodeId );
+    }
+
+    // Groups are only changed holding the lock of their node, so they
+    // aren't locked themselves like relationships are
+    private RelationshipGroupRecord getGroupRecord( long id )
+    {
+        RelationshipRecord record = getRelationshipRecord( id );
+        if ( record == null )
+        {
+            record = getRelationshipStore().getRecord( id );
+            if ( !(record instanceof RelationshipGroupRecord) )
+            {
+                return null;
             }
+            addRelationshipRecord( record );
+        }
+        return record instanceof RelationshipGroupRecord ? (RelationshipGroupRecord) record : null;
+    }
+
+    // The first group of a dense node, or null if the node isn't dense
+    private RelationshipGroupRecord getFirstGroup( NodeRecord node )
+    {
+        if ( node.getNextRel() == Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            return null;
+        }
+        return getGroupRecord( node.getNextRel() );
+    }
+
+    private RelationshipGroupRecord getNextGroup( RelationshipGroupRecord group )
+    {
+        if ( group.getNextGroup() == Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            return null;
+        }
+        RelationshipGroupRecord next = getGroupRecord( group.getNextGroup() );
+        if ( next == null )
+        {
+            throw new InvalidRecordException( group + " is followed by a relationship" );
+        }
+        return next;
+    }
+
+    private RelationshipGroupRecord getGroup( NodeRecord node, RelationshipGroupRecord firstGroup,
+        int type, DirectionWrapper direction, boolean create )
+    {
+        for ( RelationshipGroupRecord group = firstGroup; group != null; group = getNextGroup( group ) )
+        {
+            if ( group.getType() == type && group.getDirection() == direction )
+            {
+                return group;
+            }
+        }
+        if ( !create )
+        {
+            throw new InvalidRecordException( "No group of type " + type + " and direction " +
+                direction + " for " + node );
+        }
+        RelationshipGroupRecord group = new RelationshipGroupRecord( getRelationshipStore().nextId(),
+            node.getId(), type, direction );
+        group.setInUse( true );
+        group.setCreated();
+        group.setNextGroup( node.getNextRel() );
+        node.setNextRel( group.getId() );
+        addRelationshipRecord( group );
+        return group;
+    }
+
+    private RelationshipGroupRecord getGroupToConnectTo( NodeRecord node, RelationshipRecord rel )
+    {
+        RelationshipGroupRecord firstGroup = getFirstGroup( node );
+        if ( firstGroup == null )
+        {
+            return null;
+        }
+        return getGroup( node, firstGroup, rel.getType(), RelationshipGroupRecord.directionOf( rel, node.getId() ), true );
+    }
+
+    // A deleted dense node takes its groups with it, if they are empty. If
+    // not the node still has relationships, which fails the transaction.
+    private void deleteGroups( NodeRecord node )
+    {
+        RelationshipGroupRecord firstGroup = getFirstGroup( node );
+        if ( firstGroup == null )
+        {
+            return;
+        }
+        for ( RelationshipGroupRecord group = firstGroup; group != null; group = getNextGroup( group ) )
+        {
+            if ( group.getFirstRel() != Record.NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                return;
+            }
+        }
+        for ( RelationshipGroupRecord group = firstGroup; group != null; )
+        {
+            RelationshipGroupRecord next = getNextGroup( group );
+            group.setInUse( false );
+            group = next;
         }
+        node.setNextRel( Record.NO_NEXT_RELATIONSHIP.intValue() );
     }
 
     @Override
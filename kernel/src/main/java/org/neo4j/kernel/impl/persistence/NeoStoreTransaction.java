@@ -19,6 +19,7 @@
  */
 package org.neo4j.kernel.impl.persistence;
 
+import java.util.List;
 import java.util.Map;
 
 import javax.transaction.xa.XAResource;
@@ -28,6 +29,7 @@ import org.neo4j.kernel.impl.core.PropertyIndex;
 import org.neo4j.kernel.impl.nioneo.store.NameData;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.transaction.xaframework.XaConnection;
 import org.neo4j.kernel.impl.util.ArrayMap;
@@ -115,6 +117,15 @@ public interface NeoStoreTransaction
     public void relationshipCreate( long id, int typeId, long startNodeId,
         long endNodeId );
 
+    /**
+     * Moves the relationships of a node into one chain per type and direction,
+     * making it a dense node. Does nothing if the node already is dense.
+     *
+     * @param nodeId The id of the node.
+     * @see RelationshipGroupRecord
+     */
+    public void nodeGroupRelationships( long nodeId );
+
     /**
      * Deletes a relationship by its id, returning its properties which are now
      * removed. It is assumed that the nodes it connects have already been
@@ -305,6 +316,17 @@ public interface NeoStoreTransaction
     public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships(
             long nodeId, long position );
 
+    /**
+     * Returns the relationship groups of a dense node, as they are committed.
+     *
+     * @param nodeId The id of the node.
+     * @param position The relationship chain position of the node, as returned
+     *            by {@link #getRelationshipChainPosition(long)}.
+     * @return The groups of the node, or <code>null</code> if the node isn't
+     *         dense, in which case the position is its first relationship.
+     */
+    public List<RelationshipGroupRecord> getRelationshipGroups( long nodeId, long position );
+
     /**
      * Returns an array view of the ids of the nodes that have been created in
      * this transaction.
@@ -19,6 +19,7 @@
  */
 package org.neo4j.kernel.impl.persistence;
 
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -41,6 +42,7 @@ import org.neo4j.kernel.impl.core.TxEventSyncHookFactory;
 import org.neo4j.kernel.impl.nioneo.store.NameData;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.xa.NioNeoDbPersistenceSource;
 import org.neo4j.kernel.impl.transaction.xaframework.XaConnection;
@@ -108,6 +110,11 @@ public class PersistenceManager
         return getReadOnlyResource().getMoreRelationships( nodeId, position );
     }
 
+    public List<RelationshipGroupRecord> getRelationshipGroups( long nodeId, long position )
+    {
+        return getReadOnlyResourceIfPossible().getRelationshipGroups( nodeId, position );
+    }
+
     public ArrayMap<Integer,PropertyData> loadNodeProperties( long nodeId, boolean light )
     {
         return getReadOnlyResourceIfPossible().nodeLoadProperties( nodeId, light );
@@ -161,6 +168,11 @@ public class PersistenceManager
         getResource( true ).relationshipCreate( id, typeId, startNodeId, endNodeId );
     }
 
+    public void nodeGroupRelationships( long nodeId )
+    {
+        getResource( true ).nodeGroupRelationships( nodeId );
+    }
+
     public ArrayMap<Integer,PropertyData> relDelete( long relId )
     {
         return getResource( true ).relDelete( relId );
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+/**
+ * A {@link RagManager} where acquiring and releasing locks doesn't need the
+ * monitor of the manager, only waiting for a lock (and the deadlock detection
+ * that comes with it) does.
+ * <p>
+ * {@link RWLock} invokes {@link #lockAcquired(Object, Transaction)} and
+ * {@link #lockReleased(Object, Transaction)} while holding its own monitor so
+ * the list of locking transactions for a resource is never modified by two
+ * threads at once. The deadlock detection only reads those lists and does so
+ * through copies taken while holding the monitor of the list.
+ */
+class ConcurrentRagManager extends RagManager
+{
+    ConcurrentRagManager( TransactionManager tm )
+    {
+        super( tm, new ConcurrentHashMap<Object,List<Transaction>>() );
+    }
+
+    @Override
+    void lockAcquired( Object resource, Transaction tx )
+    {
+        addLockingTransaction( resource, tx );
+    }
+
+    @Override
+    void lockReleased( Object resource, Transaction tx )
+    {
+        removeLockingTransaction( resource, tx );
+    }
+
+    @Override
+    List<Transaction> getLockingTransactions( Object resource )
+    {
+        List<Transaction> lockingTxList = super.getLockingTransactions( resource );
+        if ( lockingTxList == null )
+        {
+            return null;
+        }
+        synchronized ( lockingTxList )
+        {
+            return new ArrayList<Transaction>( lockingTxList );
+        }
+    }
+}
@@ -52,14 +52,53 @@ import org.neo4j.kernel.info.WaitingThread;
  */
 public class LockManager
 {
-    private final Map<Object,RWLock> resourceLockMap =
-        new HashMap<Object,RWLock>();
+    private final Map<Object,RWLock>[] resourceLockMaps;
 
     private final RagManager ragManager;
 
     public LockManager( TransactionManager tm )
     {
-        ragManager = new RagManager( tm );
+        this( new RagManager( tm ), 1 );
+    }
+
+    /**
+     * @param ragManager the resource allocation graph used for deadlock
+     *            detection.
+     * @param stripes the number of independently synchronized maps the
+     *            resources are spread over, must be a power of two.
+     */
+    LockManager( RagManager ragManager, int stripes )
+    {
+        if ( Integer.bitCount( stripes ) != 1 )
+        {
+            throw new IllegalArgumentException( "Number of stripes must be a power of two, not " + stripes );
+        }
+        this.ragManager = ragManager;
+        resourceLockMaps = newStripes( stripes );
+        for ( int i = 0; i < stripes; i++ )
+        {
+            resourceLockMaps[i] = new HashMap<Object,RWLock>();
+        }
+    }
+
+    @SuppressWarnings( { "unchecked", "rawtypes" } )
+    private static Map<Object,RWLock>[] newStripes( int stripes )
+    {
+        return new Map[stripes];
+    }
+
+    private Map<Object,RWLock> stripeFor( Object resource )
+    {
+        if ( resourceLockMaps.length == 1 )
+        {
+            return resourceLockMaps[0];
+        }
+        // spread the hash code so that resources with ids in sequence
+        // don't end up in the same few stripes
+        int hash = resource.hashCode();
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return resourceLockMaps[hash & (resourceLockMaps.length - 1)];
     }
 
     public long getDetectedDeadlockCount()
@@ -88,6 +127,7 @@ public class LockManager
         }
 
         RWLock lock = null;
+        Map<Object,RWLock> resourceLockMap = stripeFor( resource );
         synchronized ( resourceLockMap )
         {
             lock = resourceLockMap.get( resource );
@@ -122,6 +162,7 @@ public class LockManager
         }
 
         RWLock lock = null;
+        Map<Object,RWLock> resourceLockMap = stripeFor( resource );
         synchronized ( resourceLockMap )
         {
             lock = resourceLockMap.get( resource );
@@ -154,6 +195,7 @@ public class LockManager
         }
 
         RWLock lock = null;
+        Map<Object,RWLock> resourceLockMap = stripeFor( resource );
         synchronized ( resourceLockMap )
         {
             lock = resourceLockMap.get( resource );
@@ -191,6 +233,7 @@ public class LockManager
         }
 
         RWLock lock = null;
+        Map<Object,RWLock> resourceLockMap = stripeFor( resource );
         synchronized ( resourceLockMap )
         {
             lock = resourceLockMap.get( resource );
@@ -219,6 +262,7 @@ public class LockManager
     public void dumpLocksOnResource( Object resource )
     {
         RWLock lock = null;
+        Map<Object,RWLock> resourceLockMap = stripeFor( resource );
         synchronized ( resourceLockMap )
         {
             if ( !resourceLockMap.containsKey( resource ) )
@@ -250,11 +294,14 @@ public class LockManager
      */
     private <V extends Visitor<LockInfo>> V eachLock( V visitor )
     {
-        synchronized ( resourceLockMap )
+        for ( Map<Object,RWLock> resourceLockMap : resourceLockMaps )
         {
-            for ( RWLock lock : resourceLockMap.values() )
+            synchronized ( resourceLockMap )
             {
-                if ( visitor.visit( lock.info() ) ) break;
+                for ( RWLock lock : resourceLockMap.values() )
+                {
+                    if ( visitor.visit( lock.info() ) ) return visitor;
+                }
             }
         }
         return visitor;
@@ -274,11 +321,14 @@ public class LockManager
     private <V extends Visitor<LockInfo>> V eachAwaitedLock( V visitor, long minWaitTime )
     {
         long waitStart = System.currentTimeMillis() - minWaitTime;
-        synchronized ( resourceLockMap )
+        for ( Map<Object,RWLock> resourceLockMap : resourceLockMaps )
         {
-            for ( RWLock lock : resourceLockMap.values() )
+            synchronized ( resourceLockMap )
             {
-                if ( lock.acceptVisitorIfWaitedSinceBefore( visitor, waitStart ) ) break;
+                for ( RWLock lock : resourceLockMap.values() )
+                {
+                    if ( lock.acceptVisitorIfWaitedSinceBefore( visitor, waitStart ) ) return visitor;
+                }
             }
         }
         return visitor;
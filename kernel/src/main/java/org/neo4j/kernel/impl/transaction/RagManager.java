@@ -72,8 +72,7 @@ class RagManager
     // o When the transaction wakes up from waiting on a resource the
     // stopWaitOn( resource ) method must be invoked
 
-    private final Map<Object,List<Transaction>> resourceMap =
-        new HashMap<Object,List<Transaction>>();
+    private final Map<Object,List<Transaction>> resourceMap;
 
     private final ArrayMap<Transaction,Object> waitingTxMap =
         new ArrayMap<Transaction,Object>( 5, false, true );
@@ -83,8 +82,14 @@ class RagManager
     private final AtomicInteger deadlockCount = new AtomicInteger();
 
     RagManager( TransactionManager tm )
+    {
+        this( tm, new HashMap<Object,List<Transaction>>() );
+    }
+
+    RagManager( TransactionManager tm, Map<Object,List<Transaction>> resourceMap )
     {
         this.tm = tm;
+        this.resourceMap = resourceMap;
     }
 
     long getDeadlockCount()
@@ -93,12 +98,25 @@ class RagManager
     }
 
     synchronized void lockAcquired( Object resource, Transaction tx )
+    {
+        addLockingTransaction( resource, tx );
+    }
+
+    synchronized void lockReleased( Object resource, Transaction tx )
+    {
+        removeLockingTransaction( resource, tx );
+    }
+
+    final void addLockingTransaction( Object resource, Transaction tx )
     {
         List<Transaction> lockingTxList = resourceMap.get( resource );
         if ( lockingTxList != null )
         {
-            assert !lockingTxList.contains( tx );
-            lockingTxList.add( tx );
+            synchronized ( lockingTxList )
+            {
+                assert !lockingTxList.contains( tx );
+                lockingTxList.add( tx );
+            }
         }
         else
         {
@@ -108,7 +126,7 @@ class RagManager
         }
     }
 
-    synchronized void lockReleased( Object resource, Transaction tx )
+    final void removeLockingTransaction( Object resource, Transaction tx )
     {
         List<Transaction> lockingTxList = resourceMap.get( resource );
         if ( lockingTxList == null )
@@ -116,16 +134,29 @@ class RagManager
             throw new LockException( resource + " not found in resource map" );
         }
 
-        if ( !lockingTxList.remove( tx ) )
-        {
-            throw new LockException( tx + "not found in locking tx list" );
-        }
-        if ( lockingTxList.size() == 0 )
+        synchronized ( lockingTxList )
         {
-            resourceMap.remove( resource );
+            if ( !lockingTxList.remove( tx ) )
+            {
+                throw new LockException( tx + "not found in locking tx list" );
+            }
+            if ( lockingTxList.size() == 0 )
+            {
+                resourceMap.remove( resource );
+            }
         }
     }
 
+    /**
+     * Returns the transactions holding locks on {@code resource}, or
+     * {@code null} if there are none. Only invoked while holding the monitor
+     * of this manager.
+     */
+    List<Transaction> getLockingTransactions( Object resource )
+    {
+        return resourceMap.get( resource );
+    }
+
     synchronized void stopWaitOn( Object resource, Transaction tx )
     {
         if ( waitingTxMap.remove( tx ) == null )
@@ -138,7 +169,7 @@ class RagManager
     synchronized void checkWaitOn( Object resource, Transaction tx )
         throws DeadlockDetectedException
     {
-        List<Transaction> lockingTxList = resourceMap.get( resource );
+        List<Transaction> lockingTxList = getLockingTransactions( resource );
         if ( lockingTxList == null )
         {
             throw new LockException( "Illegal resource[" + resource
@@ -232,7 +263,7 @@ class RagManager
             // this is ok since current tx or any other tx will wake
             // in the synchronized block and will be forced to do the deadlock
             // check once more if lock cannot be acquired
-            List<Transaction> lockingTxList = resourceMap.get( resource );
+            List<Transaction> lockingTxList = getLockingTransactions( resource );
             if ( lockingTxList != null )
             {
                 Iterator<Transaction> itr = lockingTxList.iterator();
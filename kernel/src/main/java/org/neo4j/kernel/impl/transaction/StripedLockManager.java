@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction;
+
+import javax.transaction.TransactionManager;
+
+/**
+ * A {@link LockManager} that spreads its resources over a number of
+ * independently synchronized maps and keeps its resource allocation graph in
+ * a {@link ConcurrentRagManager}. Transactions locking unrelated resources
+ * will then only contend on a shared monitor when one of them has to wait for
+ * a lock.
+ */
+public class StripedLockManager extends LockManager
+{
+    public static final int DEFAULT_STRIPES = 128;
+
+    public StripedLockManager( TransactionManager tm )
+    {
+        this( tm, DEFAULT_STRIPES );
+    }
+
+    /**
+     * @param tm the transaction manager to get the current transaction from.
+     * @param stripes the number of maps to spread resources over, must be a
+     *            power of two.
+     */
+    public StripedLockManager( TransactionManager tm, int stripes )
+    {
+        super( new ConcurrentRagManager( tm ), stripes );
+    }
+}
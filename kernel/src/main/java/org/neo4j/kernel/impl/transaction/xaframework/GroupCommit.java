@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction.xaframework;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Lets concurrently committing transactions share a single force of the
+ * logical log. A committer registers its commit entry with
+ * {@link #appended(FileChannel)} while holding the log monitor and then,
+ * after releasing it, waits in {@link #awaitForced(long)} for that entry, or
+ * any later one, to be on disk. The first waiter to find no force in progress becomes the
+ * leader and forces everything appended so far, all others waiting for an
+ * entry covered by that force return when it completes.
+ * <p>
+ * Forces done by the log itself (on rotation and close) are reported through
+ * {@link #forcedAll()} so that waiters on a channel that has since been closed
+ * are released.
+ */
+public class GroupCommit
+{
+    private final Object lock = new Object();
+
+    private long appended;
+    private long forced;
+    private boolean forcing;
+    private FileChannel channel;
+
+    private long forceCount;
+    private long forcedCommitCount;
+    private long forceTimeNanos;
+    private long maxBatchSize;
+
+    /**
+     * Registers a commit entry that has been written out to {@code channel}
+     * but not yet forced.
+     *
+     * @param channel the channel the entry was written to.
+     * @return the sequence number to pass to {@link #awaitForced(long)}.
+     */
+    long appended( FileChannel channel )
+    {
+        synchronized ( lock )
+        {
+            this.channel = channel;
+            return ++appended;
+        }
+    }
+
+    /**
+     * Marks every entry appended so far as forced, called when the log has
+     * forced its channel for other reasons than a commit.
+     */
+    void forcedAll()
+    {
+        synchronized ( lock )
+        {
+            if ( forced < appended )
+            {
+                forced = appended;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Blocks until the entry with sequence number {@code sequence} has been
+     * forced, forcing the channel itself if no other thread is currently
+     * doing so.
+     *
+     * @param sequence the sequence number returned from
+     *            {@link #appended(FileChannel)}.
+     * @throws IOException if the force failed.
+     */
+    void awaitForced( long sequence ) throws IOException
+    {
+        long target;
+        FileChannel toForce;
+        synchronized ( lock )
+        {
+            while ( forced < sequence && forcing )
+            {
+                try
+                {
+                    lock.wait();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.interrupted();
+                }
+            }
+            if ( forced >= sequence )
+            {
+                return;
+            }
+            forcing = true;
+            target = appended;
+            toForce = channel;
+        }
+
+        boolean success = false;
+        long startTime = System.nanoTime();
+        try
+        {
+            try
+            {
+                toForce.force( false );
+            }
+            catch ( ClosedChannelException e )
+            {
+                // The log was rotated or closed after we picked up the channel,
+                // in which case it was forced before being closed.
+                synchronized ( lock )
+                {
+                    if ( forced < target )
+                    {
+                        throw e;
+                    }
+                }
+            }
+            success = true;
+        }
+        finally
+        {
+            long time = System.nanoTime() - startTime;
+            synchronized ( lock )
+            {
+                forcing = false;
+                if ( success )
+                {
+                    long batchSize = target - forced;
+                    if ( batchSize > 0 )
+                    {
+                        forced = target;
+                        forceCount++;
+                        forcedCommitCount += batchSize;
+                        forceTimeNanos += time;
+                        maxBatchSize = Math.max( maxBatchSize, batchSize );
+                    }
+                }
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the number of forces done on behalf of committing transactions.
+     */
+    public long getForceCount()
+    {
+        synchronized ( lock )
+        {
+            return forceCount;
+        }
+    }
+
+    /**
+     * @return the number of commits made durable by those forces.
+     */
+    public long getForcedCommitCount()
+    {
+        synchronized ( lock )
+        {
+            return forcedCommitCount;
+        }
+    }
+
+    /**
+     * @return the average number of commits covered by one force.
+     */
+    public double getAverageBatchSize()
+    {
+        synchronized ( lock )
+        {
+            return forceCount == 0 ? 0 : (double) forcedCommitCount / forceCount;
+        }
+    }
+
+    /**
+     * @return the largest number of commits covered by one force.
+     */
+    public long getMaxBatchSize()
+    {
+        synchronized ( lock )
+        {
+            return maxBatchSize;
+        }
+    }
+
+    /**
+     * @return the average time, in microseconds, spent in a force.
+     */
+    public long getAverageForceTimeMicros()
+    {
+        synchronized ( lock )
+        {
+            return forceCount == 0 ? 0 : forceTimeNanos / forceCount / 1000;
+        }
+    }
+}
@@ -39,6 +39,7 @@ import static java.lang.Math.max;
 
 import org.neo4j.helpers.Exceptions;
 import org.neo4j.helpers.Pair;
+import org.neo4j.kernel.Config;
 import org.neo4j.kernel.impl.nioneo.store.FileSystemAbstraction;
 import org.neo4j.kernel.impl.transaction.xaframework.LogEntry.Commit;
 import org.neo4j.kernel.impl.transaction.xaframework.LogEntry.Start;
@@ -79,6 +80,8 @@ public class XaLogicalLog implements LogLoader
     private static final char CLEAN = 'C';
     private static final char LOG1 = '1';
     private static final char LOG2 = '2';
+    // Entries are read ahead in chunks this big when recovering
+    private static final int RECOVERY_READ_AHEAD = 1024*1024;
 
     private FileChannel fileChannel = null;
     private final ByteBuffer sharedBuffer;
@@ -112,6 +115,11 @@ public class XaLogicalLog implements LogLoader
     private final LogPositionCache positionCache = new LogPositionCache();
     private final FileSystemAbstraction fileSystem;
 
+    private final boolean groupCommitEnabled;
+    private final GroupCommit groupCommit = new GroupCommit();
+    // Sequence numbers of commit entries appended but not yet awaited, by identifier
+    private final Map<Integer,Long> commitsToForce = new HashMap<Integer,Long>();
+
     XaLogicalLog( String fileName, XaResourceManager xaRm, XaCommandFactory cf,
             XaTransactionFactory xaTf, Map<Object, Object> config )
     {
@@ -126,6 +134,7 @@ public class XaLogicalLog implements LogLoader
         sharedBuffer = ByteBuffer.allocateDirect( 9 + Xid.MAXGTRIDSIZE
             + Xid.MAXBQUALSIZE * 10 );
         msgLog = (StringLogger) config.get( StringLogger.class );
+        groupCommitEnabled = "true".equalsIgnoreCase( (String) config.get( Config.GROUP_COMMIT ) );
 
         // We should turn keep-logs on if there are previous logs around,
         // this so that e.g. temporary shell sessions or operations don't create
@@ -346,7 +355,7 @@ public class XaLogicalLog implements LogLoader
         {
             cacheTxStartPosition( txId, startEntry );
             LogIoUtils.writeCommit( false, writeBuffer, identifier, txId, System.currentTimeMillis() );
-            forceMode.force( writeBuffer );
+            forceCommit( identifier, forceMode );
         }
         catch ( IOException e )
         {
@@ -355,6 +364,75 @@ public class XaLogicalLog implements LogLoader
         }
     }
 
+    /*
+     * With group commit enabled a forced commit only writes the entry out to
+     * the channel here, the committing thread then waits for the force in
+     * awaitCommitForced() after having released the monitors it holds.
+     */
+    private void forceCommit( int identifier, ForceMode forceMode ) throws IOException
+    {
+        if ( groupCommitEnabled && forceMode == ForceMode.forced )
+        {
+            writeBuffer.writeOut();
+            commitsToForce.put( identifier, groupCommit.appended( writeBuffer.getFileChannel() ) );
+        }
+        else
+        {
+            forceMode.force( writeBuffer );
+        }
+    }
+
+    /**
+     * Returns whether or not forced commits wait for the log force in
+     * {@link #awaitCommitForced(int)} instead of forcing inside
+     * {@link #commitOnePhase(int, long, ForceMode)} and
+     * {@link #commitTwoPhase(int, long, ForceMode)}.
+     *
+     * @return {@code true} if group commit is enabled.
+     */
+    public boolean isGroupCommitEnabled()
+    {
+        return groupCommitEnabled;
+    }
+
+    /**
+     * Waits until the commit entry of transaction {@code identifier} is
+     * forced to disk, which it already is unless it was written with group
+     * commit. Must not be called while holding the monitor of this log, since
+     * that would keep other transactions from joining the force.
+     *
+     * @param identifier the identifier of the committed transaction.
+     * @throws XAException if the log couldn't be forced.
+     */
+    void awaitCommitForced( int identifier ) throws XAException
+    {
+        Long sequence;
+        synchronized ( this )
+        {
+            sequence = commitsToForce.remove( identifier );
+        }
+        if ( sequence == null )
+        {
+            return;
+        }
+        try
+        {
+            groupCommit.awaitForced( sequence );
+        }
+        catch ( IOException e )
+        {
+            throw Exceptions.withCause( new XAException( "Logical log unable to force commit" ), e );
+        }
+    }
+
+    /**
+     * @return the statistics for commits sharing the log force.
+     */
+    public GroupCommit getGroupCommit()
+    {
+        return groupCommit;
+    }
+
     private synchronized void cacheTxStartPosition( long txId, LogEntry.Start startEntry )
     {
         cacheTxStartPosition( txId, startEntry, logVersion );
@@ -421,7 +499,7 @@ public class XaLogicalLog implements LogLoader
         {
             cacheTxStartPosition( txId, startEntry );
             LogIoUtils.writeCommit( true, writeBuffer, identifier, txId, System.currentTimeMillis() );
-            forceMode.force( writeBuffer );
+            forceCommit( identifier, forceMode );
         }
         catch ( IOException e )
         {
@@ -711,6 +789,7 @@ public class XaLogicalLog implements LogLoader
         if ( writeBuffer != null )
         {
             writeBuffer.force();
+            groupCommit.forcedAll();
         }
         fileChannel.close();
         fileChannel = null;
@@ -729,6 +808,7 @@ public class XaLogicalLog implements LogLoader
             log.info( "Close invoked with " + xidIdentMap.size() +
                 " running transaction(s). " );
             writeBuffer.force();
+            groupCommit.forcedAll();
             fileChannel.close();
             log.info( "Dirty log: " + fileName + "." + currentLog +
                 " now closed. Recovery will be started automatically next " +
@@ -810,7 +890,7 @@ public class XaLogicalLog implements LogLoader
                 " with committed tx=" + lastCommittedTx, true );
         long logEntriesFound = 0;
         long lastEntryPos = fileChannel.position();
-        fileChannel = new BufferedFileChannel( fileChannel );
+        fileChannel = new BufferedFileChannel( fileChannel, RECOVERY_READ_AHEAD );
         LogEntry entry;
         while ( (entry = readEntry()) != null )
         {
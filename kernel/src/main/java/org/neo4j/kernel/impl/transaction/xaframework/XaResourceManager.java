@@ -58,6 +58,9 @@ public class XaResourceManager
     private final XaDataSource dataSource;
     private StringLogger msgLog;
     private final AbstractTransactionManager transactionManager;
+    private long nextCommitTicket;
+    private long nextCommitTicketToApply;
+    private long lastWrittenTxId = -1;
 
     XaResourceManager( XaDataSource dataSource, XaTransactionFactory tf,
             TxIdGenerator txIdGenerator, AbstractTransactionManager transactionManager, String name )
@@ -410,7 +413,99 @@ public class XaResourceManager
         return xaTransaction;
     }
 
-    synchronized XaTransaction commit( Xid xid, boolean onePhase )
+    XaTransaction commit( Xid xid, boolean onePhase )
+        throws XAException
+    {
+        if ( !isGroupCommit() )
+        {
+            synchronized ( this )
+            {
+                XaTransaction xaTransaction = writeCommit( xid, onePhase );
+                return applyCommit( xid, xaTransaction, onePhase );
+            }
+        }
+        return groupCommit( xid, onePhase );
+    }
+
+    /*
+     * Transactions write their commit entries in turn, wait for the log force
+     * outside of this monitor so that one force can cover several of them and
+     * are then applied in the same order as their commit entries were written.
+     */
+    private XaTransaction groupCommit( Xid xid, boolean onePhase )
+        throws XAException
+    {
+        XaTransaction xaTransaction;
+        long ticket;
+        synchronized ( this )
+        {
+            xaTransaction = writeCommit( xid, onePhase );
+            if ( xaTransaction.isReadOnly() || xaTransaction.isRecovered() )
+            {
+                return applyCommit( xid, xaTransaction, onePhase );
+            }
+            ticket = nextCommitTicket++;
+        }
+        try
+        {
+            if ( getForceMode() == ForceMode.forced )
+            {
+                log.awaitCommitForced( xaTransaction.getIdentifier() );
+            }
+            synchronized ( this )
+            {
+                awaitCommitTurn( ticket );
+                return applyCommit( xid, xaTransaction, onePhase );
+            }
+        }
+        finally
+        {
+            synchronized ( this )
+            {
+                awaitCommitTurn( ticket );
+                nextCommitTicketToApply = ticket + 1;
+                notifyAll();
+            }
+        }
+    }
+
+    /*
+     * Transaction ids are handed out from the last committed one, so group
+     * commit only works with the default generator, where this manager can
+     * keep track of ids written to the log but not yet applied.
+     */
+    private boolean isGroupCommit()
+    {
+        return log.isGroupCommitEnabled() && txIdGenerator == TxIdGenerator.DEFAULT;
+    }
+
+    private long generateTxId( XaTransaction xaTransaction )
+    {
+        long txId = txIdGenerator.generate( dataSource, xaTransaction.getIdentifier() );
+        if ( isGroupCommit() )
+        {
+            txId = Math.max( txId, lastWrittenTxId + 1 );
+            lastWrittenTxId = txId;
+        }
+        return txId;
+    }
+
+    private void awaitCommitTurn( long ticket )
+    {
+        while ( ticket != nextCommitTicketToApply )
+        {
+            try
+            {
+                wait();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private XaTransaction writeCommit( Xid xid, boolean onePhase )
         throws XAException
     {
         XidStatus status = xidMap.get( xid );
@@ -430,8 +525,7 @@ public class XaResourceManager
                 {
                     xaTransaction.prepare();
 
-                    long txId = txIdGenerator.generate( dataSource,
-                            xaTransaction.getIdentifier() );
+                    long txId = generateTxId( xaTransaction );
                     xaTransaction.setCommitTxId( txId );
                     log.commitOnePhase( xaTransaction.getIdentifier(),
                             xaTransaction.getCommitTxId(), getForceMode() );
@@ -449,14 +543,22 @@ public class XaResourceManager
             {
                 if ( !onePhase )
                 {
-                    long txId = txIdGenerator.generate( dataSource,
-                            xaTransaction.getIdentifier() );
+                    long txId = generateTxId( xaTransaction );
                     xaTransaction.setCommitTxId( txId );
                     log.commitTwoPhase( xaTransaction.getIdentifier(),
                             xaTransaction.getCommitTxId(), getForceMode() );
                 }
             }
-            txStatus.markCommitStarted();
+        }
+        return xaTransaction;
+    }
+
+    private XaTransaction applyCommit( Xid xid, XaTransaction xaTransaction, boolean onePhase )
+        throws XAException
+    {
+        if ( !xaTransaction.isReadOnly() )
+        {
+            xidMap.get( xid ).getTransactionStatus().markCommitStarted();
             if ( xaTransaction.isRecovered() && xaTransaction.getCommitTxId() == -1 )
             {
                 boolean previousRecoveredValue = dataSource.setRecovered( true );
@@ -683,6 +785,7 @@ public class XaResourceManager
                     if ( !recoveredTx.isOnePhase() )
                     {
                         log.commitTwoPhase( recoveredTx.getIdentifier(), recoveredTx.getTxId(), ForceMode.forced );
+                        log.awaitCommitForced( recoveredTx.getIdentifier() );
                     }
                     log.doneInternal( recoveredTx.getIdentifier() );
                 }
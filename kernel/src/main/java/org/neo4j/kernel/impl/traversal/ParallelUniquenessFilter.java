@@ -0,0 +1,39 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.traversal;
+
+import org.neo4j.graphdb.traversal.UniquenessFilter;
+
+/**
+ * A {@link UniquenessFilter} which knows how to be shared by the threads of
+ * a parallel traversal without all of its checks being serialized on a
+ * single lock. Other filters are wrapped in one that synchronizes every
+ * check.
+ */
+public interface ParallelUniquenessFilter extends UniquenessFilter
+{
+    /**
+     * @param threads the number of threads which will check branches
+     *            concurrently.
+     * @return a filter with the same semantics as this one which is safe to
+     *         use from {@code threads} threads at once, possibly this one.
+     */
+    UniquenessFilter forThreads( int threads );
+}
@@ -43,7 +43,7 @@ public final class TraversalDescriptionImpl implements TraversalDescription
     public TraversalDescriptionImpl()
     {
         this( StandardExpander.DEFAULT, Uniqueness.NODE_GLOBAL, null,
-                Evaluators.all(), Traversal.preorderDepthFirst() );
+                Evaluators.all(), Traversal.preorderDepthFirst(), 1 );
     }
 
     final Expander expander;
@@ -51,16 +51,18 @@ public final class TraversalDescriptionImpl implements TraversalDescription
     final Object uniquenessParameter;
     final Evaluator evaluator;
     final BranchOrderingPolicy branchSelector;
+    final int threads;
 
     private TraversalDescriptionImpl( Expander expander,
             UniquenessFactory uniqueness, Object uniquenessParameter,
-            Evaluator evaluator, BranchOrderingPolicy branchSelector )
+            Evaluator evaluator, BranchOrderingPolicy branchSelector, int threads )
     {
         this.expander = expander;
         this.uniqueness = uniqueness;
         this.uniquenessParameter = uniquenessParameter;
         this.evaluator = evaluator;
         this.branchSelector = branchSelector;
+        this.threads = threads;
     }
 
     /* (non-Javadoc)
@@ -77,7 +79,7 @@ public final class TraversalDescriptionImpl implements TraversalDescription
     public TraversalDescription uniqueness( UniquenessFactory uniqueness )
     {
         return new TraversalDescriptionImpl( expander, uniqueness, null,
-                evaluator, branchSelector );
+                evaluator, branchSelector, threads );
     }
 
     /* (non-Javadoc)
@@ -96,7 +98,7 @@ public final class TraversalDescriptionImpl implements TraversalDescription
         }
 
         return new TraversalDescriptionImpl( expander, uniqueness, parameter,
-                evaluator, branchSelector );
+                evaluator, branchSelector, threads );
     }
     
     public TraversalDescription prune( PruneEvaluator pruning )
@@ -131,7 +133,7 @@ public final class TraversalDescriptionImpl implements TraversalDescription
         }
         nullCheck( evaluator, Evaluator.class, "RETURN_ALL" );
         return new TraversalDescriptionImpl( expander, uniqueness, uniquenessParameter,
-                addBlaEvaluator( evaluator ), branchSelector );
+                addBlaEvaluator( evaluator ), branchSelector, threads );
     }
     
     private Evaluator addBlaEvaluator( Evaluator evaluator )
@@ -176,7 +178,21 @@ public final class TraversalDescriptionImpl implements TraversalDescription
             return this;
         }
         return new TraversalDescriptionImpl( expander, uniqueness, uniquenessParameter,
-                evaluator, selector );
+                evaluator, selector, threads );
+    }
+
+    public TraversalDescription parallel( int threads )
+    {
+        if ( threads < 1 )
+        {
+            throw new IllegalArgumentException( "Illegal number of threads: " + threads );
+        }
+        if ( this.threads == threads )
+        {
+            return this;
+        }
+        return new TraversalDescriptionImpl( expander, uniqueness, uniquenessParameter,
+                evaluator, branchSelector, threads );
     }
 
     public TraversalDescription depthFirst()
@@ -216,7 +232,7 @@ public final class TraversalDescriptionImpl implements TraversalDescription
             return this;
         }
         return new TraversalDescriptionImpl( Traversal.expander( expander ), uniqueness,
-                uniquenessParameter, evaluator, branchSelector );
+                uniquenessParameter, evaluator, branchSelector, threads );
     }
     
     private static class WrappedPruneEvaluator implements Evaluator
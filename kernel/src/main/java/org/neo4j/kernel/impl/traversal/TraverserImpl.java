@@ -19,7 +19,19 @@
  */
 package org.neo4j.kernel.impl.traversal;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Path;
@@ -45,7 +57,7 @@ class TraverserImpl implements Traverser
 
     public Iterator<Path> iterator()
     {
-        return new TraverserIterator();
+        return description.threads > 1 ? new ParallelTraverserIterator() : new TraverserIterator();
     }
 
     public Iterable<Node> nodes()
@@ -97,15 +109,17 @@ class TraverserImpl implements Traverser
         private final BranchSelector sourceSelector;
         final TraversalDescriptionImpl description;
         final Node startNode;
+        final TraversalBranch startBranch;
 
         TraverserIterator()
         {
             this.description = TraverserImpl.this.description;
-            this.uniquness = description.uniqueness.create( description.uniquenessParameter );
+            UniquenessFilter uniqueness = description.uniqueness.create( description.uniquenessParameter );
+            this.uniquness = description.threads > 1 ? threadSafe( uniqueness, description.threads ) : uniqueness;
             this.startNode = TraverserImpl.this.startNode;
-            this.sourceSelector = description.branchSelector.create(
-                    new StartNodeTraversalBranch( this, startNode,
-                            description.expander ) );
+            this.startBranch = new StartNodeTraversalBranch( this, startNode,
+                    description.expander );
+            this.sourceSelector = description.branchSelector.create( startBranch );
         }
 
         boolean okToProceedFirst( TraversalBranch source )
@@ -136,4 +150,178 @@ class TraverserImpl implements Traverser
             }
         }
     }
+
+    /**
+     * Expands one depth at a time, with the branches of a depth split among
+     * the threads of a pool, each collecting the next branches of its part.
+     * The next depth is expanded when the iterator has returned all included
+     * positions of the current one.
+     */
+    class ParallelTraverserIterator extends TraverserIterator
+    {
+        private final Queue<Path> included = new LinkedList<Path>();
+        private List<TraversalBranch> depth;
+        private ExecutorService executor;
+
+        @Override
+        protected Path fetchNextOrNull()
+        {
+            while ( included.isEmpty() )
+            {
+                if ( depth == null )
+                {
+                    // The first call returns the start branch itself, if its uniqueness allows it
+                    TraversalBranch start = startBranch.next();
+                    depth = new ArrayList<TraversalBranch>();
+                    if ( start != null )
+                    {
+                        depth.add( start );
+                        include( start );
+                    }
+                }
+                else if ( depth.isEmpty() )
+                {
+                    if ( executor != null )
+                    {
+                        executor.shutdown();
+                        executor = null;
+                    }
+                    return null;
+                }
+                else
+                {
+                    depth = expand( depth );
+                }
+            }
+            return included.poll();
+        }
+
+        private void include( TraversalBranch branch )
+        {
+            if ( branch.evaluation().includes() )
+            {
+                included.add( branch.position() );
+            }
+        }
+
+        private List<TraversalBranch> expand( List<TraversalBranch> branches )
+        {
+            List<Future<List<TraversalBranch>>> parts = new ArrayList<Future<List<TraversalBranch>>>();
+            int partSize = Math.max( 1, branches.size() / ( description.threads * 4 ) );
+            for ( int start = 0; start < branches.size(); start += partSize )
+            {
+                final List<TraversalBranch> part = branches.subList( start,
+                        Math.min( branches.size(), start + partSize ) );
+                parts.add( executor().submit( new Callable<List<TraversalBranch>>()
+                {
+                    public List<TraversalBranch> call()
+                    {
+                        List<TraversalBranch> next = new ArrayList<TraversalBranch>();
+                        for ( TraversalBranch branch : part )
+                        {
+                            for ( TraversalBranch child = branch.next(); child != null; child = branch.next() )
+                            {
+                                next.add( child );
+                            }
+                        }
+                        return next;
+                    }
+                } ) );
+            }
+
+            List<TraversalBranch> next = new ArrayList<TraversalBranch>();
+            for ( Future<List<TraversalBranch>> part : parts )
+            {
+                for ( TraversalBranch branch : awaitPart( part ) )
+                {
+                    include( branch );
+                    if ( branch.evaluation().continues() )
+                    {
+                        next.add( branch );
+                    }
+                }
+            }
+            return next;
+        }
+
+        private List<TraversalBranch> awaitPart( Future<List<TraversalBranch>> part )
+        {
+            try
+            {
+                return part.get();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+                throw new RuntimeException( "Interrupted while traversing", e );
+            }
+            catch ( ExecutionException e )
+            {
+                executor.shutdownNow();
+                if ( e.getCause() instanceof RuntimeException )
+                {
+                    throw (RuntimeException) e.getCause();
+                }
+                if ( e.getCause() instanceof Error )
+                {
+                    throw (Error) e.getCause();
+                }
+                throw new RuntimeException( e.getCause() );
+            }
+        }
+
+        // The threads time out when idle, so that a traverser which isn't
+        // iterated to the end doesn't keep them around
+        private ExecutorService executor()
+        {
+            if ( executor == null )
+            {
+                ThreadPoolExecutor pool = new ThreadPoolExecutor( description.threads, description.threads,
+                        10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                {
+                    private int threadNumber;
+
+                    public synchronized Thread newThread( Runnable runnable )
+                    {
+                        Thread thread = new Thread( runnable, "Parallel traverser-" + threadNumber++ );
+                        thread.setDaemon( true );
+                        return thread;
+                    }
+                } );
+                pool.allowCoreThreadTimeOut( true );
+                executor = pool;
+            }
+            return executor;
+        }
+    }
+
+    private static UniquenessFilter threadSafe( UniquenessFilter filter, int threads )
+    {
+        if ( filter instanceof ParallelUniquenessFilter )
+        {
+            return ( (ParallelUniquenessFilter) filter ).forThreads( threads );
+        }
+        return new SynchronizedUniquenessFilter( filter );
+    }
+
+    private static class SynchronizedUniquenessFilter implements UniquenessFilter
+    {
+        private final UniquenessFilter filter;
+
+        SynchronizedUniquenessFilter( UniquenessFilter filter )
+        {
+            this.filter = filter;
+        }
+
+        public synchronized boolean checkFirst( TraversalBranch branch )
+        {
+            return filter.checkFirst( branch );
+        }
+
+        public synchronized boolean check( TraversalBranch branch )
+        {
+            return filter.check( branch );
+        }
+    }
 }
@@ -34,13 +34,19 @@ import java.nio.channels.WritableByteChannel;
 public class BufferedFileChannel extends FileChannel
 {
     private final FileChannel source;
-    private final byte[] intermediaryBuffer = new byte[1024*8];
+    private final byte[] intermediaryBuffer;
     private int intermediaryBufferSize;
     private int intermediaryBufferPosition;
 
     public BufferedFileChannel( FileChannel source ) throws IOException
+    {
+        this( source, 1024*8 );
+    }
+
+    public BufferedFileChannel( FileChannel source, int bufferSize ) throws IOException
     {
         this.source = source;
+        this.intermediaryBuffer = new byte[bufferSize];
         fillUpIntermediaryBuffer();
     }
 
@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing with linear probing for tables keyed by primitive longs,
+ * shared by {@link PrimitiveLongSet} and the primitive long-keyed maps of
+ * the graph algorithms. Keys are ids of nodes and relationships, so a
+ * negative key marks a free slot.
+ */
+public class PrimitiveLongHashing
+{
+    public static final long FREE = -1;
+    public static final int DEFAULT_CAPACITY = 16;
+
+    private PrimitiveLongHashing()
+    {
+    }
+
+    public static long[] newKeys( int capacity )
+    {
+        long[] keys = new long[capacity];
+        Arrays.fill( keys, FREE );
+        return keys;
+    }
+
+    /**
+     * @return the smallest power of two that holds {@code expectedSize} keys
+     * without going over the {@link #resizeThreshold(int) load factor}.
+     */
+    public static int capacityFor( int expectedSize )
+    {
+        int capacity = DEFAULT_CAPACITY;
+        while ( resizeThreshold( capacity ) < expectedSize )
+        {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    public static int resizeThreshold( int capacity )
+    {
+        return capacity - ( capacity >> 2 );
+    }
+
+    /**
+     * @return the slot which holds {@code key}, or the free slot where it
+     * would be placed.
+     */
+    public static int slotOf( long[] keys, long key )
+    {
+        int mask = keys.length - 1;
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) ( hash ^ ( hash >>> 32 ) ) & mask;
+        while ( keys[slot] != key && keys[slot] != FREE )
+        {
+            slot = ( slot + 1 ) & mask;
+        }
+        return slot;
+    }
+
+    public static void checkKey( long key )
+    {
+        if ( key < 0 )
+        {
+            throw new IllegalArgumentException( "Negative keys not supported, got " + key );
+        }
+    }
+}
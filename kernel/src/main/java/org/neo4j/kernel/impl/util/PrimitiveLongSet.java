@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.neo4j.kernel.impl.util.PrimitiveLongHashing.FREE;
+import static org.neo4j.kernel.impl.util.PrimitiveLongHashing.capacityFor;
+import static org.neo4j.kernel.impl.util.PrimitiveLongHashing.checkKey;
+import static org.neo4j.kernel.impl.util.PrimitiveLongHashing.newKeys;
+import static org.neo4j.kernel.impl.util.PrimitiveLongHashing.resizeThreshold;
+import static org.neo4j.kernel.impl.util.PrimitiveLongHashing.slotOf;
+
+import java.util.Arrays;
+
+/**
+ * A set of non-negative longs, typically ids of visited nodes or
+ * relationships, which doesn't box its elements or create an entry
+ * object per element the way a {@code HashSet<Long>} does.
+ * Elements can't be removed.
+ * <p>
+ * It starts out as an open addressing hash set and turns into a bitmap,
+ * one bit per possible id, when the hash table would otherwise grow bigger
+ * than a bitmap up to the highest id in use.
+ */
+public class PrimitiveLongSet
+{
+    private long highestId;
+    private long[] keys;
+    private long[] bits;
+    private int size;
+
+    public PrimitiveLongSet()
+    {
+        this( 0 );
+    }
+
+    public PrimitiveLongSet( int expectedSize )
+    {
+        this( expectedSize, 0 );
+    }
+
+    /**
+     * @param expectedSize the number of elements expected to be added.
+     * @param highestPossibleIdInUse the highest id which is expected to be
+     * added, used for deciding when a bitmap is cheaper. Higher ids can
+     * still be added.
+     */
+    public PrimitiveLongSet( int expectedSize, long highestPossibleIdInUse )
+    {
+        this.highestId = highestPossibleIdInUse;
+        this.keys = newKeys( capacityFor( expectedSize ) );
+    }
+
+    /**
+     * @param key the element to add.
+     * @return {@code true} if the element wasn't already in this set.
+     */
+    public boolean add( long key )
+    {
+        checkKey( key );
+        highestId = Math.max( highestId, key );
+        if ( bits != null )
+        {
+            return setBit( key );
+        }
+        int slot = slotOf( keys, key );
+        if ( keys[slot] == key )
+        {
+            return false;
+        }
+        keys[slot] = key;
+        if ( ++size > resizeThreshold( keys.length ) )
+        {
+            grow();
+        }
+        return true;
+    }
+
+    public boolean contains( long key )
+    {
+        if ( key < 0 )
+        {
+            return false;
+        }
+        if ( bits != null )
+        {
+            int word = (int) ( key >>> 6 );
+            return word < bits.length && ( bits[word] & ( 1L << key ) ) != 0;
+        }
+        return keys[slotOf( keys, key )] == key;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * @return whether or not the elements are kept in a bitmap rather than
+     * a hash table.
+     */
+    public boolean isBitmap()
+    {
+        return bits != null;
+    }
+
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        long hashTableBytes = oldKeys.length * 2L * 8;
+        long bitmapBytes = highestId / 8 + 8;
+        if ( bitmapBytes <= hashTableBytes )
+        {
+            keys = null;
+            bits = new long[(int) ( highestId >>> 6 ) + 1];
+            for ( long key : oldKeys )
+            {
+                if ( key != FREE )
+                {
+                    bits[(int) ( key >>> 6 )] |= 1L << key;
+                }
+            }
+            return;
+        }
+        keys = newKeys( oldKeys.length << 1 );
+        for ( long key : oldKeys )
+        {
+            if ( key != FREE )
+            {
+                keys[slotOf( keys, key )] = key;
+            }
+        }
+    }
+
+    private boolean setBit( long key )
+    {
+        int word = (int) ( key >>> 6 );
+        if ( word >= bits.length )
+        {
+            bits = Arrays.copyOf( bits, Math.max( word + 1, bits.length * 2 ) );
+        }
+        long mask = 1L << key;
+        if ( ( bits[word] & mask ) != 0 )
+        {
+            return false;
+        }
+        bits[word] |= mask;
+        size++;
+        return true;
+    }
+}
@@ -19,6 +19,7 @@
  */
 package org.neo4j.kernel.impl.util;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.NoSuchElementException;
 
@@ -849,6 +850,105 @@ public class RelIdArray
         }
     }
 
+    private static final byte KIND_PLAIN = 0;
+    private static final byte KIND_WITH_LOOPS = 1;
+    private static final byte KIND_EMPTY = 2;
+
+    /**
+     * Writes the type and ids of this array to {@code target} so that
+     * {@link #readFrom(ByteBuffer)} can create an equal array from it.
+     * The ids are written block by block, oldest block first.
+     *
+     * @throws java.nio.BufferOverflowException if {@code target} hasn't got
+     * room for all the ids.
+     */
+    public void writeTo( ByteBuffer target )
+    {
+        boolean empty = this instanceof EmptyRelIdArray;
+        boolean withLoops = this instanceof RelIdArrayWithLoops;
+        target.put( empty ? KIND_EMPTY : withLoops ? KIND_WITH_LOOPS : KIND_PLAIN );
+        target.putInt( type.length() );
+        for ( int i = 0; i < type.length(); i++ )
+        {
+            target.putChar( type.charAt( i ) );
+        }
+        if ( empty )
+        {
+            return;
+        }
+        writeBlocks( lastOutBlock, target );
+        writeBlocks( lastInBlock, target );
+        if ( withLoops )
+        {
+            writeBlocks( getLastLoopBlock(), target );
+        }
+    }
+
+    private static void writeBlocks( IdBlock lastBlock, ByteBuffer target )
+    {
+        int blockCount = 0;
+        for ( IdBlock block = lastBlock; block != null; block = block.getPrev() )
+        {
+            blockCount++;
+        }
+        IdBlock[] blocks = new IdBlock[blockCount];
+        for ( IdBlock block = lastBlock; block != null; block = block.getPrev() )
+        {
+            blocks[--blockCount] = block;
+        }
+        target.putInt( blocks.length );
+        for ( IdBlock block : blocks )
+        {
+            int length = block.length();
+            target.putLong( block.getHighBits() );
+            target.putInt( length );
+            for ( int i = 0; i < length; i++ )
+            {
+                target.putInt( block.ids[i+1] );
+            }
+        }
+    }
+
+    /**
+     * Reads an array written by {@link #writeTo(ByteBuffer)}.
+     */
+    public static RelIdArray readFrom( ByteBuffer source )
+    {
+        byte kind = source.get();
+        char[] chars = new char[source.getInt()];
+        for ( int i = 0; i < chars.length; i++ )
+        {
+            chars[i] = source.getChar();
+        }
+        String type = new String( chars );
+        if ( kind == KIND_EMPTY )
+        {
+            return empty( type );
+        }
+        RelIdArray ids = kind == KIND_WITH_LOOPS ? new RelIdArrayWithLoops( type ) : new RelIdArray( type );
+        readBlocks( ids, source, DirectionWrapper.OUTGOING );
+        readBlocks( ids, source, DirectionWrapper.INCOMING );
+        if ( kind == KIND_WITH_LOOPS )
+        {
+            readBlocks( ids, source, DirectionWrapper.BOTH );
+        }
+        return ids;
+    }
+
+    private static void readBlocks( RelIdArray ids, ByteBuffer source, DirectionWrapper direction )
+    {
+        int blockCount = source.getInt();
+        for ( int i = 0; i < blockCount; i++ )
+        {
+            long highBits = source.getLong();
+            int length = source.getInt();
+            for ( int j = 0; j < length; j++ )
+            {
+                ids.add( highBits | (source.getInt()&0xFFFFFFFFL), direction );
+            }
+        }
+    }
+
     /**
      * Optimization in the lazy loading of relationships for a node.
      * {@link RelIdIterator#updateSource(RelIdArray)} is only called if
@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.traversal.TraversalBranch;
+import org.neo4j.graphdb.traversal.UniquenessFilter;
+import org.neo4j.kernel.impl.traversal.ParallelUniquenessFilter;
+
+public class TestStripedGloballyUnique
+{
+    private static final int THREADS = 8;
+    private static final int IDS = 20000;
+
+    @Test
+    public void globalUniquenessIsStripedForParallelTraversals()
+    {
+        UniquenessFilter filter = Uniqueness.NODE_GLOBAL.create( null );
+        assertTrue( filter instanceof ParallelUniquenessFilter );
+        assertTrue( ( (ParallelUniquenessFilter) filter ).forThreads( THREADS ) instanceof StripedGloballyUnique );
+    }
+
+    @Test
+    public void eachIdPassesOnceAmongAllThreads() throws Exception
+    {
+        final UniquenessFilter filter = new StripedGloballyUnique( PrimitiveTypeFetcher.NODE, THREADS );
+        final AtomicIntegerArray passed = new AtomicIntegerArray( IDS );
+        final CountDownLatch startSignal = new CountDownLatch( 1 );
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for ( int i = 0; i < THREADS; i++ )
+        {
+            Thread thread = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        startSignal.await();
+                        for ( int id = 0; id < IDS; id++ )
+                        {
+                            if ( filter.check( branchTo( id ) ) )
+                            {
+                                passed.incrementAndGet( id );
+                            }
+                        }
+                    }
+                    catch ( Throwable t )
+                    {
+                        synchronized ( failures )
+                        {
+                            failures.add( t );
+                        }
+                    }
+                }
+            };
+            thread.start();
+            threads.add( thread );
+        }
+        startSignal.countDown();
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        assertTrue( failures.toString(), failures.isEmpty() );
+        for ( int id = 0; id < IDS; id++ )
+        {
+            assertEquals( "id " + id, 1, passed.get( id ) );
+        }
+    }
+
+    // Only the id of the node is looked at, there is no database behind it
+    private static TraversalBranch branchTo( long id )
+    {
+        final Node node = proxy( Node.class, "getId", id );
+        return proxy( TraversalBranch.class, "node", node );
+    }
+
+    private static <T> T proxy( Class<T> type, final String methodName, final Object result )
+    {
+        return type.cast( Proxy.newProxyInstance( type.getClassLoader(), new Class<?>[] { type },
+                new InvocationHandler()
+                {
+                    public Object invoke( Object proxy, Method method, Object[] args )
+                    {
+                        if ( method.getName().equals( methodName ) )
+                        {
+                            return result;
+                        }
+                        if ( method.getName().equals( "getGraphDatabase" ) )
+                        {
+                            return null;
+                        }
+                        throw new UnsupportedOperationException( method.getName() );
+                    }
+                } ) );
+    }
+}
@@ -0,0 +1,312 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.batchinsert;
+
+import static org.junit.Assert.assertEquals;
+import static org.neo4j.helpers.collection.IteratorUtil.count;
+import static org.neo4j.helpers.collection.MapUtil.map;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.ProgressIndicator;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+public class TestParallelBatchImporter
+{
+    private static final RelationshipType[] TYPES = {
+        DynamicRelationshipType.withName( "KNOWS" ), DynamicRelationshipType.withName( "LIKES" ),
+        DynamicRelationshipType.withName( "OWES" ) };
+
+    private final Random random = new Random( 7 );
+    private final Counts progress = new Counts();
+    private String storePath;
+
+    @Before
+    public void deleteStore()
+    {
+        storePath = AbstractNeo4jTestCase.getStorePath( "parallel-batch" );
+        AbstractNeo4jTestCase.deleteFileOrDirectory( new File( storePath ) );
+    }
+
+    @Test
+    public void importedRelationshipChainsCanBeTraversedAndChanged()
+    {
+        BatchInserterImpl inserter = new BatchInserterImpl( storePath );
+        ParallelBatchImporter importer = new ParallelBatchImporter( inserter, 4, progress );
+        List<Map<String,Object>> nodes = new ArrayList<Map<String,Object>>();
+        for ( int i = 0; i < 3000; i++ )
+        {
+            nodes.add( i % 10 == 0 ? null : map( "name", "Node " + i, "numbers",
+                    new long[] { random.nextLong(), random.nextLong(), i } ) );
+        }
+        long firstNode = importer.importNodes( nodes.iterator() );
+        assertEquals( 1, firstNode );
+        List<InputRelationship> relationships = randomRelationships( 20000, firstNode, 3000 );
+        importer.importRelationships( relationships.iterator() );
+        inserter.shutdown();
+        assertEquals( "[3000, 20000, 3001, 20000]", progress.toString() );
+
+        Map<Long,String> expected = new TreeMap<Long,String>();
+        expected.put( 0L, "null" );
+        for ( int i = 0; i < nodes.size(); i++ )
+        {
+            Map<String,Object> properties = nodes.get( i );
+            expected.put( firstNode + i, properties != null ? properties.get( "name" ) + ","
+                    + ((long[]) properties.get( "numbers" ))[2] : "null" );
+        }
+        verifyAndDeleteSome( expected, relationships );
+    }
+
+    @Test
+    public void importedRelationshipsAreAddedToExistingChains()
+    {
+        BatchInserterImpl inserter = new BatchInserterImpl( storePath );
+        List<InputRelationship> relationships = new ArrayList<InputRelationship>();
+        Map<Long,String> expected = new TreeMap<Long,String>();
+        expected.put( 0L, "null" );
+        for ( int i = 0; i < 50; i++ )
+        {
+            expected.put( inserter.createNode( null ), "null" );
+        }
+        for ( InputRelationship relationship : randomRelationships( 200, 0, 51 ) )
+        {
+            inserter.createRelationship( relationship.getStartNode(), relationship.getEndNode(),
+                    relationship.getType(), relationship.getProperties() );
+            relationships.add( relationship );
+        }
+        inserter.shutdown();
+
+        inserter = new BatchInserterImpl( storePath );
+        List<InputRelationship> imported = randomRelationships( 300, 0, 51 );
+        new ParallelBatchImporter( inserter, 3, progress ).importRelationships( imported.iterator() );
+        inserter.shutdown();
+        relationships.addAll( imported );
+        verifyAndDeleteSome( expected, relationships );
+    }
+
+    @Test
+    public void relationshipsAreAddedToTheGroupsOfDenseNodes()
+    {
+        List<InputRelationship> relationships = randomRelationships( 200, 0, 51 );
+        Map<Long,String> expected = new TreeMap<Long,String>();
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( storePath,
+                stringMap( Config.DENSE_NODE_THRESHOLD, "5" ) );
+        try
+        {
+            Transaction tx = db.beginTx();
+            expected.put( 0L, "null" );
+            for ( int i = 0; i < 50; i++ )
+            {
+                expected.put( db.createNode().getId(), "null" );
+            }
+            for ( InputRelationship relationship : relationships )
+            {
+                db.getNodeById( relationship.getStartNode() ).createRelationshipTo(
+                        db.getNodeById( relationship.getEndNode() ), relationship.getType() ).setProperty(
+                                "weight", relationship.getProperties().get( "weight" ) );
+            }
+            tx.success();
+            tx.finish();
+        }
+        finally
+        {
+            db.shutdown();
+        }
+
+        BatchInserterImpl inserter = new BatchInserterImpl( storePath );
+        for ( InputRelationship relationship : randomRelationships( 100, 0, 51 ) )
+        {
+            inserter.createRelationship( relationship.getStartNode(), relationship.getEndNode(),
+                    relationship.getType(), relationship.getProperties() );
+            relationships.add( relationship );
+        }
+        int ofDenseNode = 0;
+        for ( InputRelationship relationship : relationships )
+        {
+            if ( relationship.getStartNode() == 0 || relationship.getEndNode() == 0 )
+            {
+                ofDenseNode++;
+            }
+        }
+        assertEquals( ofDenseNode, count( inserter.getRelationships( 0 ) ) );
+        List<InputRelationship> imported = randomRelationships( 300, 0, 51 );
+        new ParallelBatchImporter( inserter, 3, progress ).importRelationships( imported.iterator() );
+        inserter.shutdown();
+        relationships.addAll( imported );
+        verifyAndDeleteSome( expected, relationships );
+    }
+
+    private List<InputRelationship> randomRelationships( int count, long firstNode, int nodeCount )
+    {
+        List<InputRelationship> relationships = new ArrayList<InputRelationship>();
+        for ( int i = 0; i < count; i++ )
+        {
+            // Some dense nodes, some self relationships
+            long start = firstNode + (random.nextInt( 4 ) == 0 ? random.nextInt( 3 ) : random.nextInt( nodeCount ));
+            long end = random.nextInt( 50 ) == 0 ? start : firstNode + random.nextInt( nodeCount );
+            relationships.add( new InputRelationship( start, end, TYPES[random.nextInt( TYPES.length )],
+                    map( "weight", random.nextInt() ) ) );
+        }
+        return relationships;
+    }
+
+    private void verifyAndDeleteSome( Map<Long,String> expectedNodes, List<InputRelationship> relationships )
+    {
+        Map<Long,Set<String>> expected = new HashMap<Long,Set<String>>();
+        for ( InputRelationship relationship : relationships )
+        {
+            String description = describe( relationship.getStartNode(), relationship.getEndNode(),
+                    relationship.getType(), relationship.getProperties().get( "weight" ) );
+            expectedRelationships( expected, relationship.getStartNode() ).add( description );
+            expectedRelationships( expected, relationship.getEndNode() ).add( description );
+        }
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( storePath );
+        try
+        {
+            assertEquals( expectedNodes, describeNodes( db ) );
+            assertEquals( expected, describeRelationships( db ) );
+
+            // Deleting relationships unlinks them using the previous pointers
+            Transaction tx = db.beginTx();
+            for ( Relationship relationship : GlobalGraphOperations.at( db ).getAllRelationships() )
+            {
+                if ( relationship.getId() % 3 == 0 )
+                {
+                    String description = describe( relationship );
+                    expectedRelationships( expected, relationship.getStartNode().getId() ).remove( description );
+                    expectedRelationships( expected, relationship.getEndNode().getId() ).remove( description );
+                    relationship.delete();
+                }
+            }
+            tx.success();
+            tx.finish();
+            expected.values().removeAll( Collections.singleton( Collections.<String>emptySet() ) );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+        db = new EmbeddedGraphDatabase( storePath );
+        try
+        {
+            assertEquals( expected, describeRelationships( db ) );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    private static Set<String> expectedRelationships( Map<Long,Set<String>> expected, long node )
+    {
+        Set<String> result = expected.get( node );
+        if ( result == null )
+        {
+            result = new TreeSet<String>();
+            expected.put( node, result );
+        }
+        return result;
+    }
+
+    private static Map<Long,String> describeNodes( EmbeddedGraphDatabase db )
+    {
+        Map<Long,String> result = new TreeMap<Long,String>();
+        for ( Node node : GlobalGraphOperations.at( db ).getAllNodes() )
+        {
+            long[] numbers = (long[]) node.getProperty( "numbers", null );
+            result.put( node.getId(), numbers != null ? node.getProperty( "name" ) + "," + numbers[2] : "null" );
+        }
+        return result;
+    }
+
+    private static Map<Long,Set<String>> describeRelationships( EmbeddedGraphDatabase db )
+    {
+        Map<Long,Set<String>> result = new HashMap<Long,Set<String>>();
+        for ( Node node : GlobalGraphOperations.at( db ).getAllNodes() )
+        {
+            Set<String> relationships = new TreeSet<String>();
+            for ( Relationship relationship : node.getRelationships() )
+            {
+                relationships.add( describe( relationship ) );
+            }
+            if ( !relationships.isEmpty() )
+            {
+                result.put( node.getId(), relationships );
+            }
+        }
+        return result;
+    }
+
+    private static String describe( Relationship relationship )
+    {
+        return describe( relationship.getStartNode().getId(), relationship.getEndNode().getId(),
+                relationship.getType(), relationship.getProperty( "weight" ) );
+    }
+
+    private static String describe( long start, long end, RelationshipType type, Object weight )
+    {
+        return start + "-" + type.name() + "->" + end + ":" + weight;
+    }
+
+    private static class Counts implements ProgressIndicator
+    {
+        private final List<Long> done = new ArrayList<Long>();
+        private long current;
+
+        public void update( boolean incremental, long value )
+        {
+            current = incremental ? current + value : value;
+        }
+
+        public void done( long totalProgress )
+        {
+            assertEquals( current, totalProgress );
+            done.add( totalProgress );
+            current = 0;
+        }
+
+        @Override
+        public String toString()
+        {
+            return done.toString();
+        }
+    }
+}
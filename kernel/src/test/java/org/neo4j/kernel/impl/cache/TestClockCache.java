@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestClockCache
+{
+    @Test
+    public void testCreate()
+    {
+        try
+        {
+            new ClockCache<Object,Object>( "TestCache", 0 );
+            fail( "Illegal maxSize should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            new ClockCache<Object,Object>( "TestCache", 10, 3 );
+            fail( "Segment count not a power of two should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        ClockCache<Object,Object> cache = new ClockCache<Object,Object>( "TestCache", 70 );
+        try
+        {
+            cache.put( null, new Object() );
+            fail( "Null key should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            cache.put( new Object(), null );
+            fail( "Null element should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            cache.get( null );
+            fail( "Null key should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            cache.remove( null );
+            fail( "Null key should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        cache.put( new Object(), new Object() );
+        cache.clear();
+        assertEquals( 0, cache.size() );
+    }
+
+    @Test
+    public void testPutGetRemove()
+    {
+        ClockCache<Integer,String> cache = new ClockCache<Integer,String>( "TestCache", 10, 1 );
+        cache.put( 1, "one" );
+        cache.put( 2, "two" );
+        assertEquals( "one", cache.get( 1 ) );
+        assertEquals( "two", cache.get( 2 ) );
+        assertNull( cache.get( 3 ) );
+        assertEquals( 2, cache.hitCount() );
+        assertEquals( 1, cache.missCount() );
+        cache.put( 1, "uno" );
+        assertEquals( "uno", cache.get( 1 ) );
+        assertEquals( "uno", cache.remove( 1 ) );
+        assertNull( cache.get( 1 ) );
+        assertNull( cache.remove( 1 ) );
+        assertEquals( 1, cache.size() );
+    }
+
+    @Test
+    public void testSizeIsBounded()
+    {
+        ClockCacheTest<Integer,Integer> cache = new ClockCacheTest<Integer,Integer>( 100, 4 );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            cache.put( i, i );
+            assertTrue( cache.size() <= 100 );
+        }
+        assertEquals( 1000 - cache.size(), cache.cleaned.size() );
+        cache.resize( 20 );
+        assertTrue( cache.size() <= 20 );
+        assertEquals( 1000 - cache.size(), cache.cleaned.size() );
+    }
+
+    @Test
+    public void testFrequentlyUsedElementsSurviveScan()
+    {
+        ClockCache<Integer,Integer> cache = new ClockCache<Integer,Integer>( "TestCache", 100, 1 );
+        // the hot elements are pushed out of probation by the cold ones and
+        // get into the main part when used again while remembered
+        for ( int i = 0; i < 50; i++ )
+        {
+            cache.put( i, i );
+        }
+        for ( int i = 1000; i < 1100; i++ )
+        {
+            cache.put( i, i );
+        }
+        for ( int i = 0; i < 50; i++ )
+        {
+            assertNull( cache.get( i ) );
+            cache.put( i, i );
+        }
+
+        // a scan of elements that are only touched once
+        for ( int i = 10000; i < 20000; i++ )
+        {
+            cache.put( i, i );
+        }
+
+        for ( int i = 0; i < 50; i++ )
+        {
+            assertEquals( Integer.valueOf( i ), cache.get( i ) );
+        }
+    }
+
+    @Test
+    public void testClearCleansAllElements()
+    {
+        ClockCacheTest<Integer,Integer> cache = new ClockCacheTest<Integer,Integer>( 100, 2 );
+        for ( int i = 0; i < 10; i++ )
+        {
+            cache.put( i, i );
+        }
+        cache.remove( 0 );
+        cache.clear();
+        assertEquals( 0, cache.size() );
+        assertEquals( 9, cache.cleaned.size() );
+    }
+
+    private static class ClockCacheTest<K,E> extends ClockCache<K,E>
+    {
+        private final List<E> cleaned = new ArrayList<E>();
+
+        ClockCacheTest( int maxSize, int segmentCount )
+        {
+            super( "TestCache", maxSize, segmentCount );
+        }
+
+        @Override
+        public void elementCleaned( E element )
+        {
+            cleaned.add( element );
+        }
+    }
+}
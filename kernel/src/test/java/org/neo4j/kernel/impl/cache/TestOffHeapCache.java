@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class TestOffHeapCache
+{
+    private static final OffHeapCache.Serializer<String> STRINGS = new OffHeapCache.Serializer<String>()
+    {
+        @Override
+        public void write( String value, ByteBuffer target )
+        {
+            target.putInt( value.length() );
+            for ( int i = 0; i < value.length(); i++ )
+            {
+                target.putChar( value.charAt( i ) );
+            }
+        }
+
+        @Override
+        public String read( long key, ByteBuffer source )
+        {
+            char[] chars = new char[source.getInt()];
+            for ( int i = 0; i < chars.length; i++ )
+            {
+                chars[i] = source.getChar();
+            }
+            return new String( chars );
+        }
+    };
+
+    @Test
+    public void testCreate()
+    {
+        try
+        {
+            new OffHeapCache<String>( "TestCache", 0, 1000, STRINGS );
+            fail( "Illegal maxSize should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            new OffHeapCache<String>( "TestCache", 10, 0, STRINGS );
+            fail( "Illegal maxBytes should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        OffHeapCache<String> cache = new OffHeapCache<String>( "TestCache", 10, 1000, STRINGS );
+        try
+        {
+            cache.put( null, "value" );
+            fail( "Null key should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            cache.put( -1L, "value" );
+            fail( "Negative key should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            cache.put( 1L, null );
+            fail( "Null element should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+    }
+
+    @Test
+    public void testElementsMovedOffTheHeapCanBeRead()
+    {
+        OffHeapCache<String> cache = new OffHeapCache<String>( "TestCache", 2, 1024*1024, STRINGS );
+        for ( long i = 0; i < 1000; i++ )
+        {
+            cache.put( i, "value" + i );
+        }
+        assertEquals( 1000, cache.size() );
+        assertTrue( cache.usedBytes() > 0 );
+        for ( long i = 0; i < 1000; i++ )
+        {
+            assertEquals( "value" + i, cache.get( i ) );
+        }
+        assertNull( cache.get( 1000L ) );
+        assertEquals( 1000, cache.hitCount() );
+        assertEquals( 1, cache.missCount() );
+    }
+
+    @Test
+    public void testOldestElementsAreDroppedWhenOutOfMemory()
+    {
+        // each element takes 12 bytes of header + 4 + 2*5 bytes, so there's
+        // room for 9 of them off the heap
+        OffHeapCache<String> cache = new OffHeapCache<String>( "TestCache", 1, 240, STRINGS );
+        for ( long i = 0; i < 100; i++ )
+        {
+            cache.put( i, "v" + (1000 + i) );
+        }
+        assertTrue( cache.usedBytes() <= 240 );
+        assertEquals( 10, cache.size() );
+        for ( long i = 0; i < 90; i++ )
+        {
+            assertNull( cache.get( i ) );
+        }
+        for ( long i = 90; i < 100; i++ )
+        {
+            assertEquals( "v" + (1000 + i), cache.get( i ) );
+        }
+    }
+
+    @Test
+    public void testPutAndRemoveReplaceCopyOffTheHeap()
+    {
+        OffHeapCache<String> cache = new OffHeapCache<String>( "TestCache", 1, 1024, STRINGS );
+        cache.put( 1L, "one" );
+        cache.put( 2L, "two" );
+        cache.put( 1L, "uno" );
+        cache.put( 3L, "three" );
+        cache.remove( 2L );
+        assertEquals( 2, cache.size() );
+        assertEquals( "uno", cache.get( 1L ) );
+        assertNull( cache.get( 2L ) );
+        assertEquals( "three", cache.get( 3L ) );
+    }
+
+    @Test
+    public void testTooBigElementIsNotKeptOffTheHeap()
+    {
+        OffHeapCache<String> cache = new OffHeapCache<String>( "TestCache", 1, 100, STRINGS );
+        StringBuilder big = new StringBuilder();
+        for ( int i = 0; i < 100; i++ )
+        {
+            big.append( 'x' );
+        }
+        cache.put( 1L, big.toString() );
+        cache.put( 2L, "two" );
+        assertNull( cache.get( 1L ) );
+        assertEquals( "two", cache.get( 2L ) );
+    }
+
+    @Test
+    public void testResizeAndClear()
+    {
+        OffHeapCache<String> cache = new OffHeapCache<String>( "TestCache", 10, 1024, STRINGS );
+        for ( long i = 0; i < 10; i++ )
+        {
+            cache.put( i, "value" + i );
+        }
+        assertEquals( 0, cache.usedBytes() );
+        cache.resize( 2 );
+        assertEquals( 2, cache.maxSize() );
+        assertTrue( cache.usedBytes() > 0 );
+        assertEquals( 10, cache.size() );
+        assertEquals( "value0", cache.get( 0L ) );
+        cache.clear();
+        assertEquals( 0, cache.size() );
+        assertEquals( 0, cache.usedBytes() );
+        assertNull( cache.get( 5L ) );
+    }
+}
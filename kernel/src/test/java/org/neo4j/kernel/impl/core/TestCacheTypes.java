@@ -96,6 +96,22 @@ public class TestCacheTypes extends AbstractNeo4jTestCase
         db.shutdown();
     }
 
+    @Test
+    public void testClockCache()
+    {
+        GraphDatabaseService db = newDb( "clock" );
+        assertEquals( CacheType.clock, ((EmbeddedGraphDatabase) db).getConfig().getGraphDbModule().getNodeManager().getCacheType() );
+        db.shutdown();
+    }
+
+    @Test
+    public void testOffHeapCache()
+    {
+        GraphDatabaseService db = newDb( "offheap" );
+        assertEquals( CacheType.offheap, ((EmbeddedGraphDatabase) db).getConfig().getGraphDbModule().getNodeManager().getCacheType() );
+        db.shutdown();
+    }
+
     @Test
     public void testInvalidCache()
     {
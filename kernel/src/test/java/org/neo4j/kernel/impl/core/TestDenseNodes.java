@@ -0,0 +1,453 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.nioneo.store.CommonAbstractStore;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.storemigration.UpgradeNotAllowedByConfigurationException;
+import org.neo4j.test.TargetDirectory;
+
+public class TestDenseNodes
+{
+    private static final RelationshipType KNOWS = withName( "KNOWS" );
+    private static final RelationshipType LIKES = withName( "LIKES" );
+    private static final RelationshipType OWES = withName( "OWES" );
+    private static final RelationshipType[] TYPES = { KNOWS, LIKES, OWES };
+
+    private final TargetDirectory target = TargetDirectory.forTest( getClass() );
+    private final List<Relationship> relationships = new ArrayList<Relationship>();
+    private String storeDir;
+    private EmbeddedGraphDatabase db;
+
+    @Before
+    public void startDb()
+    {
+        storeDir = target.directory( "dense", true ).getAbsolutePath();
+        startDbAgain();
+    }
+
+    @After
+    public void stopDb()
+    {
+        db.shutdown();
+    }
+
+    @Test
+    public void relationshipsOfDenseNodeAreFoundByTypeAndDirection()
+    {
+        long hub = createDenseNode();
+        assertDense( hub );
+        assertRelationships( hub );
+        clearCache();
+        assertRelationships( hub );
+        restart();
+        assertRelationships( hub );
+    }
+
+    @Test
+    public void relationshipsCanBeAddedToAndDeletedFromDenseNode()
+    {
+        long hub = createDenseNode();
+        Transaction tx = db.beginTx();
+        Node node = db.getNodeById( hub );
+        for ( Iterator<Relationship> iterator = relationships.iterator(); iterator.hasNext(); )
+        {
+            Relationship relationship = iterator.next();
+            if ( relationship.getId() % 3 == 0 )
+            {
+                relationship.delete();
+                iterator.remove();
+            }
+        }
+        relationships.add( node.createRelationshipTo( db.createNode(), OWES ) );
+        relationships.add( db.createNode().createRelationshipTo( node, KNOWS ) );
+        relationships.add( node.createRelationshipTo( node, LIKES ) );
+        assertRelationships( hub );
+        tx.success();
+        tx.finish();
+        assertRelationships( hub );
+        clearCache();
+        assertRelationships( hub );
+        restart();
+        assertRelationships( hub );
+    }
+
+    @Test
+    public void relationshipBetweenTwoDenseNodesIsInTheGroupsOfBoth()
+    {
+        long hub = createDenseNode();
+        long otherHub = createDenseNode();
+        Transaction tx = db.beginTx();
+        relationships.add( db.getNodeById( hub ).createRelationshipTo( db.getNodeById( otherHub ), OWES ) );
+        tx.success();
+        tx.finish();
+        assertRelationships( hub );
+        assertRelationships( otherHub );
+        restart();
+        assertDense( hub );
+        assertDense( otherHub );
+        assertRelationships( hub );
+        assertRelationships( otherHub );
+    }
+
+    @Test
+    public void denseNodeCanBeDeletedWithItsRelationships()
+    {
+        long hub = createDenseNode();
+        restart();
+        Transaction tx = db.beginTx();
+        Node node = db.getNodeById( hub );
+        for ( Relationship relationship : node.getRelationships() )
+        {
+            relationship.delete();
+        }
+        node.delete();
+        tx.success();
+        tx.finish();
+        relationships.clear();
+        restart();
+        try
+        {
+            db.getNodeById( hub );
+            fail( "Node[" + hub + "] should have been deleted" );
+        }
+        catch ( NotFoundException e )
+        { // Good
+        }
+    }
+
+    @Test
+    public void denseNodeWithRelationshipsLeftCannotBeDeleted()
+    {
+        long hub = createDenseNode();
+        Transaction tx = db.beginTx();
+        db.getNodeById( hub ).delete();
+        tx.success();
+        try
+        {
+            tx.finish();
+            fail( "Node[" + hub + "] shouldn't be deleted with its relationships left" );
+        }
+        catch ( RuntimeException e )
+        { // Good
+        }
+        restart();
+        assertRelationships( hub );
+    }
+
+    @Test
+    public void nodeBelowTheThresholdIsNotGrouped()
+    {
+        Transaction tx = db.beginTx();
+        Node node = db.createNode();
+        for ( int i = 0; i < 4; i++ )
+        {
+            relationships.add( node.createRelationshipTo( db.createNode(), KNOWS ) );
+        }
+        tx.success();
+        tx.finish();
+        tx = db.beginTx();
+        relationships.add( node.createRelationshipTo( db.createNode(), LIKES ) );
+        tx.success();
+        tx.finish();
+        assertNull( getGroups( node.getId() ) );
+        assertRelationships( node.getId() );
+    }
+
+    @Test
+    public void storeIsMarkedBeforeTheFirstGroupIsWritten() throws Exception
+    {
+        nodeBelowTheThresholdIsNotGrouped();
+        assertStoreVersion( CommonAbstractStore.ALL_STORES_VERSION );
+        createDenseNode();
+        assertStoreVersion( NeoStore.RELATIONSHIP_GROUPS_VERSION );
+        db.shutdown();
+        // Versions without groups find a trailer of another version
+        assertTrue( readTrailer().endsWith( NeoStore.RELATIONSHIP_GROUPS_VERSION ) );
+        assertStoreVersion( NeoStore.RELATIONSHIP_GROUPS_VERSION );
+        startDbAgain();
+        assertStoreVersion( NeoStore.RELATIONSHIP_GROUPS_VERSION );
+    }
+
+    @Test
+    public void groupsAreNotCountedAsRelationshipIdsInUse() throws Exception
+    {
+        long hub = createDenseNode();
+        assertDense( hub );
+        assertRelationshipIdsInUse();
+        restart();
+        assertRelationshipIdsInUse();
+
+        // Without the count of a clean shutdown they're counted in the store
+        db.shutdown();
+        writeGroupsInUse( -1 );
+        startDbAgain();
+        assertRelationshipIdsInUse();
+
+        Transaction tx = db.beginTx();
+        for ( Relationship relationship : db.getNodeById( hub ).getRelationships( LIKES ) )
+        {
+            relationship.delete();
+            relationships.remove( relationship );
+        }
+        tx.success();
+        tx.finish();
+        assertRelationshipIdsInUse();
+    }
+
+    @Test
+    public void existingStoreIsOnlyGroupedWhenUpgradeIsAllowed()
+    {
+        db.shutdown();
+        db = new EmbeddedGraphDatabase( storeDir = target.directory( "existing", true ).getAbsolutePath() );
+        Transaction tx = db.beginTx();
+        db.createNode().createRelationshipTo( db.createNode(), KNOWS );
+        tx.success();
+        tx.finish();
+        db.shutdown();
+        try
+        {
+            startDbAgain();
+            fail( "Shouldn't group the relationships of an existing store without upgrade allowed" );
+        }
+        catch ( RuntimeException e )
+        {
+            assertTrue( "Unexpected " + e, isCausedBy( e, UpgradeNotAllowedByConfigurationException.class ) );
+        }
+        db = new EmbeddedGraphDatabase( storeDir, stringMap( Config.DENSE_NODE_THRESHOLD, "10",
+                Config.ALLOW_STORE_UPGRADE, "true" ) );
+        assertStoreVersion( NeoStore.RELATIONSHIP_GROUPS_VERSION );
+        db.shutdown();
+        startDbAgain();
+        long hub = createDenseNode();
+        assertDense( hub );
+        assertRelationships( hub );
+    }
+
+    // Created in several transactions, the node gets grouped in the second
+    private long createDenseNode()
+    {
+        Transaction tx = db.beginTx();
+        Node hub = db.createNode();
+        for ( int i = 0; i < 6; i++ )
+        {
+            relationships.add( hub.createRelationshipTo( db.createNode(), KNOWS ) );
+            relationships.add( db.createNode().createRelationshipTo( hub, LIKES ) );
+        }
+        relationships.add( hub.createRelationshipTo( hub, KNOWS ) );
+        tx.success();
+        tx.finish();
+        tx = db.beginTx();
+        for ( int i = 0; i < 7; i++ )
+        {
+            relationships.add( db.createNode().createRelationshipTo( hub, KNOWS ) );
+            relationships.add( hub.createRelationshipTo( db.createNode(), LIKES ) );
+        }
+        relationships.add( hub.createRelationshipTo( hub, LIKES ) );
+        tx.success();
+        tx.finish();
+        return hub.getId();
+    }
+
+    private void assertDense( long nodeId )
+    {
+        assertNotNull( "Node[" + nodeId + "] should have been grouped", getGroups( nodeId ) );
+    }
+
+    private List<?> getGroups( long nodeId )
+    {
+        NodeManager nodeManager = getNodeManager();
+        NodeImpl node = nodeManager.getLightNode( nodeId );
+        return nodeManager.getRelationshipGroups( node, nodeManager.getRelationshipChainPosition( node ) );
+    }
+
+    private void assertRelationships( long nodeId )
+    {
+        Node node = db.getNodeById( nodeId );
+        for ( Direction direction : Direction.values() )
+        {
+            List<Long> expected = expectedIds( nodeId, direction, TYPES );
+            assertEquals( expected, ids( node.getRelationships( direction ) ) );
+            assertEquals( expected.size(), getNodeManager().getDegree( node, direction ) );
+            for ( RelationshipType type : TYPES )
+            {
+                expected = expectedIds( nodeId, direction, type );
+                assertEquals( expected, ids( node.getRelationships( type, direction ) ) );
+                assertEquals( expected.size(), getNodeManager().getDegree( node, direction, type ) );
+            }
+            expected = expectedIds( nodeId, direction, KNOWS, OWES );
+            assertEquals( expected, ids( node.getRelationships( direction, KNOWS, OWES ) ) );
+            assertEquals( expected.size(), getNodeManager().getDegree( node, direction, KNOWS, OWES ) );
+        }
+        assertFalse( node.getRelationships( withName( "UNKNOWN" ) ).iterator().hasNext() );
+    }
+
+    private List<Long> expectedIds( long nodeId, Direction direction, RelationshipType... types )
+    {
+        List<Long> result = new ArrayList<Long>();
+        for ( Relationship relationship : relationships )
+        {
+            boolean outgoing = relationship.getStartNode().getId() == nodeId;
+            boolean incoming = relationship.getEndNode().getId() == nodeId;
+            boolean matches = direction == Direction.OUTGOING ? outgoing :
+                    direction == Direction.INCOMING ? incoming : outgoing || incoming;
+            if ( matches && isOfType( relationship, types ) )
+            {
+                result.add( relationship.getId() );
+            }
+        }
+        Collections.sort( result );
+        return result;
+    }
+
+    private static boolean isOfType( Relationship relationship, RelationshipType... types )
+    {
+        for ( RelationshipType type : types )
+        {
+            if ( relationship.isType( type ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Long> ids( Iterable<Relationship> relationships )
+    {
+        List<Long> result = new ArrayList<Long>();
+        for ( Relationship relationship : relationships )
+        {
+            result.add( relationship.getId() );
+        }
+        Collections.sort( result );
+        return result;
+    }
+
+    private void assertStoreVersion( String version )
+    {
+        String neoStore = new File( storeDir, NeoStore.DEFAULT_NAME ).getAbsolutePath();
+        assertEquals( version, NeoStore.versionLongToString( NeoStore.getStoreVersion( neoStore ) ) );
+    }
+
+    private String readTrailer() throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile( new File( storeDir, NeoStore.DEFAULT_NAME ), "r" );
+        try
+        {
+            byte[] trailer = new byte[NeoStore.TYPE_DESCRIPTOR.length() + 1 +
+                    NeoStore.RELATIONSHIP_GROUPS_VERSION.length()];
+            file.seek( file.length() - trailer.length );
+            file.readFully( trailer );
+            return new String( trailer, "UTF-8" );
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    private void writeGroupsInUse( long count ) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile( new File( storeDir, NeoStore.DEFAULT_NAME ), "rw" );
+        try
+        {
+            file.seek( NeoStore.RECORD_SIZE * 6 + 1/*inUse*/ );
+            file.writeLong( count );
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    private void assertRelationshipIdsInUse()
+    {
+        assertEquals( relationships.size(), getNodeManager().getNumberOfIdsInUse( Relationship.class ) );
+    }
+
+    private static boolean isCausedBy( Throwable e, Class<? extends Throwable> cause )
+    {
+        for ( Throwable current = e; current != null; current = current.getCause() )
+        {
+            if ( cause.isInstance( current ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private NodeManager getNodeManager()
+    {
+        return db.getConfig().getGraphDbModule().getNodeManager();
+    }
+
+    private void clearCache()
+    {
+        getNodeManager().clearCache();
+    }
+
+    private void restart()
+    {
+        List<Long> ids = ids( relationships );
+        db.shutdown();
+        startDbAgain();
+        relationships.clear();
+        for ( long id : ids )
+        {
+            relationships.add( db.getRelationshipById( id ) );
+        }
+    }
+
+    private void startDbAgain()
+    {
+        // A small grab size has the chains of the groups loaded in several batches
+        db = new EmbeddedGraphDatabase( storeDir, stringMap( Config.DENSE_NODE_THRESHOLD, "10",
+                "relationship_grab_size", "4" ) );
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.neo4j.helpers.collection.IteratorUtil.count;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.Config;
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+/**
+ * Keeps only one node and one relationship on the heap so that everything
+ * else is read back from its serialized form.
+ */
+public class TestOffHeapCacheType
+{
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+    private static final RelationshipType LIKES = DynamicRelationshipType.withName( "LIKES" );
+
+    private ImpermanentGraphDatabase db;
+
+    @Before
+    public void doBefore() throws Exception
+    {
+        db = new ImpermanentGraphDatabase( stringMap( Config.CACHE_TYPE, "offheap",
+                "max_node_cache_size", "1", "max_relationship_cache_size", "1",
+                "relationship_grab_size", "4" ) );
+    }
+
+    @After
+    public void doAfter() throws Exception
+    {
+        db.shutdown();
+    }
+
+    @Test
+    public void nodesAndRelationshipsSurviveBeingMovedOffTheHeap() throws Exception
+    {
+        Transaction tx = db.beginTx();
+        Node node = db.createNode();
+        node.setProperty( "int", 42 );
+        node.setProperty( "string", "forty two" );
+        node.setProperty( "array", new long[] { 4, 2 } );
+        node.setProperty( "double", 4.2d );
+        node.setProperty( "boolean", true );
+        Set<Long> relationships = new HashSet<Long>();
+        for ( int i = 0; i < 10; i++ )
+        {
+            Relationship relationship = node.createRelationshipTo( db.createNode(), i % 2 == 0 ? KNOWS : LIKES );
+            relationship.setProperty( "since", i );
+            relationships.add( relationship.getId() );
+        }
+        relationships.add( node.createRelationshipTo( node, KNOWS ).getId() );
+        tx.success();
+        tx.finish();
+        db.getConfig().getGraphDbModule().getNodeManager().clearCache();
+
+        // Load some relationships, then push the node off the heap
+        node.getRelationships().iterator().next();
+        touchOtherNodes();
+
+        assertProperties( node );
+        Set<Long> found = new HashSet<Long>();
+        for ( Relationship relationship : node.getRelationships() )
+        {
+            assertFalse( found.contains( relationship.getId() ) );
+            found.add( relationship.getId() );
+            touchOtherNodes();
+            if ( !relationship.getStartNode().equals( relationship.getEndNode() ) )
+            {
+                int since = (Integer) relationship.getProperty( "since" );
+                assertEquals( since % 2 == 0 ? KNOWS.name() : LIKES.name(), relationship.getType().name() );
+            }
+        }
+        assertEquals( relationships, found );
+        assertEquals( 6, count( node.getRelationships( KNOWS, Direction.OUTGOING ) ) );
+        assertEquals( 5, count( node.getRelationships( LIKES ) ) );
+        touchOtherNodes();
+        assertProperties( node );
+    }
+
+    @Test
+    public void changesToNodesMovedOffTheHeapAreVisible() throws Exception
+    {
+        Transaction tx = db.beginTx();
+        Node node = db.createNode();
+        node.setProperty( "name", "before" );
+        node.createRelationshipTo( db.createNode(), KNOWS );
+        tx.success();
+        tx.finish();
+        assertEquals( 1, count( node.getRelationships() ) );
+        touchOtherNodes();
+
+        tx = db.beginTx();
+        node.setProperty( "name", "after" );
+        node.createRelationshipTo( db.createNode(), LIKES );
+        touchOtherNodes();
+        tx.success();
+        tx.finish();
+        touchOtherNodes();
+
+        assertEquals( "after", node.getProperty( "name" ) );
+        assertEquals( 2, count( node.getRelationships() ) );
+        assertEquals( 1, count( node.getRelationships( LIKES ) ) );
+    }
+
+    private void assertProperties( Node node )
+    {
+        assertEquals( 42, node.getProperty( "int" ) );
+        assertEquals( "forty two", node.getProperty( "string" ) );
+        assertArrayEquals( new long[] { 4, 2 }, (long[]) node.getProperty( "array" ) );
+        assertEquals( 4.2d, node.getProperty( "double" ) );
+        assertEquals( true, node.getProperty( "boolean" ) );
+    }
+
+    private void touchOtherNodes()
+    {
+        db.getReferenceNode().getPropertyKeys();
+    }
+}
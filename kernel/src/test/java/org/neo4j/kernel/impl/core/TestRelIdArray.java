@@ -26,6 +26,7 @@ import static org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper.BOTH;
 import static org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper.INCOMING;
 import static org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper.OUTGOING;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -36,6 +37,7 @@ import java.util.List;
 import org.junit.Test;
 import org.neo4j.kernel.impl.util.RelIdArray;
 import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+import org.neo4j.kernel.impl.util.RelIdArrayWithLoops;
 import org.neo4j.kernel.impl.util.RelIdIterator;
 
 // TODO Add some tests for loops, i.e. add with direction BOTH.
@@ -143,6 +145,43 @@ public class TestRelIdArray
                 0L, 1L, justOverIntMax, justOverIntMax+1 ) ), new HashSet<Long>( asList( all ) ) );
     }
     
+    @Test
+    public void testWriteAndRead() throws Exception
+    {
+        RelIdArray array = new RelIdArrayWithLoops( "KNOWS" );
+        long justOverIntMax = (long) Math.pow( 2, 32 )+3;
+        array.add( 1, OUTGOING );
+        array.add( justOverIntMax, OUTGOING );
+        array.add( 2, OUTGOING );
+        array.add( 3, INCOMING );
+        array.add( 4, BOTH );
+
+        ByteBuffer buffer = ByteBuffer.allocate( 1000 );
+        array.writeTo( buffer );
+        RelIdArray.empty( "EMPTY" ).writeTo( buffer );
+        buffer.flip();
+        RelIdArray read = RelIdArray.readFrom( buffer );
+        RelIdArray readEmpty = RelIdArray.readFrom( buffer );
+        assertFalse( buffer.hasRemaining() );
+
+        assertEquals( "KNOWS", read.getType() );
+        assertEquals( asList( array.iterator( OUTGOING ) ), asList( read.iterator( OUTGOING ) ) );
+        assertEquals( asList( array.iterator( INCOMING ) ), asList( read.iterator( INCOMING ) ) );
+        assertEquals( asList( array ), asList( read ) );
+        assertEquals( "EMPTY", readEmpty.getType() );
+        assertTrue( readEmpty.isEmpty() );
+    }
+
+    private List<Long> asList( RelIdIterator iterator )
+    {
+        List<Long> result = new ArrayList<Long>();
+        while ( iterator.hasNext() )
+        {
+            result.add( iterator.next() );
+        }
+        return result;
+    }
+
     private List<Long> asList( RelIdArray ids )
     {
         List<Long> result = new ArrayList<Long>();
@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestBatchingIdGenerator
+{
+    private String fileName;
+
+    @Before
+    public void createIdGeneratorFile()
+    {
+        File path = new File( AbstractNeo4jTestCase.getStorePath( "batching-ids" ) );
+        path.mkdirs();
+        File file = new File( path, "batching.id" );
+        file.delete();
+        fileName = file.getAbsolutePath();
+        IdGeneratorImpl.createGenerator( fileName );
+    }
+
+    @Test
+    public void concurrentThreadsGetUniqueIdsAndUnusedOnesAreGivenBack() throws Exception
+    {
+        final IdGenerator generator = new BatchingIdGenerator(
+                new IdGeneratorImpl( fileName, 100, 10000000, false ), 10, false );
+        final Set<Long> ids = Collections.synchronizedSet( new HashSet<Long>() );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for ( int t = 0; t < 8; t++ )
+        {
+            threads.add( new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( int i = 0; i < 1005; i++ )
+                        {
+                            long id = generator.nextId();
+                            assertTrue( "Got " + id + " twice", ids.add( id ) );
+                            if ( i % 3 == 0 )
+                            {
+                                generator.freeId( id );
+                                assertTrue( ids.remove( id ) );
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.compareAndSet( null, e );
+                    }
+                }
+            } );
+        }
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        if ( failure.get() != null )
+        {
+            throw new AssertionError( failure.get() );
+        }
+        long highId = generator.getHighId();
+        generator.close( true );
+
+        // All ids below the high id which aren't in use must be free for reuse
+        IdGenerator reopened = new IdGeneratorImpl( fileName, 100, 10000000, false );
+        assertEquals( highId, reopened.getHighId() );
+        for ( long i = 0; i < highId - ids.size(); i++ )
+        {
+            long id = reopened.nextId();
+            assertFalse( "Got used id " + id, ids.contains( id ) );
+            assertTrue( id < highId );
+        }
+        assertEquals( highId, reopened.nextId() );
+        reopened.close( true );
+    }
+
+    @Test
+    public void idsOfDeadThreadsAreGivenBackWhenReservingMore() throws Exception
+    {
+        final IdGenerator generator = new BatchingIdGenerator(
+                new IdGeneratorImpl( fileName, 100, 10000000, true ), 10, true );
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                generator.nextId();
+                generator.nextId();
+            }
+        };
+        thread.start();
+        thread.join();
+        assertEquals( 10, generator.getHighId() );
+
+        Set<Long> ids = new HashSet<Long>();
+        for ( int i = 0; i < 18; i++ )
+        {
+            ids.add( generator.nextId() );
+        }
+        // The dead thread's remaining 8 ids were reused before growing the high id
+        assertEquals( 22, generator.getHighId() );
+        for ( long id = 2; id < 10; id++ )
+        {
+            assertTrue( ids.contains( id ) );
+        }
+        assertFalse( ids.contains( 0L ) );
+        assertFalse( ids.contains( 1L ) );
+        assertEquals( 18, ids.size() );
+        generator.close( true );
+    }
+}
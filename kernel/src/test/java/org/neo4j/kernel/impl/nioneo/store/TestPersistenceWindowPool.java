@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestPersistenceWindowPool
+{
+    private static final int RECORD_SIZE = 8;
+    private static final int RECORD_COUNT = 100000;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private RandomAccessFile otherFile;
+    private FileChannel otherChannel;
+
+    @Before
+    public void createStoreFiles() throws Exception
+    {
+        File path = new File( AbstractNeo4jTestCase.getStorePath( "window-pool" ) );
+        path.mkdirs();
+        file = createStoreFile( new File( path, "store.db" ) );
+        channel = file.getChannel();
+        otherFile = createStoreFile( new File( path, "other.db" ) );
+        otherChannel = otherFile.getChannel();
+    }
+
+    private static RandomAccessFile createStoreFile( File storeFile ) throws Exception
+    {
+        storeFile.delete();
+        RandomAccessFile result = new RandomAccessFile( storeFile, "rw" );
+        result.getChannel().write( ByteBuffer.allocate( RECORD_SIZE * RECORD_COUNT ) );
+        return result;
+    }
+
+    @After
+    public void closeStoreFiles() throws Exception
+    {
+        file.close();
+        otherFile.close();
+    }
+
+    @Test
+    public void concurrentReadersAndWritersSeeTheirWritesWhileWindowsAreRemapped() throws Exception
+    {
+        readersAndWritersSeeTheirWritesWhileWindowsAreRemapped( true );
+    }
+
+    @Test
+    public void concurrentReadersAndWritersSeeTheirWritesWhilePlainBuffersAreUnmapped() throws Exception
+    {
+        readersAndWritersSeeTheirWritesWhileWindowsAreRemapped( false );
+    }
+
+    private void readersAndWritersSeeTheirWritesWhileWindowsAreRemapped( boolean memoryMapped )
+            throws Exception
+    {
+        // A tenth of the file can be mapped, so there will be lots of misses and remapping
+        final PersistenceWindowPool pool = new PersistenceWindowPool( "test", RECORD_SIZE,
+                channel, RECORD_SIZE * RECORD_COUNT / 10, memoryMapped, false );
+        final int threadCount = 8;
+        final int operations = 20000;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final long[] lastWritten = new long[RECORD_COUNT];
+        List<Thread> threads = new ArrayList<Thread>();
+        for ( int t = 0; t < threadCount; t++ )
+        {
+            final int thread = t;
+            threads.add( new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    Random random = new Random( thread );
+                    try
+                    {
+                        for ( int i = 0; i < operations; i++ )
+                        {
+                            // Half of the operations go to a small hot part of the file
+                            int range = random.nextBoolean() ? RECORD_COUNT / 100 : RECORD_COUNT;
+                            long id = (random.nextInt( range / threadCount ) * threadCount) + thread;
+                            long value = ((long) thread << 32) | i;
+                            write( pool, id, value );
+                            lastWritten[(int) id] = value;
+                            assertEquals( value, read( pool, id ) );
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.compareAndSet( null, e );
+                    }
+                }
+            } );
+        }
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        if ( failure.get() != null )
+        {
+            throw new AssertionError( failure.get() );
+        }
+
+        // Nothing written was overwritten by the write out of an unmapped window
+        for ( int id = 0; id < RECORD_COUNT; id++ )
+        {
+            assertEquals( "record " + id, lastWritten[id], read( pool, id ) );
+        }
+        WindowPoolStats stats = pool.getStats();
+        assertEquals( threadCount * operations * 2 + RECORD_COUNT, stats.getHitCount() + stats.getMissCount() );
+        assertTrue( stats.getHitCount() > 0 );
+        assertTrue( stats.getMemUsed() <= stats.getMemAvail() );
+        pool.close();
+    }
+
+    @Test
+    public void sharedMemoryMovesToThePoolInUse() throws Exception
+    {
+        // Room for a tenth of one file, in pages of 100 records
+        SharedMappedMemory memory = new SharedMappedMemory( RECORD_SIZE * RECORD_COUNT / 10,
+                RECORD_SIZE * 100 );
+        PersistenceWindowPool pool = new PersistenceWindowPool( "store", RECORD_SIZE,
+                channel, memory, true, false );
+        PersistenceWindowPool otherPool = new PersistenceWindowPool( "other", RECORD_SIZE,
+                otherChannel, memory, true, false );
+        assertEquals( RECORD_SIZE * 100, pool.getStats().getWindowSize() );
+
+        Random random = new Random( 1 );
+        for ( int i = 0; i < 100000; i++ )
+        {
+            read( pool, random.nextInt( RECORD_COUNT / 5 ) );
+        }
+        assertEquals( memory.getAvailableMem(), pool.getStats().getMemUsed() );
+        assertEquals( 0, otherPool.getStats().getMemUsed() );
+
+        for ( int i = 0; i < 300000; i++ )
+        {
+            read( otherPool, random.nextInt( RECORD_COUNT / 5 ) );
+        }
+        long memUsed = pool.getStats().getMemUsed();
+        long otherMemUsed = otherPool.getStats().getMemUsed();
+        assertTrue( otherMemUsed > memUsed );
+        assertTrue( otherPool.getStats().getSwitchCount() > 0 );
+        assertEquals( memory.getMemUsed(), memUsed + otherMemUsed );
+        assertTrue( memory.getMemUsed() <= memory.getAvailableMem() );
+
+        pool.close();
+        otherPool.close();
+        assertEquals( 0, memory.getMemUsed() );
+    }
+
+    private static void write( PersistenceWindowPool pool, long id, long value )
+    {
+        PersistenceWindow window = pool.acquire( id, OperationType.WRITE );
+        try
+        {
+            window.getOffsettedBuffer( id ).putLong( value );
+        }
+        finally
+        {
+            pool.release( window );
+        }
+    }
+
+    private static long read( PersistenceWindowPool pool, long id )
+    {
+        PersistenceWindow window = pool.acquire( id, OperationType.READ );
+        try
+        {
+            return window.getOffsettedBuffer( id ).getLong();
+        }
+        finally
+        {
+            pool.release( window );
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.xa;
+
+import static org.junit.Assert.assertEquals;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.util.FileUtils;
+import org.neo4j.test.TargetDirectory;
+
+public class TestParallelRecovery
+{
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+
+    private final TargetDirectory target = TargetDirectory.forTest( getClass() );
+    private File storeDir;
+    private File recoveredDir;
+
+    @Before
+    public void clean()
+    {
+        storeDir = target.directory( "store", true );
+        recoveredDir = target.directory( "recovered", true );
+    }
+
+    @Test
+    public void recoveringWithSeveralThreadsGivesTheGraphFromBeforeTheCrash() throws Exception
+    {
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( storeDir.getAbsolutePath() );
+        // The stores as they were before any of the transactions below...
+        FileUtils.copyRecursively( storeDir, recoveredDir );
+        List<Node> nodes = new ArrayList<Node>();
+        Random random = new Random( 42 );
+        for ( int i = 0; i < 200; i++ )
+        {
+            Transaction tx = db.beginTx();
+            for ( int j = 0; j < 10; j++ )
+            {
+                Node node = db.createNode();
+                node.setProperty( "name", longString( random ) );
+                node.setProperty( "numbers", new long[] { random.nextLong(), random.nextLong(),
+                        random.nextLong(), random.nextLong(), random.nextLong() } );
+                if ( !nodes.isEmpty() )
+                {
+                    node.createRelationshipTo( nodes.get( random.nextInt( nodes.size() ) ),
+                            KNOWS ).setProperty( "since", i );
+                }
+                nodes.add( node );
+            }
+            // Changed and removed properties free dynamic records for reuse
+            for ( int j = 0; j < 5; j++ )
+            {
+                Node node = nodes.get( random.nextInt( nodes.size() ) );
+                if ( random.nextBoolean() )
+                {
+                    node.setProperty( "name", longString( random ) );
+                }
+                else
+                {
+                    node.removeProperty( "name" );
+                }
+            }
+            Node deleted = nodes.remove( random.nextInt( nodes.size() ) );
+            for ( Relationship relationship : deleted.getRelationships() )
+            {
+                relationship.delete();
+            }
+            deleted.delete();
+            tx.success();
+            tx.finish();
+        }
+        Map<Long,String> expected = describe( db );
+        // ...and the logs with all of them, like after a crash
+        copyAllButStores( storeDir, recoveredDir );
+        db.shutdown();
+
+        db = new EmbeddedGraphDatabase( recoveredDir.getAbsolutePath(),
+                stringMap( Config.RECOVERY_THREADS, "4" ) );
+        try
+        {
+            assertEquals( expected, describe( db ) );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void recordsInDifferentIdSlicesAreSpreadOverAllThreads()
+    {
+        ParallelRecoveryApplier applier = new ParallelRecoveryApplier( 8 );
+        try
+        {
+            Set<Integer> threads = new HashSet<Integer>();
+            for ( long slice = 0; slice < 8; slice++ )
+            {
+                int thread = applier.threadFor( 0, slice * 64 );
+                assertEquals( thread, applier.threadFor( 0, slice * 64 + 63 ) );
+                threads.add( thread );
+            }
+            assertEquals( 8, threads.size() );
+        }
+        finally
+        {
+            applier.close();
+        }
+    }
+
+    private static String longString( Random random )
+    {
+        StringBuilder builder = new StringBuilder();
+        for ( int i = 0, length = 50 + random.nextInt( 200 ); i < length; i++ )
+        {
+            builder.append( (char) ('a' + random.nextInt( 26 )) );
+        }
+        return builder.toString();
+    }
+
+    private static void copyAllButStores( File from, File to ) throws Exception
+    {
+        for ( File file : from.listFiles() )
+        {
+            if ( file.isFile() && !file.getName().startsWith( "neostore" ) )
+            {
+                FileUtils.copyFile( file, new File( to, file.getName() ) );
+            }
+        }
+    }
+
+    private static Map<Long,String> describe( GraphDatabaseService db )
+    {
+        Map<Long,String> result = new TreeMap<Long,String>();
+        for ( Node node : db.getAllNodes() )
+        {
+            StringBuilder description = new StringBuilder();
+            description.append( node.getProperty( "name", null ) );
+            for ( long number : (long[]) node.getProperty( "numbers", new long[0] ) )
+            {
+                description.append( "," ).append( number );
+            }
+            Map<Long,String> relationships = new TreeMap<Long,String>();
+            for ( Relationship relationship : node.getRelationships() )
+            {
+                relationships.put( relationship.getId(), relationship.getStartNode().getId() + "->"
+                        + relationship.getEndNode().getId() + ":" + relationship.getProperty( "since" ) );
+            }
+            description.append( relationships );
+            result.put( node.getId(), description.toString() );
+        }
+        return result;
+    }
+}
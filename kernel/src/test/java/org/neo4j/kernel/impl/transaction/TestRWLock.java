@@ -27,7 +27,12 @@ import org.neo4j.kernel.DeadlockDetectedException;
 
 public class TestRWLock
 {
-    private LockManager lm = new LockManager( new PlaceboTm() );
+    private LockManager lm = newLockManager();
+
+    protected LockManager newLockManager()
+    {
+        return new LockManager( new PlaceboTm() );
+    }
 
     @Test
     public void testSingleThread() throws Exception
@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction.xaframework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.util.FileUtils;
+
+public class TestGroupCommit
+{
+    private static final int THREADS = 10;
+    private static final int TRANSACTIONS_PER_THREAD = 50;
+
+    private EmbeddedGraphDatabase db;
+
+    @Before
+    public void doBefore() throws Exception
+    {
+        File storeDir = new File( "target/test-data/group-commit" );
+        FileUtils.deleteRecursively( storeDir );
+        db = new EmbeddedGraphDatabase( storeDir.getAbsolutePath(), stringMap( Config.GROUP_COMMIT, "true" ) );
+    }
+
+    @After
+    public void doAfter() throws Exception
+    {
+        db.shutdown();
+    }
+
+    @Test
+    public void concurrentTransactionsShareForces() throws Exception
+    {
+        final CountDownLatch startSignal = new CountDownLatch( 1 );
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for ( int i = 0; i < THREADS; i++ )
+        {
+            Thread thread = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        startSignal.await();
+                        for ( int i = 0; i < TRANSACTIONS_PER_THREAD; i++ )
+                        {
+                            Transaction tx = db.beginTx();
+                            try
+                            {
+                                Node node = db.createNode();
+                                node.setProperty( "name", getName() + "-" + i );
+                                tx.success();
+                            }
+                            finally
+                            {
+                                tx.finish();
+                            }
+                        }
+                    }
+                    catch ( Throwable t )
+                    {
+                        synchronized ( failures )
+                        {
+                            failures.add( t );
+                        }
+                    }
+                }
+            };
+            thread.start();
+            threads.add( thread );
+        }
+        startSignal.countDown();
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        assertTrue( failures.toString(), failures.isEmpty() );
+
+        XaLogicalLog log = db.getConfig().getTxModule().getXaDataSourceManager().getXaDataSource(
+                Config.DEFAULT_DATA_SOURCE_NAME ).getXaContainer().getLogicalLog();
+        assertTrue( log.isGroupCommitEnabled() );
+        GroupCommit groupCommit = log.getGroupCommit();
+        assertTrue( groupCommit.getForcedCommitCount() >= THREADS * TRANSACTIONS_PER_THREAD );
+        assertTrue( groupCommit.getForceCount() <= groupCommit.getForcedCommitCount() );
+        assertTrue( groupCommit.getMaxBatchSize() >= 1 );
+        assertEquals( THREADS * TRANSACTIONS_PER_THREAD + 1, countNodes() );
+    }
+
+    @Test
+    public void waitingForOwnEntryDoesNotWaitForLaterOnes() throws Exception
+    {
+        File file = new File( "target/test-data/group-commit-channel" );
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            GroupCommit groupCommit = new GroupCommit();
+            long own = groupCommit.appended( channel );
+            groupCommit.awaitForced( own );
+            assertEquals( 1, groupCommit.getForceCount() );
+
+            // Another transaction appends its entry, but this one is already on disk
+            long later = groupCommit.appended( channel );
+            groupCommit.awaitForced( own );
+            assertEquals( 1, groupCommit.getForceCount() );
+
+            groupCommit.awaitForced( later );
+            assertEquals( 2, groupCommit.getForceCount() );
+            assertEquals( 2, groupCommit.getForcedCommitCount() );
+        }
+        finally
+        {
+            raf.close();
+            file.delete();
+        }
+    }
+
+    private int countNodes()
+    {
+        int count = 0;
+        for ( @SuppressWarnings( "unused" ) Node node : db.getAllNodes() )
+        {
+            count++;
+        }
+        return count;
+    }
+}
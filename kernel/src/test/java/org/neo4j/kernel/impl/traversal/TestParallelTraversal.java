@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.traversal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Stack;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.traversal.Evaluators;
+import org.neo4j.graphdb.traversal.TraversalDescription;
+import org.neo4j.kernel.Traversal;
+
+public class TestParallelTraversal extends AbstractTestBase
+{
+    private static final int BRANCHING = 5;
+    private static final int DEPTH = 3;
+
+    /*
+     * A tree where every node has BRANCHING children, DEPTH levels deep,
+     * so that the deeper levels are expanded in several parts.
+     */
+    @BeforeClass
+    public static void setupGraph()
+    {
+        List<String> description = new ArrayList<String>();
+        List<String> level = Collections.singletonList( "r" );
+        for ( int depth = 0; depth < DEPTH; depth++ )
+        {
+            List<String> next = new ArrayList<String>();
+            for ( String parent : level )
+            {
+                for ( int i = 0; i < BRANCHING; i++ )
+                {
+                    String child = parent + i;
+                    description.add( parent + " TO " + child );
+                    next.add( child );
+                }
+            }
+            level = next;
+        }
+        createGraph( description.toArray( new String[description.size()] ) );
+    }
+
+    @Test
+    public void returnsTheSameNodesAsASequentialTraversal() throws Exception
+    {
+        TraversalDescription description = Traversal.description().breadthFirst();
+        assertEquals( names( description.traverse( node( "r" ) ).nodes() ),
+                names( description.parallel( 4 ).traverse( node( "r" ) ).nodes() ) );
+    }
+
+    @Test
+    public void returnsOneDepthAtATime() throws Exception
+    {
+        Stack<Set<String>> levels = new Stack<Set<String>>();
+        for ( int depth = DEPTH; depth >= 0; depth-- )
+        {
+            levels.push( namesAtDepth( depth ) );
+        }
+        assertLevels( Traversal.description().parallel( 4 ).traverse( node( "r" ) ), levels );
+    }
+
+    @Test
+    public void respectsEvaluators() throws Exception
+    {
+        int count = 0;
+        for ( Path path : Traversal.description().evaluator( Evaluators.toDepth( 1 ) )
+                .parallel( 3 ).traverse( node( "r" ) ) )
+        {
+            assertTrue( path.length() <= 1 );
+            count++;
+        }
+        assertEquals( 1 + BRANCHING, count );
+    }
+
+    @Test
+    public void canStopIteratingBeforeTheEnd() throws Exception
+    {
+        int count = 0;
+        for ( Path path : Traversal.description().parallel( 2 ).traverse( node( "r" ) ) )
+        {
+            if ( ++count == BRANCHING + 2 )
+            {
+                assertEquals( 2, path.length() );
+                break;
+            }
+        }
+        assertEquals( BRANCHING + 2, count );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void noThreadsIsNotAllowed() throws Exception
+    {
+        Traversal.description().parallel( 0 );
+    }
+
+    private static Set<String> namesAtDepth( int depth )
+    {
+        Set<String> result = new HashSet<String>();
+        for ( Path path : Traversal.description().evaluator( Evaluators.atDepth( depth ) )
+                .traverse( node( "r" ) ) )
+        {
+            result.add( (String) path.endNode().getProperty( "name" ) );
+        }
+        return result;
+    }
+
+    private static Set<String> names( Iterable<Node> nodes )
+    {
+        Set<String> result = new HashSet<String>();
+        for ( Node node : nodes )
+        {
+            assertTrue( result.add( (String) node.getProperty( "name" ) ) );
+        }
+        return result;
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TestPrimitiveLongSet
+{
+    @Test
+    public void containsWhatWasAdded()
+    {
+        PrimitiveLongSet set = new PrimitiveLongSet();
+        assertSameAsHashSet( set, 10000, 20000 );
+        assertFalse( set.contains( -1 ) );
+    }
+
+    @Test
+    public void negativeKeysAreRejected()
+    {
+        try
+        {
+            new PrimitiveLongSet().add( -1 );
+            fail( "Shouldn't accept a negative key" );
+        }
+        catch ( IllegalArgumentException e )
+        { // Good
+        }
+    }
+
+    @Test
+    public void staysAHashTableForFewIds()
+    {
+        PrimitiveLongSet set = new PrimitiveLongSet( 0, 1000000 );
+        assertSameAsHashSet( set, 1000, 1000000 );
+        assertFalse( set.isBitmap() );
+    }
+
+    @Test
+    public void turnsIntoABitmapForManyIds()
+    {
+        PrimitiveLongSet set = new PrimitiveLongSet( 0, 100000 );
+        assertSameAsHashSet( set, 50000, 100000 );
+        assertTrue( set.isBitmap() );
+    }
+
+    @Test
+    public void bitmapTakesIdsHigherThanTheHighestIdInUse()
+    {
+        PrimitiveLongSet set = new PrimitiveLongSet();
+        assertSameAsHashSet( set, 10000, 20000 );
+        assertTrue( set.isBitmap() );
+        assertTrue( set.add( 1000000 ) );
+        assertFalse( set.add( 1000000 ) );
+        assertTrue( set.contains( 1000000 ) );
+        assertFalse( set.contains( 1000001 ) );
+    }
+
+    private void assertSameAsHashSet( PrimitiveLongSet set, int count, int maxId )
+    {
+        Set<Long> expected = new HashSet<Long>();
+        Random random = new Random( 42 );
+        for ( int i = 0; i < count; i++ )
+        {
+            long id = random.nextInt( maxId );
+            assertEquals( expected.add( id ), set.add( id ) );
+        }
+        assertEquals( expected.size(), set.size() );
+        for ( long id = 0; id < maxId; id++ )
+        {
+            assertEquals( expected.contains( id ), set.contains( id ) );
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A least-recently-used cache of one value per index. Unlike
+ * {@link org.neo4j.kernel.impl.cache.LruCache} it doesn't synchronize
+ * lookups: the values are kept in a {@link ConcurrentHashMap} and a lookup
+ * only stamps the entry it finds with the time it was used. Evicting the
+ * least recently used values is done by {@link #put(IndexIdentifier, Object)},
+ * which is only called when a value is created.
+ */
+public abstract class IndexLruCache<E>
+{
+    private final String name;
+    private final int maxSize;
+    private final ConcurrentHashMap<IndexIdentifier, Entry<E>> entries =
+            new ConcurrentHashMap<IndexIdentifier, Entry<E>>();
+
+    /**
+     * Creates a LRU cache. If <CODE>maxSize < 1</CODE> an
+     * IllegalArgumentException is thrown.
+     *
+     * @param name name of cache
+     * @param maxSize maximum size of this cache
+     */
+    public IndexLruCache( String name, int maxSize )
+    {
+        if ( name == null || maxSize < 1 )
+        {
+            throw new IllegalArgumentException( "maxSize=" + maxSize
+                + ", name=" + name );
+        }
+        this.name = name;
+        this.maxSize = maxSize;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public E get( IndexIdentifier key )
+    {
+        Entry<E> entry = entries.get( key );
+        if ( entry == null )
+        {
+            return null;
+        }
+        entry.lastUsed = System.nanoTime();
+        return entry.value;
+    }
+
+    /**
+     * Puts a value in the cache and cleans the least recently used values
+     * if the cache then holds more than its max size. The value just put is
+     * never cleaned.
+     */
+    public synchronized void put( IndexIdentifier key, E value )
+    {
+        entries.put( key, new Entry<E>( value ) );
+        int excess = entries.size() - maxSize;
+        if ( excess > 0 )
+        {
+            evict( key, excess );
+        }
+    }
+
+    private void evict( IndexIdentifier keep, int count )
+    {
+        // Stamps keep changing while we sort, so sort on a snapshot of them
+        @SuppressWarnings( { "unchecked", "rawtypes" } )
+        Map.Entry<IndexIdentifier, Entry<E>>[] sorted = entries.entrySet().toArray( new Map.Entry[0] );
+        for ( Map.Entry<IndexIdentifier, Entry<E>> candidate : sorted )
+        {
+            candidate.getValue().lastUsedSnapshot = candidate.getValue().lastUsed;
+        }
+        Arrays.sort( sorted, LEAST_RECENTLY_USED_FIRST );
+        for ( int i = 0; i < sorted.length && count > 0; i++ )
+        {
+            IndexIdentifier key = sorted[i].getKey();
+            Entry<E> entry = sorted[i].getValue();
+            if ( !key.equals( keep ) && entries.remove( key, entry ) )
+            {
+                elementCleaned( entry.value );
+                count--;
+            }
+        }
+    }
+
+    public E remove( IndexIdentifier key )
+    {
+        Entry<E> entry = entries.remove( key );
+        return entry != null ? entry.value : null;
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    public Collection<E> values()
+    {
+        Collection<E> values = new ArrayList<E>( entries.size() );
+        for ( Entry<E> entry : entries.values() )
+        {
+            values.add( entry.value );
+        }
+        return values;
+    }
+
+    public Set<Map.Entry<IndexIdentifier, E>> entrySet()
+    {
+        Map<IndexIdentifier, E> snapshot = new HashMap<IndexIdentifier, E>();
+        for ( Map.Entry<IndexIdentifier, Entry<E>> entry : entries.entrySet() )
+        {
+            snapshot.put( entry.getKey(), entry.getValue().value );
+        }
+        return snapshot.entrySet();
+    }
+
+    /**
+     * Removes all values without cleaning them.
+     */
+    public void clear()
+    {
+        entries.clear();
+    }
+
+    /**
+     * Called for each value evicted from the cache.
+     */
+    public abstract void elementCleaned( E element );
+
+    private static class Entry<E>
+    {
+        private final E value;
+        private volatile long lastUsed = System.nanoTime();
+        private long lastUsedSnapshot;
+
+        Entry( E value )
+        {
+            this.value = value;
+        }
+    }
+
+    @SuppressWarnings( "rawtypes" )
+    private static final Comparator<Map.Entry> LEAST_RECENTLY_USED_FIRST = new Comparator<Map.Entry>()
+    {
+        public int compare( Map.Entry o1, Map.Entry o2 )
+        {
+            long first = ( (Entry) o1.getValue() ).lastUsedSnapshot;
+            long second = ( (Entry) o2.getValue() ).lastUsedSnapshot;
+            return first < second ? -1 : ( first == second ? 0 : 1 );
+        }
+    };
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current {@link IndexSearcherRef} of one index, and keeps track
+ * of whether or not it has become stale by commits to that index. Refreshing
+ * it is synchronized on {@link #refreshLock}, so that a reopen of one index
+ * doesn't block the searchers of the others.
+ *
+ * @see LuceneDataSource#getIndexSearcher(IndexIdentifier, boolean)
+ */
+class IndexSearcherHolder
+{
+    final IndexIdentifier identifier;
+    final Object refreshLock = new Object();
+    final AtomicBoolean refreshScheduled = new AtomicBoolean();
+
+    private final AtomicReference<IndexSearcherRef> searcher = new AtomicReference<IndexSearcherRef>();
+    private final AtomicLong changes = new AtomicLong();
+    private volatile long refreshedChanges;
+    private volatile long staleSince;
+    private volatile boolean closed;
+    private volatile boolean refreshFailed;
+
+    IndexSearcherHolder( IndexIdentifier identifier )
+    {
+        this.identifier = identifier;
+    }
+
+    /**
+     * @return the current searcher, or {@code null} if it hasn't been opened
+     * yet or if this holder has been closed.
+     */
+    IndexSearcherRef searcher()
+    {
+        return searcher.get();
+    }
+
+    boolean isStale()
+    {
+        return changes.get() != refreshedChanges;
+    }
+
+    /**
+     * @return the time, in milliseconds, of the first change which the
+     * current searcher doesn't see. Only meaningful if {@link #isStale()}.
+     */
+    long staleSince()
+    {
+        return staleSince;
+    }
+
+    long changes()
+    {
+        return changes.get();
+    }
+
+    boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * @return whether or not the last background refresh failed, in which
+     * case the next reader should refresh the searcher itself rather than
+     * be served the stale one.
+     */
+    boolean hasFailedRefresh()
+    {
+        return refreshFailed;
+    }
+
+    void refreshFailed()
+    {
+        refreshFailed = true;
+    }
+
+    void changed()
+    {
+        if ( changes.getAndIncrement() == refreshedChanges )
+        {
+            staleSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Makes {@code newSearcher} the current searcher, as seeing all changes
+     * up to {@code upToChanges}, and releases the previous one. Must be
+     * called while synchronized on {@link #refreshLock}.
+     */
+    void set( IndexSearcherRef newSearcher, long upToChanges ) throws IOException
+    {
+        refreshedChanges = upToChanges;
+        refreshFailed = false;
+        IndexSearcherRef previous = searcher.getAndSet( newSearcher );
+        if ( previous != null && previous != newSearcher )
+        {
+            previous.detachOrClose();
+        }
+        if ( closed )
+        {
+            release( false );
+        }
+    }
+
+    /**
+     * Releases the current searcher, which is closed when the clients still
+     * using it have closed it too.
+     */
+    void close() throws IOException
+    {
+        closed = true;
+        release( false );
+    }
+
+    /**
+     * Closes the current searcher, regardless of it being used or not.
+     */
+    void dispose() throws IOException
+    {
+        closed = true;
+        release( true );
+    }
+
+    private void release( boolean force ) throws IOException
+    {
+        IndexSearcherRef current = searcher.getAndSet( null );
+        if ( current != null )
+        {
+            if ( force )
+            {
+                current.dispose();
+            }
+            else
+            {
+                current.detachOrClose();
+            }
+        }
+    }
+}
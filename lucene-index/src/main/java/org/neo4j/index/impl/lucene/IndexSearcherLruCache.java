@@ -20,17 +20,13 @@
 package org.neo4j.index.impl.lucene;
 
 import java.io.IOException;
-import java.util.concurrent.atomic.AtomicBoolean;
-
-import org.neo4j.helpers.Pair;
-import org.neo4j.kernel.impl.cache.LruCache;
 
 /**
  * An Lru Cache for Lucene Index searchers.
  *
  * @see LuceneDataSource
  */
-public class IndexSearcherLruCache extends LruCache<IndexIdentifier, Pair<IndexSearcherRef, AtomicBoolean>>
+public class IndexSearcherLruCache extends IndexLruCache<IndexSearcherHolder>
 {
     /**
      * Creates a LRU cache. If <CODE>maxSize < 1</CODE> an
@@ -40,14 +36,14 @@ public class IndexSearcherLruCache extends LruCache<IndexIdentifier, Pair<IndexS
      */
     public IndexSearcherLruCache( int maxSize )
     {
-        super( "IndexSearcherCache", maxSize, null );
+        super( "IndexSearcherCache", maxSize );
     }
 
     @Override
-    public void elementCleaned(Pair<IndexSearcherRef, AtomicBoolean> searcher)
+    public void elementCleaned(IndexSearcherHolder searcher)
     {
         try {
-            searcher.first().dispose();
+            searcher.close();
         } catch (IOException e) {
             throw new RuntimeException( e );
         }
@@ -20,6 +20,7 @@
 package org.neo4j.index.impl.lucene;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.lucene.search.IndexSearcher;
@@ -28,76 +29,90 @@ class IndexSearcherRef
 {
     private final IndexIdentifier identifier;
     private final IndexSearcher searcher;
-    private final AtomicInteger refCount = new AtomicInteger( 0 );
-    private volatile boolean isClosed;
-    
+
     /**
-     * We need this because we only want to close the reader/searcher if
-     * it has been detached... i.e. the {@link LuceneDataSource} no longer
-     * has any reference to it, only an iterator out in the client has a ref.
-     * And when that client calls close() it should be closed.
+     * One reference is held by the {@link LuceneDataSource} for as long as
+     * this is the current searcher of its index, the others by iterators out
+     * in the clients. The reader/searcher is closed when the last one is
+     * released, i.e. when the data source has detached it and all clients
+     * have called close().
      */
-    private volatile boolean detached;
-    
+    private final AtomicInteger refCount = new AtomicInteger( 1 );
+    private final AtomicBoolean detached = new AtomicBoolean();
+    private final AtomicBoolean isClosed = new AtomicBoolean();
+
     public IndexSearcherRef( IndexIdentifier identifier, IndexSearcher searcher )
     {
         this.identifier = identifier;
         this.searcher = searcher;
     }
-    
+
     public IndexSearcher getSearcher()
     {
         return this.searcher;
     }
-    
+
     public IndexIdentifier getIdentifier()
     {
         return identifier;
     }
 
-    void incRef()
+    /**
+     * @return {@code true} if a reference was acquired, or {@code false} if
+     * this searcher has already been released by everyone and must not be used.
+     */
+    boolean tryIncRef()
     {
-        this.refCount.incrementAndGet();
+        while ( true )
+        {
+            int count = this.refCount.get();
+            if ( count <= 0 )
+            {
+                return false;
+            }
+            if ( this.refCount.compareAndSet( count, count + 1 ) )
+            {
+                return true;
+            }
+        }
     }
-    
+
     public void dispose() throws IOException
     {
-        if ( !this.isClosed )
+        if ( this.isClosed.compareAndSet( false, true ) )
         {
             this.searcher.close();
             this.searcher.getIndexReader().close();
-            this.isClosed = true;
         }
     }
-    
+
     public void detachOrClose() throws IOException
     {
-        if ( this.refCount.get() == 0 )
+        if ( this.detached.compareAndSet( false, true ) )
         {
-            dispose();
-        }
-        else
-        {
-            this.detached = true;
+            decRef();
         }
     }
-    
+
     public boolean close() throws IOException
     {
-        if ( this.isClosed || this.refCount.get() == 0 )
+        if ( this.isClosed.get() )
         {
             return true;
         }
-        
-        boolean reallyClosed = false;
-        if ( this.refCount.decrementAndGet() <= 0 && this.detached )
+        return decRef();
+    }
+
+    private boolean decRef() throws IOException
+    {
+        if ( this.refCount.decrementAndGet() == 0 )
         {
             dispose();
-            reallyClosed = true;
+            return true;
         }
-        return reallyClosed;
+        return false;
     }
-    
+
     boolean closeStrict()
     {
         try
@@ -112,6 +127,6 @@ class IndexSearcherRef
 
     boolean isClosed()
     {
-        return isClosed;
+        return isClosed.get();
     }
 }
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Refreshes stale index searchers on a background thread. Searchers
+ * scheduled while a refresh is in progress, or while waiting for the
+ * refresh interval to pass, are refreshed together in the next batch, so
+ * that a stream of commits to an index results in at most one reopen of
+ * its searcher per interval.
+ */
+class IndexSearcherRefresher extends Thread
+{
+    private final LuceneDataSource dataSource;
+    private final long interval;
+    private final Set<IndexSearcherHolder> scheduled = new LinkedHashSet<IndexSearcherHolder>();
+    private boolean shutdown;
+
+    IndexSearcherRefresher( LuceneDataSource dataSource, long interval )
+    {
+        super( "Lucene searcher refresher" );
+        this.dataSource = dataSource;
+        this.interval = interval;
+        setDaemon( true );
+    }
+
+    void schedule( IndexSearcherHolder holder )
+    {
+        if ( !holder.refreshScheduled.compareAndSet( false, true ) )
+        {
+            return;
+        }
+        synchronized ( this )
+        {
+            if ( !shutdown )
+            {
+                scheduled.add( holder );
+                notifyAll();
+            }
+        }
+    }
+
+    synchronized void shutdown()
+    {
+        shutdown = true;
+        scheduled.clear();
+        notifyAll();
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            while ( true )
+            {
+                Collection<IndexSearcherHolder> batch;
+                synchronized ( this )
+                {
+                    while ( scheduled.isEmpty() && !shutdown )
+                    {
+                        wait();
+                    }
+                    if ( shutdown )
+                    {
+                        return;
+                    }
+                    batch = new ArrayList<IndexSearcherHolder>( scheduled );
+                    scheduled.clear();
+                }
+                for ( IndexSearcherHolder holder : batch )
+                {
+                    holder.refreshScheduled.set( false );
+                }
+                dataSource.refreshSearchers( batch );
+                awaitInterval();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void awaitInterval() throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + interval;
+        for ( long left = interval; left > 0 && !shutdown; left = end - System.currentTimeMillis() )
+        {
+            wait( left );
+        }
+    }
+}
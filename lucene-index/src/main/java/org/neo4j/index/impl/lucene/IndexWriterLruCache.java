@@ -22,14 +22,13 @@ package org.neo4j.index.impl.lucene;
 import java.io.IOException;
 
 import org.apache.lucene.index.IndexWriter;
-import org.neo4j.kernel.impl.cache.LruCache;
 
 /**
  * An Lru Cache for Lucene Index Writers.
  *
  * @see LuceneDataSource
  */
-public class IndexWriterLruCache extends LruCache<IndexIdentifier, IndexWriter>
+public class IndexWriterLruCache extends IndexLruCache<IndexWriter>
 {
     /**
      * Creates a LRU cache. If <CODE>maxSize < 1</CODE> an
@@ -39,7 +38,7 @@ public class IndexWriterLruCache extends LruCache<IndexIdentifier, IndexWriter>
      */
     public IndexWriterLruCache( int maxSize )
     {
-        super( "IndexWriterCache", maxSize, null );
+        super( "IndexWriterCache", maxSize );
     }
 
     @Override
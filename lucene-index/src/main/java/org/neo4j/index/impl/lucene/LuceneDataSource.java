@@ -33,7 +33,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.lucene.analysis.Analyzer;
@@ -67,6 +67,7 @@ import org.neo4j.graphdb.index.IndexManager;
 import org.neo4j.helpers.Pair;
 import org.neo4j.helpers.UTF8;
 import org.neo4j.helpers.collection.ClosableIterable;
+import org.neo4j.index.lucene.QueryContext;
 import org.neo4j.kernel.Config;
 import org.neo4j.kernel.impl.cache.LruCache;
 import org.neo4j.kernel.impl.index.IndexProviderStore;
@@ -81,6 +82,7 @@ import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
 import org.neo4j.kernel.impl.transaction.xaframework.XaLogicalLog;
 import org.neo4j.kernel.impl.transaction.xaframework.XaTransaction;
 import org.neo4j.kernel.impl.transaction.xaframework.XaTransactionFactory;
+import org.neo4j.kernel.impl.util.StringLogger;
 
 /**
  * An {@link XaDataSource} optimized for the {@link LuceneIndexImplementation}.
@@ -131,6 +133,9 @@ public class LuceneDataSource extends LogBackedXaDataSource
 
     private final IndexWriterLruCache indexWriters;
     private final IndexSearcherLruCache indexSearchers;
+    private final long searcherMaxStaleness;
+    private final long searcherRefreshInterval;
+    private IndexSearcherRefresher searcherRefresher;
 
     private final XaContainer xaContainer;
     private final String baseStorePath;
@@ -138,13 +143,17 @@ public class LuceneDataSource extends LogBackedXaDataSource
     final IndexStore indexStore;
     final IndexProviderStore providerStore;
     private final IndexTypeCache typeCache;
-    private boolean closed;
+    private volatile boolean closed;
     private final Cache caching;
+    private final QueryResultCache queryResults;
+    private final StringLogger msgLog;
     EntityType nodeEntityType;
     EntityType relationshipEntityType;
     final Map<IndexIdentifier, LuceneIndex<? extends PropertyContainer>> indexes =
             new HashMap<IndexIdentifier, LuceneIndex<? extends PropertyContainer>>();
     private final DirectoryGetter directoryGetter;
+    private final Map<IndexIdentifier, Directory> populatedDirectories =
+            new ConcurrentHashMap<IndexIdentifier, Directory>();
 
     /**
      * Constructs this data source.
@@ -157,11 +166,17 @@ public class LuceneDataSource extends LogBackedXaDataSource
         throws InstantiationException
     {
         super( params );
+        StringLogger logger = (StringLogger) params.get( StringLogger.class );
+        msgLog = logger != null ? logger : StringLogger.SYSTEM;
         int searcherSize = parseInt( params, Config.LUCENE_SEARCHER_CACHE_SIZE );
         indexSearchers = new IndexSearcherLruCache( searcherSize );
+        searcherMaxStaleness = parseLong( params, Config.LUCENE_SEARCHER_MAX_STALENESS );
+        searcherRefreshInterval = parseLong( params, Config.LUCENE_SEARCHER_REFRESH_INTERVAL );
         int writerSize = parseInt( params, Config.LUCENE_WRITER_CACHE_SIZE );
         indexWriters = new IndexWriterLruCache( writerSize );
         caching = new Cache();
+        int queryCacheSize = (int) parseLong( params, Config.LUCENE_QUERY_CACHE_SIZE );
+        queryResults = queryCacheSize > 0 ? new QueryResultCache( queryCacheSize ) : null;
         String storeDir = (String) params.get( "store_dir" );
         this.baseStorePath = getStoreDir( storeDir ).first();
         cleanWriteLocks( baseStorePath );
@@ -242,6 +257,12 @@ public class LuceneDataSource extends LogBackedXaDataSource
         return searcherParam != null ? Integer.parseInt( searcherParam ) : Integer.MAX_VALUE;
     }
 
+    private long parseLong( Map<Object, Object> params, String param )
+    {
+        String value = (String) params.get( param );
+        return value != null ? Long.parseLong( value ) : 0;
+    }
+
     IndexType getType( IndexIdentifier identifier )
     {
         return typeCache.getIndexType( identifier );
@@ -305,11 +326,15 @@ public class LuceneDataSource extends LogBackedXaDataSource
                 return;
             }
             closed = true;
-            for ( Pair<IndexSearcherRef, AtomicBoolean> searcher : indexSearchers.values() )
+            if ( searcherRefresher != null )
+            {
+                searcherRefresher.shutdown();
+            }
+            for ( IndexSearcherHolder searcher : indexSearchers.values() )
             {
                 try
                 {
-                    searcher.first().dispose();
+                    searcher.dispose();
                 }
                 catch ( IOException e )
                 {
@@ -433,37 +458,128 @@ public class LuceneDataSource extends LogBackedXaDataSource
 
     /**
      * If nothing has changed underneath (since the searcher was last created
-     * or refreshed) {@code searcher} is returned. But if something has changed a
-     * refreshed searcher is returned. It makes use if the
-     * {@link IndexReader#openIfChanged(IndexReader, IndexWriter, boolean)} which faster than opening an index from
-     * scratch.
+     * or refreshed) the current searcher of {@code holder} is returned. But if
+     * something has changed a refreshed searcher is returned. It makes use of
+     * {@link IndexReader#openIfChanged(IndexReader, IndexWriter, boolean)}
+     * which is faster than opening an index from scratch. Only searchers of
+     * the same index are blocked while refreshing.
      *
-     * @param searcher the {@link IndexSearcher} to refresh.
-     * @param writer 
-     * @return a refreshed version of the searcher or, if nothing has changed,
-     * {@code null}.
-     * @throws IOException if there's a problem with the index.
+     * @param holder the holder of the {@link IndexSearcher} to refresh.
+     * @return the refreshed searcher, or {@code null} if {@code holder} has
+     * been closed.
+     */
+    private IndexSearcherRef refreshSearcher( IndexSearcherHolder holder )
+    {
+        synchronized ( holder.refreshLock )
+        {
+            IndexSearcherRef searcher = holder.searcher();
+            if ( holder.isClosed() || ( searcher != null && !holder.isStale() ) )
+            {
+                return searcher;
+            }
+            if ( searcher != null && !searcher.tryIncRef() )
+            {
+                return null;
+            }
+            try
+            {
+                long changes = holder.changes();
+                IndexWriter writer = getIndexWriter( holder.identifier );
+                IndexSearcherRef refreshed = searcher;
+                if ( searcher == null )
+                {
+                    IndexReader reader = IndexReader.open( writer, true );
+                    refreshed = new IndexSearcherRef( holder.identifier, new IndexSearcher( reader ) );
+                }
+                else
+                {
+                    IndexReader reader = searcher.getSearcher().getIndexReader();
+                    IndexReader reopened = IndexReader.openIfChanged( reader, writer, true );
+                    if ( reopened != null )
+                    {
+                        refreshed = new IndexSearcherRef( holder.identifier, new IndexSearcher( reopened ) );
+                    }
+                }
+                holder.set( refreshed, changes );
+                return holder.searcher();
+            }
+            catch ( IOException e )
+            {
+                throw new RuntimeException( e );
+            }
+            finally
+            {
+                if ( searcher != null )
+                {
+                    searcher.closeStrict();
+                }
+            }
+        }
+    }
+
+    /**
+     * Refreshes the searchers of {@code holders}, as scheduled by the
+     * {@link IndexSearcherRefresher}.
      */
-    private Pair<IndexSearcherRef, AtomicBoolean> refreshSearcher( Pair<IndexSearcherRef, AtomicBoolean> searcher, IndexWriter writer )
+    void refreshSearchers( Collection<IndexSearcherHolder> holders )
     {
+        // Waits for the commits which made them stale to complete
+        getReadLock();
         try
         {
-            IndexReader reader = searcher.first().getSearcher().getIndexReader();
-            IndexReader reopened = IndexReader.openIfChanged( reader, writer, true );
-            if ( reopened != null )
+            for ( IndexSearcherHolder holder : holders )
             {
-                IndexSearcher newSearcher = new IndexSearcher( reopened );
-                searcher.first().detachOrClose();
-                return Pair.of( new IndexSearcherRef( searcher.first().getIdentifier(), newSearcher ), new AtomicBoolean() );
+                try
+                {
+                    refreshSearcher( holder );
+                }
+                catch ( RuntimeException e )
+                {
+                    // Leave it stale, the next reader refreshes it itself
+                    holder.refreshFailed();
+                    msgLog.logMessage( "Unable to refresh searcher of " + holder.identifier +
+                            " in the background", e, true );
+                }
             }
-            return searcher;
         }
-        catch ( IOException e )
+        finally
         {
-            throw new RuntimeException( e );
+            releaseReadLock();
         }
     }
 
+    /**
+     * Refreshes the searcher of {@code holder} in the background, unless
+     * that has already been scheduled. Until then readers are served the
+     * stale searcher.
+     */
+    private void scheduleRefresh( IndexSearcherHolder holder )
+    {
+        searcherRefresher().schedule( holder );
+    }
+
+    private synchronized IndexSearcherRefresher searcherRefresher()
+    {
+        if ( searcherRefresher == null )
+        {
+            searcherRefresher = new IndexSearcherRefresher( this, searcherRefreshInterval );
+            if ( closed )
+            {
+                searcherRefresher.shutdown();
+            }
+            else
+            {
+                searcherRefresher.start();
+            }
+        }
+        return searcherRefresher;
+    }
+
+    private boolean refreshesInTheBackground()
+    {
+        return searcherRefreshInterval > 0 || searcherMaxStaleness > 0;
+    }
+
     static File getFileDirectory( String storeDir, byte entityType )
     {
         File path = new File( storeDir, "lucene" );
@@ -500,40 +616,65 @@ public class LuceneDataSource extends LogBackedXaDataSource
         return TopFieldCollector.create( sorting, n, false, true, false, true );
     }
 
-    synchronized IndexSearcherRef getIndexSearcher( IndexIdentifier identifier, boolean incRef )
+    /**
+     * Returns the searcher of the index. If searchers are refreshed in the
+     * background, readers, i.e. those who pass {@code incRef} and close it
+     * when done, get the current searcher even if it doesn't yet see the
+     * latest commits, unless it was made stale more than
+     * {@link Config#LUCENE_SEARCHER_MAX_STALENESS} milliseconds ago or its
+     * last background refresh failed. Their own transaction state is
+     * searched separately, so they still see their own changes. Other callers
+     * always get a searcher which sees everything committed.
+     */
+    IndexSearcherRef getIndexSearcher( IndexIdentifier identifier, boolean incRef )
     {
-        try
+        while ( true )
         {
-            Pair<IndexSearcherRef, AtomicBoolean> searcher = indexSearchers.get( identifier );
-            IndexWriter writer = getIndexWriter( identifier );
-            if ( searcher == null )
+            IndexSearcherHolder holder = getSearcherHolder( identifier );
+            IndexSearcherRef searcher = holder.searcher();
+            if ( searcher == null || ( holder.isStale() && !mayBeServedStale( holder, incRef ) ) )
             {
-                IndexReader reader = IndexReader.open( writer, true );
-                IndexSearcher indexSearcher = new IndexSearcher( reader );
-                searcher = Pair.of( new IndexSearcherRef( identifier, indexSearcher ), new AtomicBoolean() );
-                indexSearchers.put( identifier, searcher );
+                searcher = refreshSearcher( holder );
             }
-            else
+            // If null or already released it was evicted from the cache, so try again
+            if ( searcher != null && ( !incRef || searcher.tryIncRef() ) )
             {
-                if ( searcher.other().compareAndSet( true, false ) )
-                {
-                    searcher = refreshSearcher( searcher, writer );
-                    if ( searcher != null )
-                    {
-                        indexSearchers.put( identifier, searcher );
-                    }
-                }
+                return searcher;
             }
-            if ( incRef )
+        }
+    }
+
+    private IndexSearcherHolder getSearcherHolder( IndexIdentifier identifier )
+    {
+        IndexSearcherHolder holder = indexSearchers.get( identifier );
+        if ( holder != null )
+        {
+            return holder;
+        }
+        synchronized ( this )
+        {
+            if ( closed ) throw new IllegalStateException( "Index has been shut down" );
+
+            holder = indexSearchers.get( identifier );
+            if ( holder == null )
             {
-                searcher.first().incRef();
+                holder = new IndexSearcherHolder( identifier );
+                indexSearchers.put( identifier, holder );
             }
-            return searcher.first();
+            return holder;
         }
-        catch ( IOException e )
+    }
+
+    private boolean mayBeServedStale( IndexSearcherHolder holder, boolean incRef )
+    {
+        if ( !incRef || !refreshesInTheBackground() || holder.hasFailedRefresh() ||
+                ( searcherMaxStaleness > 0 &&
+                  System.currentTimeMillis() - holder.staleSince() > searcherMaxStaleness ) )
         {
-            throw new RuntimeException( e );
+            return false;
         }
+        scheduleRefresh( holder );
+        return true;
     }
 
     XaTransaction createTransaction( int identifier,
@@ -542,17 +683,45 @@ public class LuceneDataSource extends LogBackedXaDataSource
         return new LuceneTransaction( identifier, logicalLog, this );
     }
 
-    synchronized void invalidateIndexSearcher( IndexIdentifier identifier )
+    void invalidateIndexSearcher( IndexIdentifier identifier )
     {
-        Pair<IndexSearcherRef, AtomicBoolean> searcher = indexSearchers.get( identifier );
+        IndexSearcherHolder searcher = indexSearchers.get( identifier );
+        if ( queryResults != null )
+        {
+            queryResults.invalidate( identifier );
+        }
         if ( searcher != null )
         {
-            searcher.other().set( true );
+            searcher.changed();
+            if ( refreshesInTheBackground() )
+            {
+                scheduleRefresh( searcher );
+            }
         }
     }
 
+    /**
+     * Returns a new, empty, directory for an index which doesn't exist yet,
+     * to be populated by a {@link LuceneIndexPopulator}. When the index is
+     * created its writer is opened on that directory.
+     */
+    Directory newPopulationDirectory( IndexIdentifier identifier ) throws IOException
+    {
+        deleteFileOrDirectory( getFileDirectory( baseStorePath, identifier ) );
+        Directory directory = directoryGetter.getDirectory( baseStorePath, identifier );
+        populatedDirectories.put( identifier, directory );
+        return directory;
+    }
+
+    void abortPopulation( IndexIdentifier identifier )
+    {
+        populatedDirectories.remove( identifier );
+        deleteFileOrDirectory( getFileDirectory( baseStorePath, identifier ) );
+    }
+
     void deleteIndex( IndexIdentifier identifier, boolean recovery )
     {
+        populatedDirectories.remove( identifier );
         closeWriter( identifier );
         deleteFileOrDirectory( getFileDirectory( baseStorePath, identifier ) );
         invalidateCache( identifier );
@@ -588,7 +757,15 @@ public class LuceneDataSource extends LogBackedXaDataSource
         }
     }
 
-    synchronized IndexWriter getIndexWriter( IndexIdentifier identifier )
+    IndexWriter getIndexWriter( IndexIdentifier identifier )
+    {
+        if ( closed ) throw new IllegalStateException( "Index has been shut down" );
+
+        IndexWriter writer = indexWriters.get( identifier );
+        return writer != null ? writer : createIndexWriter( identifier );
+    }
+
+    private synchronized IndexWriter createIndexWriter( IndexIdentifier identifier )
     {
         if ( closed ) throw new IllegalStateException( "Index has been shut down" );
 
@@ -600,7 +777,11 @@ public class LuceneDataSource extends LogBackedXaDataSource
 
         try
         {
-            Directory dir = directoryGetter.getDirectory( baseStorePath, identifier ); //getDirectory( baseStorePath, identifier );
+            Directory dir = populatedDirectories.remove( identifier );
+            if ( dir == null )
+            {
+                dir = directoryGetter.getDirectory( baseStorePath, identifier );
+            }
             directoryExists( dir );
             IndexType type = getType( identifier );
             IndexWriterConfig writerConfig = new IndexWriterConfig( LUCENE_VERSION, type.analyzer );
@@ -686,11 +867,11 @@ public class LuceneDataSource extends LogBackedXaDataSource
     {
         try
         {
-            Pair<IndexSearcherRef, AtomicBoolean> searcher = indexSearchers.remove( identifier );
+            IndexSearcherHolder searcher = indexSearchers.remove( identifier );
             IndexWriter writer = indexWriters.remove( identifier );
             if ( searcher != null )
             {
-                searcher.first().dispose();
+                searcher.dispose();
             }
             if ( writer != null )
             {
@@ -731,6 +912,44 @@ public class LuceneDataSource extends LogBackedXaDataSource
     void invalidateCache( IndexIdentifier identifier )
     {
         this.caching.disable( identifier );
+        if ( queryResults != null )
+        {
+            queryResults.invalidate( identifier );
+        }
+    }
+
+    /**
+     * @return the cached ids found by {@code query}, or {@code null} if they
+     * aren't cached. Only valid to use with the current searcher of the index,
+     * see {@link #isCurrent(IndexIdentifier, IndexSearcherRef)}.
+     */
+    long[] getQueryResult( IndexIdentifier identifier, Query query, QueryContext contextOrNull )
+    {
+        return queryResults != null ? queryResults.get( identifier, query, contextOrNull ) : null;
+    }
+
+    void putQueryResult( IndexIdentifier identifier, Query query, QueryContext contextOrNull, long[] ids )
+    {
+        if ( queryResults != null )
+        {
+            queryResults.put( identifier, query, contextOrNull, ids );
+        }
+    }
+
+    boolean cachesQueryResults()
+    {
+        return queryResults != null;
+    }
+
+    /**
+     * @return whether or not {@code searcher} is the current searcher of the
+     * index and sees everything committed to it. Must be called with the read
+     * lock held, so that nothing gets committed meanwhile.
+     */
+    boolean isCurrent( IndexIdentifier identifier, IndexSearcherRef searcher )
+    {
+        IndexSearcherHolder holder = indexSearchers.get( identifier );
+        return holder != null && holder.searcher() == searcher && !holder.isStale();
     }
 
     @Override
@@ -279,8 +279,13 @@ public abstract class LuceneIndex<T extends PropertyContainer> implements Index<
 
                 if ( !foundInCache )
                 {
-                    DocToIdIterator searchedIds = new DocToIdIterator( search( searcher,
-                            query, additionalParametersOrNull, additionsSearcher, removedIds ), removedIds, searcher );
+                    IndexHits<Long> searchedIds = additionsSearcher == null ?
+                            searchCached( searcher, query, additionalParametersOrNull, removedIds ) : null;
+                    if ( searchedIds == null )
+                    {
+                        searchedIds = new DocToIdIterator( search( searcher, query,
+                                additionalParametersOrNull, additionsSearcher, removedIds ), removedIds, searcher );
+                    }
                     if ( ids.isEmpty() )
                     {
                         idIterator = searchedIds;
@@ -354,6 +359,55 @@ public abstract class LuceneIndex<T extends PropertyContainer> implements Index<
         return found;
     }
 
+    /**
+     * Searches through the query result cache of the data source, if it has
+     * one and {@code searcherRef} sees everything committed. Results small
+     * enough to be cached are read in full, and {@code searcherRef} is
+     * closed since it isn't needed for iterating them.
+     *
+     * @return the found ids, or {@code null} if the result can't be cached.
+     */
+    private IndexHits<Long> searchCached( IndexSearcherRef searcherRef, Query query,
+            QueryContext additionalParametersOrNull, Collection<Long> removed )
+    {
+        LuceneDataSource dataSource = service.dataSource();
+        if ( !dataSource.cachesQueryResults() || !dataSource.isCurrent( identifier, searcherRef ) )
+        {
+            return null;
+        }
+        long[] cachedIds = dataSource.getQueryResult( identifier, query, additionalParametersOrNull );
+        if ( cachedIds == null )
+        {
+            IndexHits<Document> hits = search( searcherRef, query, additionalParametersOrNull, null, removed );
+            if ( hits.size() > QueryResultCache.MAX_CACHED_HITS )
+            {
+                return new DocToIdIterator( hits, removed, searcherRef );
+            }
+            cachedIds = new long[hits.size()];
+            int count = 0;
+            for ( Document document : hits )
+            {
+                cachedIds[count++] = Long.parseLong( document.get( KEY_DOC_ID ) );
+            }
+            if ( count < cachedIds.length )
+            {
+                cachedIds = Arrays.copyOf( cachedIds, count );
+            }
+            dataSource.putQueryResult( identifier, query, additionalParametersOrNull, cachedIds );
+        }
+        searcherRef.closeStrict();
+
+        List<Long> ids = new ArrayList<Long>( cachedIds.length );
+        for ( long id : cachedIds )
+        {
+            if ( !removed.contains( id ) )
+            {
+                ids.add( id );
+            }
+        }
+        return new ConstantScoreIterator<Long>( ids, Float.NaN );
+    }
+
     private IndexHits<Document> search( IndexSearcherRef searcherRef, Query query,
             QueryContext additionalParametersOrNull, IndexSearcher additionsSearcher, Collection<Long> removed )
     {
@@ -125,6 +125,11 @@ public class LuceneIndexImplementation extends IndexImplementation
 
     @Override
     public Map<String, String> fillInDefaults( Map<String, String> source )
+    {
+        return withDefaults( source );
+    }
+
+    static Map<String, String> withDefaults( Map<String, String> source )
     {
         Map<String, String> result = source != null ?
                 new HashMap<String, String>( source ) : new HashMap<String, String>();
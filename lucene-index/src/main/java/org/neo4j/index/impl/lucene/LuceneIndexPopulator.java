@@ -0,0 +1,478 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import static org.neo4j.index.impl.lucene.LuceneDataSource.LUCENE_VERSION;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.Similarity;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexManager;
+import org.neo4j.kernel.AbstractGraphDatabase;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.impl.util.IoPrimitiveUtils;
+
+/**
+ * Creates a lucene node index from the properties the nodes of a running
+ * database already have, without going through transactions. The nodes are
+ * read in parallel over ranges of ids and their documents are added straight
+ * to an {@link IndexWriter} on the directory of the new index, like a
+ * {@link LuceneBatchInserterIndex} would. The nodes whose properties were
+ * changed by transactions committed in the meantime are then indexed again
+ * by the same writer, committed in batches, until they've caught up. Only
+ * then is the index created, so it's never visible without them.
+ *
+ * Transactions which commit while the index is being created re-index the
+ * nodes they change themselves, before they commit, once the index exists.
+ * Nothing may create an index with the same name while it is populated.
+ */
+public class LuceneIndexPopulator
+{
+    private static final int BATCH_SIZE = 10000;
+    private static final int MAX_CATCH_UP_ROUNDS = 5;
+
+    private final GraphDatabaseService graphDb;
+    private final int threads;
+
+    public LuceneIndexPopulator( GraphDatabaseService graphDb )
+    {
+        this( graphDb, Runtime.getRuntime().availableProcessors() );
+    }
+
+    public LuceneIndexPopulator( GraphDatabaseService graphDb, int threads )
+    {
+        if ( threads < 1 )
+        {
+            throw new IllegalArgumentException( "Illegal number of threads: " + threads );
+        }
+        this.graphDb = graphDb;
+        this.threads = threads;
+    }
+
+    /**
+     * Creates the node index {@code indexName}, which mustn't exist, with
+     * every node indexed by the values of the given property keys.
+     *
+     * @param indexName the name of the index to create.
+     * @param config the configuration of the index, f.ex.
+     * {@link LuceneIndexImplementation#EXACT_CONFIG}.
+     * @param keys the property keys to index the nodes by.
+     * @return the created index.
+     */
+    public Index<Node> populateNodeIndex( String indexName, Map<String, String> config, String... keys )
+    {
+        if ( graphDb.index().existsForNodes( indexName ) )
+        {
+            throw new IllegalArgumentException( "Index '" + indexName + "' already exists" );
+        }
+        String provider = config.get( IndexManager.PROVIDER );
+        if ( provider != null && !provider.equals( LuceneIndexImplementation.SERVICE_NAME ) )
+        {
+            throw new IllegalArgumentException( "Index '" + indexName + "' isn't a lucene index, but " + provider );
+        }
+        Map<String, String> indexConfig = LuceneIndexImplementation.withDefaults( config );
+        indexConfig.put( IndexManager.PROVIDER, LuceneIndexImplementation.SERVICE_NAME );
+
+        LuceneDataSource dataSource = dataSource();
+        IndexIdentifier identifier = new IndexIdentifier( LuceneCommand.NODE, dataSource.nodeEntityType, indexName );
+        IndexType type = IndexType.getIndexType( identifier, indexConfig );
+        ChangedNodes changes = new ChangedNodes( keys );
+        graphDb.registerTransactionEventHandler( changes );
+        IndexWriter writer = null;
+        Index<Node> index = null;
+        try
+        {
+            writer = newWriter( dataSource, identifier, type );
+            populate( writer, identifier, type, keys );
+            for ( int round = 0; round < MAX_CATCH_UP_ROUNDS && changes.hasChanges(); round++ )
+            {
+                catchUp( writer, identifier, type, changes, keys );
+            }
+            changes.stopCollecting();
+            catchUp( writer, identifier, type, changes, keys );
+            writer.close();
+            writer = null;
+            index = graphDb.index().forNodes( indexName, indexConfig );
+            return index;
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( "Unable to populate " + identifier, e );
+        }
+        finally
+        {
+            LuceneUtil.close( writer );
+            changes.indexCreated( index );
+            graphDb.unregisterTransactionEventHandler( changes );
+            if ( index == null )
+            {
+                dataSource.abortPopulation( identifier );
+            }
+        }
+    }
+
+    private LuceneDataSource dataSource()
+    {
+        if ( !( graphDb instanceof AbstractGraphDatabase ) )
+        {
+            throw new IllegalArgumentException( graphDb + " isn't a local database" );
+        }
+        Config config = ((AbstractGraphDatabase) graphDb).getConfig();
+        LuceneDataSource dataSource = (LuceneDataSource) config.getTxModule().getXaDataSourceManager()
+                .getXaDataSource( LuceneDataSource.DEFAULT_NAME );
+        if ( dataSource == null )
+        {
+            throw new IllegalStateException( "The lucene index provider isn't loaded in " + graphDb );
+        }
+        return dataSource;
+    }
+
+    private void populate( final IndexWriter target, final IndexIdentifier identifier, final IndexType type,
+            final String[] keys ) throws IOException
+    {
+        final AtomicLong nextId = new AtomicLong();
+        final long highId = ((AbstractGraphDatabase) graphDb).getConfig().getGraphDbModule()
+                .getNodeManager().getHighestPossibleIdInUse( Node.class );
+        ExecutorService executor = Executors.newFixedThreadPool( threads, new ThreadFactory()
+        {
+            private int threadNumber;
+
+            public synchronized Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "Index populator " + identifier.indexName + "-" + threadNumber++ );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+        try
+        {
+            List<Future<Void>> scans = new ArrayList<Future<Void>>();
+            for ( int i = 0; i < threads; i++ )
+            {
+                scans.add( executor.submit( new Callable<Void>()
+                {
+                    public Void call() throws IOException
+                    {
+                        for ( long start = nextId.getAndAdd( BATCH_SIZE ); start <= highId;
+                                start = nextId.getAndAdd( BATCH_SIZE ) )
+                        {
+                            long end = Math.min( start + BATCH_SIZE, highId + 1 );
+                            for ( long id = start; id < end; id++ )
+                            {
+                                Document document = newDocument( identifier, type, id, keys );
+                                if ( document != null )
+                                {
+                                    target.addDocument( document );
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                } ) );
+            }
+            for ( Future<Void> scan : scans )
+            {
+                await( scan );
+            }
+            target.commit();
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private IndexWriter newWriter( LuceneDataSource dataSource, IndexIdentifier identifier, IndexType type )
+            throws IOException
+    {
+        IndexWriterConfig writerConfig = new IndexWriterConfig( LUCENE_VERSION, type.analyzer );
+        Similarity similarity = type.getSimilarity();
+        if ( similarity != null )
+        {
+            writerConfig.setSimilarity( similarity );
+        }
+        double heapHint = Runtime.getRuntime().maxMemory() / ( 1024 * 1024 * 14 );
+        writerConfig.setRAMBufferSizeMB( Math.min( Math.max( writerConfig.getRAMBufferSizeMB(), heapHint ), 700 ) );
+        return new IndexWriter( dataSource.newPopulationDirectory( identifier ), writerConfig );
+    }
+
+    private Document newDocument( IndexIdentifier identifier, IndexType type, long nodeId, String[] keys )
+    {
+        Node node;
+        try
+        {
+            node = graphDb.getNodeById( nodeId );
+        }
+        catch ( NotFoundException e )
+        {
+            return null;
+        }
+        Document document = null;
+        for ( String key : keys )
+        {
+            Object value = node.getProperty( key, null );
+            if ( value == null )
+            {
+                continue;
+            }
+            if ( document == null )
+            {
+                document = identifier.entityType.newDocument( nodeId );
+            }
+            for ( Object oneValue : IoPrimitiveUtils.asArray( value ) )
+            {
+                type.addToDocument( document, key, oneValue.toString() );
+            }
+        }
+        return document;
+    }
+
+    private void await( Future<Void> scan )
+    {
+        try
+        {
+            scan.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( "Interrupted while populating index", e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof RuntimeException )
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException( e.getCause() );
+        }
+    }
+
+    /**
+     * Indexes the nodes changed during the population again, with the
+     * values they have now, committing the writer every {@link #BATCH_SIZE}
+     * nodes. Deleted nodes are only removed.
+     */
+    private void catchUp( IndexWriter writer, IndexIdentifier identifier, IndexType type, ChangedNodes changes,
+            String[] keys ) throws IOException
+    {
+        int inBatch = 0;
+        for ( Long nodeId : changes.takeChanges() )
+        {
+            writer.deleteDocuments( type.idTerm( nodeId ) );
+            Document document = newDocument( identifier, type, nodeId, keys );
+            if ( document != null )
+            {
+                writer.addDocument( document );
+            }
+            if ( ++inBatch == BATCH_SIZE )
+            {
+                writer.commit();
+                inBatch = 0;
+            }
+        }
+        writer.commit();
+    }
+
+    /**
+     * Collects the nodes which get an indexed property set or removed, or
+     * are deleted, while the index is being populated. When it stops
+     * collecting, the transactions which commit such changes wait for the
+     * index to be created and then index the nodes themselves.
+     */
+    private static class ChangedNodes implements TransactionEventHandler<Boolean>
+    {
+        private final String[] keys;
+        private final Set<String> keySet;
+        private final Map<Long, Boolean> nodes = new ConcurrentHashMap<Long, Boolean>();
+        private final AtomicInteger collecting = new AtomicInteger();
+        private final CountDownLatch created = new CountDownLatch( 1 );
+        private volatile boolean stopped;
+        private volatile Index<Node> index;
+
+        ChangedNodes( String[] keys )
+        {
+            this.keys = keys;
+            this.keySet = new HashSet<String>( Arrays.asList( keys ) );
+        }
+
+        boolean hasChanges()
+        {
+            return !nodes.isEmpty();
+        }
+
+        Collection<Long> takeChanges()
+        {
+            Collection<Long> changes = new ArrayList<Long>();
+            for ( Iterator<Long> ids = nodes.keySet().iterator(); ids.hasNext(); )
+            {
+                changes.add( ids.next() );
+                ids.remove();
+            }
+            return changes;
+        }
+
+        /**
+         * Stops collecting changes, and waits for the transactions
+         * which will still have theirs collected to commit.
+         */
+        void stopCollecting()
+        {
+            stopped = true;
+            while ( collecting.get() > 0 )
+            {
+                try
+                {
+                    Thread.sleep( 1 );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException( "Interrupted while populating index", e );
+                }
+            }
+        }
+
+        /**
+         * Lets the waiting transactions commit, indexing their nodes in
+         * {@code index}, or without doing so if it's {@code null} because
+         * the population failed.
+         */
+        void indexCreated( Index<Node> index )
+        {
+            this.index = index;
+            stopped = true;
+            created.countDown();
+        }
+
+        public Boolean beforeCommit( TransactionData data ) throws Exception
+        {
+            Set<Node> changed = changedNodes( data );
+            if ( changed.isEmpty() )
+            {
+                return null;
+            }
+            collecting.incrementAndGet();
+            if ( !stopped )
+            {
+                return Boolean.TRUE;
+            }
+            collecting.decrementAndGet();
+            created.await();
+            if ( index != null )
+            {
+                reindex( changed, data );
+            }
+            return null;
+        }
+
+        private void reindex( Set<Node> changed, TransactionData data )
+        {
+            Set<Node> deleted = new HashSet<Node>();
+            for ( Node node : data.deletedNodes() )
+            {
+                deleted.add( node );
+            }
+            for ( Node node : changed )
+            {
+                for ( String key : keys )
+                {
+                    index.remove( node, key );
+                    Object value = deleted.contains( node ) ? null : node.getProperty( key, null );
+                    if ( value != null )
+                    {
+                        index.add( node, key, value );
+                    }
+                }
+            }
+        }
+
+        private Set<Node> changedNodes( TransactionData data )
+        {
+            Set<Node> changed = new HashSet<Node>();
+            addAll( changed, data.assignedNodeProperties() );
+            addAll( changed, data.removedNodeProperties() );
+            for ( Node node : data.deletedNodes() )
+            {
+                changed.add( node );
+            }
+            return changed;
+        }
+
+        private void addAll( Set<Node> changed, Iterable<PropertyEntry<Node>> entries )
+        {
+            for ( PropertyEntry<Node> entry : entries )
+            {
+                if ( keySet.contains( entry.key() ) )
+                {
+                    changed.add( entry.entity() );
+                }
+            }
+        }
+
+        public void afterCommit( TransactionData data, Boolean collect )
+        {
+            if ( collect != null )
+            {
+                for ( Node node : changedNodes( data ) )
+                {
+                    nodes.put( node.getId(), Boolean.TRUE );
+                }
+                collecting.decrementAndGet();
+            }
+        }
+
+        public void afterRollback( TransactionData data, Boolean collect )
+        {
+            if ( collect != null )
+            {
+                collecting.decrementAndGet();
+            }
+        }
+    }
+}
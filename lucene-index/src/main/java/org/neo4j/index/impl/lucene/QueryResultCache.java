@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.neo4j.index.lucene.QueryContext;
+import org.neo4j.kernel.impl.cache.LruCache;
+
+/**
+ * Caches the ids found by queries as arrays, in one {@link LruCache} per
+ * index, so that queries on different indexes don't contend. The cache of
+ * an index is dropped when something is committed to it.
+ *
+ * @see LuceneDataSource#getQueryResult(IndexIdentifier, Query, QueryContext)
+ */
+class QueryResultCache
+{
+    /**
+     * Results with more hits than this aren't cached, since they would have
+     * to be read in full when only a few of them may be used.
+     */
+    static final int MAX_CACHED_HITS = 1000;
+
+    private final int sizePerIndex;
+    private final ConcurrentMap<IndexIdentifier, LruCache<Key, long[]>> caches =
+            new ConcurrentHashMap<IndexIdentifier, LruCache<Key, long[]>>();
+
+    QueryResultCache( int sizePerIndex )
+    {
+        this.sizePerIndex = sizePerIndex;
+    }
+
+    long[] get( IndexIdentifier identifier, Query query, QueryContext contextOrNull )
+    {
+        LruCache<Key, long[]> cache = caches.get( identifier );
+        return cache != null ? cache.get( new Key( query, contextOrNull ) ) : null;
+    }
+
+    void put( IndexIdentifier identifier, Query query, QueryContext contextOrNull, long[] ids )
+    {
+        LruCache<Key, long[]> cache = caches.get( identifier );
+        if ( cache == null )
+        {
+            LruCache<Key, long[]> newCache = new LruCache<Key, long[]>( "Query cache " + identifier,
+                    sizePerIndex, null );
+            cache = caches.putIfAbsent( identifier, newCache );
+            cache = cache != null ? cache : newCache;
+        }
+        // The query may be changed by whoever made it, so the key gets a copy
+        cache.put( new Key( (Query) query.clone(), contextOrNull ), ids );
+    }
+
+    void invalidate( IndexIdentifier identifier )
+    {
+        caches.remove( identifier );
+    }
+
+    private static final class Key
+    {
+        private final Query query;
+        private final Sort sorting;
+        private final int top;
+
+        Key( Query query, QueryContext contextOrNull )
+        {
+            this.query = query;
+            this.sorting = contextOrNull != null ? contextOrNull.getSorting() : null;
+            this.top = contextOrNull != null ? contextOrNull.getTop() : 0;
+        }
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( !( obj instanceof Key ) )
+            {
+                return false;
+            }
+            Key other = (Key) obj;
+            return top == other.top && query.equals( other.query ) &&
+                    ( sorting == null ? other.sorting == null : sorting.equals( other.sorting ) );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = query.hashCode();
+            result = 31 * result + ( sorting != null ? sorting.hashCode() : 0 );
+            return 31 * result + top;
+        }
+    }
+}
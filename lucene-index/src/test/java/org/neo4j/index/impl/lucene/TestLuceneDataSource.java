@@ -174,6 +174,144 @@ public class TestLuceneDataSource
         assertFalse( IndexWriterAccessor.isClosed( newFooIndexWriter ) );
     }
 
+    @Test
+    public void testSearcherInUseIsClosedWhenReleasedAfterRefresh() throws Exception
+    {
+        dataSource = new LuceneDataSource( config() );
+        IndexIdentifier identifier = identifier( "foo" );
+        IndexSearcherRef searcher = dataSource.getIndexSearcher( identifier, true );
+        addDocument( identifier );
+        IndexSearcherRef refreshed = dataSource.getIndexSearcher( identifier, false );
+        assertNotSame( searcher, refreshed );
+        assertFalse( searcher.isClosed() );
+        assertTrue( searcher.close() );
+        assertTrue( searcher.isClosed() );
+        assertFalse( refreshed.isClosed() );
+    }
+
+    @Test
+    public void testStaleSearcherIsServedWhileRefreshedInTheBackground() throws Exception
+    {
+        Map<Object, Object> config = config();
+        config.put( Config.LUCENE_SEARCHER_MAX_STALENESS, "60000" );
+        dataSource = new LuceneDataSource( config );
+        IndexIdentifier identifier = identifier( "foo" );
+        IndexSearcherRef stale = dataSource.getIndexSearcher( identifier, false );
+
+        // The background refresh waits for the write lock, like it would for a commit
+        dataSource.getWriteLock();
+        try
+        {
+            addDocument( identifier );
+            IndexSearcherRef searcher = dataSource.getIndexSearcher( identifier, true );
+            assertSame( stale, searcher );
+            searcher.close();
+        }
+        finally
+        {
+            dataSource.releaseWriteLock();
+        }
+
+        awaitRefresh( identifier, stale );
+        assertTrue( stale.isClosed() );
+    }
+
+    @Test
+    public void testChangesInBetweenBackgroundRefreshesAreSeenTogether() throws Exception
+    {
+        Map<Object, Object> config = config();
+        config.put( Config.LUCENE_SEARCHER_REFRESH_INTERVAL, "50" );
+        dataSource = new LuceneDataSource( config );
+        IndexIdentifier identifier = identifier( "foo" );
+        IndexSearcherRef stale = dataSource.getIndexSearcher( identifier, false );
+
+        dataSource.getWriteLock();
+        try
+        {
+            for ( int i = 0; i < 10; i++ )
+            {
+                addDocument( identifier, i );
+            }
+            // Readers never wait for a refresh
+            IndexSearcherRef searcher = dataSource.getIndexSearcher( identifier, true );
+            assertSame( stale, searcher );
+            searcher.close();
+        }
+        finally
+        {
+            dataSource.releaseWriteLock();
+        }
+
+        IndexSearcherRef refreshed = awaitRefresh( identifier, stale );
+        assertEquals( 10, refreshed.getSearcher().getIndexReader().numDocs() );
+    }
+
+    @Test
+    public void testFailedBackgroundRefreshIsLoggedAndLeftToTheNextReader() throws Exception
+    {
+        StringBuffer messages = new StringBuffer();
+        Map<Object, Object> config = config();
+        config.put( Config.LUCENE_SEARCHER_REFRESH_INTERVAL, "50" );
+        config.put( StringLogger.class, StringLogger.wrap( messages ) );
+        dataSource = new LuceneDataSource( config );
+        IndexIdentifier identifier = identifier( "foo" );
+        IndexSearcherRef stale = dataSource.getIndexSearcher( identifier, false );
+
+        dataSource.getWriteLock();
+        try
+        {
+            addDocument( identifier );
+            // Makes the reopen fail once the refresher gets the read lock
+            dataSource.getIndexWriter( identifier ).close();
+        }
+        finally
+        {
+            dataSource.releaseWriteLock();
+        }
+
+        long end = System.currentTimeMillis() + 10000;
+        while ( messages.indexOf( "Unable to refresh searcher" ) == -1 && System.currentTimeMillis() < end )
+        {
+            Thread.sleep( 10 );
+        }
+        assertTrue( messages.toString(), messages.indexOf( "Unable to refresh searcher" ) != -1 );
+        assertFalse( stale.isClosed() );
+
+        // Not served the stale searcher again, but refreshes it itself
+        try
+        {
+            dataSource.getIndexSearcher( identifier, true ).close();
+            fail( "Should have tried to reopen the searcher" );
+        }
+        catch ( RuntimeException e ) { /* Good */ }
+    }
+
+    private IndexSearcherRef awaitRefresh( IndexIdentifier identifier, IndexSearcherRef stale )
+            throws Exception
+    {
+        long end = System.currentTimeMillis() + 10000;
+        IndexSearcherRef searcher = stale;
+        while ( searcher == stale && System.currentTimeMillis() < end )
+        {
+            Thread.sleep( 10 );
+            searcher = dataSource.getIndexSearcher( identifier, true );
+            searcher.close();
+        }
+        assertNotSame( stale, searcher );
+        return searcher;
+    }
+
+    private void addDocument( IndexIdentifier identifier ) throws IOException
+    {
+        addDocument( identifier, 1 );
+    }
+
+    private void addDocument( IndexIdentifier identifier, long entityId ) throws IOException
+    {
+        dataSource.getIndexWriter( identifier ).addDocument( IndexType.newBaseDocument( entityId ) );
+        dataSource.invalidateIndexSearcher( identifier );
+    }
+
     @Ignore( "No longer valid since Lucene 3.5" )
     @Test
     public void testInvalidatingSearcherCreatesANewOne() throws InstantiationException
@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.neo4j.helpers.collection.IteratorUtil.asCollection;
+import static org.neo4j.index.impl.lucene.LuceneIndexImplementation.EXACT_CONFIG;
+import static org.neo4j.index.impl.lucene.LuceneIndexImplementation.FULLTEXT_CONFIG;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.kernel.impl.util.IoPrimitiveUtils;
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+public class TestLuceneIndexPopulator
+{
+    private GraphDatabaseService graphDb;
+    private final List<Node> nodes = new ArrayList<Node>();
+
+    @Before
+    public void startDb()
+    {
+        graphDb = new ImpermanentGraphDatabase();
+        Transaction tx = graphDb.beginTx();
+        try
+        {
+            for ( int i = 0; i < 25000; i++ )
+            {
+                Node node = graphDb.createNode();
+                node.setProperty( "name", "node " + ( i % 100 ) );
+                if ( i % 2 == 0 )
+                {
+                    node.setProperty( "tags", new String[] { "even", "tag" + ( i % 3 ) } );
+                }
+                nodes.add( node );
+            }
+            for ( int i = 0; i < 1000; i++ )
+            {
+                nodes.remove( nodes.size() - 1 - i * 10 ).delete();
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    @After
+    public void stopDb()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void populatesIndexFromExistingNodes() throws Exception
+    {
+        Index<Node> index = new LuceneIndexPopulator( graphDb, 4 ).populateNodeIndex(
+                "people", EXACT_CONFIG, "name", "tags" );
+        assertEquals( asSet( expected( "name", "node 42" ) ), asSet( index.get( "name", "node 42" ) ) );
+        assertEquals( asSet( expected( "tags", "tag1" ) ), asSet( index.get( "tags", "tag1" ) ) );
+        assertEquals( 0, index.get( "name", "node 100" ).size() );
+    }
+
+    @Test
+    public void populatedIndexIsUsableAsAnyOther() throws Exception
+    {
+        Index<Node> index = new LuceneIndexPopulator( graphDb, 2 ).populateNodeIndex(
+                "fulltext", FULLTEXT_CONFIG, "name" );
+        assertEquals( FULLTEXT_CONFIG.get( "type" ), graphDb.index().getConfiguration( index ).get( "type" ) );
+        assertEquals( expected( "name", "node 7" ).size(), index.query( "name", "\"NODE 7\"" ).size() );
+
+        Transaction tx = graphDb.beginTx();
+        try
+        {
+            Node node = nodes.get( 7 );
+            index.remove( node, "name", "node 7" );
+            index.add( node, "name", "something else" );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        assertEquals( nodes.get( 7 ), index.query( "name", "something" ).getSingle() );
+        assertEquals( expected( "name", "node 7" ).size() - 1, index.query( "name", "\"NODE 7\"" ).size() );
+    }
+
+    @Test
+    public void nodesWithoutThePropertiesAreNotIndexed() throws Exception
+    {
+        Index<Node> index = new LuceneIndexPopulator( graphDb ).populateNodeIndex(
+                "tags", EXACT_CONFIG, "tags" );
+        assertNull( index.get( "name", "node 1" ).getSingle() );
+        assertEquals( asSet( expected( "tags", "even" ) ), asSet( index.get( "tags", "even" ) ) );
+    }
+
+    @Test
+    public void catchesUpWithNodesChangedWhilePopulating() throws Exception
+    {
+        final AtomicBoolean populating = new AtomicBoolean( true );
+        Thread changer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                // Once the index exists, changes are for the committer to index
+                for ( int i = 0; populating.get() && !graphDb.index().existsForNodes( "people" );
+                        i = ( i + 1 ) % nodes.size() )
+                {
+                    Transaction tx = graphDb.beginTx();
+                    try
+                    {
+                        nodes.get( i ).setProperty( "name", "changed " + ( i % 100 ) );
+                        tx.success();
+                    }
+                    finally
+                    {
+                        tx.finish();
+                    }
+                }
+            }
+        };
+        changer.start();
+        Index<Node> index;
+        try
+        {
+            index = new LuceneIndexPopulator( graphDb, 2 ).populateNodeIndex( "people", EXACT_CONFIG, "name" );
+        }
+        finally
+        {
+            populating.set( false );
+            changer.join();
+        }
+        for ( String value : new String[] { "node 42", "changed 42" } )
+        {
+            assertEquals( asSet( expected( "name", value ) ), asSet( index.get( "name", value ) ) );
+        }
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void existingIndexIsNotPopulated() throws Exception
+    {
+        Transaction tx = graphDb.beginTx();
+        try
+        {
+            graphDb.index().forNodes( "existing" );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        new LuceneIndexPopulator( graphDb ).populateNodeIndex( "existing", EXACT_CONFIG, "name" );
+    }
+
+    private static Set<Node> asSet( Iterable<Node> nodes )
+    {
+        return new HashSet<Node>( asCollection( nodes ) );
+    }
+
+    private List<Node> expected( String key, String value )
+    {
+        List<Node> result = new ArrayList<Node>();
+        for ( Node node : nodes )
+        {
+            for ( Object oneValue : IoPrimitiveUtils.asArray(
+                    node.getProperty( key, new String[0] ) ) )
+            {
+                if ( oneValue.equals( value ) )
+                {
+                    result.add( node );
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.index.lucene.QueryContext;
+import org.neo4j.kernel.Config;
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+public class TestQueryResultCache
+{
+    private static final IndexIdentifier INDEX = new IndexIdentifier( LuceneCommand.NODE, null, "index" );
+    private static final IndexIdentifier OTHER_INDEX = new IndexIdentifier( LuceneCommand.NODE, null, "other" );
+
+    @Test
+    public void resultsAreFoundByEqualQueries() throws Exception
+    {
+        QueryResultCache cache = new QueryResultCache( 10 );
+        cache.put( INDEX, termQuery( "name", "a" ), null, new long[] { 1, 2 } );
+        assertArrayEquals( new long[] { 1, 2 }, cache.get( INDEX, termQuery( "name", "a" ), null ) );
+        assertNull( cache.get( INDEX, termQuery( "name", "b" ), null ) );
+        assertNull( cache.get( OTHER_INDEX, termQuery( "name", "a" ), null ) );
+        assertNull( cache.get( INDEX, termQuery( "name", "a" ), new QueryContext( "a" ).sort( "name" ) ) );
+        assertNull( cache.get( INDEX, termQuery( "name", "a" ), new QueryContext( "a" ).top( 1 ) ) );
+    }
+
+    @Test
+    public void changingTheQueryAfterwardsDoesNotChangeTheKey() throws Exception
+    {
+        QueryResultCache cache = new QueryResultCache( 10 );
+        BooleanQuery query = new BooleanQuery();
+        query.add( termQuery( "name", "a" ), Occur.SHOULD );
+        cache.put( INDEX, query, null, new long[] { 1 } );
+        query.setBoost( 2 );
+        assertNull( cache.get( INDEX, query, null ) );
+    }
+
+    @Test
+    public void invalidatingAnIndexOnlyDropsItsResults() throws Exception
+    {
+        QueryResultCache cache = new QueryResultCache( 10 );
+        cache.put( INDEX, termQuery( "name", "a" ), null, new long[] { 1 } );
+        cache.put( OTHER_INDEX, termQuery( "name", "a" ), null, new long[] { 2 } );
+        cache.invalidate( INDEX );
+        assertNull( cache.get( INDEX, termQuery( "name", "a" ), null ) );
+        assertArrayEquals( new long[] { 2 }, cache.get( OTHER_INDEX, termQuery( "name", "a" ), null ) );
+    }
+
+    @Test
+    public void cachedQueriesSeeCommitsAndTransactionState() throws Exception
+    {
+        GraphDatabaseService db = new ImpermanentGraphDatabase( stringMap( Config.LUCENE_QUERY_CACHE_SIZE, "10" ) );
+        try
+        {
+            Transaction tx = db.beginTx();
+            Index<Node> index = db.index().forNodes( "fulltext", LuceneIndexImplementation.FULLTEXT_CONFIG );
+            Node first = db.createNode();
+            index.add( first, "name", "Mattias Persson" );
+            tx.success();
+            tx.finish();
+            assertEquals( first, index.query( "name", "persson" ).getSingle() );
+            assertEquals( first, index.query( "name", "persson" ).getSingle() );
+
+            tx = db.beginTx();
+            Node second = db.createNode();
+            index.add( second, "name", "Johan Persson" );
+            tx.success();
+            tx.finish();
+            assertEquals( 2, index.query( "name", "persson" ).size() );
+
+            tx = db.beginTx();
+            index.remove( first );
+            assertEquals( second, index.query( "name", "persson" ).getSingle() );
+            tx.finish();
+            assertEquals( 2, index.query( "name", "persson" ).size() );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    private static Query termQuery( String key, String value )
+    {
+        return new TermQuery( new Term( key, value ) );
+    }
+}
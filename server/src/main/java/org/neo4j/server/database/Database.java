@@ -22,6 +22,7 @@ package org.neo4j.server.database;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.neo4j.cypher.javacompat.ExecutionEngine;
 import org.neo4j.ext.udc.UdcProperties;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
@@ -43,6 +44,7 @@ public class Database
     private final String databaseStoreDirectory;
     private RrdDb rrdDb;
     private final StatisticCollector statisticCollector = new StatisticCollector();
+    private ExecutionEngine executionEngine;
 
     public Database( AbstractGraphDatabase db )
     {
@@ -169,6 +171,19 @@ public class Database
         return statisticCollector;
     }
 
+    /**
+     * The Cypher execution engine is shared by all requests, so that a query
+     * is parsed and planned once and then served from the engine's plan cache.
+     */
+    public synchronized ExecutionEngine getExecutionEngine()
+    {
+        if ( executionEngine == null )
+        {
+            executionEngine = new ExecutionEngine( graph );
+        }
+        return executionEngine;
+    }
+
     public StringLogger getStringLogger()
     {
         return graph.getMessageLog();
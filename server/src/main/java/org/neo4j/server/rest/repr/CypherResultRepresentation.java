@@ -66,7 +66,7 @@ public class CypherResultRepresentation extends ObjectRepresentation
         return new ListRepresentation( "data", rows );
     }
 
-    private Representation getRepresentation( Object r )
+    Representation getRepresentation( Object r )
     {
         if(r == null ) {
             return ValueRepresentation.string( null );
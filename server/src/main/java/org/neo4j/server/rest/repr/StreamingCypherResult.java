@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.rest.repr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.neo4j.cypher.javacompat.ExecutionResult;
+
+/**
+ * Writes a Cypher result as JSON straight to the response, one row at a time,
+ * instead of rendering the whole result into a string first. Cypher produces
+ * the rows lazily, so each row is computed as it's written. The output has
+ * the same structure as {@link CypherResultRepresentation}, each value is
+ * serialized by the given output format.
+ */
+public class StreamingCypherResult implements StreamingOutput
+{
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final ExecutionResult result;
+    private final OutputFormat output;
+
+    public StreamingCypherResult( ExecutionResult result, OutputFormat output )
+    {
+        this.result = result;
+        this.output = output;
+    }
+
+    public void write( OutputStream stream ) throws IOException
+    {
+        CypherResultRepresentation values = new CypherResultRepresentation( result );
+        List<String> columns = result.columns();
+
+        JsonGenerator generator = JSON_FACTORY.createJsonGenerator( stream, JsonEncoding.UTF8 );
+        try
+        {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart( "columns" );
+            for ( String column : columns )
+            {
+                generator.writeString( column );
+            }
+            generator.writeEndArray();
+
+            generator.writeArrayFieldStart( "data" );
+            for ( Map<String, Object> row : result )
+            {
+                generator.writeStartArray();
+                for ( String column : columns )
+                {
+                    generator.writeRawValue( output.format( values.getRepresentation( row.get( column ) ) ) );
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        finally
+        {
+            generator.close();
+        }
+    }
+}
@@ -22,9 +22,11 @@ package org.neo4j.server.rest.web;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import org.neo4j.cypher.javacompat.ExecutionEngine;
@@ -34,12 +36,14 @@ import org.neo4j.server.rest.repr.BadInputException;
 import org.neo4j.server.rest.repr.CypherResultRepresentation;
 import org.neo4j.server.rest.repr.InputFormat;
 import org.neo4j.server.rest.repr.OutputFormat;
+import org.neo4j.server.rest.repr.StreamingCypherResult;
 
 @Path( "/cypher" )
 public class CypherService {
 
     private static final String PARAMS_KEY = "params";
     private static final String QUERY_KEY = "query";
+    public static final String STREAM_HEADER = "X-Stream";
 
     private ExecutionEngine executionEngine;
     private OutputFormat output;
@@ -47,14 +51,14 @@ public class CypherService {
 
     public CypherService(@Context Database database, @Context InputFormat input,
             @Context OutputFormat output) {
-        this.executionEngine = new ExecutionEngine(database.graph);
+        this.executionEngine = database.getExecutionEngine();
         this.input = input;
         this.output = output;
     }
     
     @POST
     @SuppressWarnings({ "unchecked" })
-    public Response cypher(String body) throws BadInputException {
+    public Response cypher(String body, @HeaderParam(STREAM_HEADER) String stream) throws BadInputException {
         Map<String,Object> command = input.readMap( body );
         
         if( !command.containsKey(QUERY_KEY) ) {
@@ -65,10 +69,19 @@ public class CypherService {
         Map<String,Object> params = (Map<String, Object>) (command.containsKey(PARAMS_KEY) ? command.get(PARAMS_KEY) : new HashMap<String, Object>());
         try {
             ExecutionResult result = executionEngine.execute(  query, params );
+            if (isStreaming(stream)) {
+                // The rows are produced while streaming, so errors in producing the first one still make a bad request
+                result.iterator().hasNext();
+                return output.ok(new StreamingCypherResult( result, output ));
+            }
             return output.ok(new CypherResultRepresentation( result ));
         } catch(Exception e) {
             return output.badRequest(e);
         }
     }
+
+    private boolean isStreaming(String stream) {
+        return "true".equalsIgnoreCase(stream) && MediaType.APPLICATION_JSON_TYPE.isCompatible(output.getMediaType());
+    }
     
 }
@@ -20,6 +20,7 @@
 package org.neo4j.server.database;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.neo4j.helpers.collection.MapUtil.stringMap;
 import static org.neo4j.kernel.Config.ENABLE_REMOTE_SHELL;
@@ -125,6 +126,12 @@ public class DatabaseTest
         FileUtils.forceDelete( tempDir );
     }
 
+    @Test
+    public void shouldShareOneCypherExecutionEngine()
+    {
+        assertSame( theDatabase.getExecutionEngine(), theDatabase.getExecutionEngine() );
+    }
+
     private int findFreeShellPortToUse( int startingPort )
     {
         // Make sure there's no other random stuff on that port
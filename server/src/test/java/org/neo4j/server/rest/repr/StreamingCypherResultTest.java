@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.rest.repr;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.cypher.javacompat.ExecutionEngine;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.server.rest.domain.JsonHelper;
+import org.neo4j.server.rest.repr.formats.JsonFormat;
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+public class StreamingCypherResultTest
+{
+    private static final String QUERY = "start n=node(0,{id}) return n, n.name?, ID(n)";
+
+    private ImpermanentGraphDatabase db;
+    private ExecutionEngine engine;
+    private OutputFormat json;
+    private Node node;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        db = new ImpermanentGraphDatabase();
+        engine = new ExecutionEngine( db );
+        json = new OutputFormat( new JsonFormat(), new URI( "http://localhost/" ), null );
+
+        Transaction tx = db.beginTx();
+        node = db.createNode();
+        node.setProperty( "name", "streamed" );
+        tx.success();
+        tx.finish();
+    }
+
+    @After
+    public void tearDown()
+    {
+        db.shutdown();
+    }
+
+    @Test
+    public void shouldStreamTheSameJsonAsTheRepresentation() throws Exception
+    {
+        Map<String, Object> params = MapUtil.map( "id", node.getId() );
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        new StreamingCypherResult( engine.execute( QUERY, params ), json ).write( streamed );
+        String formatted = json.format( new CypherResultRepresentation( engine.execute( QUERY, params ) ) );
+
+        assertEquals( JsonHelper.jsonToMap( formatted ), JsonHelper.jsonToMap( streamed.toString( "UTF-8" ) ) );
+    }
+}